@@ -0,0 +1,212 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.mp3transform.StreamDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the stages of the layer III decode pipeline over generated
+ * fixtures. One operation is one frame: each invocation processes the whole
+ * fixture, and the per-invocation setup (creating the stream and decoder) is
+ * not measured. Run with <code>./gradlew jmh</code>; the gc profiler reports
+ * the bytes allocated per frame as gc.alloc.rate.norm.
+ * <ul>
+ * <li>readFrame: frame sync, header and side info parsing only</li>
+ * <li>decodeFrame: readFrame plus Layer3Decoder.decodeFrame, including the
+ * synthesis filters, using the given precision</li>
+ * <li>calculatePcmSamples: the synthesis filters alone, called as often per
+ * frame as when decoding the fixture</li>
+ * <li>endToEnd: StreamDecoder.decodeFrame into a caller provided array</li>
+ * <li>endToEndPipelined: the same, with the frames read and Huffman decoded
+ * in a second thread</li>
+ * </ul>
+ * On Java 16 and newer, the benchmarks use the SIMD synthesis (see
+ * SimdSynthesis); pass <code>-Pscalar</code> to compare with the scalar
+ * synthesis.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    static final int FRAMES = 1000;
+
+    @Param({ "mono", "joint", "lsf", "mpeg25", "vbr" })
+    String fixture;
+
+    @Param({ "DOUBLE", "FLOAT", "FIXED" })
+    Precision precision;
+
+    private byte[] data;
+    private int frameCount;
+    private int blocksPerFrame;
+    private int channels;
+    private double[][] subbandSamples;
+    private float[][] floatSubbandSamples;
+    private int[][] fixedSubbandSamples;
+
+    private Bitstream stream;
+    private Layer3Decoder layer3;
+    private SynthesisFilter filter1, filter2;
+    private FloatSynthesisFilter floatFilter1, floatFilter2;
+    private FixedSynthesisFilter fixedFilter1, fixedFilter2;
+    private SampleBuffer output;
+    private StreamDecoder decoder;
+    private StreamDecoder pipelinedDecoder;
+    private final short[] pcm = new short[StreamDecoder.MAX_FRAME_SAMPLES];
+
+    @Setup(Level.Trial)
+    public void createFixture() throws IOException {
+        data = StreamGenerator.generate(fixture, FRAMES, 1);
+        Bitstream s = new Bitstream(new ByteArrayInputStream(data));
+        Header header = s.readFrame();
+        channels = header.mode() == Header.MODE_SINGLE_CHANNEL ? 1 : 2;
+        int granules = header.version() == Header.VERSION_MPEG1 ? 2 : 1;
+        blocksPerFrame = granules * 18;
+        while (header != null) {
+            frameCount++;
+            s.closeFrame();
+            header = s.readFrame();
+        }
+        Random random = new Random(1);
+        subbandSamples = new double[blocksPerFrame][32];
+        for (double[] block : subbandSamples) {
+            for (int i = 0; i < block.length; i++) {
+                block[i] = random.nextGaussian() * 0.1;
+            }
+        }
+        floatSubbandSamples = Constants.toFloat(subbandSamples);
+        fixedSubbandSamples = Constants.toFixed(subbandSamples, Layer3FixedEngine.FRAC_BITS);
+        if (frameCount != FRAMES && frameCount != FRAMES + 1) {
+            throw new IOException("Unexpected frame count: " + frameCount);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createDecoder() throws IOException {
+        stream = new Bitstream(new ByteArrayInputStream(data));
+        filter1 = new SynthesisFilter(0, 32700.0f);
+        filter2 = new SynthesisFilter(1, 32700.0f);
+        floatFilter1 = new FloatSynthesisFilter(0, 32700.0f);
+        floatFilter2 = new FloatSynthesisFilter(1, 32700.0f);
+        fixedFilter1 = new FixedSynthesisFilter(0, 32700.0f);
+        fixedFilter2 = new FixedSynthesisFilter(1, 32700.0f);
+        output = new SampleBuffer(channels);
+        decoder = new StreamDecoder(new ByteArrayInputStream(data), precision);
+        pipelinedDecoder = new StreamDecoder(new ByteArrayInputStream(data), precision);
+        pipelinedDecoder.setPipelined(true);
+        layer3 = null;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void readFrame(Blackhole bh) throws IOException {
+        while (true) {
+            Header header = stream.readFrame();
+            if (header == null) {
+                break;
+            }
+            bh.consume(header);
+            stream.closeFrame();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void decodeFrame() throws IOException {
+        while (true) {
+            Header header = stream.readFrame();
+            if (header == null) {
+                break;
+            }
+            if (layer3 == null) {
+                layer3 = new Layer3Decoder(stream, header, output, precision);
+            }
+            layer3.decodeFrame();
+            output.clear();
+            stream.closeFrame();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void calculatePcmSamples() throws IOException {
+        for (int frame = 0; frame < frameCount; frame++) {
+            for (int i = 0; i < blocksPerFrame; i++) {
+                switch (precision) {
+                case FLOAT:
+                    floatFilter1.calculatePcmSamples(floatSubbandSamples[i], output, 1);
+                    if (channels == 2) {
+                        floatFilter2.calculatePcmSamples(floatSubbandSamples[i], output, 1);
+                    }
+                    break;
+                case FIXED:
+                    fixedFilter1.calculatePcmSamples(fixedSubbandSamples[i], output, 1);
+                    if (channels == 2) {
+                        fixedFilter2.calculatePcmSamples(fixedSubbandSamples[i], output, 1);
+                    }
+                    break;
+                default:
+                    filter1.calculatePcmSamples(subbandSamples[i], output, 1);
+                    if (channels == 2) {
+                        filter2.calculatePcmSamples(subbandSamples[i], output, 1);
+                    }
+                }
+            }
+            output.clear();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void endToEnd() throws IOException {
+        while (decoder.decodeFrame(pcm, 0) >= 0) {
+            // next frame
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void endToEndPipelined() throws IOException {
+        while (pipelinedDecoder.decodeFrame(pcm, 0) >= 0) {
+            // next frame
+        }
+    }
+
+}
@@ -16,23 +16,27 @@
  */
 package org.mp3transform;
 
-import org.mp3transform.mp3.Bitstream;
-import org.mp3transform.mp3.Header;
-import org.mp3transform.mp3.Layer3Decoder;
-import org.mp3transform.mp3.SynthesisFilter;
-
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
 import javax.sound.sampled.FloatControl;
+import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.SourceDataLine;
 
+import org.mp3transform.mp3.Precision;
+
+/**
+ * Plays an MP3 stream using javax.sound. For decoding without a sound device,
+ * use StreamDecoder.
+ */
 public class Decoder {
-    protected static final int BUFFER_SIZE = 2 * 1152;
-    private static final int MAX_CHANNELS = 2;
     private static final float MIN_MASTER_GAIN = -80;
 
     // Fade Controls
@@ -40,88 +44,106 @@ public class Decoder {
     private static final float FADE_BASE = 0.9f;
     private static final boolean FADE_ENABLED = true;
 
-    // Debugging
-    private static final boolean BENCHMARK = false;
+    // read and Huffman decode the frames in a second thread
+    private static final boolean MULTI_CORE = Runtime.getRuntime().availableProcessors() > 1;
 
-    protected final int[] bufferPointer = new int[MAX_CHANNELS];
-    protected int channels;
-    private SynthesisFilter filter1;
-    private SynthesisFilter filter2;
-    private Layer3Decoder l3decoder;
-    private boolean initialized;
-
-    private SourceDataLine line;
-    private final byte[] buffer = new byte[BUFFER_SIZE * 2];
     private boolean stop;
     private volatile boolean pause;
-
-    public void decodeFrame(Header header, Bitstream stream) throws IOException {
-        if (!initialized) {
-            double scaleFactor = 32700.0f;
-            int mode = header.mode();
-            int channels = mode == Header.MODE_SINGLE_CHANNEL ? 1 : 2;
-            filter1 = new SynthesisFilter(0, scaleFactor);
-            if (channels == 2) {
-                filter2 = new SynthesisFilter(1, scaleFactor);
-            }
-            initialized = true;
-        }
-
-        if (l3decoder == null) {
-            l3decoder = new Layer3Decoder(stream, header, filter1, filter2,
-                    this);
+    private long startMillis;
+    private long durationMillis = -1;
+    // the decoder is reused from one file to the next
+    private final DecoderPool decoders = new DecoderPool(Precision.DOUBLE, 1);
+    // the samples of several frames, reused from one stream to the next
+    private ByteBuffer buffer;
+
+    /**
+     * Only play a part of each stream, for example a preview. The frames
+     * before the start are skipped, and decoding stops after the duration.
+     *
+     * @param startMillis the start time in milliseconds
+     * @param durationMillis the duration in milliseconds, or -1 for the rest
+     *            of the stream
+     */
+    public void setRange(long startMillis, long durationMillis) {
+        if (startMillis < 0) {
+            throw new IllegalArgumentException("start: " + startMillis);
         }
-        l3decoder.decodeFrame();
-        writeBuffer();
+        this.startMillis = startMillis;
+        this.durationMillis = durationMillis;
     }
 
-    protected void initOutputBuffer(SourceDataLine line, int numberOfChannels) {
-        this.line = line;
-        channels = numberOfChannels;
-        for (int i = 0; i < channels; i++) {
-            bufferPointer[i] = i + i;
+    /**
+     * Play the file. The file is memory mapped.
+     *
+     * @param file the file
+     */
+    public void play(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        StreamDecoder decoder;
+        try {
+            decoder = decoders.acquire(in.getChannel());
+        } catch (IOException e) {
+            in.close();
+            throw e;
         }
-    }
-
-    public void appendSamples(int channel, double[] f) {
-        int p = bufferPointer[channel];
-        for (int i = 0; i < 32; i++) {
-            double sample = f[i];
-            int s = (int) ((sample > 32767.0f) ? 32767 : ((sample < -32768.0f) ? -32768 : sample));
-            buffer[p] = (byte) (s >> 8);
-            buffer[p + 1] = (byte) (s & 0xff);
-            p += 4;
+        try {
+            decoder.setPipelined(MULTI_CORE);
+            play(file.getName(), decoder);
+        } finally {
+            decoders.release(decoder);
         }
-        bufferPointer[channel] = p;
     }
 
-    protected void writeBuffer() throws IOException {
-        if (line != null) {
-            line.write(buffer, 0, bufferPointer[0]);
-        }
-        for (int i = 0; i < channels; i++) {
-            bufferPointer[i] = i + i;
+    public void play(String name, InputStream in) throws IOException {
+        StreamDecoder decoder = decoders.acquire(in);
+        try {
+            decoder.setPipelined(MULTI_CORE);
+            play(name, decoder);
+        } finally {
+            decoders.release(decoder);
         }
     }
 
-    public void play(String name, InputStream in) throws IOException {
+    /**
+     * Play the stream. The decoder is closed afterwards.
+     *
+     * @param name the name of the stream (for error messages)
+     * @param decoder the decoder
+     */
+    public void play(String name, StreamDecoder decoder) throws IOException {
         stop = false;
-        int frameCount = Integer.MAX_VALUE;
         int fade_index = 0;
-
-        // int testing;
-        // frameCount = 100;
-
-        Decoder decoder = new Decoder();
-        Bitstream stream = new Bitstream(in);
-        SourceDataLine line = null;
+        if (startMillis > 0) {
+            decoder.seekToMillis(startMillis);
+        }
+        if (durationMillis >= 0) {
+            decoder.setEndMillis(startMillis + durationMillis);
+        }
+        if (!decoder.readFormat()) {
+            decoder.close();
+            return;
+        }
+        SourceDataLine line;
+        try {
+            line = openLine(decoder.getSampleRate(), decoder.getChannels());
+        } catch (LineUnavailableException e) {
+            decoder.close();
+            throw new IOException("Can not open the line: " + e.getMessage(), e);
+        }
+        FloatControl volume = (FloatControl) line.getControl(FloatControl.Type.MASTER_GAIN);
+        // several frames are written at once, half of the line buffer, in
+        // the byte order of the line
+        int size = Math.max(line.getBufferSize() / 2, StreamDecoder.MAX_FRAME_SAMPLES * 2);
+        if (buffer == null || buffer.capacity() != size) {
+            buffer = ByteBuffer.allocate(size);
+        }
+        buffer.order(line.getFormat().isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
 
         int error = 0;
-        for (int frame = 0; !stop && frame < frameCount; frame++) {
+        for (long sample = 0; !stop;) {
             if (pause) {
-                if (FADE_ENABLED && line != null && fade_index > 0) {
+                if (FADE_ENABLED && fade_index > 0) {
                     fade_index--;
-                    FloatControl volume = (FloatControl)line.getControl(FloatControl.Type.MASTER_GAIN);
                     volume.setValue(MIN_MASTER_GAIN * (float) Math.pow(FADE_BASE, fade_index));
                 } else {
                     line.stop();
@@ -135,63 +157,68 @@ public class Decoder {
                     line.flush();
                     line.start();
                 }
-            } else if (FADE_ENABLED && line != null && fade_index < FADE_FRAMES) {
+            } else if (FADE_ENABLED && fade_index < FADE_FRAMES) {
                 fade_index++;
-                FloatControl volume = (FloatControl)line.getControl(FloatControl.Type.MASTER_GAIN);
                 volume.setValue(MIN_MASTER_GAIN * (float) Math.pow(FADE_BASE, fade_index));
             }
+            buffer.clear();
+            // while fading, one frame at a time
+            if (FADE_ENABLED && (pause || fade_index < FADE_FRAMES)) {
+                buffer.limit(StreamDecoder.MAX_FRAME_SAMPLES * 2);
+            }
+            int frameNumber = decoder.getFrameNumber();
+            int len;
             try {
-                Header header = stream.readFrame();
-                if (header == null) {
-                    break;
-                }
-                if (decoder.channels == 0) {
-                    int channels = (header.mode() == Header.MODE_SINGLE_CHANNEL) ? 1 : 2;
-                    float sampleRate = header.frequency();
-                    int sampleSize = 16;
-                    AudioFormat format = new AudioFormat(
-                            AudioFormat.Encoding.PCM_SIGNED, sampleRate,
-                            sampleSize, channels, channels * (sampleSize / 8),
-                            sampleRate, true);
-                    // big endian
-                    SourceDataLine.Info info = new DataLine.Info(
-                            SourceDataLine.class, format);
-                    line = (SourceDataLine) AudioSystem.getLine(info);
-                    if (BENCHMARK) {
-                        decoder.initOutputBuffer(null, channels);
-                    } else {
-                        decoder.initOutputBuffer(line, channels);
-                    }
-                    // TODO sometimes the line can not be opened (maybe not enough system resources?): display error message
-                    // System.out.println(line.getFormat().toString());
-                    line.open(format);
-                    line.start();
-
-                }
-                while (line.available() < 100) {
-                    Thread.yield();
-                    Thread.sleep(200);
-                }
-                decoder.decodeFrame(header, stream);
-            } catch (Exception e) {
-                if (error++ > 1000) {
-                    break;
-                }
+                len = decoder.decodeFrames(buffer);
+            } catch (IOException | RuntimeException e) {
                 // TODO should not write directly
-                System.out.println("Error at: " + name + " Frame: " + frame + " Error: " + e.toString());
+                System.out.println("Error at: " + name + " Sample: " + sample + " Error: " + e.toString());
                 // e.printStackTrace();
-            } finally {
-                stream.closeFrame();
+                if (error++ > 1000 || decoder.getFrameNumber() == frameNumber) {
+                    // no progress, the next call would fail the same way
+                    break;
+                }
+                continue;
+            }
+            if (len < 0) {
+                break;
             }
+            sample += len / decoder.getChannels();
+            // blocks until there is room in the line buffer
+            line.write(buffer.array(), 0, buffer.position());
         }
+        error += decoder.getErrorCount();
         if (error > 0) {
             System.out.println("errors: " + error);
         }
-        in.close();
-        if (line != null) {
-            line.stop();
-            line.close();
+        decoder.close();
+        if (!stop) {
+            // the last chunk can be up to half of the line buffer
+            line.drain();
+        }
+        line.stop();
+        line.close();
+    }
+
+    /**
+     * Open a line for 16 bit samples. The native byte order is used if the
+     * mixer supports it, so that the mixer does not need to swap the bytes.
+     */
+    private static SourceDataLine openLine(int sampleRate, int channels)
+            throws LineUnavailableException {
+        boolean nativeBigEndian = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+        AudioFormat format = null;
+        for (boolean bigEndian : new boolean[] { nativeBigEndian, !nativeBigEndian }) {
+            format = new AudioFormat(sampleRate, 16, channels, true, bigEndian);
+            DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
+            if (AudioSystem.isLineSupported(info)) {
+                SourceDataLine line = (SourceDataLine) AudioSystem.getLine(info);
+                line.open(format);
+                line.start();
+                return line;
+            }
         }
+        throw new LineUnavailableException("Unsupported format: " + format);
     }
 
     public void stop() {
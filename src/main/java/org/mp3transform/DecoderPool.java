@@ -0,0 +1,141 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+import org.mp3transform.mp3.Bitstream;
+import org.mp3transform.mp3.Precision;
+
+/**
+ * A pool of decoders, so that a service that decodes many short streams can
+ * reuse warmed up decoders (with their bit reservoir, synthesis filters and
+ * other buffers) instead of creating new ones for each stream.
+ * <p>
+ * This class is thread safe. A decoder is used by one thread between
+ * acquire and release; a released decoder must not be used any longer.
+ * Whether a decoder uses the pipeline, and the output format, are kept when
+ * it is reused.
+ */
+public final class DecoderPool {
+
+    private final Precision precision;
+    private final int maxIdle;
+    private final ArrayDeque<StreamDecoder> idle = new ArrayDeque<>();
+
+    /**
+     * Create a pool.
+     *
+     * @param precision the precision of the decoders
+     * @param maxIdle the maximum number of decoders that are kept
+     */
+    public DecoderPool(Precision precision, int maxIdle) {
+        this.precision = precision;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Get a decoder for the given stream.
+     *
+     * @param in the stream
+     * @return the decoder
+     */
+    public StreamDecoder acquire(InputStream in) throws IOException {
+        return acquire(new Bitstream(in), in);
+    }
+
+    /**
+     * Get a decoder for the remaining bytes of the buffer.
+     *
+     * @param data the buffer
+     * @return the decoder
+     */
+    public StreamDecoder acquire(ByteBuffer data) throws IOException {
+        return acquire(new Bitstream(data), null);
+    }
+
+    /**
+     * Get a decoder for the channel (see StreamDecoder.open). Releasing the
+     * decoder closes the channel.
+     *
+     * @param channel the channel
+     * @return the decoder
+     */
+    public StreamDecoder acquire(FileChannel channel) throws IOException {
+        StreamDecoder decoder = take();
+        try {
+            decoder.reset(channel);
+        } catch (IOException e) {
+            put(decoder);
+            throw e;
+        }
+        return decoder;
+    }
+
+    StreamDecoder acquire(Bitstream stream, Closeable in) throws IOException {
+        StreamDecoder decoder = take();
+        decoder.reset(stream, in);
+        return decoder;
+    }
+
+    /**
+     * Close the stream of the decoder, and return the decoder to the pool.
+     *
+     * @param decoder the decoder (of this pool)
+     */
+    public void release(StreamDecoder decoder) throws IOException {
+        if (decoder.getPrecision() != precision) {
+            throw new IllegalArgumentException("Precision " + decoder.getPrecision()
+                    + ", expected " + precision);
+        }
+        try {
+            decoder.close();
+        } finally {
+            put(decoder);
+        }
+    }
+
+    /**
+     * Get the number of decoders that are ready to be reused.
+     *
+     * @return the number of decoders
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    private StreamDecoder take() {
+        StreamDecoder decoder;
+        synchronized (this) {
+            decoder = idle.pollLast();
+        }
+        return decoder != null ? decoder : new StreamDecoder(null, null, precision);
+    }
+
+    private synchronized void put(StreamDecoder decoder) {
+        // the most recently used decoders are reused first
+        if (idle.size() < maxIdle && !idle.contains(decoder)) {
+            idle.addLast(decoder);
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.mp3transform.mp3.Bitstream;
+import org.mp3transform.mp3.FrameIndex;
+import org.mp3transform.mp3.Header;
+import org.mp3transform.mp3.Precision;
+
+/**
+ * Decodes a long stream on multiple threads. The frame index is split into
+ * segments that are decoded independently. Each segment starts at a few
+ * frames before its first frame, to fill the bit reservoir and to restore
+ * the IMDCT overlap and the synthesis filter state (the same way as
+ * StreamDecoder.seekToSample does). The output is therefore the same as
+ * when decoding the stream from the start on one thread.
+ * <p>
+ * The number of segments that are decoded at the same time (and kept in
+ * memory) is limited to twice the parallelism of the pool. The decoders and
+ * the sample arrays of the segments are reused (see DecoderPool).
+ */
+public class ParallelDecoder {
+
+    private static final int DEFAULT_SEGMENT_FRAMES = 512;
+
+    private final ByteBuffer data;
+    private final Precision precision;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int segmentFrames = DEFAULT_SEGMENT_FRAMES;
+    private int errors;
+
+    /**
+     * Create a decoder for the remaining bytes of the buffer.
+     *
+     * @param data the buffer, for example a memory mapped file
+     * @param precision the precision
+     */
+    public ParallelDecoder(ByteBuffer data, Precision precision) {
+        this.data = data.duplicate();
+        this.precision = precision;
+    }
+
+    /**
+     * Set the pool that decodes the segments. The default is the common pool.
+     *
+     * @param pool the pool
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Set the number of frames per segment. Smaller segments need less
+     * memory, but each segment decodes one or two frames more than needed.
+     *
+     * @param segmentFrames the number of frames
+     */
+    public void setSegmentFrames(int segmentFrames) {
+        if (segmentFrames < 1) {
+            throw new IllegalArgumentException("segmentFrames: " + segmentFrames);
+        }
+        this.segmentFrames = segmentFrames;
+    }
+
+    /**
+     * Get the number of frames that were skipped because of errors.
+     *
+     * @return the number of errors
+     */
+    public int getErrorCount() {
+        return errors;
+    }
+
+    /**
+     * Decode all frames and write them to the sink, in the right order. The
+     * sink is opened before the first frame is written; it is not closed.
+     *
+     * @param sink the sink
+     * @return the number of samples (of all channels) written
+     */
+    public long decode(PcmSink sink) throws IOException {
+        Bitstream stream = new Bitstream(data);
+        Header header = stream.readFrame();
+        if (header == null) {
+            return 0;
+        }
+        int channels = header.mode() == Header.MODE_SINGLE_CHANNEL ? 1 : 2;
+        int frameSamples = header.samplesPerFrame() * channels;
+        sink.open(header.frequency(), channels);
+        // only read the headers, to build the index
+        do {
+            stream.closeFrame();
+        } while (stream.readFrame() != null);
+        FrameIndex index = stream.getFrameIndex();
+        int frames = index.size();
+        int maxRunning = 2 * pool.getParallelism();
+        DecoderPool decoders = new DecoderPool(precision, maxRunning);
+        // the sample arrays of the segments that were written to the sink
+        ConcurrentLinkedQueue<short[]> free = new ConcurrentLinkedQueue<>();
+        ArrayDeque<ForkJoinTask<Segment>> running = new ArrayDeque<>();
+        long total = 0;
+        try {
+            for (int next = 0; next < frames || !running.isEmpty();) {
+                while (next < frames && running.size() < maxRunning) {
+                    int start = next;
+                    int end = Math.min(frames, start + segmentFrames);
+                    running.add(pool.submit(() -> decodeSegment(decoders, free, index, start, end)));
+                    next = end;
+                }
+                Segment s = join(running.poll());
+                errors += s.errors;
+                for (int i = 0; i < s.length; i += frameSamples) {
+                    int len = Math.min(frameSamples, s.length - i);
+                    sink.write(s.pcm, i, len);
+                }
+                total += s.length;
+                free.add(s.pcm);
+            }
+        } finally {
+            for (ForkJoinTask<Segment> task : running) {
+                task.cancel(false);
+            }
+        }
+        return total;
+    }
+
+    private static Segment join(ForkJoinTask<Segment> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private Segment decodeSegment(DecoderPool decoders, ConcurrentLinkedQueue<short[]> free,
+            FrameIndex index, int start, int end) throws IOException {
+        short[] pcm = free.poll();
+        if (pcm == null) {
+            pcm = new short[segmentFrames * StreamDecoder.MAX_FRAME_SAMPLES];
+        }
+        StreamDecoder decoder = decoders.acquire(new Bitstream(data, index), null);
+        try {
+            return decodeSegment(decoder, pcm, index, start, end);
+        } finally {
+            decoders.release(decoder);
+        }
+    }
+
+    private static Segment decodeSegment(StreamDecoder decoder, short[] pcm, FrameIndex index,
+            int start, int end) throws IOException {
+        Segment s = new Segment(pcm);
+        if (decoder.seekToSample((long) start * index.getSamplesPerFrame())) {
+            // the errors of the frames before the segment are not counted
+            s.errors = -decoder.getErrorCount();
+            while (decoder.getFrameNumber() < end) {
+                int len = decoder.decodeFrame(s.pcm, s.length);
+                // a frame that could not be decoded is skipped, so that the
+                // decoded frame might belong to the next segment
+                if (len < 0 || decoder.getFrameNumber() > end) {
+                    break;
+                }
+                s.length += len;
+            }
+        }
+        s.errors += decoder.getErrorCount();
+        return s;
+    }
+
+    /**
+     * The decoded samples of a segment.
+     */
+    static class Segment {
+        final short[] pcm;
+        int length;
+        int errors;
+
+        Segment(short[] pcm) {
+            this.pcm = pcm;
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform;
+
+import java.io.IOException;
+
+/**
+ * Receives the decoded 16 bit PCM samples from a StreamDecoder.
+ */
+public interface PcmSink {
+
+    /**
+     * Called once before the first samples are written.
+     *
+     * @param sampleRate the sample rate in Hz
+     * @param channels the number of channels (1 or 2)
+     */
+    void open(int sampleRate, int channels) throws IOException;
+
+    /**
+     * Called once per frame with all samples of the frame. The samples of the
+     * channels are interleaved. The array is re-used for the next frame.
+     *
+     * @param samples the sample array
+     * @param offset the index of the first sample
+     * @param length the number of samples (of all channels)
+     */
+    void write(short[] samples, int offset, int length) throws IOException;
+
+    /**
+     * Called once per frame instead of write(short[], int, int) if the
+     * decoder returns float samples (see StreamDecoder.setFloatOutput).
+     *
+     * @param samples the sample array
+     * @param offset the index of the first sample
+     * @param length the number of samples (of all channels)
+     */
+    default void write(float[] samples, int offset, int length) throws IOException {
+        throw new UnsupportedOperationException("Float samples");
+    }
+
+}
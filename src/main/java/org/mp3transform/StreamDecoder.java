@@ -0,0 +1,759 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+import org.mp3transform.mp3.Bitstream;
+import org.mp3transform.mp3.FrameIndex;
+import org.mp3transform.mp3.Header;
+import org.mp3transform.mp3.Layer3Decoder;
+import org.mp3transform.mp3.Layer3Pipeline;
+import org.mp3transform.mp3.Precision;
+import org.mp3transform.mp3.SampleBuffer;
+import org.mp3transform.mp3.SeekableInputStream;
+import org.mp3transform.mp3.VbrInfo;
+
+/**
+ * Decodes an MP3 stream to 16 bit PCM. This class does not depend on
+ * javax.sound and can be used in headless environments. The samples of all
+ * channels are interleaved and returned one frame at a time, either in a
+ * buffer provided by the caller or by pushing them to a PcmSink.
+ * <p>
+ * Frames that can not be decoded are skipped. This class is not thread safe.
+ * <p>
+ * Seeking is sample accurate: after seeking, the output is the same as if
+ * the stream had been decoded from the start. Seeking backwards requires a
+ * SeekableInputStream. To decode only a part of a stream (for example a
+ * preview), seek to the start and set the end; the frames after the end are
+ * not read.
+ * <p>
+ * A decoder can be reused for another stream using one of the reset
+ * methods, so that its buffers are not allocated again (see also
+ * DecoderPool).
+ */
+public class StreamDecoder {
+
+    /**
+     * The maximum number of samples (of all channels) of one frame.
+     */
+    public static final int MAX_FRAME_SAMPLES = SampleBuffer.MAX_SAMPLES;
+
+    private static final int MAX_ERRORS = 1000;
+
+    /**
+     * The largest main_data_begin value: how far (in bytes) the main data of
+     * a frame can reach back into the previous frames.
+     */
+    private static final int MAX_MAIN_DATA_BEGIN = 511;
+
+    /**
+     * The header, CRC and (stereo MPEG 1) side info bytes of a frame.
+     */
+    private static final int MAX_FRAME_OVERHEAD = 4 + 2 + 32;
+
+    private Closeable in;
+    private Bitstream stream;
+    private final Precision precision;
+    private SampleBuffer output;
+    private Layer3Decoder l3decoder;
+    private int sampleRate;
+    private int channels;
+    private int samplesPerFrame;
+    private VbrInfo vbrInfo;
+    private int errors;
+    // a frame that was read but not decoded yet
+    private Header pending;
+    // the number of samples to skip in the next decoded frame
+    private int skip;
+    // the sample (per channel) of the next returned sample
+    private long position;
+    // decoding stops at this sample (per channel)
+    private long end = Long.MAX_VALUE;
+    private boolean pipelined;
+    private Layer3Pipeline pipeline;
+    private boolean downmix;
+    private int rateDivisor = 1;
+    private boolean floatOutput;
+    // the short view of the last buffer passed to decodeFrames
+    private ByteBuffer viewBuffer;
+    private ShortBuffer view;
+    // the byte offset of the view in the buffer (0 or 1)
+    private int viewOffset;
+
+    public StreamDecoder(InputStream in) {
+        this(in, Precision.DOUBLE);
+    }
+
+    public StreamDecoder(InputStream in, Precision precision) {
+        this(new Bitstream(in), in, precision);
+    }
+
+    /**
+     * Create a decoder that reads the remaining bytes of the buffer, without
+     * copying them. Seeking backwards is supported.
+     *
+     * @param data the buffer, for example a memory mapped file
+     */
+    public StreamDecoder(ByteBuffer data) {
+        this(data, Precision.DOUBLE);
+    }
+
+    public StreamDecoder(ByteBuffer data, Precision precision) {
+        this(new Bitstream(data), null, precision);
+    }
+
+    StreamDecoder(Bitstream stream, Closeable in, Precision precision) {
+        this.stream = stream;
+        this.in = in;
+        this.precision = precision;
+    }
+
+    /**
+     * Create a decoder that reads the channel, starting at its current
+     * position. The file is memory mapped if possible. Closing the decoder
+     * closes the channel.
+     *
+     * @param channel the channel
+     * @param precision the precision
+     * @return the decoder
+     */
+    public static StreamDecoder open(FileChannel channel, Precision precision) throws IOException {
+        StreamDecoder decoder = new StreamDecoder(null, null, precision);
+        decoder.reset(channel);
+        return decoder;
+    }
+
+    /**
+     * Close the current stream, and continue with the given stream. The
+     * state of the decoder is the same as if it was just created, but the
+     * buffers of the decoder are reused. The precision, whether to use
+     * the pipeline, and the output format are kept.
+     *
+     * @param in the new stream
+     */
+    public void reset(InputStream in) throws IOException {
+        reset(new Bitstream(in), in);
+    }
+
+    /**
+     * Close the current stream, and continue with the remaining bytes of
+     * the given buffer. See also reset(InputStream).
+     *
+     * @param data the buffer, for example a memory mapped file
+     */
+    public void reset(ByteBuffer data) throws IOException {
+        reset(new Bitstream(data), null);
+    }
+
+    /**
+     * Close the current stream, and continue with the given channel,
+     * starting at its current position. The file is memory mapped if
+     * possible. See also reset(InputStream) and open(FileChannel,
+     * Precision).
+     *
+     * @param channel the channel
+     */
+    public void reset(FileChannel channel) throws IOException {
+        long pos = channel.position();
+        long size = channel.size() - pos;
+        if (size > Integer.MAX_VALUE) {
+            reset(SeekableInputStream.wrap(channel));
+            return;
+        }
+        ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+        reset(new Bitstream(data), channel);
+    }
+
+    void reset(Bitstream stream, Closeable in) throws IOException {
+        close();
+        this.stream = stream;
+        this.in = in;
+        sampleRate = 0;
+        channels = 0;
+        samplesPerFrame = 0;
+        vbrInfo = null;
+        errors = 0;
+        pending = null;
+        skip = 0;
+        position = 0;
+        end = Long.MAX_VALUE;
+        pipeline = null;
+    }
+
+    /**
+     * Get the sample rate of the output. This is only known after the first
+     * frame was decoded.
+     *
+     * @return the sample rate in Hz, or 0
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Get the number of output channels. This is only known after the first
+     * frame was decoded.
+     *
+     * @return 1 or 2, or 0
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * Read the first frame if needed, so that the output format (the sample
+     * rate and the number of channels) is known before decoding.
+     *
+     * @return false if the stream contains no frames
+     */
+    public boolean readFormat() throws IOException {
+        return readFirstFrame();
+    }
+
+    /**
+     * Get the number of samples (per channel) that are returned until the
+     * end of the stream, or until the end that was set. The length of the
+     * stream is taken from the VBR header; the frame that contains the
+     * header is decoded as well. The first frame is read if needed.
+     *
+     * @return the number of samples, or -1 if the stream has no VBR header
+     *         with the frame count
+     */
+    public long getRemainingSamples() throws IOException {
+        if (!readFirstFrame()) {
+            return 0;
+        }
+        if (vbrInfo == null || vbrInfo.getFrameCount() < 0) {
+            return -1;
+        }
+        long total = (vbrInfo.getFrameCount() + 1L) * samplesPerFrame;
+        return Math.max(0, Math.min(total, end) - position);
+    }
+
+    /**
+     * Get the information from the Xing, Info or VBRI header. This is only
+     * known after the first frame was decoded.
+     *
+     * @return the information, or null if the stream has no such header
+     */
+    public VbrInfo getVbrInfo() {
+        return vbrInfo;
+    }
+
+    Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Get the number of the frame that is decoded next.
+     *
+     * @return the frame number
+     */
+    int getFrameNumber() {
+        return stream.getFrameNumber() - (pending == null ? 0 : 1);
+    }
+
+    /**
+     * Get the number of frames that were skipped because of errors.
+     *
+     * @return the number of errors
+     */
+    public int getErrorCount() {
+        return errors + (pipeline == null ? 0 : pipeline.getErrorCount());
+    }
+
+    /**
+     * Decode in two threads: a second thread reads the frames, and decodes
+     * the side info, scale factors and Huffman values, while the calling
+     * thread does the synthesis. The pipeline is started when the next frame
+     * is decoded; seeking is possible before, but not afterwards.
+     *
+     * @param pipelined whether to use a second thread
+     */
+    public void setPipelined(boolean pipelined) {
+        if (pipeline != null) {
+            throw new IllegalStateException("The pipeline was already started");
+        }
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Mix stereo streams to one channel. This is faster than mixing the
+     * decoded samples, as only one synthesis filter runs. The option needs
+     * to be set before the first frame is decoded, or after a reset.
+     *
+     * @param downmix whether to mix stereo to one channel
+     */
+    public void setDownmix(boolean downmix) {
+        checkNotStarted();
+        this.downmix = downmix;
+    }
+
+    /**
+     * Divide the sample rate of the output by 2 or 4. This is faster than
+     * resampling the decoded samples, as the upper subbands are not
+     * synthesized. The option needs to be set before the first frame is
+     * decoded, or after a reset.
+     *
+     * @param divisor 1 (the default), 2 or 4
+     */
+    public void setSampleRateDivisor(int divisor) {
+        if (divisor != 1 && divisor != 2 && divisor != 4) {
+            throw new IllegalArgumentException("Divisor: " + divisor);
+        }
+        checkNotStarted();
+        this.rateDivisor = divisor;
+    }
+
+    /**
+     * Return float samples (in the range -1 to 1) instead of 16 bit samples.
+     * The samples are not clipped, and not rounded to 16 bit. Only
+     * decodeFrame(float[], int) and decode(PcmSink) can be used in this
+     * mode. The option needs to be set before the first frame is decoded,
+     * or after a reset.
+     *
+     * @param floatOutput whether to return float samples
+     */
+    public void setFloatOutput(boolean floatOutput) {
+        checkNotStarted();
+        this.floatOutput = floatOutput;
+    }
+
+    private void checkNotStarted() {
+        if (channels != 0) {
+            throw new IllegalStateException("Decoding already started");
+        }
+    }
+
+    /**
+     * Seek to the given sample (per channel), so that the next decoded frame
+     * starts with this sample. The frames before are not decoded, except
+     * for the frames that the decoder state (the IMDCT overlap and the
+     * synthesis filter) depends on. The bit reservoir is filled from the
+     * frames before.
+     *
+     * @param sample the sample number (0 for the first sample)
+     * @return false if the stream is shorter
+     * @throws IOException if seeking backwards, and the source is not a
+     *             SeekableInputStream, or if the pipeline was started
+     */
+    public boolean seekToSample(long sample) throws IOException {
+        if (sample < 0) {
+            throw new IllegalArgumentException("Negative sample: " + sample);
+        }
+        if (pipeline != null) {
+            throw new IOException("Can not seek, the pipeline was already started");
+        }
+        if (!readFirstFrame()) {
+            return false;
+        }
+        long frame = sample / samplesPerFrame;
+        if (frame >= Integer.MAX_VALUE) {
+            return false;
+        }
+        int k = (int) frame;
+        // the first frame that is decoded (the granule before the target
+        // frame restores the decoder state; MPEG 1 frames have two granules)
+        int first = Math.max(0, k - (samplesPerFrame * rateDivisor == 1152 ? 1 : 2));
+        int current = getFrameNumber();
+        if (k >= current && (first <= current || !stream.isSeekable())) {
+            // read forward; the decoder state is continuous
+            for (int f = current; f < k; f++) {
+                Header header = readNext();
+                if (header == null) {
+                    return false;
+                }
+                decode(header, f >= first);
+            }
+        } else if (!stream.isSeekable()) {
+            throw new IOException("Can not seek backwards, the source is not seekable");
+        } else {
+            pending = null;
+            if (!stream.seekFrame(k)) {
+                return false;
+            }
+            FrameIndex index = stream.getFrameIndex();
+            int prime = first;
+            for (int bytes = 0; prime > 0 && bytes < MAX_MAIN_DATA_BEGIN;) {
+                prime--;
+                bytes += index.getOffset(prime + 1) - index.getOffset(prime) - MAX_FRAME_OVERHEAD;
+            }
+            stream.seekFrame(prime);
+            Header header = stream.readFrame();
+            if (header == null) {
+                return false;
+            }
+            l3decoder.reset(stream, header);
+            for (int f = prime; f < k; f++) {
+                if (f > prime) {
+                    header = stream.readFrame();
+                    if (header == null) {
+                        return false;
+                    }
+                }
+                decode(header, f >= first);
+            }
+        }
+        skip = (int) (sample - frame * samplesPerFrame) * channels;
+        position = sample;
+        if (pending == null) {
+            pending = stream.readFrame();
+        }
+        return pending != null;
+    }
+
+    /**
+     * Seek to the given time. See also seekToSample.
+     *
+     * @param millis the time in milliseconds from the start of the stream
+     * @return false if the stream is shorter
+     * @throws IOException if seeking backwards, and the source is not a
+     *             SeekableInputStream
+     */
+    public boolean seekToMillis(long millis) throws IOException {
+        if (!readFirstFrame()) {
+            return false;
+        }
+        return seekToSample(millis * sampleRate / 1000);
+    }
+
+    /**
+     * Stop decoding at the given sample (per channel): the last frame is
+     * truncated, and the frames afterwards are not read. The end is cleared
+     * when the decoder is reset.
+     *
+     * @param sample the sample number, or Long.MAX_VALUE to decode until
+     *            the end of the stream
+     */
+    public void setEndSample(long sample) {
+        if (sample < 0) {
+            throw new IllegalArgumentException("Negative sample: " + sample);
+        }
+        end = sample;
+    }
+
+    /**
+     * Stop decoding at the given time. See also setEndSample.
+     *
+     * @param millis the time in milliseconds from the start of the stream
+     * @return false if the stream is empty
+     */
+    public boolean setEndMillis(long millis) throws IOException {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Negative time: " + millis);
+        }
+        if (!readFirstFrame()) {
+            return false;
+        }
+        setEndSample(millis * sampleRate / 1000);
+        return true;
+    }
+
+    /**
+     * Decode the next frame into the given array. The array must have room
+     * for MAX_FRAME_SAMPLES samples after the offset.
+     *
+     * @param dest the target array
+     * @param offset the index of the first sample
+     * @return the number of samples (of all channels) written, or -1 at the
+     *         end of the stream
+     */
+    public int decodeFrame(short[] dest, int offset) throws IOException {
+        checkShortOutput();
+        if (!nextFrame()) {
+            return -1;
+        }
+        int s = takeSkip();
+        int len = takeLength(s);
+        System.arraycopy(output.getBuffer(), s, dest, offset, len);
+        return len;
+    }
+
+    /**
+     * Decode the next frame into the given buffer, using the byte order of
+     * the buffer. The position of the buffer is advanced by two bytes per
+     * sample. The buffer must have room for MAX_FRAME_SAMPLES samples.
+     *
+     * @param dest the target buffer
+     * @return the number of samples (of all channels) written, or -1 at the
+     *         end of the stream
+     */
+    public int decodeFrame(ByteBuffer dest) throws IOException {
+        checkShortOutput();
+        if (!nextFrame()) {
+            return -1;
+        }
+        int s = takeSkip();
+        int len = takeLength(s);
+        // not using a short buffer view, as that would allocate per frame
+        short[] buff = output.getBuffer();
+        for (int i = s, end = s + len; i < end; i++) {
+            dest.putShort(buff[i]);
+        }
+        return len;
+    }
+
+    /**
+     * Decode as many frames as fit into the remaining space of the buffer,
+     * using the byte order of the buffer. Only complete frames are written,
+     * and the position of the buffer is advanced by two bytes per sample.
+     * The buffer must have room for at least MAX_FRAME_SAMPLES samples.
+     *
+     * @param dest the target buffer
+     * @return the number of samples (of all channels) written, or -1 at the
+     *         end of the stream
+     */
+    public int decodeFrames(ByteBuffer dest) throws IOException {
+        checkShortOutput();
+        if (dest.remaining() < MAX_FRAME_SAMPLES * 2) {
+            throw new IllegalArgumentException("Remaining: " + dest.remaining());
+        }
+        // a bulk copy if the byte order is native
+        ShortBuffer shorts = shortView(dest);
+        int start = shorts.position();
+        boolean more = true;
+        while (shorts.remaining() >= MAX_FRAME_SAMPLES && (more = nextFrame())) {
+            int s = takeSkip();
+            int len = takeLength(s);
+            shorts.put(output.getBuffer(), s, len);
+        }
+        int total = shorts.position() - start;
+        dest.position(dest.position() + total * 2);
+        return total == 0 && !more ? -1 : total;
+    }
+
+    /**
+     * Get a short view of the remaining space of the buffer. Creating a view
+     * allocates, so the view is kept while the same buffer is used (for
+     * example if it is cleared after each call).
+     *
+     * @param dest the buffer
+     * @return the view
+     */
+    private ShortBuffer shortView(ByteBuffer dest) {
+        int pos = dest.position();
+        if (dest != viewBuffer || view.order() != dest.order()
+                || ((pos - viewOffset) & 1) != 0) {
+            // the view covers the whole buffer; a duplicate is big endian
+            ByteBuffer d = dest.duplicate().order(dest.order());
+            d.limit(d.capacity());
+            d.position(pos & 1);
+            view = d.asShortBuffer();
+            viewBuffer = dest;
+            viewOffset = pos & 1;
+        }
+        view.limit((dest.limit() - viewOffset) / 2);
+        view.position((pos - viewOffset) / 2);
+        return view;
+    }
+
+    /**
+     * Decode the next frame into the given array, if float output is
+     * enabled. The array must have room for MAX_FRAME_SAMPLES samples after
+     * the offset.
+     *
+     * @param dest the target array
+     * @param offset the index of the first sample
+     * @return the number of samples (of all channels) written, or -1 at the
+     *         end of the stream
+     */
+    public int decodeFrame(float[] dest, int offset) throws IOException {
+        if (!floatOutput) {
+            throw new IllegalStateException("Float output is not enabled");
+        }
+        if (!nextFrame()) {
+            return -1;
+        }
+        int s = takeSkip();
+        int len = takeLength(s);
+        System.arraycopy(output.getFloatBuffer(), s, dest, offset, len);
+        return len;
+    }
+
+    private void checkShortOutput() {
+        if (floatOutput) {
+            throw new IllegalStateException("Float output is enabled");
+        }
+    }
+
+    /**
+     * Decode all remaining frames and write them to the sink. The sink is
+     * opened before the first frame is written; it is not closed.
+     *
+     * @param sink the sink
+     * @return the number of samples (of all channels) written
+     */
+    public long decode(PcmSink sink) throws IOException {
+        long total = 0;
+        boolean open = false;
+        while (nextFrame()) {
+            if (!open) {
+                sink.open(sampleRate, channels);
+                open = true;
+            }
+            int s = takeSkip();
+            int len = takeLength(s);
+            if (floatOutput) {
+                sink.write(output.getFloatBuffer(), s, len);
+            } else {
+                sink.write(output.getBuffer(), s, len);
+            }
+            total += len;
+        }
+        return total;
+    }
+
+    public void close() throws IOException {
+        // don't keep a reference to the buffer of the application
+        viewBuffer = null;
+        view = null;
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+        if (in != null) {
+            Closeable c = in;
+            in = null;
+            c.close();
+        }
+    }
+
+    private boolean nextFrame() throws IOException {
+        if (position >= end) {
+            return false;
+        }
+        if (pipelined) {
+            if (pipeline == null) {
+                if (!readFirstFrame()) {
+                    return false;
+                }
+                pipeline = new Layer3Pipeline(l3decoder, stream, pending, MAX_ERRORS - errors);
+                pending = null;
+                pipeline.start();
+            }
+            return pipeline.nextFrame(output);
+        }
+        while (true) {
+            Header header = readNext();
+            if (header == null) {
+                return false;
+            }
+            if (decode(header, true)) {
+                return true;
+            }
+        }
+    }
+
+    private Header readNext() throws IOException {
+        Header header = pending;
+        if (header == null) {
+            return stream.readFrame();
+        }
+        pending = null;
+        return header;
+    }
+
+    /**
+     * Read the first frame if no frame was read yet, so that the stream
+     * parameters are known. The frame is decoded later.
+     *
+     * @return false if the stream is empty
+     */
+    private boolean readFirstFrame() throws IOException {
+        if (channels == 0 && pending == null) {
+            pending = stream.readFrame();
+            if (pending == null) {
+                return false;
+            }
+            init(pending);
+        }
+        return true;
+    }
+
+    /**
+     * Decode or skip the frame, and close it.
+     *
+     * @param header the header
+     * @param synthesize whether to calculate the PCM samples, or only add
+     *            the main data to the bit reservoir
+     * @return false if the frame could not be decoded
+     */
+    private boolean decode(Header header, boolean synthesize) throws IOException {
+        try {
+            if (channels == 0) {
+                init(header);
+            }
+            output.clear();
+            if (synthesize) {
+                l3decoder.decodeFrame();
+            } else {
+                l3decoder.skipFrame();
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // skip the frame
+            if (++errors > MAX_ERRORS) {
+                throw new IOException("Too many errors", e);
+            }
+            return false;
+        } finally {
+            stream.closeFrame();
+        }
+    }
+
+    private int takeSkip() {
+        int s = Math.min(skip, output.getBufferLength());
+        skip = 0;
+        return s;
+    }
+
+    /**
+     * Get the number of samples of the decoded frame (of all channels) that
+     * are returned, and advance the position.
+     *
+     * @param skip the number of samples that are skipped
+     * @return the number of samples
+     */
+    private int takeLength(int skip) {
+        int samples = (output.getBufferLength() - skip) / channels;
+        if (end - position < samples) {
+            samples = (int) (end - position);
+        }
+        position += samples;
+        return samples * channels;
+    }
+
+    private void init(Header header) {
+        channels = header.mode() == Header.MODE_SINGLE_CHANNEL || downmix ? 1 : 2;
+        sampleRate = header.frequency() / rateDivisor;
+        samplesPerFrame = header.samplesPerFrame() / rateDivisor;
+        vbrInfo = header.vbrInfo();
+        if (l3decoder == null) {
+            output = new SampleBuffer(channels);
+            l3decoder = new Layer3Decoder(stream, header, output, precision);
+        }
+        l3decoder.setOutput(downmix, rateDivisor);
+        l3decoder.reset(stream, header);
+        output.setFloatMode(floatOutput);
+    }
+
+}
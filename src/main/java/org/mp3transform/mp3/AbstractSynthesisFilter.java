@@ -0,0 +1,85 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+/**
+ * The part of the synthesis filter bank that doesn't depend on the sample
+ * type: the channel, the position of the values in the V vectors, and the
+ * layout of the vectors. There is one filter per precision; the filters only
+ * implement the fast cosine transform, and the windowing.
+ * <p>
+ * Each filter keeps two V vectors of 32 rows (one row per PCM sample), that
+ * are used alternately. Each call calculates 64 values from the 32 new
+ * subband samples, and writes them at the write position of the rows (32 to
+ * the actual vector, and 32 to the other vector). The write position is then
+ * incremented, and the vectors are swapped. The windowing reads 16 taps
+ * per row, starting at the write position and going backwards. So that the
+ * taps are contiguous, each row stores its 16 values twice and reversed:
+ * the value at position p is at 15 - p and 31 - p, and tap k (0 to 15) of
+ * row i is at index i * 32 + 15 - writePos + k. The products are summed up
+ * in the order of the taps.
+ */
+abstract class AbstractSynthesisFilter {
+
+    /**
+     * The length of a V vector.
+     */
+    static final int V_LENGTH = 32 * 32;
+
+    /**
+     * The channel of the PCM samples.
+     */
+    final int channel;
+
+    /**
+     * The write position (0 to 15).
+     */
+    int writePos = 15;
+
+    /**
+     * Whether the first V vector is the actual vector.
+     */
+    boolean firstV = true;
+
+    AbstractSynthesisFilter(int channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Clear the state, so that the filter can be used for another stream.
+     */
+    final void reset() {
+        clear();
+        writePos = 15;
+        firstV = true;
+    }
+
+    /**
+     * Set the V vectors to zero.
+     */
+    abstract void clear();
+
+    /**
+     * Move to the next write position, and swap the V vectors. Called
+     * after the PCM samples of a call are calculated.
+     */
+    final void next() {
+        writePos = (writePos + 1) & 0xf;
+        firstV = !firstV;
+    }
+
+}
@@ -25,82 +25,99 @@
  */
 package org.mp3transform.mp3;
 
+import java.util.Arrays;
+
 /**
- * Stores single bits as a word in the buffer. If a bit is set, the
- * corresponding word in the buffer will be non-zero. If a bit is clear, the
- * corresponding word is zero. Although this may seem waseful, this can be a
- * factor of two quicker than packing 8 bits to a byte and extracting.
+ * A ring buffer of bits. The bits are packed into bytes, most significant bit
+ * first. The first bytes are duplicated at the end of the buffer, so that up
+ * to 32 bits can be read with five byte accesses without checking for the
+ * end of the buffer.
  */
 public class BitReservoir {
 
-    private static final int BUFFER_SIZE = 4096 * 8;
+    private static final int BUFFER_BYTES = 4096;
+    private static final int BUFFER_SIZE = BUFFER_BYTES * 8;
     private static final int BUFFER_SIZE_MASK = BUFFER_SIZE - 1;
+    private static final int OVERLAP = 4;
     private int offset, bitCount, bufferIndex;
-    private final int[] buffer = new int[BUFFER_SIZE];
+    private final byte[] buffer = new byte[BUFFER_BYTES + OVERLAP];
 
     int getBitCount() {
         return bitCount;
     }
 
+    /**
+     * Read the next n bits, without moving forward.
+     *
+     * @param n the number of bits (0 to 32)
+     * @return the value
+     */
+    int peekBits(int n) {
+        byte[] b = buffer;
+        int pos = bufferIndex;
+        int i = pos >>> 3;
+        long val = ((long) (b[i] & 0xff) << 56)
+                | ((long) (b[i + 1] & 0xff) << 48)
+                | ((long) (b[i + 2] & 0xff) << 40)
+                | ((long) (b[i + 3] & 0xff) << 32)
+                | ((long) (b[i + 4] & 0xff) << 24);
+        // shift in two steps, as a shift by 64 would not shift at all
+        return (int) ((val << (pos & 7)) >>> (63 - n) >>> 1);
+    }
+
+    void skipBits(int n) {
+        bitCount += n;
+        bufferIndex = (bufferIndex + n) & BUFFER_SIZE_MASK;
+    }
+
+    /**
+     * Read the next n bits.
+     *
+     * @param n the number of bits (0 to 32)
+     * @return the value
+     */
     int getBits(int n) {
+        int val = peekBits(n);
         bitCount += n;
-        int val = 0;
-        int pos = bufferIndex;
-        if (pos + n < BUFFER_SIZE) {
-            while (n-- > 0) {
-                val <<= 1;
-                val |= ((buffer[pos++] != 0) ? 1 : 0);
-            }
-        } else {
-            while (n-- > 0) {
-                val <<= 1;
-                val |= ((buffer[pos] != 0) ? 1 : 0);
-                pos = (pos + 1) & BUFFER_SIZE_MASK;
-            }
-        }
-        bufferIndex = pos;
+        bufferIndex = (bufferIndex + n) & BUFFER_SIZE_MASK;
         return val;
     }
 
     int getOneBit() {
+        int pos = bufferIndex;
         bitCount++;
-        int val = buffer[bufferIndex];
-        bufferIndex = (bufferIndex + 1) & BUFFER_SIZE_MASK;
-        return val;
+        bufferIndex = (pos + 1) & BUFFER_SIZE_MASK;
+        return (buffer[pos >>> 3] >> (7 - (pos & 7))) & 1;
     }
 
     void putByte(int val) {
         int ofs = offset;
-        buffer[ofs++] = val & 0x80;
-        buffer[ofs++] = val & 0x40;
-        buffer[ofs++] = val & 0x20;
-        buffer[ofs++] = val & 0x10;
-        buffer[ofs++] = val & 0x08;
-        buffer[ofs++] = val & 0x04;
-        buffer[ofs++] = val & 0x02;
-        buffer[ofs++] = val & 0x01;
-        if (ofs == BUFFER_SIZE) {
-            offset = 0;
-        } else {
-            offset = ofs;
+        buffer[ofs] = (byte) val;
+        if (ofs < OVERLAP) {
+            buffer[ofs + BUFFER_BYTES] = (byte) val;
         }
+        offset = (ofs + 1) & (BUFFER_BYTES - 1);
     }
 
     void rewindBits(int n) {
         bitCount -= n;
-        bufferIndex -= n;
-        if (bufferIndex < 0) {
-            bufferIndex += BUFFER_SIZE;
-        }
+        bufferIndex = (bufferIndex - n) & BUFFER_SIZE_MASK;
     }
 
     void rewindBytes(int n) {
         int bits = (n << 3);
         bitCount -= bits;
-        bufferIndex -= bits;
-        if (bufferIndex < 0) {
-            bufferIndex += BUFFER_SIZE;
-        }
+        bufferIndex = (bufferIndex - bits) & BUFFER_SIZE_MASK;
+    }
+
+    /**
+     * Remove all data.
+     */
+    void reset() {
+        offset = 0;
+        bitCount = 0;
+        bufferIndex = 0;
+        Arrays.fill(buffer, (byte) 0);
     }
 
 }
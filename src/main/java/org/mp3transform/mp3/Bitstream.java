@@ -33,13 +33,19 @@
  */
 package org.mp3transform.mp3;
 
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
- * This class is responsible for parsing an MPEG audio bitstream.
+ * This class is responsible for parsing an MPEG audio bitstream. The byte
+ * offsets of the frames that are read are added to the frame index. Seeking
+ * backwards requires a SeekableInputStream or a ByteBuffer as the source.
+ * <p>
+ * When reading from a ByteBuffer (for example a memory mapped file), the
+ * frames are parsed directly from the buffer, without copying the data.
  */
 public final class Bitstream {
     /**
@@ -50,6 +56,11 @@ public final class Bitstream {
      * Synchronization control constant for non-initial frame synchronizations.
      */
     static final byte STRICT_SYNC = 1;
+    /**
+     * The value returned by syncHeader at the end of the stream. It is not
+     * a valid header, as the sync bits are not set.
+     */
+    static final int END_OF_STREAM = 0;
     /**
      * Maximum size of the frame buffer. max. 1730 bytes per frame: 144 * 384kbit/s / 32000 Hz + 2 Bytes CRC
      */
@@ -78,39 +89,86 @@ public final class Bitstream {
             0, // dummy
             0x00000001, 0x00000003, 0x00000007, 0x0000000F, 0x0000001F, 0x0000003F, 0x0000007F, 0x000000FF, 0x000001FF, 0x000003FF, 0x000007FF, 0x00000FFF, 0x00001FFF, 0x00003FFF,
             0x00007FFF, 0x0000FFFF, 0x0001FFFF };
-    private final PushbackInputStream source;
+    private final InputStream in;
+    private PushbackInputStream source;
+    // the source, if reading from a buffer (then in and source are null)
+    private final ByteBuffer buffer;
+    // the buffer position of the data of the current frame
+    private int frameDataPos;
     private final Header header = new Header();
     private final byte[] syncBuffer = new byte[4];
-    private byte[] rawID3v2 = null;
+    // set by syncHeader when there are no more frames
+    private boolean endOfStream;
     private boolean firstFrame = true;
+    private final FrameIndex index;
+    // the position of the source when the bitstream was created
+    private final long start;
+    // the number of bytes read from the source (relative to start)
+    private long position;
+    // the position of the header of the current frame
+    private long headerPosition;
+    // the number of the frame that is returned by the next readFrame
+    private int frameNumber;
 
     public Bitstream(InputStream in) {
+        this.in = in;
+        index = new FrameIndex();
+        buffer = null;
+        long s = 0;
+        if (in instanceof SeekableInputStream) {
+            try {
+                s = ((SeekableInputStream) in).position();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        start = s;
         source = new PushbackInputStream(in, BUFFER_INT_SIZE * 4);
         loadID3v2();
         closeFrame();
     }
 
+    /**
+     * Create a bitstream that reads the remaining bytes of the buffer. The
+     * position of the given buffer is not changed.
+     *
+     * @param buffer the buffer
+     */
+    public Bitstream(ByteBuffer buffer) {
+        this(buffer, new FrameIndex());
+    }
+
+    /**
+     * Create a bitstream that reads the remaining bytes of the buffer, and
+     * uses the given index. This allows to create multiple bitstreams for the
+     * same data (for example one per thread) without indexing it again. The
+     * index must be complete, or not used by another bitstream.
+     *
+     * @param buffer the buffer
+     * @param index the index of the frames of the buffer
+     */
+    public Bitstream(ByteBuffer buffer, FrameIndex index) {
+        in = null;
+        this.index = index;
+        this.buffer = buffer.duplicate();
+        this.buffer.order(ByteOrder.BIG_ENDIAN);
+        start = this.buffer.position();
+        loadID3v2();
+        closeFrame();
+    }
+
     private void loadID3v2() {
         int size = -1;
         try {
             // read ID3v2 header
-            source.mark(10);
             size = readID3v2Header();
         } catch (IOException e) {
             // ignore
-        } finally {
-            try {
-                // unread ID3v2 header
-                source.reset();
-            } catch (IOException e) {
-                // ignore
-            }
         }
-        // load ID3v2 tags.
+        // skip the ID3v2 tags (they are not used)
         try {
             if (size > 0) {
-                rawID3v2 = new byte[size];
-                this.readBytes(rawID3v2, 0, rawID3v2.length);
+                skipFully(size);
             }
         } catch (IOException e) {
             // ignore
@@ -118,21 +176,21 @@ public final class Bitstream {
     }
 
     /**
-     * Parse ID3v2 tag header to find out size of ID3v2 frames.
+     * Parse ID3v2 tag header to find out size of ID3v2 frames. The header
+     * bytes are pushed back to the stream.
      * 
-     * @param in MP3 InputStream
      * @return size of ID3v2 frames + header
      * @throws IOException
      * @author JavaZOOM
      */
     private int readID3v2Header() throws IOException {
-        byte[] buff = new byte[4];
+        // the frame buffer is not used yet
+        byte[] buff = frameBytes;
         int size = -10;
-        readBytes(buff, 0, 3);
-        if (buff[0] == 'I' && buff[1] == 'D' && buff[2] == '3') {
-            readBytes(buff, 0, 3);
-            readBytes(buff, 0, 4);
-            size = (buff[0] << 21) + (buff[1] << 14) + (buff[2] << 7) + buff[3];
+        int read = readBytes(buff, 0, 10);
+        unread(buff, read);
+        if (read == 10 && buff[0] == 'I' && buff[1] == 'D' && buff[2] == '3') {
+            size = (buff[6] << 21) + (buff[7] << 14) + (buff[8] << 7) + buff[9];
         }
         return size + 10;
     }
@@ -144,26 +202,155 @@ public final class Bitstream {
      * @throws IOException
      */
     public Header readFrame() throws IOException {
-        try {
-            Header result = readNextFrame();
-            if (firstFrame) {
-                result.parseVBR(frameBytes);
-                firstFrame = false;
+        Header result = readNextFrame();
+        if (result == null) {
+            if (frameNumber == index.size() && !index.isComplete()) {
+                index.setComplete();
             }
-            return result;
-        } catch (EOFException e) {
             return null;
         }
+        if (firstFrame) {
+            if (buffer != null) {
+                int pos = buffer.position();
+                buffer.position(frameDataPos);
+                buffer.get(frameBytes, 0, Math.min(frameSize, buffer.remaining()));
+                buffer.position(pos);
+            }
+            result.parseVBR(frameBytes);
+            // a complete index is read only, it may be shared
+            if (!index.isComplete()) {
+                index.ensureCapacity(estimateFrameCount(result));
+            }
+            firstFrame = false;
+        }
+        if (frameNumber == index.size() && !index.isComplete()) {
+            index.add(headerPosition, result.samplesPerFrame());
+        }
+        frameNumber++;
+        return result;
+    }
+
+    /**
+     * Estimate the number of frames of the stream, so that the index doesn't
+     * need to grow while decoding. The estimate is based on the VBR header if
+     * there is one, otherwise on the remaining bytes of the source (if known)
+     * and the size of the first frame.
+     *
+     * @param first the header of the first frame
+     * @return the estimated number of frames
+     */
+    private int estimateFrameCount(Header first) {
+        VbrInfo info = first.vbrInfo();
+        if (info != null && info.getFrameCount() > 0) {
+            // the header frame itself is not counted
+            return info.getFrameCount() + 1;
+        }
+        long remaining = 0;
+        if (buffer != null) {
+            remaining = buffer.remaining();
+        } else {
+            try {
+                remaining = source.available();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        // frames with padding are larger, so this is an upper bound for
+        // constant bitrate streams; the frames of variable bitrate streams
+        // without a VBR header may be smaller than the first one
+        long frames = remaining / (first.frameSize() + 4) + 2;
+        return (int) Math.min(Integer.MAX_VALUE - 8, frames + frames / 4);
+    }
+
+    /**
+     * Get the index of the frames that were read so far.
+     *
+     * @return the frame index
+     */
+    public FrameIndex getFrameIndex() {
+        return index;
+    }
+
+    /**
+     * Get the number of the frame that is returned by the next call to
+     * readFrame.
+     *
+     * @return the frame number
+     */
+    public int getFrameNumber() {
+        return frameNumber;
+    }
+
+    /**
+     * Check whether the source is a SeekableInputStream or a ByteBuffer.
+     *
+     * @return true if it is possible to seek backwards
+     */
+    public boolean isSeekable() {
+        return buffer != null || in instanceof SeekableInputStream;
+    }
+
+    /**
+     * Position the stream at the given frame, so that the next call to
+     * readFrame returns this frame. The current frame is closed. Frames that
+     * are not indexed yet are read (but not decoded) to extend the index.
+     *
+     * @param frame the frame number
+     * @return false if the stream has fewer frames, in which case it is
+     *         positioned at the end
+     * @throws IOException if seeking backwards, and the source is not
+     *             seekable
+     */
+    public boolean seekFrame(int frame) throws IOException {
+        closeFrame();
+        int size = index.size();
+        if (frame < size) {
+            seek(index.getOffset(frame));
+            frameNumber = frame;
+            return true;
+        }
+        if (frameNumber < size) {
+            // continue at the last indexed frame
+            seek(index.getOffset(size - 1));
+            frameNumber = size - 1;
+        }
+        while (frameNumber < frame) {
+            if (readFrame() == null) {
+                return false;
+            }
+            closeFrame();
+        }
+        return true;
+    }
+
+    private void seek(long pos) throws IOException {
+        if (buffer != null) {
+            buffer.position((int) Math.min(start + pos, buffer.limit()));
+            position = buffer.position() - start;
+        } else if (in instanceof SeekableInputStream) {
+            ((SeekableInputStream) in).seek(start + pos);
+            source = new PushbackInputStream(in, BUFFER_INT_SIZE * 4);
+            position = pos;
+        } else if (pos >= position) {
+            skipFully(pos - position);
+        } else {
+            throw new IOException("Can not seek backwards, the source is not seekable");
+        }
     }
 
+    /**
+     * Read the header of the next frame, if it was not read yet.
+     *
+     * @return the header, or null at the end of the stream
+     */
     private Header readNextFrame() throws IOException {
         if (frameSize == -1) {
-            while (true) {
-                boolean ok = header.readHeader(this);
-                if (ok) {
-                    break;
-                }
+            endOfStream = false;
+            while (!header.readHeader(this)) {
                 closeFrame();
+                if (endOfStream) {
+                    return null;
+                }
             }
         }
         return header;
@@ -171,7 +358,12 @@ public final class Bitstream {
 
     void unreadFrame() throws IOException {
         if (wordPointer == -1 && bitIndex == -1 && frameSize > 0) {
-            source.unread(frameBytes, 0, frameSize);
+            if (buffer != null) {
+                position -= buffer.position() - frameDataPos;
+                buffer.position(frameDataPos);
+            } else {
+                unread(frameBytes, frameSize);
+            }
         }
     }
 
@@ -188,7 +380,7 @@ public final class Bitstream {
         int read = readBytes(syncBuffer, 0, 4);
         int headerString = ((syncBuffer[0] << 24) & 0xFF000000) | ((syncBuffer[1] << 16) & 0x00FF0000) | ((syncBuffer[2] << 8) & 0x0000FF00) | ((syncBuffer[3] << 0) & 0x000000FF);
         try {
-            source.unread(syncBuffer, 0, read);
+            unread(syncBuffer, read);
         } catch (IOException ex) {
             // ignore
         }
@@ -203,7 +395,9 @@ public final class Bitstream {
 
     /**
      * Get next 32 bits from bitstream. They are stored in the headerstring. syncmod allows Synchro flag ID The returned
-     * value is False at the end of stream.
+     * value is END_OF_STREAM (which is never a valid header) at the end of
+     * stream. No exception is thrown, so that reaching the end doesn't
+     * allocate.
      * 
      * @param syncMode
      */
@@ -213,17 +407,20 @@ public final class Bitstream {
         // read additional 2 bytes
         int bytesRead = readBytes(syncBuffer, 0, 3);
         if (bytesRead != 3) {
-            throw new EOFException();
+            endOfStream = true;
+            return END_OF_STREAM;
         }
         headerString = ((syncBuffer[0] << 16) & 0x00FF0000) | ((syncBuffer[1] << 8) & 0x0000FF00) | ((syncBuffer[2] << 0) & 0x000000FF);
         do {
             headerString <<= 8;
             if (readBytes(syncBuffer, 3, 1) != 1) {
-                throw new EOFException();
+                endOfStream = true;
+                return END_OF_STREAM;
             }
             headerString |= (syncBuffer[3] & 0x000000FF);
             sync = isSyncMark(headerString, syncMode, syncWord);
         } while (!sync);
+        headerPosition = position - 4;
         return headerString;
     }
 
@@ -254,7 +451,15 @@ public final class Bitstream {
      */
     int readFrameData(int byteSize) throws IOException {
         int numread = 0;
-        numread = readFully(frameBytes, 0, byteSize);
+        if (buffer != null) {
+            // the frame is parsed from the buffer
+            frameDataPos = buffer.position();
+            numread = Math.max(0, Math.min(byteSize, buffer.remaining()));
+            buffer.position(frameDataPos + numread);
+            position += numread;
+        } else {
+            numread = readFully(frameBytes, 0, byteSize);
+        }
         frameSize = byteSize;
         wordPointer = -1;
         bitIndex = -1;
@@ -265,6 +470,10 @@ public final class Bitstream {
      * Parses the data previously read with readFrameData().
      */
     void parseFrame() {
+        if (buffer != null) {
+            parseFrameBuffer();
+            return;
+        }
         // Convert bytes read to int
         int b = 0;
         byte[] byteRead = frameBytes;
@@ -290,6 +499,26 @@ public final class Bitstream {
         bitIndex = 0;
     }
 
+    private void parseFrameBuffer() {
+        ByteBuffer buff = buffer;
+        int pos = frameDataPos;
+        int end = Math.min(pos + frameSize, buff.limit());
+        int b = 0;
+        for (; pos + 4 <= end; pos += 4) {
+            frameBuffer[b++] = buff.getInt(pos);
+        }
+        // the last partial word, and zeros for the missing data at the end
+        for (; pos < frameDataPos + frameSize; pos += 4) {
+            int x = 0;
+            for (int i = 0; i < 4; i++) {
+                x = (x << 8) | (pos + i < end ? buff.get(pos + i) & 0xff : 0);
+            }
+            frameBuffer[b++] = x;
+        }
+        wordPointer = 0;
+        bitIndex = 0;
+    }
+
     /**
      * Read bits from buffer into the lower bits of an unsigned int. The LSB contains the latest read bit of the stream.
      * (1 <= numberOfBits <= 16)
@@ -354,6 +583,7 @@ public final class Bitstream {
             offs += bytesRead;
             len -= bytesRead;
         }
+        position += read;
         return read;
     }
 
@@ -361,6 +591,12 @@ public final class Bitstream {
      * Simlar to readFully, but doesn't throw exception when EOF is reached.
      */
     private int readBytes(byte[] b, int offs, int len) throws IOException {
+        if (buffer != null) {
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, offs, len);
+            position += len;
+            return len;
+        }
         int totalBytesRead = 0;
         while (len > 0) {
             int bytesRead = source.read(b, offs, len);
@@ -371,6 +607,36 @@ public final class Bitstream {
             offs += bytesRead;
             len -= bytesRead;
         }
+        position += totalBytesRead;
         return totalBytesRead;
     }
+
+    private void unread(byte[] b, int len) throws IOException {
+        if (buffer != null) {
+            buffer.position(buffer.position() - len);
+        } else {
+            source.unread(b, 0, len);
+        }
+        position -= len;
+    }
+
+    private void skipFully(long n) throws IOException {
+        if (buffer != null) {
+            int len = (int) Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + len);
+            position += len;
+            return;
+        }
+        while (n > 0) {
+            long skipped = source.skip(n);
+            if (skipped <= 0) {
+                if (source.read() < 0) {
+                    break;
+                }
+                skipped = 1;
+            }
+            position += skipped;
+            n -= skipped;
+        }
+    }
 }
@@ -17,10 +17,20 @@
 package org.mp3transform.mp3;
 
 public class Constants {
-    static final double[] POW2 = new double[256];
+    /**
+     * The largest scale index (scale factor, pre-emphasis and subblock gain,
+     * scaled) of a line.
+     */
+    static final int MAX_SCALE_INDEX = 63;
+    /**
+     * The combined global and scale factor gain 2^((globalGain - 210) / 4 -
+     * scaleIndex / 2), at the index globalGain - 2 * scaleIndex + GAIN_OFFSET.
+     */
+    static final int GAIN_OFFSET = 2 * MAX_SCALE_INDEX;
+    static final double[] GAIN = new double[256 + GAIN_OFFSET];
     static {
-        for (int i = 0; i < POW2.length; i++) {
-            POW2[i] = Math.pow(2.0, (0.25 * (i - 210.0)));
+        for (int i = 0; i < GAIN.length; i++) {
+            GAIN[i] = Math.pow(2.0, (0.25 * (i - GAIN_OFFSET - 210.0)));
         }
     }
     private static final double[] D = { 0.0f, -4.42505E-4f, 0.003250122f, -0.007003784f, 0.031082153f, -0.07862854f,
@@ -93,29 +103,25 @@ public class Constants {
             -0.029785156f, 0.008865356f, -0.003387451f, 5.34058E-4f, 1.5259E-5f, -3.96729E-4f, -0.003173828f,
             -0.006118774f, -0.03147888f, -0.07305908f, -0.1088562f, -0.54382324f, -1.1442871f, 0.6002197f,
             -0.090927124f, 0.08418274f, -0.030517578f, 0.007919312f, -0.003326416f, 4.73022E-4f, 1.5259E-5f };
-    static final double[] TWO_TO_NEGATIVE_HALF_POW = { 1.0000000000E+00f, 7.0710678119E-01f, 5.0000000000E-01f,
-            3.5355339059E-01f, 2.5000000000E-01f, 1.7677669530E-01f, 1.2500000000E-01f, 8.8388347648E-02f,
-            6.2500000000E-02f, 4.4194173824E-02f, 3.1250000000E-02f, 2.2097086912E-02f, 1.5625000000E-02f,
-            1.1048543456E-02f, 7.8125000000E-03f, 5.5242717280E-03f, 3.9062500000E-03f, 2.7621358640E-03f,
-            1.9531250000E-03f, 1.3810679320E-03f, 9.7656250000E-04f, 6.9053396600E-04f, 4.8828125000E-04f,
-            3.4526698300E-04f, 2.4414062500E-04f, 1.7263349150E-04f, 1.2207031250E-04f, 8.6316745750E-05f,
-            6.1035156250E-05f, 4.3158372875E-05f, 3.0517578125E-05f, 2.1579186438E-05f, 1.5258789062E-05f,
-            1.0789593219E-05f, 7.6293945312E-06f, 5.3947966094E-06f, 3.8146972656E-06f, 2.6973983047E-06f,
-            1.9073486328E-06f, 1.3486991523E-06f, 9.5367431641E-07f, 6.7434957617E-07f, 4.7683715820E-07f,
-            3.3717478809E-07f, 2.3841857910E-07f, 1.6858739404E-07f, 1.1920928955E-07f, 8.4293697022E-08f,
-            5.9604644775E-08f, 4.2146848511E-08f, 2.9802322388E-08f, 2.1073424255E-08f, 1.4901161194E-08f,
-            1.0536712128E-08f, 7.4505805969E-09f, 5.2683560639E-09f, 3.7252902985E-09f, 2.6341780319E-09f,
-            1.8626451492E-09f, 1.3170890160E-09f, 9.3132257462E-10f, 6.5854450798E-10f, 4.6566128731E-10f,
-            3.2927225399E-10f };
     static final double[] TAN12 = { 0.0f, 0.26794919f, 0.57735027f, 1.0f, 1.73205081f, 3.73205081f, 9.9999999e10f,
             -3.73205081f, -1.73205081f, -1.0f, -0.57735027f, -0.26794919f, 0.0f, 0.26794919f, 0.57735027f, 1.0f };
-    static final int T43_SIZE = 8192;
-    static final double[] T43 = new double[T43_SIZE];
+    /**
+     * The number of quantized absolute values: the largest is 15 plus 13
+     * linbits.
+     */
+    static final int T43_SIZE = 15 + (1 << 13);
+    /**
+     * The values sign(v) * |v|^(4/3), at the index v + T43_ZERO.
+     */
+    static final int T43_ZERO = T43_SIZE - 1;
+    static final double[] T43 = new double[2 * T43_SIZE - 1];
     static {
         // DOUBLE
         double d43 = (4.0 / 3.0);
         for (int i = 0; i < T43_SIZE; i++) {
-            T43[i] = Math.pow(i, d43);
+            double x = Math.pow(i, d43);
+            T43[T43_ZERO + i] = x;
+            T43[T43_ZERO - i] = -x;
         }
     }
     static final int[][][] NR_OF_SFB_BLOCK = { { { 6, 5, 5, 5 }, { 9, 9, 9, 9 }, { 6, 9, 9, 9 } },
@@ -499,6 +505,8 @@ public class Constants {
             { 0 /* free format */, 8000, 16000, 24000, 32000, 40000, 48000, 56000, 64000, 80000, 96000, 112000,
                     128000, 144000, 160000, 0 } };
     static final int[][] REORDER_TABLE;
+    // the same for mixed blocks; -1 for lines that are zero
+    static final int[][] MIXED_REORDER_TABLE;
 
     public static class SBI {
         public int[] l;
@@ -540,8 +548,17 @@ public class Constants {
         SF_BAND_INDEX[7] = new SBI(l7, s7);
         SF_BAND_INDEX[8] = new SBI(l8, s8);
         REORDER_TABLE = new int[9][];
+        MIXED_REORDER_TABLE = new int[9][];
         for (int i = 0; i < 9; i++) {
-            REORDER_TABLE[i] = reorder(SF_BAND_INDEX[i].s);
+            int[] s = SF_BAND_INDEX[i].s;
+            REORDER_TABLE[i] = reorder(s);
+            // the first two subbands are long blocks, and not reordered;
+            // the short blocks start at scale factor band 3
+            int[] mixed = REORDER_TABLE[i].clone();
+            for (int j = 0; j < 3 * s[3]; j++) {
+                mixed[j] = j < 36 ? j : -1;
+            }
+            MIXED_REORDER_TABLE[i] = mixed;
         }
     }
 
@@ -618,4 +635,75 @@ public class Constants {
         }
         return subarray;
     }
+
+    /**
+     * Round the values of an array to float.
+     *
+     * @param array the array
+     * @return the new array
+     */
+    static float[] toFloat(double[] array) {
+        float[] f = new float[array.length];
+        for (int i = 0; i < array.length; i++) {
+            f[i] = (float) array[i];
+        }
+        return f;
+    }
+
+    /**
+     * Round the values of a two-dimensional array to float.
+     *
+     * @param array the array
+     * @return the new array
+     */
+    static float[][] toFloat(double[][] array) {
+        float[][] f = new float[array.length][];
+        for (int i = 0; i < array.length; i++) {
+            f[i] = toFloat(array[i]);
+        }
+        return f;
+    }
+
+    /**
+     * Convert a value to fixed point. Values that are out of range are
+     * saturated.
+     *
+     * @param x the value
+     * @param fractionBits the number of fraction bits
+     * @return the fixed point value
+     */
+    static int toFixed(double x, int fractionBits) {
+        long v = Math.round(x * (1L << fractionBits));
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, v));
+    }
+
+    /**
+     * Convert the values of an array to fixed point.
+     *
+     * @param array the array
+     * @param fractionBits the number of fraction bits
+     * @return the new array
+     */
+    static int[] toFixed(double[] array, int fractionBits) {
+        int[] f = new int[array.length];
+        for (int i = 0; i < array.length; i++) {
+            f[i] = toFixed(array[i], fractionBits);
+        }
+        return f;
+    }
+
+    /**
+     * Convert the values of a two-dimensional array to fixed point.
+     *
+     * @param array the array
+     * @param fractionBits the number of fraction bits
+     * @return the new array
+     */
+    static int[][] toFixed(double[][] array, int fractionBits) {
+        int[][] f = new int[array.length][];
+        for (int i = 0; i < array.length; i++) {
+            f[i] = toFixed(array[i], fractionBits);
+        }
+        return f;
+    }
 }
@@ -0,0 +1,403 @@
+/*
+ * 11/19/04 1.0 moved to LGPL.
+ * 
+ * 04/01/00 Fixes for running under build 23xx Microsoft JVM. mdm.
+ * 
+ * 19/12/99 Performance improvements to compute_pcm_samples().  
+ * Mat McGowan. mdm@techie.com. 
+ *
+ * 16/02/99 Java Conversion by E.B , javalayer@javazoom.net
+ *
+ *  @(#) synthesis_filter.h 1.8, last edit: 6/15/94 16:52:00
+ *  @(#) Copyright (C) 1993, 1994 Tobias Bading (bading@cs.tu-berlin.de)
+ *  @(#) Berlin University of Technology
+ *
+ *-----------------------------------------------------------------------
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+import java.util.Arrays;
+
+/**
+ * The fixed point version of the synthesis filter bank, used by the fixed
+ * point engine. The subband samples have Layer3FixedEngine.FRAC_BITS fraction
+ * bits. The products of the windowing are summed up in a long.
+ */
+public final class FixedSynthesisFilter extends AbstractSynthesisFilter {
+    private final int[] v1 = new int[V_LENGTH];
+    private final int[] v2 = new int[V_LENGTH];
+    private int[] samples = new int[32]; // 32 new subband samples
+    private final int[] nv = new int[32]; // the new values of the V vectors
+    private long scaleFactor;
+    private int[] tmpOutBuffer = new int[32];
+    private static final int FRAC_BITS = Layer3FixedEngine.FRAC_BITS;
+    private static final int COEF_BITS = Layer3FixedEngine.COEF_BITS;
+    private static final int SCALE_BITS = 8;
+    private static final double MY_PI = 3.14159265358979323846;
+    private static final int COS1_64 = divCos(MY_PI / 64.0);
+    private static final int COS3_64 = divCos(MY_PI * 3.0 / 64.0);
+    private static final int COS5_64 = divCos(MY_PI * 5.0 / 64.0);
+    private static final int COS7_64 = divCos(MY_PI * 7.0 / 64.0);
+    private static final int COS9_64 = divCos(MY_PI * 9.0 / 64.0);
+    private static final int COS11_64 = divCos(MY_PI * 11.0 / 64.0);
+    private static final int COS13_64 = divCos(MY_PI * 13.0 / 64.0);
+    private static final int COS15_64 = divCos(MY_PI * 15.0 / 64.0);
+    private static final int COS17_64 = divCos(MY_PI * 17.0 / 64.0);
+    private static final int COS19_64 = divCos(MY_PI * 19.0 / 64.0);
+    private static final int COS21_64 = divCos(MY_PI * 21.0 / 64.0);
+    private static final int COS23_64 = divCos(MY_PI * 23.0 / 64.0);
+    private static final int COS25_64 = divCos(MY_PI * 25.0 / 64.0);
+    private static final int COS27_64 = divCos(MY_PI * 27.0 / 64.0);
+    private static final int COS29_64 = divCos(MY_PI * 29.0 / 64.0);
+    private static final int COS31_64 = divCos(MY_PI * 31.0 / 64.0);
+    private static final int COS1_32 = divCos(MY_PI / 32.0);
+    private static final int COS3_32 = divCos(MY_PI * 3.0 / 32.0);
+    private static final int COS5_32 = divCos(MY_PI * 5.0 / 32.0);
+    private static final int COS7_32 = divCos(MY_PI * 7.0 / 32.0);
+    private static final int COS9_32 = divCos(MY_PI * 9.0 / 32.0);
+    private static final int COS11_32 = divCos(MY_PI * 11.0 / 32.0);
+    private static final int COS13_32 = divCos(MY_PI * 13.0 / 32.0);
+    private static final int COS15_32 = divCos(MY_PI * 15.0 / 32.0);
+    private static final int COS1_16 = divCos(MY_PI / 16.0);
+    private static final int COS3_16 = divCos(MY_PI * 3.0 / 16.0);
+    private static final int COS5_16 = divCos(MY_PI * 5.0 / 16.0);
+    private static final int COS7_16 = divCos(MY_PI * 7.0 / 16.0);
+    private static final int COS1_8 = divCos(MY_PI / 8.0);
+    private static final int COS3_8 = divCos(MY_PI * 3.0 / 8.0);
+    private static final int COS1_4 = divCos(MY_PI / 4.0);
+    private static final int[][] D16 = Constants.toFixed(Constants.D16, COEF_BITS);
+
+    /**
+     * Contructor. The scalefactor scales the calculated pcm samples to short values (raw pcm samples are in
+     * [-1.0, 1.0], if no violations occur).
+     */
+    public FixedSynthesisFilter(int channelNumber, double factor) {
+        super(channelNumber);
+        scaleFactor = Math.round(factor * (1 << SCALE_BITS));
+    }
+
+    void clear() {
+        Arrays.fill(v1, 0);
+        Arrays.fill(v2, 0);
+    }
+
+    private static int divCos(double a) {
+        return Constants.toFixed(1.0 / (2.0 * StrictMath.cos(a)), COEF_BITS);
+    }
+
+    private static int mul(int a, int b) {
+        return (int) (((long) a * b) >> COEF_BITS);
+    }
+
+    /**
+     * Convert a sum of windowed values to a pcm sample. Like in the floating
+     * point filters, the result is truncated towards zero.
+     */
+    private int toPcm(long sum) {
+        long x = (sum >> COEF_BITS) * scaleFactor;
+        return (int) (x < 0 ? -(-x >> (FRAC_BITS + SCALE_BITS)) : x >> (FRAC_BITS + SCALE_BITS));
+    }
+
+    /**
+     * Compute new values via a fast cosine transform.
+     */
+    private void computeNewV() {
+        int[] nv = this.nv;
+        int[] s = samples;
+        int s0 = s[0];
+        int s1 = s[1];
+        int s2 = s[2];
+        int s3 = s[3];
+        int s4 = s[4];
+        int s5 = s[5];
+        int s6 = s[6];
+        int s7 = s[7];
+        int s8 = s[8];
+        int s9 = s[9];
+        int s10 = s[10];
+        int s11 = s[11];
+        int s12 = s[12];
+        int s13 = s[13];
+        int s14 = s[14];
+        int s15 = s[15];
+        int s16 = s[16];
+        int s17 = s[17];
+        int s18 = s[18];
+        int s19 = s[19];
+        int s20 = s[20];
+        int s21 = s[21];
+        int s22 = s[22];
+        int s23 = s[23];
+        int s24 = s[24];
+        int s25 = s[25];
+        int s26 = s[26];
+        int s27 = s[27];
+        int s28 = s[28];
+        int s29 = s[29];
+        int s30 = s[30];
+        int s31 = s[31];
+        int p0 = s0 + s31;
+        int p1 = s1 + s30;
+        int p2 = s2 + s29;
+        int p3 = s3 + s28;
+        int p4 = s4 + s27;
+        int p5 = s5 + s26;
+        int p6 = s6 + s25;
+        int p7 = s7 + s24;
+        int p8 = s8 + s23;
+        int p9 = s9 + s22;
+        int p10 = s10 + s21;
+        int p11 = s11 + s20;
+        int p12 = s12 + s19;
+        int p13 = s13 + s18;
+        int p14 = s14 + s17;
+        int p15 = s15 + s16;
+        int pp0 = p0 + p15;
+        int pp1 = p1 + p14;
+        int pp2 = p2 + p13;
+        int pp3 = p3 + p12;
+        int pp4 = p4 + p11;
+        int pp5 = p5 + p10;
+        int pp6 = p6 + p9;
+        int pp7 = p7 + p8;
+        int pp8 = mul(p0 - p15, COS1_32);
+        int pp9 = mul(p1 - p14, COS3_32);
+        int pp10 = mul(p2 - p13, COS5_32);
+        int pp11 = mul(p3 - p12, COS7_32);
+        int pp12 = mul(p4 - p11, COS9_32);
+        int pp13 = mul(p5 - p10, COS11_32);
+        int pp14 = mul(p6 - p9, COS13_32);
+        int pp15 = mul(p7 - p8, COS15_32);
+        p0 = pp0 + pp7;
+        p1 = pp1 + pp6;
+        p2 = pp2 + pp5;
+        p3 = pp3 + pp4;
+        p4 = mul(pp0 - pp7, COS1_16);
+        p5 = mul(pp1 - pp6, COS3_16);
+        p6 = mul(pp2 - pp5, COS5_16);
+        p7 = mul(pp3 - pp4, COS7_16);
+        p8 = pp8 + pp15;
+        p9 = pp9 + pp14;
+        p10 = pp10 + pp13;
+        p11 = pp11 + pp12;
+        p12 = mul(pp8 - pp15, COS1_16);
+        p13 = mul(pp9 - pp14, COS3_16);
+        p14 = mul(pp10 - pp13, COS5_16);
+        p15 = mul(pp11 - pp12, COS7_16);
+        pp0 = p0 + p3;
+        pp1 = p1 + p2;
+        pp2 = mul(p0 - p3, COS1_8);
+        pp3 = mul(p1 - p2, COS3_8);
+        pp4 = p4 + p7;
+        pp5 = p5 + p6;
+        pp6 = mul(p4 - p7, COS1_8);
+        pp7 = mul(p5 - p6, COS3_8);
+        pp8 = p8 + p11;
+        pp9 = p9 + p10;
+        pp10 = mul(p8 - p11, COS1_8);
+        pp11 = mul(p9 - p10, COS3_8);
+        pp12 = p12 + p15;
+        pp13 = p13 + p14;
+        pp14 = mul(p12 - p15, COS1_8);
+        pp15 = mul(p13 - p14, COS3_8);
+        p0 = pp0 + pp1;
+        p1 = mul(pp0 - pp1, COS1_4);
+        p2 = pp2 + pp3;
+        p3 = mul(pp2 - pp3, COS1_4);
+        p4 = pp4 + pp5;
+        p5 = mul(pp4 - pp5, COS1_4);
+        p6 = pp6 + pp7;
+        p7 = mul(pp6 - pp7, COS1_4);
+        p8 = pp8 + pp9;
+        p9 = mul(pp8 - pp9, COS1_4);
+        p10 = pp10 + pp11;
+        p11 = mul(pp10 - pp11, COS1_4);
+        p12 = pp12 + pp13;
+        p13 = mul(pp12 - pp13, COS1_4);
+        p14 = pp14 + pp15;
+        p15 = mul(pp14 - pp15, COS1_4);
+        // this is pretty insane coding
+        int tmp1;
+        nv[19] = -(nv[4] = (nv[12] = p7) + p5) - p6; // 36-17
+        nv[27] = -p6 - p7 - p4; // 44-17
+        nv[6] = (nv[10] = (nv[14] = p15) + p11) + p13;
+        nv[17] = -(nv[2] = p15 + p13 + p9) - p14; // 34-17
+        nv[21] = (tmp1 = -p14 - p15 - p10 - p11) - p13; // 38-17
+        nv[29] = -p14 - p15 - p12 - p8; // 46-17
+        nv[25] = tmp1 - p12; // 42-17
+        nv[31] = -p0; // 48-17
+        nv[0] = p1;
+        nv[23] = -(nv[8] = p3) - p2; // 40-17
+        p0 = mul(s0 - s31, COS1_64);
+        p1 = mul(s1 - s30, COS3_64);
+        p2 = mul(s2 - s29, COS5_64);
+        p3 = mul(s3 - s28, COS7_64);
+        p4 = mul(s4 - s27, COS9_64);
+        p5 = mul(s5 - s26, COS11_64);
+        p6 = mul(s6 - s25, COS13_64);
+        p7 = mul(s7 - s24, COS15_64);
+        p8 = mul(s8 - s23, COS17_64);
+        p9 = mul(s9 - s22, COS19_64);
+        p10 = mul(s10 - s21, COS21_64);
+        p11 = mul(s11 - s20, COS23_64);
+        p12 = mul(s12 - s19, COS25_64);
+        p13 = mul(s13 - s18, COS27_64);
+        p14 = mul(s14 - s17, COS29_64);
+        p15 = mul(s15 - s16, COS31_64);
+        pp0 = p0 + p15;
+        pp1 = p1 + p14;
+        pp2 = p2 + p13;
+        pp3 = p3 + p12;
+        pp4 = p4 + p11;
+        pp5 = p5 + p10;
+        pp6 = p6 + p9;
+        pp7 = p7 + p8;
+        pp8 = mul(p0 - p15, COS1_32);
+        pp9 = mul(p1 - p14, COS3_32);
+        pp10 = mul(p2 - p13, COS5_32);
+        pp11 = mul(p3 - p12, COS7_32);
+        pp12 = mul(p4 - p11, COS9_32);
+        pp13 = mul(p5 - p10, COS11_32);
+        pp14 = mul(p6 - p9, COS13_32);
+        pp15 = mul(p7 - p8, COS15_32);
+        p0 = pp0 + pp7;
+        p1 = pp1 + pp6;
+        p2 = pp2 + pp5;
+        p3 = pp3 + pp4;
+        p4 = mul(pp0 - pp7, COS1_16);
+        p5 = mul(pp1 - pp6, COS3_16);
+        p6 = mul(pp2 - pp5, COS5_16);
+        p7 = mul(pp3 - pp4, COS7_16);
+        p8 = pp8 + pp15;
+        p9 = pp9 + pp14;
+        p10 = pp10 + pp13;
+        p11 = pp11 + pp12;
+        p12 = mul(pp8 - pp15, COS1_16);
+        p13 = mul(pp9 - pp14, COS3_16);
+        p14 = mul(pp10 - pp13, COS5_16);
+        p15 = mul(pp11 - pp12, COS7_16);
+        pp0 = p0 + p3;
+        pp1 = p1 + p2;
+        pp2 = mul(p0 - p3, COS1_8);
+        pp3 = mul(p1 - p2, COS3_8);
+        pp4 = p4 + p7;
+        pp5 = p5 + p6;
+        pp6 = mul(p4 - p7, COS1_8);
+        pp7 = mul(p5 - p6, COS3_8);
+        pp8 = p8 + p11;
+        pp9 = p9 + p10;
+        pp10 = mul(p8 - p11, COS1_8);
+        pp11 = mul(p9 - p10, COS3_8);
+        pp12 = p12 + p15;
+        pp13 = p13 + p14;
+        pp14 = mul(p12 - p15, COS1_8);
+        pp15 = mul(p13 - p14, COS3_8);
+        p0 = pp0 + pp1;
+        p1 = mul(pp0 - pp1, COS1_4);
+        p2 = pp2 + pp3;
+        p3 = mul(pp2 - pp3, COS1_4);
+        p4 = pp4 + pp5;
+        p5 = mul(pp4 - pp5, COS1_4);
+        p6 = pp6 + pp7;
+        p7 = mul(pp6 - pp7, COS1_4);
+        p8 = pp8 + pp9;
+        p9 = mul(pp8 - pp9, COS1_4);
+        p10 = pp10 + pp11;
+        p11 = mul(pp10 - pp11, COS1_4);
+        p12 = pp12 + pp13;
+        p13 = mul(pp12 - pp13, COS1_4);
+        p14 = pp14 + pp15;
+        p15 = mul(pp14 - pp15, COS1_4);
+        // manually doing something that a compiler should handle sucks
+        // coding like this is hard to read
+        int tmp2;
+        nv[5] = (nv[11] = (nv[13] = (nv[15] = p15) + p7) + p11) + p5 + p13;
+        nv[7] = (nv[9] = p15 + p11 + p3) + p13;
+        nv[16] = -(nv[1] = (tmp1 = p13 + p15 + p9) + p1) - p14; // 33-17
+        nv[18] = -(nv[3] = tmp1 + p5 + p7) - p6 - p14; // 35-17
+        nv[22] = (tmp1 = -p10 - p11 - p14 - p15) - p13 - p2 - p3; // 39-17
+        nv[20] = tmp1 - p13 - p5 - p6 - p7; // 37-17
+        nv[24] = tmp1 - p12 - p2 - p3; // 41-17
+        nv[26] = tmp1 - p12 - (tmp2 = p4 + p6 + p7); // 43-17
+        nv[30] = (tmp1 = -p8 - p12 - p14 - p15) - p0; // 47-17
+        nv[28] = tmp1 - tmp2; // 45-17
+        // insert V[0-15] (== nv[0-15]) and V[17-31] (== -nv[15-1]) into the
+        // actual v, and V[32] (== -nv[0]), V[33-48] (== nv[16-31]) and
+        // V[49-63] (== nv[30-16]) into the other v; V[16] is always 0
+        int[] dest = firstV ? v1 : v2;
+        int[] other = firstV ? v2 : v1;
+        int pos = writePos;
+        put(dest, 0, pos, nv[0]);
+        put(dest, 16, pos, 0);
+        put(other, 0, pos, -nv[0]);
+        put(other, 16, pos, nv[31]);
+        for (int i = 1; i < 16; i++) {
+            put(dest, i, pos, nv[i]);
+            put(dest, 32 - i, pos, -nv[i]);
+            put(other, i, pos, nv[15 + i]);
+            put(other, 32 - i, pos, nv[15 + i]);
+        }
+    }
+
+    /**
+     * Set the value at the given position of a row of a V vector.
+     */
+    private static void put(int[] v, int row, int pos, int x) {
+        int i = (row << 5) + 15 - pos;
+        v[i] = x;
+        v[i + 16] = x;
+    }
+
+    /**
+     * Calculate the PCM samples from the actual V vector (the windowing).
+     */
+    private void window(int step) {
+        int[] v = firstV ? v1 : v2;
+        int[] out = tmpOutBuffer;
+        for (int i = 0, o = 15 - writePos; i < 32; i += step, o += step << 5) {
+            int[] d = D16[i];
+            // written out, as the JIT compiler doesn't unroll the loop
+            long sum = (long) v[o] * d[0] + (long) v[o + 1] * d[1] + (long) v[o + 2] * d[2]
+                    + (long) v[o + 3] * d[3] + (long) v[o + 4] * d[4] + (long) v[o + 5] * d[5]
+                    + (long) v[o + 6] * d[6] + (long) v[o + 7] * d[7] + (long) v[o + 8] * d[8]
+                    + (long) v[o + 9] * d[9] + (long) v[o + 10] * d[10] + (long) v[o + 11] * d[11]
+                    + (long) v[o + 12] * d[12] + (long) v[o + 13] * d[13] + (long) v[o + 14] * d[14]
+                    + (long) v[o + 15] * d[15];
+            out[i] = toPcm(sum);
+        }
+    }
+
+    /**
+     * Calculate 32 PCM samples and write them. With a step of 2 or 4, only
+     * every second or fourth sample is calculated and written, which
+     * reduces the sample rate (the caller must clear the upper subbands).
+     *
+     * @param s the 32 subband samples
+     * @param buffer the target buffer
+     * @param step 1, 2 or 4
+     */
+    void calculatePcmSamples(int[] s, SampleBuffer buffer, int step) {
+        for (int i = 0; i < 32; i++) {
+            samples[i] = s[i];
+        }
+        computeNewV();
+        window(step);
+        buffer.append(channel, tmpOutBuffer, step);
+        next();
+    }
+
+}
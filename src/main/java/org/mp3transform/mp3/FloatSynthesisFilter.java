@@ -0,0 +1,390 @@
+/*
+ * 11/19/04 1.0 moved to LGPL.
+ * 
+ * 04/01/00 Fixes for running under build 23xx Microsoft JVM. mdm.
+ * 
+ * 19/12/99 Performance improvements to compute_pcm_samples().  
+ * Mat McGowan. mdm@techie.com. 
+ *
+ * 16/02/99 Java Conversion by E.B , javalayer@javazoom.net
+ *
+ *  @(#) synthesis_filter.h 1.8, last edit: 6/15/94 16:52:00
+ *  @(#) Copyright (C) 1993, 1994 Tobias Bading (bading@cs.tu-berlin.de)
+ *  @(#) Berlin University of Technology
+ *
+ *-----------------------------------------------------------------------
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+import java.util.Arrays;
+
+/**
+ * The single precision version of the synthesis filter bank, used by the
+ * float engine.
+ */
+public final class FloatSynthesisFilter extends AbstractSynthesisFilter {
+    private final float[] v1 = new float[V_LENGTH];
+    private final float[] v2 = new float[V_LENGTH];
+    private float[] samples = new float[32]; // 32 new subband samples
+    private final float[] nv = new float[32]; // the new values of the V vectors
+    private float scaleFactor;
+    private float[] tmpOutBuffer = new float[32];
+    private static final double MY_PI = 3.14159265358979323846;
+    // the SIMD implementation of the windowing, if available
+    private static final SimdSynthesis SIMD = SimdSynthesis.INSTANCE;
+    private static final float COS1_64 = divCos(MY_PI / 64.0);
+    private static final float COS3_64 = divCos(MY_PI * 3.0 / 64.0);
+    private static final float COS5_64 = divCos(MY_PI * 5.0 / 64.0);
+    private static final float COS7_64 = divCos(MY_PI * 7.0 / 64.0);
+    private static final float COS9_64 = divCos(MY_PI * 9.0 / 64.0);
+    private static final float COS11_64 = divCos(MY_PI * 11.0 / 64.0);
+    private static final float COS13_64 = divCos(MY_PI * 13.0 / 64.0);
+    private static final float COS15_64 = divCos(MY_PI * 15.0 / 64.0);
+    private static final float COS17_64 = divCos(MY_PI * 17.0 / 64.0);
+    private static final float COS19_64 = divCos(MY_PI * 19.0 / 64.0);
+    private static final float COS21_64 = divCos(MY_PI * 21.0 / 64.0);
+    private static final float COS23_64 = divCos(MY_PI * 23.0 / 64.0);
+    private static final float COS25_64 = divCos(MY_PI * 25.0 / 64.0);
+    private static final float COS27_64 = divCos(MY_PI * 27.0 / 64.0);
+    private static final float COS29_64 = divCos(MY_PI * 29.0 / 64.0);
+    private static final float COS31_64 = divCos(MY_PI * 31.0 / 64.0);
+    private static final float COS1_32 = divCos(MY_PI / 32.0);
+    private static final float COS3_32 = divCos(MY_PI * 3.0 / 32.0);
+    private static final float COS5_32 = divCos(MY_PI * 5.0 / 32.0);
+    private static final float COS7_32 = divCos(MY_PI * 7.0 / 32.0);
+    private static final float COS9_32 = divCos(MY_PI * 9.0 / 32.0);
+    private static final float COS11_32 = divCos(MY_PI * 11.0 / 32.0);
+    private static final float COS13_32 = divCos(MY_PI * 13.0 / 32.0);
+    private static final float COS15_32 = divCos(MY_PI * 15.0 / 32.0);
+    private static final float COS1_16 = divCos(MY_PI / 16.0);
+    private static final float COS3_16 = divCos(MY_PI * 3.0 / 16.0);
+    private static final float COS5_16 = divCos(MY_PI * 5.0 / 16.0);
+    private static final float COS7_16 = divCos(MY_PI * 7.0 / 16.0);
+    private static final float COS1_8 = divCos(MY_PI / 8.0);
+    private static final float COS3_8 = divCos(MY_PI * 3.0 / 8.0);
+    private static final float COS1_4 = divCos(MY_PI / 4.0);
+    private static final float[][] D16 = Constants.toFloat(Constants.D16);
+
+    /**
+     * Contructor. The scalefactor scales the calculated float pcm samples to short values (raw pcm samples are in
+     * [-1.0, 1.0], if no violations occur).
+     */
+    public FloatSynthesisFilter(int channelNumber, float factor) {
+        super(channelNumber);
+        scaleFactor = factor;
+    }
+
+    void clear() {
+        Arrays.fill(v1, 0);
+        Arrays.fill(v2, 0);
+    }
+
+    private static float divCos(double a) {
+        return (float) (1.0 / (2.0 * Math.cos(a)));
+    }
+
+    /**
+     * Compute new values via a fast cosine transform.
+     */
+    private void computeNewV() {
+        float[] nv = this.nv;
+        float[] s = samples;
+        float s0 = s[0];
+        float s1 = s[1];
+        float s2 = s[2];
+        float s3 = s[3];
+        float s4 = s[4];
+        float s5 = s[5];
+        float s6 = s[6];
+        float s7 = s[7];
+        float s8 = s[8];
+        float s9 = s[9];
+        float s10 = s[10];
+        float s11 = s[11];
+        float s12 = s[12];
+        float s13 = s[13];
+        float s14 = s[14];
+        float s15 = s[15];
+        float s16 = s[16];
+        float s17 = s[17];
+        float s18 = s[18];
+        float s19 = s[19];
+        float s20 = s[20];
+        float s21 = s[21];
+        float s22 = s[22];
+        float s23 = s[23];
+        float s24 = s[24];
+        float s25 = s[25];
+        float s26 = s[26];
+        float s27 = s[27];
+        float s28 = s[28];
+        float s29 = s[29];
+        float s30 = s[30];
+        float s31 = s[31];
+        float p0 = s0 + s31;
+        float p1 = s1 + s30;
+        float p2 = s2 + s29;
+        float p3 = s3 + s28;
+        float p4 = s4 + s27;
+        float p5 = s5 + s26;
+        float p6 = s6 + s25;
+        float p7 = s7 + s24;
+        float p8 = s8 + s23;
+        float p9 = s9 + s22;
+        float p10 = s10 + s21;
+        float p11 = s11 + s20;
+        float p12 = s12 + s19;
+        float p13 = s13 + s18;
+        float p14 = s14 + s17;
+        float p15 = s15 + s16;
+        float pp0 = p0 + p15;
+        float pp1 = p1 + p14;
+        float pp2 = p2 + p13;
+        float pp3 = p3 + p12;
+        float pp4 = p4 + p11;
+        float pp5 = p5 + p10;
+        float pp6 = p6 + p9;
+        float pp7 = p7 + p8;
+        float pp8 = (p0 - p15) * COS1_32;
+        float pp9 = (p1 - p14) * COS3_32;
+        float pp10 = (p2 - p13) * COS5_32;
+        float pp11 = (p3 - p12) * COS7_32;
+        float pp12 = (p4 - p11) * COS9_32;
+        float pp13 = (p5 - p10) * COS11_32;
+        float pp14 = (p6 - p9) * COS13_32;
+        float pp15 = (p7 - p8) * COS15_32;
+        p0 = pp0 + pp7;
+        p1 = pp1 + pp6;
+        p2 = pp2 + pp5;
+        p3 = pp3 + pp4;
+        p4 = (pp0 - pp7) * COS1_16;
+        p5 = (pp1 - pp6) * COS3_16;
+        p6 = (pp2 - pp5) * COS5_16;
+        p7 = (pp3 - pp4) * COS7_16;
+        p8 = pp8 + pp15;
+        p9 = pp9 + pp14;
+        p10 = pp10 + pp13;
+        p11 = pp11 + pp12;
+        p12 = (pp8 - pp15) * COS1_16;
+        p13 = (pp9 - pp14) * COS3_16;
+        p14 = (pp10 - pp13) * COS5_16;
+        p15 = (pp11 - pp12) * COS7_16;
+        pp0 = p0 + p3;
+        pp1 = p1 + p2;
+        pp2 = (p0 - p3) * COS1_8;
+        pp3 = (p1 - p2) * COS3_8;
+        pp4 = p4 + p7;
+        pp5 = p5 + p6;
+        pp6 = (p4 - p7) * COS1_8;
+        pp7 = (p5 - p6) * COS3_8;
+        pp8 = p8 + p11;
+        pp9 = p9 + p10;
+        pp10 = (p8 - p11) * COS1_8;
+        pp11 = (p9 - p10) * COS3_8;
+        pp12 = p12 + p15;
+        pp13 = p13 + p14;
+        pp14 = (p12 - p15) * COS1_8;
+        pp15 = (p13 - p14) * COS3_8;
+        p0 = pp0 + pp1;
+        p1 = (pp0 - pp1) * COS1_4;
+        p2 = pp2 + pp3;
+        p3 = (pp2 - pp3) * COS1_4;
+        p4 = pp4 + pp5;
+        p5 = (pp4 - pp5) * COS1_4;
+        p6 = pp6 + pp7;
+        p7 = (pp6 - pp7) * COS1_4;
+        p8 = pp8 + pp9;
+        p9 = (pp8 - pp9) * COS1_4;
+        p10 = pp10 + pp11;
+        p11 = (pp10 - pp11) * COS1_4;
+        p12 = pp12 + pp13;
+        p13 = (pp12 - pp13) * COS1_4;
+        p14 = pp14 + pp15;
+        p15 = (pp14 - pp15) * COS1_4;
+        // this is pretty insane coding
+        float tmp1;
+        nv[19] = -(nv[4] = (nv[12] = p7) + p5) - p6; // 36-17
+        nv[27] = -p6 - p7 - p4; // 44-17
+        nv[6] = (nv[10] = (nv[14] = p15) + p11) + p13;
+        nv[17] = -(nv[2] = p15 + p13 + p9) - p14; // 34-17
+        nv[21] = (tmp1 = -p14 - p15 - p10 - p11) - p13; // 38-17
+        nv[29] = -p14 - p15 - p12 - p8; // 46-17
+        nv[25] = tmp1 - p12; // 42-17
+        nv[31] = -p0; // 48-17
+        nv[0] = p1;
+        nv[23] = -(nv[8] = p3) - p2; // 40-17
+        p0 = (s0 - s31) * COS1_64;
+        p1 = (s1 - s30) * COS3_64;
+        p2 = (s2 - s29) * COS5_64;
+        p3 = (s3 - s28) * COS7_64;
+        p4 = (s4 - s27) * COS9_64;
+        p5 = (s5 - s26) * COS11_64;
+        p6 = (s6 - s25) * COS13_64;
+        p7 = (s7 - s24) * COS15_64;
+        p8 = (s8 - s23) * COS17_64;
+        p9 = (s9 - s22) * COS19_64;
+        p10 = (s10 - s21) * COS21_64;
+        p11 = (s11 - s20) * COS23_64;
+        p12 = (s12 - s19) * COS25_64;
+        p13 = (s13 - s18) * COS27_64;
+        p14 = (s14 - s17) * COS29_64;
+        p15 = (s15 - s16) * COS31_64;
+        pp0 = p0 + p15;
+        pp1 = p1 + p14;
+        pp2 = p2 + p13;
+        pp3 = p3 + p12;
+        pp4 = p4 + p11;
+        pp5 = p5 + p10;
+        pp6 = p6 + p9;
+        pp7 = p7 + p8;
+        pp8 = (p0 - p15) * COS1_32;
+        pp9 = (p1 - p14) * COS3_32;
+        pp10 = (p2 - p13) * COS5_32;
+        pp11 = (p3 - p12) * COS7_32;
+        pp12 = (p4 - p11) * COS9_32;
+        pp13 = (p5 - p10) * COS11_32;
+        pp14 = (p6 - p9) * COS13_32;
+        pp15 = (p7 - p8) * COS15_32;
+        p0 = pp0 + pp7;
+        p1 = pp1 + pp6;
+        p2 = pp2 + pp5;
+        p3 = pp3 + pp4;
+        p4 = (pp0 - pp7) * COS1_16;
+        p5 = (pp1 - pp6) * COS3_16;
+        p6 = (pp2 - pp5) * COS5_16;
+        p7 = (pp3 - pp4) * COS7_16;
+        p8 = pp8 + pp15;
+        p9 = pp9 + pp14;
+        p10 = pp10 + pp13;
+        p11 = pp11 + pp12;
+        p12 = (pp8 - pp15) * COS1_16;
+        p13 = (pp9 - pp14) * COS3_16;
+        p14 = (pp10 - pp13) * COS5_16;
+        p15 = (pp11 - pp12) * COS7_16;
+        pp0 = p0 + p3;
+        pp1 = p1 + p2;
+        pp2 = (p0 - p3) * COS1_8;
+        pp3 = (p1 - p2) * COS3_8;
+        pp4 = p4 + p7;
+        pp5 = p5 + p6;
+        pp6 = (p4 - p7) * COS1_8;
+        pp7 = (p5 - p6) * COS3_8;
+        pp8 = p8 + p11;
+        pp9 = p9 + p10;
+        pp10 = (p8 - p11) * COS1_8;
+        pp11 = (p9 - p10) * COS3_8;
+        pp12 = p12 + p15;
+        pp13 = p13 + p14;
+        pp14 = (p12 - p15) * COS1_8;
+        pp15 = (p13 - p14) * COS3_8;
+        p0 = pp0 + pp1;
+        p1 = (pp0 - pp1) * COS1_4;
+        p2 = pp2 + pp3;
+        p3 = (pp2 - pp3) * COS1_4;
+        p4 = pp4 + pp5;
+        p5 = (pp4 - pp5) * COS1_4;
+        p6 = pp6 + pp7;
+        p7 = (pp6 - pp7) * COS1_4;
+        p8 = pp8 + pp9;
+        p9 = (pp8 - pp9) * COS1_4;
+        p10 = pp10 + pp11;
+        p11 = (pp10 - pp11) * COS1_4;
+        p12 = pp12 + pp13;
+        p13 = (pp12 - pp13) * COS1_4;
+        p14 = pp14 + pp15;
+        p15 = (pp14 - pp15) * COS1_4;
+        // manually doing something that a compiler should handle sucks
+        // coding like this is hard to read
+        float tmp2;
+        nv[5] = (nv[11] = (nv[13] = (nv[15] = p15) + p7) + p11) + p5 + p13;
+        nv[7] = (nv[9] = p15 + p11 + p3) + p13;
+        nv[16] = -(nv[1] = (tmp1 = p13 + p15 + p9) + p1) - p14; // 33-17
+        nv[18] = -(nv[3] = tmp1 + p5 + p7) - p6 - p14; // 35-17
+        nv[22] = (tmp1 = -p10 - p11 - p14 - p15) - p13 - p2 - p3; // 39-17
+        nv[20] = tmp1 - p13 - p5 - p6 - p7; // 37-17
+        nv[24] = tmp1 - p12 - p2 - p3; // 41-17
+        nv[26] = tmp1 - p12 - (tmp2 = p4 + p6 + p7); // 43-17
+        nv[30] = (tmp1 = -p8 - p12 - p14 - p15) - p0; // 47-17
+        nv[28] = tmp1 - tmp2; // 45-17
+        // insert V[0-15] (== nv[0-15]) and V[17-31] (== -nv[15-1]) into the
+        // actual v, and V[32] (== -nv[0]), V[33-48] (== nv[16-31]) and
+        // V[49-63] (== nv[30-16]) into the other v; V[16] is always 0
+        float[] dest = firstV ? v1 : v2;
+        float[] other = firstV ? v2 : v1;
+        int pos = writePos;
+        put(dest, 0, pos, nv[0]);
+        put(dest, 16, pos, 0);
+        put(other, 0, pos, -nv[0]);
+        put(other, 16, pos, nv[31]);
+        for (int i = 1; i < 16; i++) {
+            put(dest, i, pos, nv[i]);
+            put(dest, 32 - i, pos, -nv[i]);
+            put(other, i, pos, nv[15 + i]);
+            put(other, 32 - i, pos, nv[15 + i]);
+        }
+    }
+
+    /**
+     * Set the value at the given position of a row of a V vector.
+     */
+    private static void put(float[] v, int row, int pos, float x) {
+        int i = (row << 5) + 15 - pos;
+        v[i] = x;
+        v[i + 16] = x;
+    }
+
+    /**
+     * Calculate the PCM samples from the actual V vector (the windowing).
+     */
+    private void window(int step) {
+        float[] v = firstV ? v1 : v2;
+        float[] out = tmpOutBuffer;
+        for (int i = 0, o = 15 - writePos; i < 32; i += step, o += step << 5) {
+            float[] d = D16[i];
+            // written out, as the JIT compiler doesn't unroll the loop
+            float sum = v[o] * d[0] + v[o + 1] * d[1] + v[o + 2] * d[2] + v[o + 3] * d[3]
+                    + v[o + 4] * d[4] + v[o + 5] * d[5] + v[o + 6] * d[6] + v[o + 7] * d[7]
+                    + v[o + 8] * d[8] + v[o + 9] * d[9] + v[o + 10] * d[10] + v[o + 11] * d[11]
+                    + v[o + 12] * d[12] + v[o + 13] * d[13] + v[o + 14] * d[14] + v[o + 15] * d[15];
+            out[i] = sum * scaleFactor;
+        }
+    }
+
+    /**
+     * Calculate 32 PCM samples and write them. With a step of 2 or 4, only
+     * every second or fourth sample is calculated and written, which
+     * reduces the sample rate (the caller must clear the upper subbands).
+     *
+     * @param s the 32 subband samples
+     * @param buffer the target buffer
+     * @param step 1, 2 or 4
+     */
+    void calculatePcmSamples(float[] s, SampleBuffer buffer, int step) {
+        for (int i = 0; i < 32; i++) {
+            samples[i] = s[i];
+        }
+        computeNewV();
+        if (SIMD != null) {
+            SIMD.computePcmSamples(firstV ? v1 : v2, writePos, scaleFactor, tmpOutBuffer);
+        } else {
+            window(step);
+        }
+        buffer.append(channel, tmpOutBuffer, step);
+        next();
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+import java.util.Arrays;
+
+/**
+ * The byte offsets of the frames of a stream. The index is built by the
+ * Bitstream while the frames are read. All frames of a stream have the same
+ * number of samples, so that frame i starts with sample i * samplesPerFrame.
+ * Once the index is complete it is not changed any more, so that it can be
+ * shared by multiple bitstreams and threads.
+ */
+public final class FrameIndex {
+
+    private long[] offsets = new long[1024];
+    private int size;
+    private int samplesPerFrame;
+    private boolean complete;
+
+    void add(long offset, int samples) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        offsets[size++] = offset;
+        samplesPerFrame = samples;
+    }
+
+    /**
+     * Make sure the given number of frames can be added without growing the
+     * array.
+     *
+     * @param frames the expected number of frames
+     */
+    void ensureCapacity(int frames) {
+        if (frames > offsets.length) {
+            offsets = Arrays.copyOf(offsets, frames);
+        }
+    }
+
+    void setComplete() {
+        complete = true;
+    }
+
+    /**
+     * Get the number of indexed frames.
+     *
+     * @return the number of frames
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check whether all frames of the stream are indexed.
+     *
+     * @return true if the end of the stream was reached
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Get the byte offset of the header of the given frame, relative to the
+     * start of the stream.
+     *
+     * @param frame the frame number (0 for the first frame)
+     * @return the offset
+     */
+    public long getOffset(int frame) {
+        if (frame >= size) {
+            throw new IndexOutOfBoundsException("Frame " + frame + " of " + size);
+        }
+        return offsets[frame];
+    }
+
+    /**
+     * Get the number of samples (per channel) of each frame.
+     *
+     * @return 1152 for MPEG 1, 576 for MPEG 2 and 2.5, or 0 if no frame was
+     *         read yet
+     */
+    public int getSamplesPerFrame() {
+        return samplesPerFrame;
+    }
+
+    /**
+     * Get the number of the first sample (per channel) of the given frame.
+     *
+     * @param frame the frame number
+     * @return the sample number
+     */
+    public long getSamplePosition(int frame) {
+        return (long) frame * samplesPerFrame;
+    }
+
+}
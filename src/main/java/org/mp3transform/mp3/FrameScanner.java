@@ -0,0 +1,430 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Walks through a stream frame by frame, reading only the frame headers (and
+ * the side info of frames with a CRC) and skipping the audio data. This is
+ * much faster than decoding the stream, and is enough to get the duration,
+ * the bitrate and some integrity statistics of a file.
+ */
+public final class FrameScanner {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int ID3V1_SIZE = 128;
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = i << 8;
+            for (int j = 0; j < 8; j++) {
+                c = (c & 0x8000) != 0 ? (c << 1) ^ 0x8005 : c << 1;
+            }
+            CRC_TABLE[i] = c & 0xFFFF;
+        }
+    }
+
+    private final ByteBuffer buff;
+    private final ReadableByteChannel channel;
+    private final Header header = new Header();
+    private int pos, end;
+    private int syncWord;
+    private VbrInfo vbrInfo;
+    private int frequency, samplesPerFrame;
+    private int frameCount;
+    private long audioBytes;
+    private int minBitrate, maxBitrate;
+    private int syncLossCount;
+    private long skippedBytes;
+    private int crcFrameCount, crcErrorCount;
+    private boolean truncated;
+
+    private FrameScanner(ByteBuffer buff, ReadableByteChannel channel) {
+        this.buff = buff;
+        this.channel = channel;
+        buff.order(ByteOrder.BIG_ENDIAN);
+        pos = buff.position();
+        end = channel == null ? buff.limit() : 0;
+    }
+
+    /**
+     * Scan the remaining bytes of a buffer. The position of the buffer is not
+     * changed.
+     *
+     * @param buffer the buffer
+     * @return the scanner with the result
+     */
+    public static FrameScanner scan(ByteBuffer buffer) throws IOException {
+        FrameScanner scanner = new FrameScanner(buffer.duplicate(), null);
+        scanner.scan();
+        return scanner;
+    }
+
+    /**
+     * Scan a stream. The stream is read to the end, but not closed.
+     *
+     * @param in the input stream
+     * @return the scanner with the result
+     */
+    public static FrameScanner scan(InputStream in) throws IOException {
+        FrameScanner scanner = new FrameScanner(ByteBuffer.allocate(BUFFER_SIZE),
+                Channels.newChannel(in));
+        scanner.scan();
+        return scanner;
+    }
+
+    /**
+     * Scan a file from the current position of the channel. The file is mapped
+     * into memory if possible. The channel is not closed.
+     *
+     * @param channel the file channel
+     * @return the scanner with the result
+     */
+    public static FrameScanner scan(FileChannel channel) throws IOException {
+        long size = channel.size() - channel.position();
+        if (size <= Integer.MAX_VALUE) {
+            return scan(channel.map(FileChannel.MapMode.READ_ONLY, channel.position(), size));
+        }
+        FrameScanner scanner = new FrameScanner(ByteBuffer.allocate(BUFFER_SIZE), channel);
+        scanner.scan();
+        return scanner;
+    }
+
+    private void scan() throws IOException {
+        skipID3v2();
+        // whether the current position is the end of the previous frame
+        boolean synced = false;
+        long gap = 0;
+        while (true) {
+            int available = fill(4);
+            if (available < 4) {
+                pos += available;
+                gap += available;
+                break;
+            }
+            int h = buff.getInt(pos);
+            int len = frameLength(h);
+            if (len > 0 && (synced || isNextFrame(h, len))) {
+                if (gap > 0) {
+                    skippedBytes += gap;
+                    if (syncWord != 0) {
+                        syncLossCount++;
+                    }
+                    gap = 0;
+                }
+                if (fill(len) < len) {
+                    truncated = true;
+                    pos = end;
+                    break;
+                }
+                readFrame(h, len);
+                pos += len;
+                synced = true;
+            } else if (synced && isID3v1()) {
+                pos += ID3V1_SIZE;
+                break;
+            } else {
+                synced = false;
+                pos++;
+                gap++;
+            }
+        }
+        if (gap > 0) {
+            skippedBytes += gap;
+            if (syncWord != 0) {
+                syncLossCount++;
+            }
+        }
+    }
+
+    private void readFrame(int h, int len) throws IOException {
+        if (header.crc()) {
+            crcFrameCount++;
+            int crc = crc16(0xFFFF, pos + 2, 2);
+            crc = crc16(crc, pos + 6, header.sideInfoSize());
+            if (crc != (buff.getShort(pos + 4) & 0xFFFF)) {
+                crcErrorCount++;
+            }
+        }
+        if (syncWord == 0) {
+            syncWord = syncWord(h);
+            frequency = header.frequency();
+            samplesPerFrame = header.samplesPerFrame();
+            byte[] frame = new byte[len - 4];
+            ByteBuffer b = buff.duplicate();
+            b.position(pos + 4);
+            b.get(frame);
+            header.parseVBR(frame);
+            vbrInfo = header.vbrInfo();
+            if (vbrInfo != null) {
+                // the Xing, Info or VBRI frame doesn't contain audio data
+                return;
+            }
+        }
+        int bitrate = header.bitrate();
+        if (frameCount == 0) {
+            minBitrate = maxBitrate = bitrate;
+        } else {
+            minBitrate = Math.min(minBitrate, bitrate);
+            maxBitrate = Math.max(maxBitrate, bitrate);
+        }
+        frameCount++;
+        audioBytes += len;
+    }
+
+    /**
+     * Get the length of the frame including the header, if the given value is
+     * a valid layer III frame header that matches the previous frames.
+     *
+     * @param h the header
+     * @return the frame length, or 0 if it is not a frame header
+     */
+    private int frameLength(int h) throws IOException {
+        if ((h & 0xFFE00000) != 0xFFE00000 || ((h >>> 19) & 3) == 1 || ((h >>> 17) & 3) != 1) {
+            return 0;
+        }
+        int bitrateIndex = (h >>> 12) & 0xF;
+        if (bitrateIndex == 0 || bitrateIndex == 15 || ((h >>> 10) & 3) == 3) {
+            // free format is not supported
+            return 0;
+        }
+        if (syncWord != 0 && syncWord(h) != syncWord) {
+            return 0;
+        }
+        header.decode(h, true);
+        return header.frameSize() + 4;
+    }
+
+    /**
+     * Get the fields that don't change from frame to frame: version, layer,
+     * sample frequency, and whether the stream is mono.
+     */
+    private static int syncWord(int h) {
+        return (h & 0xFFF80C00) | ((h & 0xC0) == 0xC0 ? 0xC0 : 0);
+    }
+
+    /**
+     * Check whether the frame is followed by another frame with the same
+     * properties, or by the end of the stream.
+     */
+    private boolean isNextFrame(int h, int len) throws IOException {
+        int available = fill(len + 4);
+        if (available < len + 4) {
+            return available == len;
+        }
+        int next = buff.getInt(pos + len);
+        return (next & 0xFFE00000) == 0xFFE00000 && syncWord(next) == syncWord(h);
+    }
+
+    private boolean isID3v1() throws IOException {
+        return fill(ID3V1_SIZE + 1) == ID3V1_SIZE && buff.get(pos) == 'T'
+                && buff.get(pos + 1) == 'A' && buff.get(pos + 2) == 'G';
+    }
+
+    private void skipID3v2() throws IOException {
+        if (fill(10) < 10 || buff.get(pos) != 'I' || buff.get(pos + 1) != 'D'
+                || buff.get(pos + 2) != '3') {
+            return;
+        }
+        long size = 10 + (((buff.get(pos + 6) & 0x7F) << 21) | ((buff.get(pos + 7) & 0x7F) << 14)
+                | ((buff.get(pos + 8) & 0x7F) << 7) | (buff.get(pos + 9) & 0x7F));
+        if ((buff.get(pos + 5) & 0x10) != 0) {
+            // footer
+            size += 10;
+        }
+        while (size > 0) {
+            int len = fill((int) Math.min(size, BUFFER_SIZE));
+            if (len == 0) {
+                break;
+            }
+            pos += len;
+            size -= len;
+        }
+    }
+
+    /**
+     * Make sure the given number of bytes at the current position are in the
+     * buffer, if possible.
+     *
+     * @param len the number of bytes
+     * @return the number of available bytes, at most len
+     */
+    private int fill(int len) throws IOException {
+        if (end - pos < len && channel != null) {
+            buff.limit(end).position(pos);
+            buff.compact();
+            pos = 0;
+            while (buff.position() < len && channel.read(buff) >= 0) {
+                // read more
+            }
+            end = buff.position();
+        }
+        return Math.min(len, end - pos);
+    }
+
+    private int crc16(int crc, int start, int len) {
+        for (int i = start; i < start + len; i++) {
+            crc = ((crc << 8) & 0xFFFF) ^ CRC_TABLE[((crc >>> 8) ^ buff.get(i)) & 0xFF];
+        }
+        return crc;
+    }
+
+    /**
+     * Get the number of audio frames. The Xing, Info or VBRI frame is not
+     * counted.
+     *
+     * @return the number of frames
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Get the number of samples (per channel) of the audio frames. The encoder
+     * delay and padding are not subtracted.
+     *
+     * @return the number of samples
+     */
+    public long getSampleCount() {
+        return (long) frameCount * samplesPerFrame;
+    }
+
+    /**
+     * Get the sample frequency of the stream.
+     *
+     * @return the frequency in Hz, or 0 if no frame was found
+     */
+    public int getFrequency() {
+        return frequency;
+    }
+
+    /**
+     * Get the duration of the audio frames.
+     *
+     * @return the duration in milliseconds
+     */
+    public long getDurationMillis() {
+        return frequency == 0 ? 0 : getSampleCount() * 1000 / frequency;
+    }
+
+    /**
+     * Get the average bitrate of the audio frames, calculated from the number
+     * of bytes and the duration.
+     *
+     * @return the bitrate in bits per second
+     */
+    public int getAverageBitrate() {
+        long samples = getSampleCount();
+        return samples == 0 ? 0 : (int) (audioBytes * 8 * frequency / samples);
+    }
+
+    /**
+     * Get the lowest bitrate of the audio frames.
+     *
+     * @return the bitrate in bits per second
+     */
+    public int getMinBitrate() {
+        return minBitrate;
+    }
+
+    /**
+     * Get the highest bitrate of the audio frames.
+     *
+     * @return the bitrate in bits per second
+     */
+    public int getMaxBitrate() {
+        return maxBitrate;
+    }
+
+    /**
+     * Get the number of times bytes had to be skipped to find the next frame
+     * after the first frame. Trailing data that is not a frame (except for an
+     * ID3v1 tag) is also counted.
+     *
+     * @return the number of sync losses
+     */
+    public int getSyncLossCount() {
+        return syncLossCount;
+    }
+
+    /**
+     * Get the number of bytes that are not part of a frame or tag, including
+     * data before the first frame.
+     *
+     * @return the number of bytes
+     */
+    public long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    /**
+     * Get the number of frames that contain a CRC.
+     *
+     * @return the number of frames
+     */
+    public int getCrcFrameCount() {
+        return crcFrameCount;
+    }
+
+    /**
+     * Get the number of frames where the CRC doesn't match the header and
+     * side info.
+     *
+     * @return the number of frames
+     */
+    public int getCrcErrorCount() {
+        return crcErrorCount;
+    }
+
+    /**
+     * Check whether the stream has no sync loss, no CRC error, and the last
+     * frame is complete.
+     *
+     * @return true if no problem was found
+     */
+    public boolean isValid() {
+        return frameCount > 0 && syncLossCount == 0 && crcErrorCount == 0 && !truncated;
+    }
+
+    /**
+     * Check whether the stream ends in the middle of a frame.
+     *
+     * @return true if the last frame is incomplete
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Get the information from the Xing, Info or VBRI header of the first
+     * frame.
+     *
+     * @return the information, or null if the stream has no such header
+     */
+    public VbrInfo getVbrInfo() {
+        return vbrInfo;
+    }
+
+}
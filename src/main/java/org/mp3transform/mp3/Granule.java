@@ -0,0 +1,86 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+import org.mp3transform.mp3.Layer3Decoder.GrInfo;
+
+/**
+ * The data of one granule that is passed from the first decoder stage (side
+ * info, scale factors, Huffman decoding and dequantization) to the second
+ * stage (stereo processing, IMDCT and synthesis). The engine subclass holds
+ * the dequantized samples. The second stage only reads the granule, not the
+ * decoder or the header, which already belong to the next frame when the
+ * stages run in different threads.
+ */
+abstract class Granule {
+
+    /**
+     * The granule contains samples.
+     */
+    static final int SAMPLES = 0;
+
+    /**
+     * The frame is complete (no samples).
+     */
+    static final int END_OF_FRAME = 1;
+
+    /**
+     * The frame could not be decoded (no samples).
+     */
+    static final int FRAME_ERROR = 2;
+
+    /**
+     * The end of the stream was reached, or decoding failed (no samples).
+     */
+    static final int END_OF_STREAM = 3;
+
+    /**
+     * The side info of both channels.
+     */
+    final GrInfo[] gi = { new GrInfo(), new GrInfo() };
+
+    /**
+     * The number of frequency lines of each channel that may be non-zero in
+     * the dequantized samples; the lines after that are zero.
+     */
+    final int[] nonzero = new int[2];
+
+    /**
+     * The intensity stereo positions (only set if iStereo is set).
+     */
+    final int[] isPos = new int[576];
+
+    boolean msStereo, iStereo, lsf;
+
+    /**
+     * The number of channels, the sample frequency index (see
+     * Layer3Decoder.sfreq), and the sample rate reduction (see
+     * Layer3Decoder.rateShift) of the frame.
+     */
+    int channels, sfreq, rateShift;
+
+    /**
+     * What the granule contains, used by the pipeline.
+     */
+    int type;
+
+    /**
+     * The reason for END_OF_STREAM, if decoding failed.
+     */
+    Throwable failure;
+
+}
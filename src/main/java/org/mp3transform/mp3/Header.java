@@ -54,67 +54,16 @@ public final class Header {
     private int numberOfSubbands, intensityStereoBound;
     private byte syncMode = Bitstream.INITIAL_SYNC;
     private int frameSize;
-    private boolean vbr;
+    private VbrInfo vbrInfo;
     private int slots;
 
     boolean readHeader(Bitstream stream) throws IOException {
         while (true) {
             int headerString = stream.syncHeader(syncMode);
-            if (syncMode == Bitstream.INITIAL_SYNC) {
-                version = ((headerString >>> 19) & 1);
-                if (((headerString >>> 20) & 1) == 0) {
-                    if (version == VERSION_MPEG2_LSF) {
-                        version = VERSION_MPEG25_LSF;
-                    } else {
-                        throw new IOException("Unsupported version: " + version);
-                    }
-                }
-                sampleFrequency = ((headerString >>> 10) & 3);
-                if (sampleFrequency == 3) {
-                    throw new IOException("Unsupported sampleFrequency: "
-                            + sampleFrequency);
-                }
-            }
-            int layer = 4 - (headerString >>> 17) & 3;
-            if (layer != 3) {
-                throw new IOException("Unsupported layer: " + layer);
-            }
-            protectionBit = ((headerString >>> 16) & 1) != 0;
-            bitrateIndex = (headerString >>> 12) & 0xF;
-            paddingBit = ((headerString >>> 9) & 1) != 0;
-            mode = ((headerString >>> 6) & 3);
-            modeExtension = (headerString >>> 4) & 3;
-            if (mode == MODE_JOINT_STEREO) {
-                intensityStereoBound = (modeExtension << 2) + 4;
-            } else {
-                intensityStereoBound = 0; // should never be used
-            }
-            // calculate number of subbands:
-            int channelBitrate = bitrateIndex;
-            // calculate bitrate per channel:
-            if (mode != MODE_SINGLE_CHANNEL) {
-                if (channelBitrate == 4) {
-                    channelBitrate = 1;
-                } else {
-                    channelBitrate -= 4;
-                }
-            }
-            if (channelBitrate == 1 || channelBitrate == 2) {
-                if (sampleFrequency == SAMPLE_FREQUENCY_THIRTYTWO) {
-                    numberOfSubbands = 12;
-                } else {
-                    numberOfSubbands = 8;
-                }
-            } else if (sampleFrequency == SAMPLE_FREQUENCY_FOURTYEIGHT
-                    || (channelBitrate >= 3 && channelBitrate <= 5)) {
-                numberOfSubbands = 27;
-            } else {
-                numberOfSubbands = 30;
-            }
-            if (intensityStereoBound > numberOfSubbands) {
-                intensityStereoBound = numberOfSubbands;
+            if (headerString == Bitstream.END_OF_STREAM) {
+                return false;
             }
-            calculateFramesize();
+            decode(headerString, syncMode == Bitstream.INITIAL_SYNC);
             int frameSizeLoaded = stream.readFrameData(frameSize);
             if (frameSize >= 0 && frameSizeLoaded != frameSize) {
                 // Data loaded does not match to expected framesize,
@@ -138,40 +87,73 @@ public final class Header {
         return true;
     }
 
-    void parseVBR(byte[] firstFrame) throws IOException {
-        // trying Xing header
-        byte[] tmp = new byte[4];
-        int offset;
-        if (version == VERSION_MPEG1) {
-            if (mode == MODE_SINGLE_CHANNEL) {
-                offset = 21 - 4;
-            } else {
-                offset = 36 - 4;
+    /**
+     * Decode the fields of a frame header and calculate the frame size.
+     *
+     * @param headerString the 4 header bytes
+     * @param initial whether the version and sample frequency need to be
+     *            decoded (they don't change after the initial sync)
+     */
+    void decode(int headerString, boolean initial) throws IOException {
+        if (initial) {
+            version = ((headerString >>> 19) & 1);
+            if (((headerString >>> 20) & 1) == 0) {
+                if (version == VERSION_MPEG2_LSF) {
+                    version = VERSION_MPEG25_LSF;
+                } else {
+                    throw new IOException("Unsupported version: " + version);
+                }
             }
+            sampleFrequency = ((headerString >>> 10) & 3);
+            if (sampleFrequency == 3) {
+                throw new IOException("Unsupported sampleFrequency: "
+                        + sampleFrequency);
+            }
+        }
+        int layer = 4 - (headerString >>> 17) & 3;
+        if (layer != 3) {
+            throw new IOException("Unsupported layer: " + layer);
+        }
+        protectionBit = ((headerString >>> 16) & 1) != 0;
+        bitrateIndex = (headerString >>> 12) & 0xF;
+        paddingBit = ((headerString >>> 9) & 1) != 0;
+        mode = ((headerString >>> 6) & 3);
+        modeExtension = (headerString >>> 4) & 3;
+        if (mode == MODE_JOINT_STEREO) {
+            intensityStereoBound = (modeExtension << 2) + 4;
         } else {
-            if (mode == MODE_SINGLE_CHANNEL) {
-                offset = 13 - 4;
+            intensityStereoBound = 0; // should never be used
+        }
+        // calculate number of subbands:
+        int channelBitrate = bitrateIndex;
+        // calculate bitrate per channel:
+        if (mode != MODE_SINGLE_CHANNEL) {
+            if (channelBitrate == 4) {
+                channelBitrate = 1;
             } else {
-                offset = 21 - 4;
+                channelBitrate -= 4;
             }
         }
-        try {
-            System.arraycopy(firstFrame, offset, tmp, 0, 4);
-            if ("Xing".equals(new String(tmp))) {
-                vbr = true;
+        if (channelBitrate == 1 || channelBitrate == 2) {
+            if (sampleFrequency == SAMPLE_FREQUENCY_THIRTYTWO) {
+                numberOfSubbands = 12;
+            } else {
+                numberOfSubbands = 8;
             }
-        } catch (ArrayIndexOutOfBoundsException e) {
-            throw new IOException("Corrupt Xing VBR header");
+        } else if (sampleFrequency == SAMPLE_FREQUENCY_FOURTYEIGHT
+                || (channelBitrate >= 3 && channelBitrate <= 5)) {
+            numberOfSubbands = 27;
+        } else {
+            numberOfSubbands = 30;
         }
-        offset = 36 - 4;
-        try {
-            System.arraycopy(firstFrame, offset, tmp, 0, 4);
-            if ("VBRI".equals(new String(tmp))) {
-                vbr = true;
-            }
-        } catch (ArrayIndexOutOfBoundsException e) {
-            throw new IOException("Corrupt VBRI VBR header");
+        if (intensityStereoBound > numberOfSubbands) {
+            intensityStereoBound = numberOfSubbands;
         }
+        calculateFramesize();
+    }
+
+    void parseVBR(byte[] firstFrame) throws IOException {
+        vbrInfo = VbrInfo.parse(this, firstFrame, sideInfoSize() + (protectionBit ? 0 : 2));
     }
 
     int version() {
@@ -194,14 +176,48 @@ public final class Header {
         return slots;
     }
 
+    /**
+     * Get the number of samples (per channel) of a frame.
+     *
+     * @return 1152 for MPEG 1, 576 for MPEG 2 and 2.5
+     */
+    public int samplesPerFrame() {
+        return version == VERSION_MPEG1 ? 1152 : 576;
+    }
+
     boolean vbr() {
-        return vbr;
+        return vbrInfo != null && vbrInfo.isVbr();
+    }
+
+    /**
+     * Get the information from the Xing, Info or VBRI header of the first
+     * frame.
+     *
+     * @return the information, or null if the stream has no such header
+     */
+    public VbrInfo vbrInfo() {
+        return vbrInfo;
     }
 
     int modeExtension() {
         return modeExtension;
     }
 
+    /**
+     * Get the size of the frame without the 4 header bytes.
+     */
+    int frameSize() {
+        return frameSize;
+    }
+
+    boolean crc() {
+        return !protectionBit;
+    }
+
+    int bitrate() {
+        return Constants.BITRATES[version][bitrateIndex];
+    }
+
     private void calculateFramesize() {
         frameSize = (144 * Constants.BITRATES[version][bitrateIndex])
                 / frequency();
@@ -214,11 +230,13 @@ public final class Header {
         // subtract header size
         frameSize -= 4;
         // side info size, crc size, header sidze
+        slots = frameSize - sideInfoSize() - (protectionBit ? 0 : 2);
+    }
+
+    int sideInfoSize() {
         if (version == VERSION_MPEG1) {
-            slots = (mode == MODE_SINGLE_CHANNEL) ? 17 : 32;
-        } else {
-            slots = (mode == MODE_SINGLE_CHANNEL) ? 9 : 17;
+            return mode == MODE_SINGLE_CHANNEL ? 17 : 32;
         }
-        slots = frameSize - slots - (protectionBit ? 0 : 2);
+        return mode == MODE_SINGLE_CHANNEL ? 9 : 17;
     }
 }
@@ -38,8 +38,12 @@
  */
 package org.mp3transform.mp3;
 
+import java.util.ArrayList;
+import java.util.List;
+
 final class Huffman {
     private static final int MX_OFF = 250;
+    private static final int LOOKUP_BITS = 8;
     private static final int HUFFMAN_COUNT = 34;
     public static final Huffman[] HUFFMAN;
     private final char tableName0;
@@ -50,8 +54,9 @@ final class Huffman {
     private final int[] val0; // decoder tree
     private final int[] val1; // decoder tree
     private final int treeLen; // length of decoder tree
+    private final int[] lookup; // multi-bit decoder table
 
-    private Huffman(String name, int xlen, int ylen, int linbits, int[][] val,
+    Huffman(String name, int xlen, int ylen, int linbits, int[][] val,
             int treeLen) {
         tableName0 = name.charAt(0);
         tableName1 = name.charAt(1);
@@ -65,14 +70,127 @@ final class Huffman {
             val1[i] = val[i][1];
         }
         this.treeLen = treeLen;
+        lookup = treeLen == 0 ? null : createLookup();
+    }
+
+    /**
+     * Create the lookup table. The first 256 entries are indexed by the next
+     * 8 bits. An entry is either a code of at most 8 bits: (length << 8) |
+     * value, or (for longer codes) a link to a second level table:
+     * 0x80000000 | (bits << 24) | start. The second level table is indexed
+     * by the next 'bits' bits, and its entries contain the remaining length.
+     * The entries of invalid codes are 0.
+     */
+    private int[] createLookup() {
+        int[][] codes = getCodes();
+        int primary = 1 << LOOKUP_BITS;
+        int[] subBits = new int[primary];
+        for (int[] c : codes) {
+            int len = c[1];
+            if (len > LOOKUP_BITS) {
+                int prefix = c[0] >>> (len - LOOKUP_BITS);
+                subBits[prefix] = Math.max(subBits[prefix], len - LOOKUP_BITS);
+            }
+        }
+        int[] subStart = new int[primary];
+        int size = primary;
+        for (int i = 0; i < primary; i++) {
+            if (subBits[i] > 0) {
+                subStart[i] = size;
+                size += 1 << subBits[i];
+            }
+        }
+        int[] table = new int[size];
+        for (int[] c : codes) {
+            int code = c[0], len = c[1], value = c[2];
+            int start, count;
+            if (len <= LOOKUP_BITS) {
+                count = 1 << (LOOKUP_BITS - len);
+                start = code << (LOOKUP_BITS - len);
+            } else {
+                int prefix = code >>> (len - LOOKUP_BITS);
+                int bits = subBits[prefix];
+                len -= LOOKUP_BITS;
+                code &= (1 << len) - 1;
+                count = 1 << (bits - len);
+                start = subStart[prefix] + (code << (bits - len));
+                table[prefix] = 0x80000000 | (bits << 24) | subStart[prefix];
+            }
+            for (int i = 0; i < count; i++) {
+                table[start + i] = (len << 8) | value;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Get all codes of the decoder tree.
+     *
+     * @return for each code: the code, the length in bits, and the value
+     */
+    int[][] getCodes() {
+        List<int[]> list = new ArrayList<int[]>();
+        if (treeLen != 0) {
+            addCodes(list, 0, 0, 0);
+        }
+        return list.toArray(new int[0][]);
+    }
+
+    private void addCodes(List<int[]> list, int point, int code, int len) {
+        if (val0[point] == 0) {
+            list.add(new int[] { code, len, val1[point] });
+        } else if (len < 32 && len < treeLen) {
+            // a code is at most as long as the tree has nodes, unless the
+            // tree loops
+            addCodes(list, next(val0, point), code << 1, len + 1);
+            addCodes(list, next(val1, point), (code << 1) | 1, len + 1);
+        }
+    }
+
+    private static int next(int[] val, int point) {
+        while (val[point] >= MX_OFF) {
+            point += val[point];
+        }
+        return point + val[point];
     }
 
     /**
-     * Do the huffman-decoding.
+     * Do the huffman-decoding using the lookup table.
      * For counta, countb - the 4 bit value is
      * returned in y, discard x.
+     *
+     * @return 0, or 1 if the code is invalid
      */
     public int decode(Layer3Decoder decoder, BitReservoir br) {
+        // table 0 needs no bits
+        if (treeLen == 0) {
+            decoder.x = decoder.y = 0;
+            return 0;
+        }
+        int[] table = lookup;
+        int e = table[br.peekBits(LOOKUP_BITS)];
+        if (e < 0) {
+            br.skipBits(LOOKUP_BITS);
+            e = table[(e & 0xffffff) + br.peekBits((e >>> 24) & 0x1f)];
+        }
+        if (e == 0) {
+            decoder.x = decoder.y = 0;
+            return 1;
+        }
+        br.skipBits(e >>> 8);
+        decoder.x = (e >>> 4) & 0xf;
+        decoder.y = e & 0xf;
+        decodeSigns(decoder, br);
+        return 0;
+    }
+
+    /**
+     * Do the huffman-decoding by walking the decoder tree one bit at a time.
+     * This is the reference implementation for the lookup table decoder.
+     *
+     * @return 0, or 1 if no code was found within 32 bits
+     */
+    int decodeTree(Layer3Decoder decoder, BitReservoir br) {
         // array of all huffcodtable headers
         // 0..31 Huffman code table 0..31
         // 32,33 count1-tables
@@ -95,18 +213,17 @@ final class Huffman {
                 break;
             }
             if (br.getOneBit() != 0) {
-                while (val1[point] >= MX_OFF) {
-                    point += val1[point];
-                }
-                point += val1[point];
+                point = next(val1, point);
             } else {
-                while (val0[point] >= MX_OFF) {
-                    point += val0[point];
-                }
-                point += val0[point];
+                point = next(val0, point);
             }
             level >>>= 1;
         } while (level != 0);
+        decodeSigns(decoder, br);
+        return error;
+    }
+
+    private void decodeSigns(Layer3Decoder decoder, BitReservoir br) {
         // Process sign encodings for quadruples tables
         if (tableName0 == '3' && (tableName1 == '2' || tableName1 == '3')) {
             decoder.v = (decoder.y >> 3) & 1;
@@ -160,7 +277,6 @@ final class Huffman {
                 }
             }
         }
-        return error;
     }
 
     static {
@@ -34,8 +34,8 @@
 package org.mp3transform.mp3;
 
 import java.io.IOException;
+import java.util.Arrays;
 
-import org.mp3transform.Decoder;
 
 /**
  * Class Implementing Layer 3 Decoder.
@@ -43,6 +43,9 @@ import org.mp3transform.Decoder;
  * 511 byte.
  * http://www.hydrogenaudio.org/forums/lofiversion/index.php/t42194.html gr:
  * granules (sub-frames)
+ * <p>
+ * This class reads the side info, scale factors and Huffman values. The
+ * numeric part is done by the Layer3Engine of the selected Precision.
  */
 public final class Layer3Decoder {
     static class GrInfo {
@@ -60,6 +63,23 @@ public final class Layer3Decoder {
         int preflag;
         int scaleFactorScale;
         int count1TableSelect;
+
+        void copy(GrInfo o) {
+            part23Length = o.part23Length;
+            bigValues = o.bigValues;
+            globalGain = o.globalGain;
+            scaleFactorCompress = o.scaleFactorCompress;
+            windowSwitching = o.windowSwitching;
+            blockType = o.blockType;
+            mixedBlock = o.mixedBlock;
+            System.arraycopy(o.tableSelect, 0, tableSelect, 0, 3);
+            System.arraycopy(o.subblockGain, 0, subblockGain, 0, 3);
+            region0Count = o.region0Count;
+            region1Count = o.region1Count;
+            preflag = o.preflag;
+            scaleFactorScale = o.scaleFactorScale;
+            count1TableSelect = o.count1TableSelect;
+        }
     }
 
     static class Channel {
@@ -77,67 +97,214 @@ public final class Layer3Decoder {
         int[][] s = new int[3][13]; /* [window][cb] */
     }
 
-    private static final int SSLIMIT = 18;
-    private static final int SBLIMIT = 32;
-    // DOUBLE
-    private static final double D43 = (4.0 / 3.0);
+    static final int SSLIMIT = 18;
+    static final int SBLIMIT = 32;
     private final int[] scaleFactorBuffer = new int[54];
     // TODO why +4?
-    private final int[] is1d = new int[SBLIMIT * SSLIMIT + 4];
-    private final double[][] ro0 = new double[SBLIMIT][SSLIMIT];
-    private final double[][] ro1 = new double[SBLIMIT][SSLIMIT];
-    private final double[][] lr0 = new double[SBLIMIT][SSLIMIT];
-    private final double[][] lr1 = new double[SBLIMIT][SSLIMIT];
-    private final double[] out1d = new double[SBLIMIT * SSLIMIT];
-    private final double[][] prevBlock = new double[2][SBLIMIT * SSLIMIT];
-    private final double[] k0 = new double[SBLIMIT * SSLIMIT];
-    private final double[] k1 = new double[SBLIMIT * SSLIMIT];
-    private final int[] nonzero = new int[2];
-    private final Bitstream stream;
-    private final Header header;
-    private final SynthesisFilter filter1, filter2;
-    private final Decoder player;
+    final int[] is1d = new int[SBLIMIT * SSLIMIT + 4];
+    final int[] scaleIndex = new int[SBLIMIT * SSLIMIT];
+    final int[] nonzero = new int[2];
+    private Bitstream stream;
+    Header header;
+    final SampleBuffer buffer;
+    private final Layer3Engine engine;
+    // the granule that is used when both stages run in the same thread
+    private final Granule granule;
     private final BitReservoir br = new BitReservoir();
-    private final SideInfo si = new SideInfo();
+    final SideInfo si = new SideInfo();
     private final ScaleFactor[] scaleFactors = new ScaleFactor[] { new ScaleFactor(), new ScaleFactor() };
     private int maxGr;
     private int frameStart;
     private int part2Start;
-    private int channels;
+    int channels;
     private int firstChannel;
     private int lastChannel;
-    private int sfreq;
-    private final int[] isPos = new int[576];
-    private final double[] isRatio = new double[576];
-    private final double[] tsOutCopy = new double[18];
-    private final double[] rawout = new double[36];
-    // subband samples are buffered and passed to the
-    // SynthesisFilter in one go.
-    private double[] samples1 = new double[32];
-    private double[] samples2 = new double[32];
+    // mix stereo to one channel
+    private boolean downmix;
+    // the sample rate is divided by 2^rateShift
+    int rateShift;
+    int sfreq;
     private final int[] newSlen = new int[4];
     int x, y, v, w;
 
+    /**
+     * Create a decoder that uses double precision and the given synthesis
+     * filters.
+     */
     public Layer3Decoder(Bitstream stream, Header header, SynthesisFilter filter1, SynthesisFilter filter2,
-            Decoder player) {
+            SampleBuffer buffer) {
+        this(stream, header, buffer, Precision.DOUBLE, filter1, filter2);
+    }
+
+    /**
+     * Create a decoder that uses the given precision for the numeric part.
+     */
+    public Layer3Decoder(Bitstream stream, Header header, SampleBuffer buffer, Precision precision) {
+        this(stream, header, buffer, precision, null, null);
+    }
+
+    private Layer3Decoder(Bitstream stream, Header header, SampleBuffer buffer, Precision precision,
+            SynthesisFilter filter1, SynthesisFilter filter2) {
+        this.buffer = buffer;
+        configure(stream, header);
+        switch (precision) {
+        case FLOAT:
+            engine = new Layer3FloatEngine(this);
+            break;
+        case FIXED:
+            engine = new Layer3FixedEngine(this);
+            break;
+        default:
+            engine = new Layer3DoubleEngine(this, filter1, filter2);
+        }
+        granule = engine.newGranule();
+    }
+
+    private void configure(Bitstream stream, Header header) {
         this.stream = stream;
         this.header = header;
-        this.filter1 = filter1;
-        this.filter2 = filter2;
-        this.player = player;
         channels = (header.mode() == Header.MODE_SINGLE_CHANNEL) ? 1 : 2;
         maxGr = (header.version() == Header.VERSION_MPEG1) ? 2 : 1;
         sfreq = header.sampleFrequency()
                 + ((header.version() == Header.VERSION_MPEG1) ? 3 : (header.version() == Header.VERSION_MPEG25_LSF) ? 6
                         : 0);
-        if (channels == 2) {
-            firstChannel = 0;
-            lastChannel = 1;
-        }
+        firstChannel = 0;
+        lastChannel = downmix ? 0 : channels - 1;
         nonzero[0] = nonzero[1] = 576;
     }
 
+    /**
+     * Reuse the decoder for another stream, or for the same stream after
+     * seeking. The stream parameters are taken from the given header (the
+     * header of the first frame that is decoded next), the bit reservoir,
+     * the IMDCT overlap and the synthesis filters are cleared, and the
+     * sample buffer is changed to the number of output channels.
+     * Afterwards the decoder behaves like a new one, but doesn't need to
+     * allocate its buffers again.
+     *
+     * @param stream the bitstream
+     * @param header the header of the stream
+     */
+    public void reset(Bitstream stream, Header header) {
+        configure(stream, header);
+        br.reset();
+        frameStart = 0;
+        part2Start = 0;
+        buffer.setChannels(lastChannel - firstChannel + 1);
+        engine.reset();
+    }
+
+    /**
+     * Set the output format. Mixing stereo to one channel means only one
+     * synthesis filter runs. With a reduced sample rate, the upper subbands
+     * are not synthesized, and the filters only calculate the remaining
+     * samples. The format is used after the next reset.
+     *
+     * @param downmix whether to mix stereo streams to one channel
+     * @param rateDivisor 1 (the sample rate of the stream), 2 or 4
+     */
+    public void setOutput(boolean downmix, int rateDivisor) {
+        if (rateDivisor != 1 && rateDivisor != 2 && rateDivisor != 4) {
+            throw new IllegalArgumentException("Rate divisor: " + rateDivisor);
+        }
+        this.downmix = downmix;
+        rateShift = Integer.numberOfTrailingZeros(rateDivisor);
+    }
+
     public void decodeFrame() throws IOException {
+        if (!readMainData()) {
+            return;
+        }
+        for (int gr = 0; gr < maxGr; gr++) {
+            decodeGranule(granule, gr);
+            synthesizeGranule(granule, buffer);
+        }
+    }
+
+    /**
+     * The first stage: read the scale factors and Huffman values of the
+     * granule, and dequantize them. The main data of the frame must have
+     * been read using readMainData.
+     *
+     * @param g the target granule
+     * @param gr the granule number within the frame
+     */
+    void decodeGranule(Granule g, int gr) {
+        for (int ch = 0; ch < channels; ch++) {
+            part2Start = br.getBitCount();
+            if (header.version() == Header.VERSION_MPEG1) {
+                getScaleFactors(ch, gr);
+            } else {
+                // MPEG-2 LSF, MPEG-2.5 LSF
+                getLsfScaleFactors(ch, gr);
+            }
+            huffmanDecode(ch, gr);
+            getScaleIndex(ch, gr);
+            engine.dequantizeSample(g, ch, gr);
+            g.gi[ch].copy(si.ch[ch].gr[gr]);
+        }
+        if (channels == 2) {
+            getStereoPositions(gr, g.isPos);
+        }
+        g.msStereo = Layer3Engine.isMsStereo(header);
+        g.iStereo = Layer3Engine.isIntensityStereo(header);
+        g.lsf = Layer3Engine.isLsf(header);
+        g.channels = channels;
+        g.sfreq = sfreq;
+        g.rateShift = rateShift;
+    }
+
+    /**
+     * The second stage: stereo processing, IMDCT and synthesis of the
+     * granule.
+     *
+     * @param g the granule
+     * @param out the buffer for the PCM samples
+     */
+    void synthesizeGranule(Granule g, SampleBuffer out) {
+        engine.stereo(g);
+        if (downmix && g.channels == 2) {
+            engine.synthesizeDownmix(g, out);
+            return;
+        }
+        for (int ch = firstChannel; ch < g.channels; ch++) {
+            engine.synthesize(g, ch, out);
+        }
+    }
+
+    Granule newGranule() {
+        return engine.newGranule();
+    }
+
+    int granules() {
+        return maxGr;
+    }
+
+    /**
+     * Add the main data of the frame to the bit reservoir, without decoding
+     * it. After seeking, the reservoir is primed this way with the frames
+     * that the next frames may refer to.
+     */
+    public void skipFrame() throws IOException {
+        if (!readMainData()) {
+            return;
+        }
+        int bits = 0;
+        for (int gr = 0; gr < maxGr; gr++) {
+            for (int ch = 0; ch < channels; ch++) {
+                bits += si.ch[ch].gr[gr].part23Length;
+            }
+        }
+        br.skipBits(bits);
+    }
+
+    /**
+     * Read the side info, add the main data of the frame to the bit
+     * reservoir, and move to the start of the main data of the frame.
+     *
+     * @return false if the reservoir does not contain enough data
+     */
+    boolean readMainData() throws IOException {
         int slots = header.slots();
         getSideInfo();
         int flushMain = br.getBitCount() & 7;
@@ -151,57 +318,14 @@ public final class Layer3Decoder {
         int bytesToDiscard = frameStart - mainDataEnd - si.mainDataBegin;
         frameStart += slots;
         if (bytesToDiscard < 0) {
-            return;
+            return false;
         }
         if (mainDataEnd > 4096) {
             frameStart -= 4096;
             br.rewindBytes(4096);
         }
-        for (; bytesToDiscard > 0; bytesToDiscard--) {
-            br.getBits(8);
-        }
-        for (int gr = 0; gr < maxGr; gr++) {
-            for (int ch = 0; ch < channels; ch++) {
-                part2Start = br.getBitCount();
-                if (header.version() == Header.VERSION_MPEG1) {
-                    getScaleFactors(ch, gr);
-                } else {
-                    // MPEG-2 LSF, MPEG-2.5 LSF
-                    getLsfScaleFactors(ch, gr);
-                }
-                huffmanDecode(ch, gr);
-                dequantizeSample(ch == 0 ? ro0 : ro1, ch, gr);
-            }
-            stereo(gr);
-            for (int ch = firstChannel; ch <= lastChannel; ch++) {
-                reorder(ch == 0 ? lr0 : lr1, ch, gr);
-                antialias(ch, gr);
-                hybrid(ch, gr);
-                for (int sb18 = 18; sb18 < 576; sb18 += 36) {
-                    // Frequency inversion
-                    for (int ss = 1; ss < SSLIMIT; ss += 2) {
-                        out1d[sb18 + ss] = -out1d[sb18 + ss];
-                    }
-                }
-                if (ch == 0) {
-                    for (int ss = 0; ss < SSLIMIT; ss++) {
-                        // Polyphase synthesis
-                        for (int sb18 = 0, sb = 0; sb18 < 576; sb18 += 18, sb++) {
-                            samples1[sb] = out1d[sb18 + ss];
-                        }
-                        filter1.calculatePcmSamples(samples1, player);
-                    }
-                } else {
-                    for (int ss = 0; ss < SSLIMIT; ss++) {
-                        // Polyphase synthesis
-                        for (int sb18 = 0, sb = 0; sb18 < 576; sb18 += 18, sb++) {
-                            samples2[sb] = out1d[sb18 + ss];
-                        }
-                        filter2.calculatePcmSamples(samples2, player);
-                    }
-                }
-            }
-        }
+        br.skipBits(bytesToDiscard << 3);
+        return true;
     }
 
     /**
@@ -585,7 +709,7 @@ public final class Layer3Decoder {
         numBits = br.getBitCount();
         // Dismiss stuffing bits
         if (numBits < part23End) {
-            br.getBits(part23End - numBits);
+            br.skipBits(part23End - numBits);
         }
         // Zero out rest
         if (index < 576) {
@@ -602,54 +726,11 @@ public final class Layer3Decoder {
         }
     }
 
-    private void iStereoKValues(int pos, int type, int i) {
-        if (pos == 0) {
-            k0[i] = 1.0f;
-            k1[i] = 1.0f;
-        } else if ((pos & 1) != 0) {
-            k0[i] = Constants.IO[type][(pos + 1) >>> 1];
-            k1[i] = 1.0f;
-        } else {
-            k0[i] = 1.0f;
-            k1[i] = Constants.IO[type][pos >>> 1];
-        }
-    }
-
-    private double getT43(int abv, double globalGain) {
-        switch (abv) {
-        case 0:
-            return 0.0f;
-        case 1:
-            return globalGain;
-        case -1:
-            return -globalGain;
-        case 2:
-        case 3:
-        case 4:
-        case 5:
-        case 6:
-            return globalGain * Constants.T43[abv];
-        case -2:
-        case -3:
-        case -4:
-        case -5:
-        case -6:
-            return -globalGain * Constants.T43[-abv];
-        default:
-            if (abv > 0) {
-                if (abv < Constants.T43_SIZE) {
-                    return globalGain * Constants.T43[abv];
-                }
-                return globalGain * Math.pow(abv, D43);
-            }
-            if (-abv < Constants.T43_SIZE) {
-                return -globalGain * Constants.T43[-abv];
-            }
-            return -globalGain * Math.pow(-abv, D43);
-        }
-    }
-
-    private void dequantizeSample(double[][] xr, int ch, int gr) {
+    /**
+     * Calculate the scale factor exponent of each non-zero frequency line. The
+     * engine scales the line by 2^(-exponent/2).
+     */
+    private void getScaleIndex(int ch, int gr) {
         GrInfo gi = si.ch[ch].gr[gr];
         int nextCb; // next critical band boundary
         Constants.SBI sbif = Constants.SF_BAND_INDEX[sfreq];
@@ -657,16 +738,6 @@ public final class Layer3Decoder {
         int[] l = sbif.l;
         int cbWidth = 0;
         int len = nonzero[ch];
-        // Compute overall (global) scaling
-        double globalGain = Constants.POW2[gi.globalGain];
-        for (int i = 0, sb = 0; sb < SBLIMIT; sb++) {
-            for (int ss = 0; ss < SSLIMIT; ss++, i++) {
-                if (i >= len) {
-                    break;
-                }
-                xr[sb][ss] = getT43(is1d[i], globalGain);
-            }
-        }
         // choose correct scalefactor band per block type, initalize boundary
         if (gi.windowSwitching && (gi.blockType == 2)) {
             if (gi.mixedBlock) {
@@ -716,8 +787,6 @@ public final class Layer3Decoder {
                     nextCb = l[(++cb) + 1];
                 }
             }
-            int sb = j / SSLIMIT;
-            int ss = j - sb * SSLIMIT; // % SSLIMIT
             // Do long/short dependent scaling operations
             int idx;
             if (gi.windowSwitching && gi.blockType == 2 && (!gi.mixedBlock || j >= 36)) {
@@ -732,97 +801,26 @@ public final class Layer3Decoder {
                 }
                 idx = idx << gi.scaleFactorScale;
             }
-            xr[sb][ss] *= Constants.TWO_TO_NEGATIVE_HALF_POW[idx];
+            scaleIndex[j] = idx;
             index++;
         }
-        for (int j = len; j < 576; j++) {
-            int sb = j / SSLIMIT;
-            int ss = j - sb * SSLIMIT; // % SSLIMIT
-            xr[sb][ss] = 0.0f;
-        }
-        return;
-    }
-
-    private void reorder(double[][] xr, int ch, int gr) {
-        GrInfo gi = si.ch[ch].gr[gr];
-        if (gi.windowSwitching && gi.blockType == 2) {
-            for (int index = 0; index < 576; index++) {
-                out1d[index] = 0.0f;
-            }
-            if (gi.mixedBlock) {
-                // NO REORDER FOR LOW 2 SUBBANDS
-                for (int index = 0; index < 36; index++) {
-                    int sb = index / SSLIMIT;
-                    int ss = index - sb * SSLIMIT; // % SSLIMIT
-                    out1d[index] = xr[sb][ss];
-                }
-                // REORDERING FOR REST SWITCHED SHORT
-                for (int sfb = 3; sfb < 13; sfb++) {
-                    int sfbStart = Constants.SF_BAND_INDEX[sfreq].s[sfb];
-                    int sfbLines = Constants.SF_BAND_INDEX[sfreq].s[sfb + 1] - sfbStart;
-                    int sfbStart3 = (sfbStart << 2) - sfbStart;
-                    for (int freq = 0, freq3 = 0; freq < sfbLines; freq++, freq3 += 3) {
-                        int srcLine = sfbStart3 + freq;
-                        int desLine = sfbStart3 + freq3;
-                        int sb = srcLine / SSLIMIT;
-                        int ss = srcLine - sb * SSLIMIT; // % SSLIMIT
-                        out1d[desLine] = xr[sb][ss];
-                        srcLine += sfbLines;
-                        desLine++;
-                        sb = srcLine / SSLIMIT;
-                        ss = srcLine - sb * SSLIMIT; // % SSLIMIT
-                        out1d[desLine] = xr[sb][ss];
-                        srcLine += sfbLines;
-                        desLine++;
-                        sb = srcLine / SSLIMIT;
-                        ss = srcLine - sb * SSLIMIT; // % SSLIMIT
-                        out1d[desLine] = xr[sb][ss];
-                    }
-                }
-            } else {
-                // pure short
-                int[] reorder = Constants.REORDER_TABLE[sfreq];
-                for (int index = 0; index < 576; index++) {
-                    int j = reorder[index];
-                    int sb = j / SSLIMIT;
-                    int ss = j - sb * SSLIMIT; // % SSLIMIT
-                    out1d[index] = xr[sb][ss];
-                }
-            }
-        } else {
-            // long blocks
-            for (int i = 0, sb = 0; sb < SBLIMIT; sb++) {
-                for (int ss = 0; ss < SSLIMIT; ss++, i++) {
-                    out1d[i] = xr[sb][ss];
-                }
-            }
-        }
     }
 
-    private void stereo(int gr) {
-        if (channels == 1) { // mono , bypass xr[0][][] to lr[0][][]
-            for (int sb = 0; sb < SBLIMIT; sb++) {
-                for (int ss = 0; ss < SSLIMIT; ss += 3) {
-                    lr0[sb][ss] = ro0[sb][ss];
-                    lr0[sb][ss + 1] = ro0[sb][ss + 1];
-                    lr0[sb][ss + 2] = ro0[sb][ss + 2];
-                }
-            }
-            return;
-        }
+    /**
+     * Calculate the intensity stereo positions of the frequency lines. The
+     * position is 7 if intensity stereo is not used for the line. If the
+     * frame doesn't use intensity stereo, the positions are not set. The end of
+     * the non-zero values of the right channel is found from its Huffman
+     * values, which are still in is1d.
+     */
+    private void getStereoPositions(int gr, int[] isPos) {
         GrInfo gi = si.ch[0].gr[gr];
         int modeExt = header.modeExtension();
         int sfb;
         int temp, temp2;
-        boolean msStereo = ((header.mode() == Header.MODE_JOINT_STEREO) && ((modeExt & 0x2) != 0));
         boolean iStereo = ((header.mode() == Header.MODE_JOINT_STEREO) && ((modeExt & 0x1) != 0));
-        boolean lsf = ((header.version() == Header.VERSION_MPEG2_LSF || header.version() == Header.VERSION_MPEG25_LSF));
-        int ioType = (gi.scaleFactorCompress & 1);
-        for (int i = 0; i < 576; i++) {
-            isPos[i] = 7;
-            isRatio[i] = 0.0f;
-        }
         if (iStereo) {
+            Arrays.fill(isPos, 7);
             Constants.SBI sbif = Constants.SF_BAND_INDEX[sfreq];
             int[] s = sbif.s;
             int[] l = sbif.l;
@@ -836,7 +834,7 @@ public final class Layer3Decoder {
                             int lines = s[sfb + 1] - i;
                             i = (i << 2) - i + (j + 1) * lines - 1;
                             while (lines > 0) {
-                                if (ro1[i / 18][i % 18] != 0.0f) {
+                                if (is1d[i] != 0) {
                                     sfbcnt = sfb;
                                     sfb = -10;
                                     lines = -10;
@@ -855,13 +853,6 @@ public final class Layer3Decoder {
                             int i = (temp << 2) - temp + j * sb;
                             for (; sb > 0; sb--) {
                                 isPos[i] = scaleFactors[1].s[j][sfb];
-                                if (isPos[i] != 7) {
-                                    if (lsf) {
-                                        iStereoKValues(isPos[i], ioType, i);
-                                    } else {
-                                        isRatio[i] = Constants.TAN12[isPos[i]];
-                                    }
-                                }
                                 i++;
                             }
                             sfb++;
@@ -874,12 +865,6 @@ public final class Layer3Decoder {
                         int i = (temp << 2) - temp + j * sb;
                         for (; sb > 0; sb--) {
                             isPos[i] = isPos[sfb];
-                            if (lsf) {
-                                k0[i] = k0[sfb];
-                                k1[i] = k1[sfb];
-                            } else {
-                                isRatio[i] = isRatio[sfb];
-                            }
                             i++;
                         }
                     }
@@ -888,7 +873,7 @@ public final class Layer3Decoder {
                         int ss = 17;
                         int sb = -1;
                         while (i >= 0) {
-                            if (ro1[i][ss] != 0.0f) {
+                            if (is1d[i * SSLIMIT + ss] != 0) {
                                 sb = (i << 4) + (i << 1) + ss;
                                 i = -1;
                             } else {
@@ -909,13 +894,6 @@ public final class Layer3Decoder {
                             sb = l[sfb + 1] - l[sfb];
                             for (; sb > 0; sb--) {
                                 isPos[i] = scaleFactors[1].l[sfb];
-                                if (isPos[i] != 7) {
-                                    if (lsf) {
-                                        iStereoKValues(isPos[i], ioType, i);
-                                    } else {
-                                        isRatio[i] = Constants.TAN12[isPos[i]];
-                                    }
-                                }
                                 i++;
                             }
                         }
@@ -929,7 +907,7 @@ public final class Layer3Decoder {
                             int lines = s[sfb + 1] - temp;
                             int i = (temp << 2) - temp + (j + 1) * lines - 1;
                             while (lines > 0) {
-                                if (ro1[i / 18][i % 18] != 0.0f) {
+                                if (is1d[i] != 0) {
                                     sfbcnt = sfb;
                                     sfb = -10;
                                     lines = -10;
@@ -945,13 +923,6 @@ public final class Layer3Decoder {
                             int i = (temp << 2) - temp + j * sb;
                             for (; sb > 0; sb--) {
                                 isPos[i] = scaleFactors[1].s[j][sfb];
-                                if (isPos[i] != 7) {
-                                    if (lsf) {
-                                        iStereoKValues(isPos[i], ioType, i);
-                                    } else {
-                                        isRatio[i] = Constants.TAN12[isPos[i]];
-                                    }
-                                }
                                 i++;
                             } // for (; sb>0 ...
                             sfb++;
@@ -964,12 +935,6 @@ public final class Layer3Decoder {
                         int i = (temp2 << 2) - temp2 + j * sb;
                         for (; sb > 0; sb--) {
                             isPos[i] = isPos[sfb];
-                            if (lsf) {
-                                k0[i] = k0[sfb];
-                                k1[i] = k1[sfb];
-                            } else {
-                                isRatio[i] = isRatio[sfb];
-                            }
                             i++;
                         }
                     }
@@ -979,7 +944,7 @@ public final class Layer3Decoder {
                 int ss = 17;
                 int sb = 0;
                 while (i >= 0) {
-                    if (ro1[i][ss] != 0.0f) {
+                    if (is1d[i * SSLIMIT + ss] != 0) {
                         sb = (i << 4) + (i << 1) + ss;
                         i = -1;
                     } else {
@@ -1000,374 +965,15 @@ public final class Layer3Decoder {
                     sb = l[sfb + 1] - l[sfb];
                     for (; sb > 0; sb--) {
                         isPos[i] = scaleFactors[1].l[sfb];
-                        if (isPos[i] != 7) {
-                            if (lsf) {
-                                iStereoKValues(isPos[i], ioType, i);
-                            } else {
-                                isRatio[i] = Constants.TAN12[isPos[i]];
-                            }
-                        }
                         i++;
                     }
                 }
                 sfb = l[20];
                 for (sb = 576 - l[21]; (sb > 0) && (i < 576); sb--) {
                     isPos[i] = isPos[sfb]; // error here : i >=576
-                    if (lsf) {
-                        k0[i] = k0[sfb];
-                        k1[i] = k1[sfb];
-                    } else {
-                        isRatio[i] = isRatio[sfb];
-                    }
                     i++;
                 }
             }
         }
-        for (int sb = 0, i = 0; sb < SBLIMIT; sb++) {
-            for (int ss = 0; ss < SSLIMIT; ss++) {
-                if (isPos[i] == 7) {
-                    if (msStereo) {
-                        lr0[sb][ss] = (ro0[sb][ss] + ro1[sb][ss]) * 0.707106781f;
-                        lr1[sb][ss] = (ro0[sb][ss] - ro1[sb][ss]) * 0.707106781f;
-                    } else {
-                        lr0[sb][ss] = ro0[sb][ss];
-                        lr1[sb][ss] = ro1[sb][ss];
-                    }
-                } else if (iStereo) {
-                    if (lsf) {
-                        lr0[sb][ss] = ro0[sb][ss] * k0[i];
-                        lr1[sb][ss] = ro0[sb][ss] * k1[i];
-                    } else {
-                        lr1[sb][ss] = ro0[sb][ss] / (1 + isRatio[i]);
-                        lr0[sb][ss] = lr1[sb][ss] * isRatio[i];
-                    }
-                }
-                i++;
-            }
-        }
-    }
-
-    private void antialias(int ch, int gr) {
-        int sb18, ss, sb18lim;
-        GrInfo gi = si.ch[ch].gr[gr];
-        // 31 alias-reduction operations between each pair of sub-bands
-        // with 8 butterflies between each pair
-        if (gi.windowSwitching && (gi.blockType == 2) && !gi.mixedBlock) {
-            return;
-        }
-        if (gi.windowSwitching && gi.mixedBlock && (gi.blockType == 2)) {
-            sb18lim = 18;
-        } else {
-            sb18lim = 558;
-        }
-        for (sb18 = 0; sb18 < sb18lim; sb18 += 18) {
-            for (ss = 0; ss < 8; ss++) {
-                int srcIdx1 = sb18 + 17 - ss;
-                int srcIdx2 = sb18 + 18 + ss;
-                double bu = out1d[srcIdx1];
-                double bd = out1d[srcIdx2];
-                out1d[srcIdx1] = (bu * Constants.CS[ss]) - (bd * Constants.CA[ss]);
-                out1d[srcIdx2] = (bd * Constants.CS[ss]) + (bu * Constants.CA[ss]);
-            }
-        }
-    }
-
-    private void hybrid(int ch, int gr) {
-        GrInfo gi = si.ch[ch].gr[gr];
-        for (int sb18 = 0; sb18 < 576; sb18 += 18) {
-            int bt = (gi.windowSwitching && gi.mixedBlock && (sb18 < 36)) ? 0 : gi.blockType;
-            double[] tsOut = out1d;
-            double[] r = rawout;
-            for (int cc = 0; cc < 18; cc++) {
-                tsOutCopy[cc] = tsOut[cc + sb18];
-            }
-            fastInvMdct(tsOutCopy, r, bt);
-            for (int cc = 0; cc < 18; cc++) {
-                tsOut[cc + sb18] = tsOutCopy[cc];
-            }
-            // overlap addition
-            double[] p = prevBlock[ch];
-            tsOut[0 + sb18] = r[0] + p[sb18 + 0];
-            p[sb18 + 0] = r[18];
-            tsOut[1 + sb18] = r[1] + p[sb18 + 1];
-            p[sb18 + 1] = r[19];
-            tsOut[2 + sb18] = r[2] + p[sb18 + 2];
-            p[sb18 + 2] = r[20];
-            tsOut[3 + sb18] = r[3] + p[sb18 + 3];
-            p[sb18 + 3] = r[21];
-            tsOut[4 + sb18] = r[4] + p[sb18 + 4];
-            p[sb18 + 4] = r[22];
-            tsOut[5 + sb18] = r[5] + p[sb18 + 5];
-            p[sb18 + 5] = r[23];
-            tsOut[6 + sb18] = r[6] + p[sb18 + 6];
-            p[sb18 + 6] = r[24];
-            tsOut[7 + sb18] = r[7] + p[sb18 + 7];
-            p[sb18 + 7] = r[25];
-            tsOut[8 + sb18] = r[8] + p[sb18 + 8];
-            p[sb18 + 8] = r[26];
-            tsOut[9 + sb18] = r[9] + p[sb18 + 9];
-            p[sb18 + 9] = r[27];
-            tsOut[10 + sb18] = r[10] + p[sb18 + 10];
-            p[sb18 + 10] = r[28];
-            tsOut[11 + sb18] = r[11] + p[sb18 + 11];
-            p[sb18 + 11] = r[29];
-            tsOut[12 + sb18] = r[12] + p[sb18 + 12];
-            p[sb18 + 12] = r[30];
-            tsOut[13 + sb18] = r[13] + p[sb18 + 13];
-            p[sb18 + 13] = r[31];
-            tsOut[14 + sb18] = r[14] + p[sb18 + 14];
-            p[sb18 + 14] = r[32];
-            tsOut[15 + sb18] = r[15] + p[sb18 + 15];
-            p[sb18 + 15] = r[33];
-            tsOut[16 + sb18] = r[16] + p[sb18 + 16];
-            p[sb18 + 16] = r[34];
-            tsOut[17 + sb18] = r[17] + p[sb18 + 17];
-            p[sb18 + 17] = r[35];
-        }
-    }
-
-    private void fastInvMdct(double[] in, double[] out, int blockType) {
-        double t0, t1, t2, t3, t4, t5, t6, t7, t8, t9;
-        double t10, t11, t12, t13, t14, t15, t16, t17;
-        if (blockType == 2) {
-            for (int p = 0; p < 36; p += 9) {
-                out[p] = out[p + 1] = out[p + 2] = out[p + 3] = out[p + 4] = 0.0f;
-                out[p + 5] = out[p + 6] = out[p + 7] = out[p + 8] = 0.0f;
-            }
-            int sixI = 0;
-            for (int i = 0; i < 3; i++) {
-                // 12 point IMDCT
-                // Begin 12 point IDCT
-                // Input aliasing for 12 pt IDCT
-                in[15 + i] += in[12 + i];
-                in[12 + i] += in[9 + i];
-                in[9 + i] += in[6 + i];
-                in[6 + i] += in[3 + i];
-                in[3 + i] += in[0 + i];
-                // Input aliasing on odd indices (for 6 point IDCT)
-                in[15 + i] += in[9 + i];
-                in[9 + i] += in[3 + i];
-                // 3 point IDCT on even indices
-                double pp1, pp2, sum;
-                pp2 = in[12 + i] * 0.500000000f;
-                pp1 = in[6 + i] * 0.866025403f;
-                sum = in[0 + i] + pp2;
-                t1 = in[0 + i] - in[12 + i];
-                t0 = sum + pp1;
-                t2 = sum - pp1;
-                // End 3 point IDCT on even indices
-                // 3 point IDCT on odd indices (for 6 point IDCT)
-                pp2 = in[15 + i] * 0.500000000f;
-                pp1 = in[9 + i] * 0.866025403f;
-                sum = in[3 + i] + pp2;
-                t4 = in[3 + i] - in[15 + i];
-                t5 = sum + pp1;
-                t3 = sum - pp1;
-                // End 3 point IDCT on odd indices
-                // Twiddle factors on odd indices (for 6 point IDCT)
-                t3 *= 1.931851653f;
-                t4 *= 0.707106781f;
-                t5 *= 0.517638090f;
-                // Output butterflies on 2 3 point IDCT's (for 6 point IDCT)
-                double save = t0;
-                t0 += t5;
-                t5 = save - t5;
-                save = t1;
-                t1 += t4;
-                t4 = save - t4;
-                save = t2;
-                t2 += t3;
-                t3 = save - t3;
-                // End 6 point IDCT
-                // Twiddle factors on indices (for 12 point IDCT)
-                t0 *= 0.504314480f;
-                t1 *= 0.541196100f;
-                t2 *= 0.630236207f;
-                t3 *= 0.821339815f;
-                t4 *= 1.306562965f;
-                t5 *= 3.830648788f;
-                // End 12 point IDCT
-                // Shift to 12 point modified IDCT, multiply by window type 2
-                t8 = -t0 * 0.793353340f;
-                t9 = -t0 * 0.608761429f;
-                t7 = -t1 * 0.923879532f;
-                t10 = -t1 * 0.382683432f;
-                t6 = -t2 * 0.991444861f;
-                t11 = -t2 * 0.130526192f;
-                t0 = t3;
-                t1 = t4 * 0.382683432f;
-                t2 = t5 * 0.608761429f;
-                t3 = -t5 * 0.793353340f;
-                t4 = -t4 * 0.923879532f;
-                t5 = -t0 * 0.991444861f;
-                t0 *= 0.130526192f;
-                out[sixI + 6] += t0;
-                out[sixI + 7] += t1;
-                out[sixI + 8] += t2;
-                out[sixI + 9] += t3;
-                out[sixI + 10] += t4;
-                out[sixI + 11] += t5;
-                out[sixI + 12] += t6;
-                out[sixI + 13] += t7;
-                out[sixI + 14] += t8;
-                out[sixI + 15] += t9;
-                out[sixI + 16] += t10;
-                out[sixI + 17] += t11;
-                sixI += 6;
-            }
-        } else {
-            // 36 point IDCT
-            // input aliasing for 36 point IDCT
-            in[17] += in[16];
-            in[16] += in[15];
-            in[15] += in[14];
-            in[14] += in[13];
-            in[13] += in[12];
-            in[12] += in[11];
-            in[11] += in[10];
-            in[10] += in[9];
-            in[9] += in[8];
-            in[8] += in[7];
-            in[7] += in[6];
-            in[6] += in[5];
-            in[5] += in[4];
-            in[4] += in[3];
-            in[3] += in[2];
-            in[2] += in[1];
-            in[1] += in[0];
-            // 18 point IDCT for odd indices
-            // input aliasing for 18 point IDCT
-            in[17] += in[15];
-            in[15] += in[13];
-            in[13] += in[11];
-            in[11] += in[9];
-            in[9] += in[7];
-            in[7] += in[5];
-            in[5] += in[3];
-            in[3] += in[1];
-            double tmp0, tmp1, tmp2, tmp3, tmp4, tmp0b, tmp1b, tmp2b, tmp3b;
-            double tmp0o, tmp1o, tmp2o, tmp3o, tmp4o, tmp0ob, tmp1ob, tmp2ob, tmp3ob;
-            // Fast 9 Point Inverse Discrete Cosine Transform
-            //
-            // By Francois-Raymond Boyer
-            // mailto:boyerf@iro.umontreal.ca
-            // http://www.iro.umontreal.ca/~boyerf
-            //
-            // The code has been optimized for Intel processors
-            // (takes a lot of time to convert double to and from iternal FPU
-            // representation)
-            //
-            // It is a simple "factorization" of the IDCT matrix.
-            // 9 point IDCT on even indices
-            // 5 points on odd indices (not really an IDCT)
-            double i00 = in[0] + in[0];
-            double iip12 = i00 + in[12];
-            tmp0 = iip12 + in[4] * 1.8793852415718f + in[8] * 1.532088886238f + in[16] * 0.34729635533386f;
-            tmp1 = i00 + in[4] - in[8] - in[12] - in[12] - in[16];
-            tmp2 = iip12 - in[4] * 0.34729635533386f - in[8] * 1.8793852415718f + in[16] * 1.532088886238f;
-            tmp3 = iip12 - in[4] * 1.532088886238f + in[8] * 0.34729635533386f - in[16] * 1.8793852415718f;
-            tmp4 = in[0] - in[4] + in[8] - in[12] + in[16];
-            // 4 points on even indices
-            double i6s = in[6] * 1.732050808f; // Sqrt[3]
-            tmp0b = in[2] * 1.9696155060244f + i6s + in[10] * 1.2855752193731f + in[14] * 0.68404028665134f;
-            tmp1b = (in[2] - in[10] - in[14]) * 1.732050808f;
-            tmp2b = in[2] * 1.2855752193731f - i6s - in[10] * 0.68404028665134f + in[14] * 1.9696155060244f;
-            tmp3b = in[2] * 0.68404028665134f - i6s + in[10] * 1.9696155060244f - in[14] * 1.2855752193731f;
-            // 9 point IDCT on odd indices
-            // 5 points on odd indices (not really an IDCT)
-            double i0 = in[0 + 1] + in[0 + 1];
-            double i0p12 = i0 + in[12 + 1];
-            tmp0o = i0p12 + in[4 + 1] * 1.8793852415718f + in[8 + 1] * 1.532088886238f + in[16 + 1] * 0.34729635533386f;
-            tmp1o = i0 + in[4 + 1] - in[8 + 1] - in[12 + 1] - in[12 + 1] - in[16 + 1];
-            tmp2o = i0p12 - in[4 + 1] * 0.34729635533386f - in[8 + 1] * 1.8793852415718f + in[16 + 1] * 1.532088886238f;
-            tmp3o = i0p12 - in[4 + 1] * 1.532088886238f + in[8 + 1] * 0.34729635533386f - in[16 + 1] * 1.8793852415718f;
-            tmp4o = (in[0 + 1] - in[4 + 1] + in[8 + 1] - in[12 + 1] + in[16 + 1]) * 0.707106781f; // Twiddled
-            // 4 points on even indices
-            double i7s = in[6 + 1] * 1.732050808f; // Sqrt[3]
-            tmp0ob = in[2 + 1] * 1.9696155060244f + i7s + in[10 + 1] * 1.2855752193731f + in[14 + 1]
-                    * 0.68404028665134f;
-            tmp1ob = (in[2 + 1] - in[10 + 1] - in[14 + 1]) * 1.732050808f;
-            tmp2ob = in[2 + 1] * 1.2855752193731f - i7s - in[10 + 1] * 0.68404028665134f + in[14 + 1]
-                    * 1.9696155060244f;
-            tmp3ob = in[2 + 1] * 0.68404028665134f - i7s + in[10 + 1] * 1.9696155060244f - in[14 + 1]
-                    * 1.2855752193731f;
-            // Twiddle factors on odd indices and
-            // Butterflies on 9 point IDCT's and
-            // twiddle factors for 36 point IDCT
-            double e, o;
-            e = tmp0 + tmp0b;
-            o = (tmp0o + tmp0ob) * 0.501909918f;
-            t0 = e + o;
-            t17 = e - o;
-            e = tmp1 + tmp1b;
-            o = (tmp1o + tmp1ob) * 0.517638090f;
-            t1 = e + o;
-            t16 = e - o;
-            e = tmp2 + tmp2b;
-            o = (tmp2o + tmp2ob) * 0.551688959f;
-            t2 = e + o;
-            t15 = e - o;
-            e = tmp3 + tmp3b;
-            o = (tmp3o + tmp3ob) * 0.610387294f;
-            t3 = e + o;
-            t14 = e - o;
-            t4 = tmp4 + tmp4o;
-            t13 = tmp4 - tmp4o;
-            e = tmp3 - tmp3b;
-            o = (tmp3o - tmp3ob) * 0.871723397f;
-            t5 = e + o;
-            t12 = e - o;
-            e = tmp2 - tmp2b;
-            o = (tmp2o - tmp2ob) * 1.183100792f;
-            t6 = e + o;
-            t11 = e - o;
-            e = tmp1 - tmp1b;
-            o = (tmp1o - tmp1ob) * 1.931851653f;
-            t7 = e + o;
-            t10 = e - o;
-            e = tmp0 - tmp0b;
-            o = (tmp0o - tmp0ob) * 5.736856623f;
-            t8 = e + o;
-            t9 = e - o;
-            // end 36 point IDCT */
-            // shift to modified IDCT
-            double[] win = Constants.WIN[blockType];
-            out[0] = -t9 * win[0];
-            out[1] = -t10 * win[1];
-            out[2] = -t11 * win[2];
-            out[3] = -t12 * win[3];
-            out[4] = -t13 * win[4];
-            out[5] = -t14 * win[5];
-            out[6] = -t15 * win[6];
-            out[7] = -t16 * win[7];
-            out[8] = -t17 * win[8];
-            out[9] = t17 * win[9];
-            out[10] = t16 * win[10];
-            out[11] = t15 * win[11];
-            out[12] = t14 * win[12];
-            out[13] = t13 * win[13];
-            out[14] = t12 * win[14];
-            out[15] = t11 * win[15];
-            out[16] = t10 * win[16];
-            out[17] = t9 * win[17];
-            out[18] = t8 * win[18];
-            out[19] = t7 * win[19];
-            out[20] = t6 * win[20];
-            out[21] = t5 * win[21];
-            out[22] = t4 * win[22];
-            out[23] = t3 * win[23];
-            out[24] = t2 * win[24];
-            out[25] = t1 * win[25];
-            out[26] = t0 * win[26];
-            out[27] = t0 * win[27];
-            out[28] = t1 * win[28];
-            out[29] = t2 * win[29];
-            out[30] = t3 * win[30];
-            out[31] = t4 * win[31];
-            out[32] = t5 * win[32];
-            out[33] = t6 * win[33];
-            out[34] = t7 * win[34];
-            out[35] = t8 * win[35];
-        }
     }
 }
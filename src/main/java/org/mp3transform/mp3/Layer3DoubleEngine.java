@@ -0,0 +1,497 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+import java.util.Arrays;
+
+import org.mp3transform.mp3.Layer3Decoder.GrInfo;
+
+/**
+ * The double precision engine. This is the reference implementation.
+ */
+final class Layer3DoubleEngine extends Layer3Engine {
+    private final double[] lr0 = new double[SBLIMIT * SSLIMIT];
+    private final double[] lr1 = new double[SBLIMIT * SSLIMIT];
+    private final double[] out1d = new double[SBLIMIT * SSLIMIT];
+    // the subband samples of the second channel, when mixing after the IMDCT
+    private final double[] mix1d = new double[SBLIMIT * SSLIMIT];
+    private final double[][] prevBlock = new double[2][SBLIMIT * SSLIMIT];
+    private final double[] rawout = new double[36];
+    private final SynthesisFilter filter1;
+    private SynthesisFilter filter2;
+    // subband samples are buffered and passed to the
+    // SynthesisFilter in one go.
+    private final double[] samples = new double[32];
+
+    Layer3DoubleEngine(Layer3Decoder decoder, SynthesisFilter filter1, SynthesisFilter filter2) {
+        super(decoder);
+        if (filter1 == null) {
+            filter1 = new SynthesisFilter(0, SCALE_FACTOR);
+            if (decoder.channels == 2) {
+                filter2 = new SynthesisFilter(1, SCALE_FACTOR);
+            }
+        }
+        this.filter1 = filter1;
+        this.filter2 = filter2;
+    }
+
+    Granule newGranule() {
+        return new DoubleGranule();
+    }
+
+    void reset() {
+        Arrays.fill(prevBlock[0], 0);
+        Arrays.fill(prevBlock[1], 0);
+        filter1.reset();
+        if (filter2 != null) {
+            filter2.reset();
+        } else if (decoder.channels == 2) {
+            filter2 = new SynthesisFilter(1, SCALE_FACTOR);
+        }
+    }
+
+    void dequantize(Granule g, int ch, int globalGain, int len, int end) {
+        double[] xr = ch == 0 ? ((DoubleGranule) g).ro0 : ((DoubleGranule) g).ro1;
+        int[] is1d = decoder.is1d;
+        int[] scaleIndex = decoder.scaleIndex;
+        // the gain of a line only depends on globalGain - 2 * scaleIndex
+        globalGain += Constants.GAIN_OFFSET;
+        for (int i = 0; i < len; i++) {
+            xr[i] = Constants.T43[is1d[i] + Constants.T43_ZERO] * Constants.GAIN[globalGain - 2 * scaleIndex[i]];
+        }
+        Arrays.fill(xr, len, end, 0);
+    }
+
+    void mono(Granule g, int end) {
+        clearAfter(lr0, 0, end);
+        System.arraycopy(((DoubleGranule) g).ro0, 0, lr0, 0, end);
+    }
+
+    void startStereo(Granule g, int end) {
+        clearAfter(lr0, 0, end);
+        clearAfter(lr1, 1, end);
+    }
+
+    /**
+     * Set the lines from the given end to the previous end to zero.
+     */
+    private void clearAfter(double[] lr, int ch, int end) {
+        if (end < lrEnd[ch]) {
+            Arrays.fill(lr, end, lrEnd[ch], 0);
+        }
+    }
+
+    void leftRight(Granule g, int from, int to) {
+        System.arraycopy(((DoubleGranule) g).ro0, from, lr0, from, to - from);
+        System.arraycopy(((DoubleGranule) g).ro1, from, lr1, from, to - from);
+    }
+
+    void midSide(Granule g, int from, int to) {
+        double[] ro0 = ((DoubleGranule) g).ro0, ro1 = ((DoubleGranule) g).ro1;
+        for (int i = from; i < to; i++) {
+            lr0[i] = (ro0[i] + ro1[i]) * 0.707106781f;
+            lr1[i] = (ro0[i] - ro1[i]) * 0.707106781f;
+        }
+    }
+
+    void intensity(Granule g, int from, int to, int pos) {
+        double[] ro0 = ((DoubleGranule) g).ro0;
+        if (g.lsf) {
+            double[] io = Constants.IO[g.gi[0].scaleFactorCompress & 1];
+            double k0 = 1.0f, k1 = 1.0f;
+            if (pos == 0) {
+                // k0 = k1 = 1
+            } else if ((pos & 1) != 0) {
+                k0 = io[(pos + 1) >>> 1];
+            } else {
+                k1 = io[pos >>> 1];
+            }
+            for (int i = from; i < to; i++) {
+                lr0[i] = ro0[i] * k0;
+                lr1[i] = ro0[i] * k1;
+            }
+        } else {
+            double ratio = Constants.TAN12[pos];
+            for (int i = from; i < to; i++) {
+                lr1[i] = ro0[i] / (1 + ratio);
+                lr0[i] = lr1[i] * ratio;
+            }
+        }
+    }
+
+    void downmix(Granule g) {
+        // after stereo processing, both channels end at the same line
+        for (int i = 0, end = lrEnd[0]; i < end; i++) {
+            lr0[i] = (lr0[i] + lr1[i]) * 0.5;
+        }
+    }
+
+    void halve(Granule g) {
+        for (int i = 0, end = lrEnd[0]; i < end; i++) {
+            lr0[i] *= 0.5;
+            lr1[i] *= 0.5;
+        }
+    }
+
+    void reorder(Granule g, int ch, int[] table, int end) {
+        double[] xr = ch == 0 ? lr0 : lr1;
+        if (table != null) {
+            for (int i = 0; i < 576; i++) {
+                int j = table[i];
+                out1d[i] = j < 0 ? 0 : xr[j];
+            }
+        } else {
+            System.arraycopy(xr, 0, out1d, 0, end);
+            Arrays.fill(out1d, end, 576, 0);
+        }
+    }
+
+    void antialias(int end) {
+        // 8 butterflies between each pair of subbands
+        for (int sb18 = 0; sb18 < end; sb18 += 18) {
+            for (int ss = 0; ss < 8; ss++) {
+                int srcIdx1 = sb18 + 17 - ss;
+                int srcIdx2 = sb18 + 18 + ss;
+                double bu = out1d[srcIdx1];
+                double bd = out1d[srcIdx2];
+                out1d[srcIdx1] = (bu * Constants.CS[ss]) - (bd * Constants.CA[ss]);
+                out1d[srcIdx2] = (bd * Constants.CS[ss]) + (bu * Constants.CA[ss]);
+            }
+        }
+    }
+
+    void clearLines(int from) {
+        Arrays.fill(out1d, from, 576, 0);
+    }
+
+    void hybrid(int ch, GrInfo gi) {
+        double[] tsOut = out1d;
+        double[] r = rawout;
+        double[] p = prevBlock[ch];
+        // the IMDCT of a silent subband is zero, so that only the overlap
+        // of the previous granule remains
+        int end = nonzeroEnd(tsOut);
+        for (int sb18 = 0; sb18 < end; sb18 += 18) {
+            fastInvMdct(tsOut, sb18, r, blockType(gi, sb18));
+            // overlap addition
+            for (int i = 0; i < 18; i++) {
+                tsOut[sb18 + i] = r[i] + p[sb18 + i];
+                p[sb18 + i] = r[18 + i];
+            }
+        }
+        System.arraycopy(p, end, tsOut, end, 576 - end);
+        Arrays.fill(p, end, 576, 0);
+    }
+
+    void holdMix() {
+        System.arraycopy(out1d, 0, mix1d, 0, 576);
+    }
+
+    void addMix() {
+        double[] p0 = prevBlock[0], p1 = prevBlock[1];
+        for (int i = 0; i < 576; i++) {
+            out1d[i] += mix1d[i];
+            p0[i] += p1[i];
+        }
+        Arrays.fill(p1, 0);
+    }
+
+    void polyphase(int ch, SampleBuffer buffer, int step) {
+        for (int sb18 = 18; sb18 < 576; sb18 += 36) {
+            // Frequency inversion
+            for (int ss = 1; ss < SSLIMIT; ss += 2) {
+                out1d[sb18 + ss] = -out1d[sb18 + ss];
+            }
+        }
+        SynthesisFilter filter = ch == 0 ? filter1 : filter2;
+        for (int ss = 0; ss < SSLIMIT; ss++) {
+            for (int sb18 = 0, sb = 0; sb18 < 576; sb18 += 18, sb++) {
+                samples[sb] = out1d[sb18 + ss];
+            }
+            filter.calculatePcmSamples(samples, buffer, step);
+        }
+    }
+
+    /**
+     * Get the end of the last subband that contains a sample other than
+     * zero.
+     *
+     * @param x the samples
+     * @return the end (0 to 576, a multiple of 18)
+     */
+    private static int nonzeroEnd(double[] x) {
+        int i = 576;
+        while (i > 0 && x[i - 1] == 0) {
+            i--;
+        }
+        return (i + 17) / 18 * 18;
+    }
+
+    private void fastInvMdct(double[] in, int off, double[] out, int blockType) {
+        double t0, t1, t2, t3, t4, t5, t6, t7, t8, t9;
+        double t10, t11, t12, t13, t14, t15, t16, t17;
+        if (blockType == 2) {
+            for (int p = 0; p < 36; p += 9) {
+                out[p] = out[p + 1] = out[p + 2] = out[p + 3] = out[p + 4] = 0.0f;
+                out[p + 5] = out[p + 6] = out[p + 7] = out[p + 8] = 0.0f;
+            }
+            int sixI = 0;
+            for (int i = 0; i < 3; i++) {
+                // 12 point IMDCT
+                // Begin 12 point IDCT
+                // Input aliasing for 12 pt IDCT
+                in[off + 15 + i] += in[off + 12 + i];
+                in[off + 12 + i] += in[off + 9 + i];
+                in[off + 9 + i] += in[off + 6 + i];
+                in[off + 6 + i] += in[off + 3 + i];
+                in[off + 3 + i] += in[off + i];
+                // Input aliasing on odd indices (for 6 point IDCT)
+                in[off + 15 + i] += in[off + 9 + i];
+                in[off + 9 + i] += in[off + 3 + i];
+                // 3 point IDCT on even indices
+                double pp1, pp2, sum;
+                pp2 = in[off + 12 + i] * 0.500000000f;
+                pp1 = in[off + 6 + i] * 0.866025403f;
+                sum = in[off + i] + pp2;
+                t1 = in[off + i] - in[off + 12 + i];
+                t0 = sum + pp1;
+                t2 = sum - pp1;
+                // End 3 point IDCT on even indices
+                // 3 point IDCT on odd indices (for 6 point IDCT)
+                pp2 = in[off + 15 + i] * 0.500000000f;
+                pp1 = in[off + 9 + i] * 0.866025403f;
+                sum = in[off + 3 + i] + pp2;
+                t4 = in[off + 3 + i] - in[off + 15 + i];
+                t5 = sum + pp1;
+                t3 = sum - pp1;
+                // End 3 point IDCT on odd indices
+                // Twiddle factors on odd indices (for 6 point IDCT)
+                t3 *= 1.931851653f;
+                t4 *= 0.707106781f;
+                t5 *= 0.517638090f;
+                // Output butterflies on 2 3 point IDCT's (for 6 point IDCT)
+                double save = t0;
+                t0 += t5;
+                t5 = save - t5;
+                save = t1;
+                t1 += t4;
+                t4 = save - t4;
+                save = t2;
+                t2 += t3;
+                t3 = save - t3;
+                // End 6 point IDCT
+                // Twiddle factors on indices (for 12 point IDCT)
+                t0 *= 0.504314480f;
+                t1 *= 0.541196100f;
+                t2 *= 0.630236207f;
+                t3 *= 0.821339815f;
+                t4 *= 1.306562965f;
+                t5 *= 3.830648788f;
+                // End 12 point IDCT
+                // Shift to 12 point modified IDCT, multiply by window type 2
+                t8 = -t0 * 0.793353340f;
+                t9 = -t0 * 0.608761429f;
+                t7 = -t1 * 0.923879532f;
+                t10 = -t1 * 0.382683432f;
+                t6 = -t2 * 0.991444861f;
+                t11 = -t2 * 0.130526192f;
+                t0 = t3;
+                t1 = t4 * 0.382683432f;
+                t2 = t5 * 0.608761429f;
+                t3 = -t5 * 0.793353340f;
+                t4 = -t4 * 0.923879532f;
+                t5 = -t0 * 0.991444861f;
+                t0 *= 0.130526192f;
+                out[sixI + 6] += t0;
+                out[sixI + 7] += t1;
+                out[sixI + 8] += t2;
+                out[sixI + 9] += t3;
+                out[sixI + 10] += t4;
+                out[sixI + 11] += t5;
+                out[sixI + 12] += t6;
+                out[sixI + 13] += t7;
+                out[sixI + 14] += t8;
+                out[sixI + 15] += t9;
+                out[sixI + 16] += t10;
+                out[sixI + 17] += t11;
+                sixI += 6;
+            }
+        } else {
+            // 36 point IDCT
+            // input aliasing for 36 point IDCT
+            in[off + 17] += in[off + 16];
+            in[off + 16] += in[off + 15];
+            in[off + 15] += in[off + 14];
+            in[off + 14] += in[off + 13];
+            in[off + 13] += in[off + 12];
+            in[off + 12] += in[off + 11];
+            in[off + 11] += in[off + 10];
+            in[off + 10] += in[off + 9];
+            in[off + 9] += in[off + 8];
+            in[off + 8] += in[off + 7];
+            in[off + 7] += in[off + 6];
+            in[off + 6] += in[off + 5];
+            in[off + 5] += in[off + 4];
+            in[off + 4] += in[off + 3];
+            in[off + 3] += in[off + 2];
+            in[off + 2] += in[off + 1];
+            in[off + 1] += in[off];
+            // 18 point IDCT for odd indices
+            // input aliasing for 18 point IDCT
+            in[off + 17] += in[off + 15];
+            in[off + 15] += in[off + 13];
+            in[off + 13] += in[off + 11];
+            in[off + 11] += in[off + 9];
+            in[off + 9] += in[off + 7];
+            in[off + 7] += in[off + 5];
+            in[off + 5] += in[off + 3];
+            in[off + 3] += in[off + 1];
+            double tmp0, tmp1, tmp2, tmp3, tmp4, tmp0b, tmp1b, tmp2b, tmp3b;
+            double tmp0o, tmp1o, tmp2o, tmp3o, tmp4o, tmp0ob, tmp1ob, tmp2ob, tmp3ob;
+            // Fast 9 Point Inverse Discrete Cosine Transform
+            //
+            // By Francois-Raymond Boyer
+            // mailto:boyerf@iro.umontreal.ca
+            // http://www.iro.umontreal.ca/~boyerf
+            //
+            // The code has been optimized for Intel processors
+            // (takes a lot of time to convert double to and from the internal
+            // FPU representation)
+            //
+            // It is a simple "factorization" of the IDCT matrix.
+            // 9 point IDCT on even indices
+            // 5 points on odd indices (not really an IDCT)
+            double i00 = in[off] + in[off];
+            double iip12 = i00 + in[off + 12];
+            tmp0 = iip12 + in[off + 4] * 1.8793852415718f + in[off + 8] * 1.532088886238f + in[off + 16] * 0.34729635533386f;
+            tmp1 = i00 + in[off + 4] - in[off + 8] - in[off + 12] - in[off + 12] - in[off + 16];
+            tmp2 = iip12 - in[off + 4] * 0.34729635533386f - in[off + 8] * 1.8793852415718f + in[off + 16] * 1.532088886238f;
+            tmp3 = iip12 - in[off + 4] * 1.532088886238f + in[off + 8] * 0.34729635533386f - in[off + 16] * 1.8793852415718f;
+            tmp4 = in[off] - in[off + 4] + in[off + 8] - in[off + 12] + in[off + 16];
+            // 4 points on even indices
+            double i6s = in[off + 6] * 1.732050808f; // Sqrt[3]
+            tmp0b = in[off + 2] * 1.9696155060244f + i6s + in[off + 10] * 1.2855752193731f + in[off + 14] * 0.68404028665134f;
+            tmp1b = (in[off + 2] - in[off + 10] - in[off + 14]) * 1.732050808f;
+            tmp2b = in[off + 2] * 1.2855752193731f - i6s - in[off + 10] * 0.68404028665134f + in[off + 14] * 1.9696155060244f;
+            tmp3b = in[off + 2] * 0.68404028665134f - i6s + in[off + 10] * 1.9696155060244f - in[off + 14] * 1.2855752193731f;
+            // 9 point IDCT on odd indices
+            // 5 points on odd indices (not really an IDCT)
+            double i0 = in[off + 1] + in[off + 1];
+            double i0p12 = i0 + in[off + 12 + 1];
+            tmp0o = i0p12 + in[off + 4 + 1] * 1.8793852415718f + in[off + 8 + 1] * 1.532088886238f + in[off + 16 + 1] * 0.34729635533386f;
+            tmp1o = i0 + in[off + 4 + 1] - in[off + 8 + 1] - in[off + 12 + 1] - in[off + 12 + 1] - in[off + 16 + 1];
+            tmp2o = i0p12 - in[off + 4 + 1] * 0.34729635533386f - in[off + 8 + 1] * 1.8793852415718f + in[off + 16 + 1] * 1.532088886238f;
+            tmp3o = i0p12 - in[off + 4 + 1] * 1.532088886238f + in[off + 8 + 1] * 0.34729635533386f - in[off + 16 + 1] * 1.8793852415718f;
+            tmp4o = (in[off + 1] - in[off + 4 + 1] + in[off + 8 + 1] - in[off + 12 + 1] + in[off + 16 + 1]) * 0.707106781f; // Twiddled
+            // 4 points on even indices
+            double i7s = in[off + 6 + 1] * 1.732050808f; // Sqrt[3]
+            tmp0ob = in[off + 2 + 1] * 1.9696155060244f + i7s + in[off + 10 + 1] * 1.2855752193731f + in[off + 14 + 1]
+                    * 0.68404028665134f;
+            tmp1ob = (in[off + 2 + 1] - in[off + 10 + 1] - in[off + 14 + 1]) * 1.732050808f;
+            tmp2ob = in[off + 2 + 1] * 1.2855752193731f - i7s - in[off + 10 + 1] * 0.68404028665134f + in[off + 14 + 1]
+                    * 1.9696155060244f;
+            tmp3ob = in[off + 2 + 1] * 0.68404028665134f - i7s + in[off + 10 + 1] * 1.9696155060244f - in[off + 14 + 1]
+                    * 1.2855752193731f;
+            // Twiddle factors on odd indices and
+            // Butterflies on 9 point IDCT's and
+            // twiddle factors for 36 point IDCT
+            double e, o;
+            e = tmp0 + tmp0b;
+            o = (tmp0o + tmp0ob) * 0.501909918f;
+            t0 = e + o;
+            t17 = e - o;
+            e = tmp1 + tmp1b;
+            o = (tmp1o + tmp1ob) * 0.517638090f;
+            t1 = e + o;
+            t16 = e - o;
+            e = tmp2 + tmp2b;
+            o = (tmp2o + tmp2ob) * 0.551688959f;
+            t2 = e + o;
+            t15 = e - o;
+            e = tmp3 + tmp3b;
+            o = (tmp3o + tmp3ob) * 0.610387294f;
+            t3 = e + o;
+            t14 = e - o;
+            t4 = tmp4 + tmp4o;
+            t13 = tmp4 - tmp4o;
+            e = tmp3 - tmp3b;
+            o = (tmp3o - tmp3ob) * 0.871723397f;
+            t5 = e + o;
+            t12 = e - o;
+            e = tmp2 - tmp2b;
+            o = (tmp2o - tmp2ob) * 1.183100792f;
+            t6 = e + o;
+            t11 = e - o;
+            e = tmp1 - tmp1b;
+            o = (tmp1o - tmp1ob) * 1.931851653f;
+            t7 = e + o;
+            t10 = e - o;
+            e = tmp0 - tmp0b;
+            o = (tmp0o - tmp0ob) * 5.736856623f;
+            t8 = e + o;
+            t9 = e - o;
+            // end 36 point IDCT */
+            // shift to modified IDCT
+            double[] win = Constants.WIN[blockType];
+            out[0] = -t9 * win[0];
+            out[1] = -t10 * win[1];
+            out[2] = -t11 * win[2];
+            out[3] = -t12 * win[3];
+            out[4] = -t13 * win[4];
+            out[5] = -t14 * win[5];
+            out[6] = -t15 * win[6];
+            out[7] = -t16 * win[7];
+            out[8] = -t17 * win[8];
+            out[9] = t17 * win[9];
+            out[10] = t16 * win[10];
+            out[11] = t15 * win[11];
+            out[12] = t14 * win[12];
+            out[13] = t13 * win[13];
+            out[14] = t12 * win[14];
+            out[15] = t11 * win[15];
+            out[16] = t10 * win[16];
+            out[17] = t9 * win[17];
+            out[18] = t8 * win[18];
+            out[19] = t7 * win[19];
+            out[20] = t6 * win[20];
+            out[21] = t5 * win[21];
+            out[22] = t4 * win[22];
+            out[23] = t3 * win[23];
+            out[24] = t2 * win[24];
+            out[25] = t1 * win[25];
+            out[26] = t0 * win[26];
+            out[27] = t0 * win[27];
+            out[28] = t1 * win[28];
+            out[29] = t2 * win[29];
+            out[30] = t3 * win[30];
+            out[31] = t4 * win[31];
+            out[32] = t5 * win[32];
+            out[33] = t6 * win[33];
+            out[34] = t7 * win[34];
+            out[35] = t8 * win[35];
+        }
+    }
+
+    /**
+     * The dequantized samples of both channels.
+     */
+    static final class DoubleGranule extends Granule {
+        final double[] ro0 = new double[SBLIMIT * SSLIMIT];
+        final double[] ro1 = new double[SBLIMIT * SSLIMIT];
+    }
+
+}
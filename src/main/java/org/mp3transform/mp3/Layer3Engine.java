@@ -0,0 +1,298 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+import org.mp3transform.mp3.Layer3Decoder.GrInfo;
+
+/**
+ * The numeric part of the layer III decoder: dequantization, stereo
+ * processing, reordering, alias reduction, IMDCT and polyphase synthesis.
+ * The Layer3Decoder reads the side info, scale factors and Huffman values;
+ * there is one engine per Precision.
+ * <p>
+ * The control flow that does not depend on the sample type (the stereo
+ * modes, the reorder tables, the block types and the order of the steps) is
+ * implemented here; the engines only implement the arithmetic kernels.
+ * <p>
+ * Dequantization belongs to the first stage (that reads the frame), and the
+ * rest to the second stage. The stages only share the Granule, so that
+ * they can run in different threads.
+ */
+abstract class Layer3Engine {
+
+    static final int SSLIMIT = Layer3Decoder.SSLIMIT;
+    static final int SBLIMIT = Layer3Decoder.SBLIMIT;
+    static final double SCALE_FACTOR = 32700.0f;
+
+    final Layer3Decoder decoder;
+
+    // the number of lines of each channel that may be non-zero after the
+    // stereo processing
+    final int[] lrEnd = new int[2];
+
+    Layer3Engine(Layer3Decoder decoder) {
+        this.decoder = decoder;
+    }
+
+    /**
+     * Create a granule that can hold the dequantized samples of this engine.
+     */
+    abstract Granule newGranule();
+
+    /**
+     * Dequantize the Huffman values (is1d) of the channel, using the scale
+     * factor exponents (scaleIndex), into the granule.
+     */
+    final void dequantizeSample(Granule g, int ch, int gr) {
+        int len = Math.max(0, decoder.nonzero[ch]);
+        // the lines after the end of the previous samples are still zero
+        int end = Math.max(len, g.nonzero[ch]);
+        // in case decoding fails, all lines up to end may be non-zero
+        g.nonzero[ch] = end;
+        dequantize(g, ch, decoder.si.ch[ch].gr[gr].globalGain, len, end);
+        g.nonzero[ch] = len;
+    }
+
+    /**
+     * Dequantize the first len lines of the channel, and set the lines from
+     * len to end to zero. The gain of a line is
+     * 2^((globalGain - 210 - 2 * scaleIndex) / 4).
+     */
+    abstract void dequantize(Granule g, int ch, int globalGain, int len, int end);
+
+    /**
+     * Process the (mid side or intensity) stereo of both channels of the
+     * granule. For intensity stereo, the positions are in isPos. The lines
+     * are processed in runs with the same intensity position.
+     */
+    final void stereo(Granule g) {
+        if (g.channels == 1) {
+            int end = g.nonzero[0];
+            mono(g, end);
+            lrEnd[0] = end;
+            return;
+        }
+        boolean msStereo = g.msStereo;
+        boolean iStereo = g.iStereo;
+        int[] isPos = g.isPos;
+        // the lines after end are zero in both channels
+        int end = Math.max(g.nonzero[0], g.nonzero[1]);
+        startStereo(g, end);
+        lrEnd[0] = lrEnd[1] = end;
+        for (int i = 0, next; i < end; i = next) {
+            int pos = 7;
+            next = end;
+            if (iStereo) {
+                pos = isPos[i];
+                for (next = i + 1; next < end && isPos[next] == pos; next++) {
+                    // same position
+                }
+            }
+            if (pos != 7) {
+                intensity(g, i, next, pos);
+            } else if (msStereo) {
+                midSide(g, i, next);
+            } else {
+                leftRight(g, i, next);
+            }
+        }
+    }
+
+    /**
+     * Copy the lines of a mono granule for the synthesis. The lines from end
+     * to lrEnd[0] need to be cleared.
+     */
+    abstract void mono(Granule g, int end);
+
+    /**
+     * Prepare the stereo processing of the lines up to end. The lines from
+     * end to lrEnd need to be cleared.
+     */
+    abstract void startStereo(Granule g, int end);
+
+    /**
+     * Copy the left and right lines of the range.
+     */
+    abstract void leftRight(Granule g, int from, int to);
+
+    /**
+     * Convert the mid and side lines of the range to left and right.
+     */
+    abstract void midSide(Granule g, int from, int to);
+
+    /**
+     * Calculate both channels of the range from the first channel, using the
+     * intensity position (the MPEG 1 or the LSF ratios, see Granule.lsf).
+     */
+    abstract void intensity(Granule g, int from, int to, int pos);
+
+    /**
+     * Mix the stereo processed channels into the first channel (the mid
+     * channel), so that only the first channel needs to be transformed.
+     * Only used if both channels use the same blocks.
+     */
+    abstract void downmix(Granule g);
+
+    /**
+     * Halve the stereo processed lines of both channels, so that the
+     * channels can be mixed after the IMDCT by adding them.
+     */
+    abstract void halve(Granule g);
+
+    /**
+     * Reorder, alias reduction, IMDCT, overlap, and synthesis of the channel.
+     * The PCM samples are appended to the sample buffer. If the sample rate
+     * is reduced (Granule.rateShift), the upper subbands are dropped,
+     * and the synthesis filter only calculates every second or fourth
+     * sample.
+     */
+    final void synthesize(Granule g, int ch, SampleBuffer buffer) {
+        transform(g, ch);
+        polyphase(ch, buffer, 1 << g.rateShift);
+    }
+
+    /**
+     * Mix both channels of the granule, and synthesize the mix as the first
+     * channel. The IMDCT depends on the blocks of a channel: if both
+     * channels use the same blocks, the lines are mixed before the IMDCT,
+     * so that only one channel is transformed. Otherwise the channels are
+     * transformed with their own blocks, and the subband samples are mixed
+     * afterwards. In both cases, the IMDCT overlap of the first channel is
+     * the overlap of the mix, and the overlap of the second channel is zero
+     * after the call.
+     */
+    final void synthesizeDownmix(Granule g, SampleBuffer buffer) {
+        boolean same = isSameBlocks(g.gi[0], g.gi[1]);
+        if (same) {
+            downmix(g);
+        } else {
+            // the IMDCT is linear, so that the halved channels can be
+            // transformed separately and added
+            halve(g);
+            transform(g, 1);
+            holdMix();
+        }
+        transform(g, 0);
+        if (!same) {
+            addMix();
+        }
+        polyphase(0, buffer, 1 << g.rateShift);
+    }
+
+    /**
+     * Reorder, alias reduction, IMDCT and overlap of the channel.
+     */
+    private void transform(Granule g, int ch) {
+        GrInfo gi = g.gi[ch];
+        int end = lrEnd[ch];
+        int[] table = null;
+        int antialiasEnd;
+        if (gi.windowSwitching && gi.blockType == 2) {
+            int sfreq = g.sfreq;
+            table = gi.mixedBlock ? Constants.MIXED_REORDER_TABLE[sfreq] : Constants.REORDER_TABLE[sfreq];
+            // only the two long block subbands of mixed blocks
+            antialiasEnd = gi.mixedBlock ? 18 : 0;
+        } else {
+            // the subbands after end are zero
+            antialiasEnd = Math.min(558, (end + 17) / 18 * 18);
+        }
+        reorder(g, ch, table, end);
+        antialias(antialiasEnd);
+        int shift = g.rateShift;
+        if (shift != 0) {
+            // the subbands above the reduced sample rate are dropped
+            clearLines(SSLIMIT * (SBLIMIT >> shift));
+        }
+        hybrid(ch, gi);
+    }
+
+    /**
+     * Copy the lines of the channel to the frequency lines. For short
+     * blocks, the table contains the source line of each line (or -1 for a
+     * line that is zero); for long blocks it is null, and only the lines up
+     * to end are not zero.
+     */
+    abstract void reorder(Granule g, int ch, int[] table, int end);
+
+    /**
+     * The alias reduction butterflies between the subbands below the end.
+     */
+    abstract void antialias(int end);
+
+    /**
+     * Set the frequency lines from the given line to zero.
+     */
+    abstract void clearLines(int from);
+
+    /**
+     * IMDCT and overlap addition of the frequency lines. The block type of a
+     * subband is blockType(gi, sb18).
+     */
+    abstract void hybrid(int ch, GrInfo gi);
+
+    /**
+     * Keep the subband samples of the second channel.
+     */
+    abstract void holdMix();
+
+    /**
+     * Add the kept subband samples to the subband samples of the first
+     * channel, and the IMDCT overlap of the second channel to the overlap of
+     * the first channel. The overlap of the second channel is then zero.
+     */
+    abstract void addMix();
+
+    /**
+     * Frequency inversion, and polyphase synthesis of the channel.
+     */
+    abstract void polyphase(int ch, SampleBuffer buffer, int step);
+
+    /**
+     * Clear the IMDCT overlap and the synthesis filters, so that the engine
+     * can be used for another stream. The filter of the second channel is
+     * created if needed.
+     */
+    abstract void reset();
+
+    /**
+     * Check whether the channels use the same blocks (and therefore the
+     * same reordering and IMDCT windows).
+     */
+    static boolean isSameBlocks(GrInfo a, GrInfo b) {
+        if (a.windowSwitching != b.windowSwitching) {
+            return false;
+        }
+        return !a.windowSwitching || (a.blockType == b.blockType && a.mixedBlock == b.mixedBlock);
+    }
+
+    static int blockType(GrInfo gi, int sb18) {
+        return gi.windowSwitching && gi.mixedBlock && sb18 < 36 ? 0 : gi.blockType;
+    }
+
+    static boolean isMsStereo(Header header) {
+        return header.mode() == Header.MODE_JOINT_STEREO && (header.modeExtension() & 0x2) != 0;
+    }
+
+    static boolean isIntensityStereo(Header header) {
+        return header.mode() == Header.MODE_JOINT_STEREO && (header.modeExtension() & 0x1) != 0;
+    }
+
+    static boolean isLsf(Header header) {
+        return header.version() == Header.VERSION_MPEG2_LSF || header.version() == Header.VERSION_MPEG25_LSF;
+    }
+
+}
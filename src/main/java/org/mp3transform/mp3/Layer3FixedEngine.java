@@ -0,0 +1,590 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+import java.util.Arrays;
+
+import org.mp3transform.mp3.Layer3Decoder.GrInfo;
+
+/**
+ * The fixed point engine. Sample values are ints with FRAC_BITS fraction bits,
+ * constants have COEF_BITS fraction bits, and products are calculated as
+ * long. The tables are calculated using StrictMath, so that the output is the
+ * same on all virtual machines. Stereo processing is done in place.
+ */
+final class Layer3FixedEngine extends Layer3Engine {
+
+    /**
+     * The number of fraction bits of sample values. The integer part allows
+     * values up to 128, which leaves enough headroom for loud streams.
+     */
+    static final int FRAC_BITS = 24;
+
+    /**
+     * The number of fraction bits of constants (which are smaller than 16).
+     */
+    static final int COEF_BITS = 27;
+
+    private static final int T43_SIZE = Constants.T43_SIZE;
+    // i^(4/3) = mantissa * 2^(exponent - 30), 2^30 <= mantissa < 2^31
+    private static final int[] T43_MANTISSA = new int[T43_SIZE];
+    private static final byte[] T43_EXPONENT = new byte[T43_SIZE];
+    // 2^(i/4), with 30 fraction bits
+    private static final int[] ROOT_2_4 = new int[4];
+    static {
+        for (int i = 1; i < T43_SIZE; i++) {
+            double x = StrictMath.pow(i, 4.0 / 3.0);
+            int e = StrictMath.getExponent(x);
+            long m = StrictMath.round(StrictMath.scalb(x, 30 - e));
+            if (m == 1L << 31) {
+                m >>= 1;
+                e++;
+            }
+            T43_MANTISSA[i] = (int) m;
+            T43_EXPONENT[i] = (byte) e;
+        }
+        for (int i = 0; i < 4; i++) {
+            ROOT_2_4[i] = (int) StrictMath.round(StrictMath.pow(2, 30 + i / 4.0));
+        }
+    }
+    // intensity stereo (MPEG 1): left = x * tan / (1 + tan), right = x / (1 + tan)
+    private static final int[] IS_LEFT = new int[Constants.TAN12.length];
+    private static final int[] IS_RIGHT = new int[Constants.TAN12.length];
+    static {
+        for (int i = 0; i < IS_LEFT.length; i++) {
+            double ratio = Constants.TAN12[i];
+            IS_RIGHT[i] = fixed(1 / (1 + ratio));
+            IS_LEFT[i] = fixed(1 / (1 + ratio) * ratio);
+        }
+    }
+    private static final int[][] IO = Constants.toFixed(Constants.IO, COEF_BITS);
+    private static final int[][] WIN = Constants.toFixed(Constants.WIN, COEF_BITS);
+    private static final int[] CS = Constants.toFixed(Constants.CS, COEF_BITS);
+    private static final int[] CA = Constants.toFixed(Constants.CA, COEF_BITS);
+    // the constants of the stereo processing and IMDCT, named by value
+    private static final int C0_130526192 = fixed(0.130526192f);
+    private static final int C0_347296355 = fixed(0.34729635533386f);
+    private static final int C0_382683432 = fixed(0.382683432f);
+    private static final int C0_500000000 = fixed(0.500000000f);
+    private static final int C0_501909918 = fixed(0.501909918f);
+    private static final int C0_504314480 = fixed(0.504314480f);
+    private static final int C0_517638090 = fixed(0.517638090f);
+    private static final int C0_541196100 = fixed(0.541196100f);
+    private static final int C0_551688959 = fixed(0.551688959f);
+    private static final int C0_608761429 = fixed(0.608761429f);
+    private static final int C0_610387294 = fixed(0.610387294f);
+    private static final int C0_630236207 = fixed(0.630236207f);
+    private static final int C0_684040286 = fixed(0.68404028665134f);
+    private static final int C0_707106781 = fixed(0.707106781f);
+    private static final int C0_793353340 = fixed(0.793353340f);
+    private static final int C0_821339815 = fixed(0.821339815f);
+    private static final int C0_866025403 = fixed(0.866025403f);
+    private static final int C0_871723397 = fixed(0.871723397f);
+    private static final int C0_923879532 = fixed(0.923879532f);
+    private static final int C0_991444861 = fixed(0.991444861f);
+    private static final int C1_183100792 = fixed(1.183100792f);
+    private static final int C1_285575219 = fixed(1.2855752193731f);
+    private static final int C1_306562965 = fixed(1.306562965f);
+    private static final int C1_532088886 = fixed(1.532088886238f);
+    private static final int C1_732050808 = fixed(1.732050808f);
+    private static final int C1_879385241 = fixed(1.8793852415718f);
+    private static final int C1_931851653 = fixed(1.931851653f);
+    private static final int C1_969615506 = fixed(1.9696155060244f);
+    private static final int C3_830648788 = fixed(3.830648788f);
+    private static final int C5_736856623 = fixed(5.736856623f);
+    private final int[] out1d = new int[SBLIMIT * SSLIMIT];
+    // the subband samples of the second channel, when mixing after the IMDCT
+    private final int[] mix1d = new int[SBLIMIT * SSLIMIT];
+    private final int[][] prevBlock = new int[2][SBLIMIT * SSLIMIT];
+    private final int[] rawout = new int[36];
+    private final FixedSynthesisFilter filter1;
+    private FixedSynthesisFilter filter2;
+    // subband samples are buffered and passed to the
+    // FixedSynthesisFilter in one go.
+    private final int[] samples = new int[32];
+
+    Layer3FixedEngine(Layer3Decoder decoder) {
+        super(decoder);
+        filter1 = new FixedSynthesisFilter(0, SCALE_FACTOR);
+        filter2 = decoder.channels == 2 ? new FixedSynthesisFilter(1, SCALE_FACTOR) : null;
+    }
+
+    private static int fixed(double x) {
+        return Constants.toFixed(x, COEF_BITS);
+    }
+
+    private static int mul(int a, int b) {
+        return (int) (((long) a * b) >> COEF_BITS);
+    }
+
+    Granule newGranule() {
+        return new FixedGranule();
+    }
+
+    void reset() {
+        Arrays.fill(prevBlock[0], 0);
+        Arrays.fill(prevBlock[1], 0);
+        filter1.reset();
+        if (filter2 != null) {
+            filter2.reset();
+        } else if (decoder.channels == 2) {
+            filter2 = new FixedSynthesisFilter(1, SCALE_FACTOR);
+        }
+    }
+
+    void dequantize(Granule g, int ch, int globalGain, int len, int end) {
+        int[] xr = ch == 0 ? ((FixedGranule) g).ro0 : ((FixedGranule) g).ro1;
+        int[] is1d = decoder.is1d;
+        int[] scaleIndex = decoder.scaleIndex;
+        // the global gain is 2^((globalGain - 210) / 4)
+        globalGain -= 210;
+        for (int i = 0; i < len; i++) {
+            xr[i] = dequantize(is1d[i], globalGain - 2 * scaleIndex[i]);
+        }
+        Arrays.fill(xr, len, end, 0);
+    }
+
+    /**
+     * Calculate sign(v) * |v|^(4/3) * 2^(exp / 4). Values that don't fit are
+     * saturated.
+     */
+    private static int dequantize(int v, int exp) {
+        if (v == 0) {
+            return 0;
+        }
+        int abs = Math.min(v < 0 ? -v : v, T43_SIZE - 1);
+        // 60 fraction bits
+        long m = (long) T43_MANTISSA[abs] * ROOT_2_4[exp & 3];
+        int shift = 60 - FRAC_BITS - T43_EXPONENT[abs] - (exp >> 2);
+        int x;
+        if (shift > 62) {
+            x = 0;
+        } else if (shift < 31) {
+            x = Integer.MAX_VALUE;
+        } else {
+            x = (int) ((m + (1L << (shift - 1))) >> shift);
+        }
+        return v < 0 ? -x : x;
+    }
+
+    void mono(Granule g, int end) {
+        // the synthesis reads ro0, and the lines after end are zero
+    }
+
+    void startStereo(Granule g, int end) {
+        // intensity stereo copies the left channel to the right channel
+        g.nonzero[0] = g.nonzero[1] = end;
+    }
+
+    void leftRight(Granule g, int from, int to) {
+        // nothing to do, stereo processing is done in place
+    }
+
+    void midSide(Granule g, int from, int to) {
+        int[] ro0 = ((FixedGranule) g).ro0, ro1 = ((FixedGranule) g).ro1;
+        for (int i = from; i < to; i++) {
+            int m = ro0[i], s = ro1[i];
+            ro0[i] = mul(m + s, C0_707106781);
+            ro1[i] = mul(m - s, C0_707106781);
+        }
+    }
+
+    void intensity(Granule g, int from, int to, int pos) {
+        int[] ro0 = ((FixedGranule) g).ro0, ro1 = ((FixedGranule) g).ro1;
+        if (g.lsf) {
+            int[] io = IO[g.gi[0].scaleFactorCompress & 1];
+            for (int i = from; i < to; i++) {
+                int x = ro0[i];
+                if (pos == 0) {
+                    ro1[i] = x;
+                } else if ((pos & 1) != 0) {
+                    ro0[i] = mul(x, io[(pos + 1) >>> 1]);
+                    ro1[i] = x;
+                } else {
+                    ro1[i] = mul(x, io[pos >>> 1]);
+                }
+            }
+        } else {
+            int left = IS_LEFT[pos], right = IS_RIGHT[pos];
+            for (int i = from; i < to; i++) {
+                int x = ro0[i];
+                ro0[i] = mul(x, left);
+                ro1[i] = mul(x, right);
+            }
+        }
+    }
+
+    void downmix(Granule g) {
+        int[] ro0 = ((FixedGranule) g).ro0, ro1 = ((FixedGranule) g).ro1;
+        for (int i = 0, end = lrEnd[0]; i < end; i++) {
+            ro0[i] = (ro0[i] >> 1) + (ro1[i] >> 1);
+        }
+    }
+
+    void halve(Granule g) {
+        int[] ro0 = ((FixedGranule) g).ro0, ro1 = ((FixedGranule) g).ro1;
+        for (int i = 0, end = lrEnd[0]; i < end; i++) {
+            ro0[i] >>= 1;
+            ro1[i] >>= 1;
+        }
+    }
+
+    void reorder(Granule g, int ch, int[] table, int end) {
+        int[] xr = ch == 0 ? ((FixedGranule) g).ro0 : ((FixedGranule) g).ro1;
+        if (table != null) {
+            for (int i = 0; i < 576; i++) {
+                int j = table[i];
+                out1d[i] = j < 0 ? 0 : xr[j];
+            }
+        } else {
+            System.arraycopy(xr, 0, out1d, 0, end);
+            Arrays.fill(out1d, end, 576, 0);
+        }
+    }
+
+    void antialias(int end) {
+        // 8 butterflies between each pair of subbands
+        for (int sb18 = 0; sb18 < end; sb18 += 18) {
+            for (int ss = 0; ss < 8; ss++) {
+                int srcIdx1 = sb18 + 17 - ss;
+                int srcIdx2 = sb18 + 18 + ss;
+                int bu = out1d[srcIdx1];
+                int bd = out1d[srcIdx2];
+                out1d[srcIdx1] = mul(bu, CS[ss]) - mul(bd, CA[ss]);
+                out1d[srcIdx2] = mul(bd, CS[ss]) + mul(bu, CA[ss]);
+            }
+        }
+    }
+
+    void clearLines(int from) {
+        Arrays.fill(out1d, from, 576, 0);
+    }
+
+    void hybrid(int ch, GrInfo gi) {
+        int[] tsOut = out1d;
+        int[] r = rawout;
+        int[] p = prevBlock[ch];
+        // the IMDCT of a silent subband is zero, so that only the overlap
+        // of the previous granule remains
+        int end = nonzeroEnd(tsOut);
+        for (int sb18 = 0; sb18 < end; sb18 += 18) {
+            fastInvMdct(tsOut, sb18, r, blockType(gi, sb18));
+            // overlap addition
+            for (int i = 0; i < 18; i++) {
+                tsOut[sb18 + i] = r[i] + p[sb18 + i];
+                p[sb18 + i] = r[18 + i];
+            }
+        }
+        System.arraycopy(p, end, tsOut, end, 576 - end);
+        Arrays.fill(p, end, 576, 0);
+    }
+
+    void holdMix() {
+        System.arraycopy(out1d, 0, mix1d, 0, 576);
+    }
+
+    void addMix() {
+        int[] p0 = prevBlock[0], p1 = prevBlock[1];
+        for (int i = 0; i < 576; i++) {
+            out1d[i] += mix1d[i];
+            p0[i] += p1[i];
+        }
+        Arrays.fill(p1, 0);
+    }
+
+    void polyphase(int ch, SampleBuffer buffer, int step) {
+        for (int sb18 = 18; sb18 < 576; sb18 += 36) {
+            // Frequency inversion
+            for (int ss = 1; ss < SSLIMIT; ss += 2) {
+                out1d[sb18 + ss] = -out1d[sb18 + ss];
+            }
+        }
+        FixedSynthesisFilter filter = ch == 0 ? filter1 : filter2;
+        for (int ss = 0; ss < SSLIMIT; ss++) {
+            for (int sb18 = 0, sb = 0; sb18 < 576; sb18 += 18, sb++) {
+                samples[sb] = out1d[sb18 + ss];
+            }
+            filter.calculatePcmSamples(samples, buffer, step);
+        }
+    }
+
+    /**
+     * Get the end of the last subband that contains a sample other than
+     * zero.
+     *
+     * @param x the samples
+     * @return the end (0 to 576, a multiple of 18)
+     */
+    private static int nonzeroEnd(int[] x) {
+        int i = 576;
+        while (i > 0 && x[i - 1] == 0) {
+            i--;
+        }
+        return (i + 17) / 18 * 18;
+    }
+
+    private void fastInvMdct(int[] in, int off, int[] out, int blockType) {
+        int t0, t1, t2, t3, t4, t5, t6, t7, t8, t9;
+        int t10, t11, t12, t13, t14, t15, t16, t17;
+        if (blockType == 2) {
+            for (int p = 0; p < 36; p += 9) {
+                out[p] = out[p + 1] = out[p + 2] = out[p + 3] = out[p + 4] = 0;
+                out[p + 5] = out[p + 6] = out[p + 7] = out[p + 8] = 0;
+            }
+            int sixI = 0;
+            for (int i = 0; i < 3; i++) {
+                // 12 point IMDCT
+                // Begin 12 point IDCT
+                // Input aliasing for 12 pt IDCT
+                in[off + 15 + i] += in[off + 12 + i];
+                in[off + 12 + i] += in[off + 9 + i];
+                in[off + 9 + i] += in[off + 6 + i];
+                in[off + 6 + i] += in[off + 3 + i];
+                in[off + 3 + i] += in[off + i];
+                // Input aliasing on odd indices (for 6 point IDCT)
+                in[off + 15 + i] += in[off + 9 + i];
+                in[off + 9 + i] += in[off + 3 + i];
+                // 3 point IDCT on even indices
+                int pp1, pp2, sum;
+                pp2 = mul(in[off + 12 + i], C0_500000000);
+                pp1 = mul(in[off + 6 + i], C0_866025403);
+                sum = in[off + i] + pp2;
+                t1 = in[off + i] - in[off + 12 + i];
+                t0 = sum + pp1;
+                t2 = sum - pp1;
+                // End 3 point IDCT on even indices
+                // 3 point IDCT on odd indices (for 6 point IDCT)
+                pp2 = mul(in[off + 15 + i], C0_500000000);
+                pp1 = mul(in[off + 9 + i], C0_866025403);
+                sum = in[off + 3 + i] + pp2;
+                t4 = in[off + 3 + i] - in[off + 15 + i];
+                t5 = sum + pp1;
+                t3 = sum - pp1;
+                // End 3 point IDCT on odd indices
+                // Twiddle factors on odd indices (for 6 point IDCT)
+                t3 = mul(t3, C1_931851653);
+                t4 = mul(t4, C0_707106781);
+                t5 = mul(t5, C0_517638090);
+                // Output butterflies on 2 3 point IDCT's (for 6 point IDCT)
+                int save = t0;
+                t0 += t5;
+                t5 = save - t5;
+                save = t1;
+                t1 += t4;
+                t4 = save - t4;
+                save = t2;
+                t2 += t3;
+                t3 = save - t3;
+                // End 6 point IDCT
+                // Twiddle factors on indices (for 12 point IDCT)
+                t0 = mul(t0, C0_504314480);
+                t1 = mul(t1, C0_541196100);
+                t2 = mul(t2, C0_630236207);
+                t3 = mul(t3, C0_821339815);
+                t4 = mul(t4, C1_306562965);
+                t5 = mul(t5, C3_830648788);
+                // End 12 point IDCT
+                // Shift to 12 point modified IDCT, multiply by window type 2
+                t8 = -mul(t0, C0_793353340);
+                t9 = -mul(t0, C0_608761429);
+                t7 = -mul(t1, C0_923879532);
+                t10 = -mul(t1, C0_382683432);
+                t6 = -mul(t2, C0_991444861);
+                t11 = -mul(t2, C0_130526192);
+                t0 = t3;
+                t1 = mul(t4, C0_382683432);
+                t2 = mul(t5, C0_608761429);
+                t3 = -mul(t5, C0_793353340);
+                t4 = -mul(t4, C0_923879532);
+                t5 = -mul(t0, C0_991444861);
+                t0 = mul(t0, C0_130526192);
+                out[sixI + 6] += t0;
+                out[sixI + 7] += t1;
+                out[sixI + 8] += t2;
+                out[sixI + 9] += t3;
+                out[sixI + 10] += t4;
+                out[sixI + 11] += t5;
+                out[sixI + 12] += t6;
+                out[sixI + 13] += t7;
+                out[sixI + 14] += t8;
+                out[sixI + 15] += t9;
+                out[sixI + 16] += t10;
+                out[sixI + 17] += t11;
+                sixI += 6;
+            }
+        } else {
+            // 36 point IDCT
+            // input aliasing for 36 point IDCT
+            in[off + 17] += in[off + 16];
+            in[off + 16] += in[off + 15];
+            in[off + 15] += in[off + 14];
+            in[off + 14] += in[off + 13];
+            in[off + 13] += in[off + 12];
+            in[off + 12] += in[off + 11];
+            in[off + 11] += in[off + 10];
+            in[off + 10] += in[off + 9];
+            in[off + 9] += in[off + 8];
+            in[off + 8] += in[off + 7];
+            in[off + 7] += in[off + 6];
+            in[off + 6] += in[off + 5];
+            in[off + 5] += in[off + 4];
+            in[off + 4] += in[off + 3];
+            in[off + 3] += in[off + 2];
+            in[off + 2] += in[off + 1];
+            in[off + 1] += in[off];
+            // 18 point IDCT for odd indices
+            // input aliasing for 18 point IDCT
+            in[off + 17] += in[off + 15];
+            in[off + 15] += in[off + 13];
+            in[off + 13] += in[off + 11];
+            in[off + 11] += in[off + 9];
+            in[off + 9] += in[off + 7];
+            in[off + 7] += in[off + 5];
+            in[off + 5] += in[off + 3];
+            in[off + 3] += in[off + 1];
+            int tmp0, tmp1, tmp2, tmp3, tmp4, tmp0b, tmp1b, tmp2b, tmp3b;
+            int tmp0o, tmp1o, tmp2o, tmp3o, tmp4o, tmp0ob, tmp1ob, tmp2ob, tmp3ob;
+            // Fast 9 Point Inverse Discrete Cosine Transform
+            //
+            // By Francois-Raymond Boyer
+            // mailto:boyerf@iro.umontreal.ca
+            // http://www.iro.umontreal.ca/~boyerf
+            //
+            // The code has been optimized for Intel processors
+            // (in the double precision engine); here it uses the same
+            // factorization with fixed point multiplications
+            //
+            // It is a simple "factorization" of the IDCT matrix.
+            // 9 point IDCT on even indices
+            // 5 points on odd indices (not really an IDCT)
+            int i00 = in[off] + in[off];
+            int iip12 = i00 + in[off + 12];
+            tmp0 = iip12 + mul(in[off + 4], C1_879385241) + mul(in[off + 8], C1_532088886) + mul(in[off + 16], C0_347296355);
+            tmp1 = i00 + in[off + 4] - in[off + 8] - in[off + 12] - in[off + 12] - in[off + 16];
+            tmp2 = iip12 - mul(in[off + 4], C0_347296355) - mul(in[off + 8], C1_879385241) + mul(in[off + 16], C1_532088886);
+            tmp3 = iip12 - mul(in[off + 4], C1_532088886) + mul(in[off + 8], C0_347296355) - mul(in[off + 16], C1_879385241);
+            tmp4 = in[off] - in[off + 4] + in[off + 8] - in[off + 12] + in[off + 16];
+            // 4 points on even indices
+            int i6s = mul(in[off + 6], C1_732050808); // Sqrt[3]
+            tmp0b = mul(in[off + 2], C1_969615506) + i6s + mul(in[off + 10], C1_285575219) + mul(in[off + 14], C0_684040286);
+            tmp1b = mul(in[off + 2] - in[off + 10] - in[off + 14], C1_732050808);
+            tmp2b = mul(in[off + 2], C1_285575219) - i6s - mul(in[off + 10], C0_684040286) + mul(in[off + 14], C1_969615506);
+            tmp3b = mul(in[off + 2], C0_684040286) - i6s + mul(in[off + 10], C1_969615506) - mul(in[off + 14], C1_285575219);
+            // 9 point IDCT on odd indices
+            // 5 points on odd indices (not really an IDCT)
+            int i0 = in[off + 1] + in[off + 1];
+            int i0p12 = i0 + in[off + 12 + 1];
+            tmp0o = i0p12 + mul(in[off + 4 + 1], C1_879385241) + mul(in[off + 8 + 1], C1_532088886) + mul(in[off + 16 + 1], C0_347296355);
+            tmp1o = i0 + in[off + 4 + 1] - in[off + 8 + 1] - in[off + 12 + 1] - in[off + 12 + 1] - in[off + 16 + 1];
+            tmp2o = i0p12 - mul(in[off + 4 + 1], C0_347296355) - mul(in[off + 8 + 1], C1_879385241) + mul(in[off + 16 + 1], C1_532088886);
+            tmp3o = i0p12 - mul(in[off + 4 + 1], C1_532088886) + mul(in[off + 8 + 1], C0_347296355) - mul(in[off + 16 + 1], C1_879385241);
+            tmp4o = mul(in[off + 1] - in[off + 4 + 1] + in[off + 8 + 1] - in[off + 12 + 1] + in[off + 16 + 1], C0_707106781); // Twiddled
+            // 4 points on even indices
+            int i7s = mul(in[off + 6 + 1], C1_732050808); // Sqrt[3]
+            tmp0ob = mul(in[off + 2 + 1], C1_969615506) + i7s + mul(in[off + 10 + 1], C1_285575219) + mul(in[off + 14 + 1], C0_684040286);
+            tmp1ob = mul(in[off + 2 + 1] - in[off + 10 + 1] - in[off + 14 + 1], C1_732050808);
+            tmp2ob = mul(in[off + 2 + 1], C1_285575219) - i7s - mul(in[off + 10 + 1], C0_684040286) + mul(in[off + 14 + 1], C1_969615506);
+            tmp3ob = mul(in[off + 2 + 1], C0_684040286) - i7s + mul(in[off + 10 + 1], C1_969615506) - mul(in[off + 14 + 1], C1_285575219);
+            // Twiddle factors on odd indices and
+            // Butterflies on 9 point IDCT's and
+            // twiddle factors for 36 point IDCT
+            int e, o;
+            e = tmp0 + tmp0b;
+            o = mul(tmp0o + tmp0ob, C0_501909918);
+            t0 = e + o;
+            t17 = e - o;
+            e = tmp1 + tmp1b;
+            o = mul(tmp1o + tmp1ob, C0_517638090);
+            t1 = e + o;
+            t16 = e - o;
+            e = tmp2 + tmp2b;
+            o = mul(tmp2o + tmp2ob, C0_551688959);
+            t2 = e + o;
+            t15 = e - o;
+            e = tmp3 + tmp3b;
+            o = mul(tmp3o + tmp3ob, C0_610387294);
+            t3 = e + o;
+            t14 = e - o;
+            t4 = tmp4 + tmp4o;
+            t13 = tmp4 - tmp4o;
+            e = tmp3 - tmp3b;
+            o = mul(tmp3o - tmp3ob, C0_871723397);
+            t5 = e + o;
+            t12 = e - o;
+            e = tmp2 - tmp2b;
+            o = mul(tmp2o - tmp2ob, C1_183100792);
+            t6 = e + o;
+            t11 = e - o;
+            e = tmp1 - tmp1b;
+            o = mul(tmp1o - tmp1ob, C1_931851653);
+            t7 = e + o;
+            t10 = e - o;
+            e = tmp0 - tmp0b;
+            o = mul(tmp0o - tmp0ob, C5_736856623);
+            t8 = e + o;
+            t9 = e - o;
+            // end 36 point IDCT */
+            // shift to modified IDCT
+            int[] win = WIN[blockType];
+            out[0] = -mul(t9, win[0]);
+            out[1] = -mul(t10, win[1]);
+            out[2] = -mul(t11, win[2]);
+            out[3] = -mul(t12, win[3]);
+            out[4] = -mul(t13, win[4]);
+            out[5] = -mul(t14, win[5]);
+            out[6] = -mul(t15, win[6]);
+            out[7] = -mul(t16, win[7]);
+            out[8] = -mul(t17, win[8]);
+            out[9] = mul(t17, win[9]);
+            out[10] = mul(t16, win[10]);
+            out[11] = mul(t15, win[11]);
+            out[12] = mul(t14, win[12]);
+            out[13] = mul(t13, win[13]);
+            out[14] = mul(t12, win[14]);
+            out[15] = mul(t11, win[15]);
+            out[16] = mul(t10, win[16]);
+            out[17] = mul(t9, win[17]);
+            out[18] = mul(t8, win[18]);
+            out[19] = mul(t7, win[19]);
+            out[20] = mul(t6, win[20]);
+            out[21] = mul(t5, win[21]);
+            out[22] = mul(t4, win[22]);
+            out[23] = mul(t3, win[23]);
+            out[24] = mul(t2, win[24]);
+            out[25] = mul(t1, win[25]);
+            out[26] = mul(t0, win[26]);
+            out[27] = mul(t0, win[27]);
+            out[28] = mul(t1, win[28]);
+            out[29] = mul(t2, win[29]);
+            out[30] = mul(t3, win[30]);
+            out[31] = mul(t4, win[31]);
+            out[32] = mul(t5, win[32]);
+            out[33] = mul(t6, win[33]);
+            out[34] = mul(t7, win[34]);
+            out[35] = mul(t8, win[35]);
+        }
+    }
+
+    /**
+     * The dequantized samples of both channels.
+     */
+    static final class FixedGranule extends Granule {
+        final int[] ro0 = new int[SBLIMIT * SSLIMIT];
+        final int[] ro1 = new int[SBLIMIT * SSLIMIT];
+    }
+
+}
@@ -0,0 +1,308 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decodes a stream in two threads. A producer thread reads the frames, the
+ * side info, scale factors and Huffman values, and dequantizes them. The
+ * thread that calls nextFrame does the stereo processing, IMDCT and
+ * synthesis. The stages are connected by a single producer, single consumer
+ * ring of pre-allocated granules; the end of each frame is marked by a
+ * granule without samples.
+ * <p>
+ * The ring is lock free: each side only writes its own counter. A side that
+ * has to wait spins a little, and then parks until the other side unparks it.
+ * If the producer thread ends without publishing the end of the stream (for
+ * example because of an Error), the consumer gets the failure instead of
+ * waiting forever. The producer stops if the consumer thread ended without
+ * stopping the pipeline.
+ */
+public final class Layer3Pipeline {
+
+    private static final int SIZE = 16;
+    private static final int SPINS = 100;
+    // how long the producer waits before checking the consumer thread
+    private static final long CHECK_CONSUMER_NANOS = 100_000_000L;
+
+    private final Layer3Decoder decoder;
+    private final Bitstream stream;
+    private final int maxErrors;
+    private final Granule[] ring = new Granule[SIZE];
+    private Header first;
+    private Thread producer;
+    private volatile Thread consumer;
+
+    // the number of published granules, only written by the producer
+    private volatile long head;
+    // the number of consumed granules, only written by the consumer
+    private volatile long tail;
+    private volatile boolean producerWaiting, consumerWaiting;
+    private volatile boolean stopped;
+    // set by the producer when it ends
+    private volatile boolean producerDone;
+    private volatile Throwable failure;
+
+    // only used by the consumer
+    private boolean ended;
+    private int errors;
+
+    /**
+     * Create a pipeline. The decoder and the stream must not be used
+     * directly after the pipeline was started.
+     *
+     * @param decoder the decoder
+     * @param stream the stream of the decoder
+     * @param first the header of the first frame, if it was already read
+     *            (but not decoded), or null
+     * @param maxErrors the number of frames that may fail
+     */
+    public Layer3Pipeline(Layer3Decoder decoder, Bitstream stream, Header first, int maxErrors) {
+        this.decoder = decoder;
+        this.stream = stream;
+        this.first = first;
+        this.maxErrors = maxErrors;
+        for (int i = 0; i < SIZE; i++) {
+            ring[i] = decoder.newGranule();
+        }
+    }
+
+    /**
+     * Start the producer thread.
+     */
+    public void start() {
+        producer = new Thread(this::produce, "mp3 decoder");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /**
+     * Stop the producer thread, and wait until it stopped. The position of
+     * the stream is undefined afterwards.
+     */
+    public void stop() {
+        stopped = true;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+            boolean interrupted = false;
+            while (producer.isAlive()) {
+                try {
+                    producer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Get the number of frames that were skipped because of errors.
+     *
+     * @return the number of errors
+     */
+    public int getErrorCount() {
+        return errors;
+    }
+
+    /**
+     * Synthesize the next frame. Frames that could not be decoded are
+     * skipped.
+     *
+     * @param out the buffer for the PCM samples, which is cleared first
+     * @return false if the end of the stream was reached
+     * @throws IOException if reading failed, or there were too many errors
+     */
+    public boolean nextFrame(SampleBuffer out) throws IOException {
+        consumer = Thread.currentThread();
+        out.clear();
+        boolean failed = false;
+        while (!ended) {
+            Granule g = take();
+            int type = g.type;
+            if (type == Granule.SAMPLES) {
+                if (!failed) {
+                    try {
+                        decoder.synthesizeGranule(g, out);
+                    } catch (RuntimeException e) {
+                        failed = true;
+                    }
+                }
+                release();
+            } else if (type == Granule.END_OF_STREAM) {
+                Throwable failure = g.failure;
+                release();
+                ended = true;
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                } else if (failure != null) {
+                    throw new IOException(failure);
+                }
+            } else {
+                release();
+                if (type == Granule.END_OF_FRAME && !failed) {
+                    return true;
+                }
+                // skip the frame
+                errors++;
+                failed = false;
+                out.clear();
+            }
+        }
+        return false;
+    }
+
+    private void produce() {
+        try {
+            int frameErrors = 0;
+            while (!stopped) {
+                Header header = first;
+                first = null;
+                if (header == null) {
+                    header = stream.readFrame();
+                    if (header == null) {
+                        break;
+                    }
+                }
+                int type = Granule.END_OF_FRAME;
+                try {
+                    if (decoder.readMainData()) {
+                        for (int gr = 0; gr < decoder.granules(); gr++) {
+                            Granule g = claim();
+                            if (g == null) {
+                                return;
+                            }
+                            decoder.decodeGranule(g, gr);
+                            publish(g, Granule.SAMPLES);
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    if (++frameErrors > maxErrors) {
+                        throw new IOException("Too many errors", e);
+                    }
+                    type = Granule.FRAME_ERROR;
+                } finally {
+                    stream.closeFrame();
+                }
+                Granule g = claim();
+                if (g == null) {
+                    return;
+                }
+                publish(g, type);
+            }
+            Granule g = claim();
+            if (g != null) {
+                g.failure = null;
+                publish(g, Granule.END_OF_STREAM);
+            }
+        } catch (Throwable e) {
+            failure = e;
+            Granule g = claim();
+            if (g != null) {
+                g.failure = e;
+                publish(g, Granule.END_OF_STREAM);
+            }
+        } finally {
+            producerDone = true;
+            Thread c = consumer;
+            if (c != null) {
+                LockSupport.unpark(c);
+            }
+        }
+    }
+
+    /**
+     * Wait until there is a free granule (producer).
+     *
+     * @return the granule, or null if the pipeline was stopped
+     */
+    private Granule claim() {
+        long h = head;
+        for (int spin = 0; h - tail >= SIZE; spin++) {
+            if (stopped) {
+                return null;
+            }
+            if (spin < SPINS) {
+                Thread.yield();
+            } else {
+                producerWaiting = true;
+                if (h - tail >= SIZE && !stopped) {
+                    LockSupport.parkNanos(this, CHECK_CONSUMER_NANOS);
+                }
+                producerWaiting = false;
+                Thread c = consumer;
+                if (c != null && !c.isAlive()) {
+                    // the decoder was not closed
+                    stopped = true;
+                }
+            }
+        }
+        return stopped ? null : ring[(int) h & (SIZE - 1)];
+    }
+
+    private void publish(Granule g, int type) {
+        g.type = type;
+        head = head + 1;
+        if (consumerWaiting) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Wait until the next granule is published (consumer).
+     *
+     * @throws IOException if the pipeline was stopped, or the producer thread
+     *             ended without publishing the end of the stream
+     */
+    private Granule take() throws IOException {
+        long t = tail;
+        for (int spin = 0; head == t; spin++) {
+            if (stopped) {
+                throw new IOException("The pipeline was stopped");
+            }
+            if (producerDone) {
+                // the end of the stream may have been published meanwhile
+                if (head != t) {
+                    break;
+                }
+                throw new IOException("The decoder thread ended", failure);
+            }
+            if (spin < SPINS) {
+                Thread.yield();
+            } else {
+                consumerWaiting = true;
+                if (head == t && !producerDone && !stopped) {
+                    LockSupport.park(this);
+                }
+                consumerWaiting = false;
+            }
+        }
+        return ring[(int) t & (SIZE - 1)];
+    }
+
+    private void release() {
+        tail = tail + 1;
+        if (producerWaiting) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+/**
+ * The arithmetic used for dequantization, stereo processing, IMDCT and
+ * synthesis.
+ */
+public enum Precision {
+
+    /**
+     * Double precision floating point. This is the reference.
+     */
+    DOUBLE,
+
+    /**
+     * Single precision floating point. The 16 bit PCM output is within one of
+     * the double precision output.
+     */
+    FLOAT,
+
+    /**
+     * Fixed point integer arithmetic. The output is the same on all virtual
+     * machines, and is within one of the double precision output.
+     */
+    FIXED
+
+}
@@ -0,0 +1,173 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+/**
+ * Holds the 16 bit PCM samples of one frame. The synthesis filters write into
+ * this buffer directly; the samples of all channels are interleaved. In float
+ * mode, the samples are stored as float instead, scaled to the range -1 to 1
+ * but not clipped.
+ */
+public final class SampleBuffer {
+    /**
+     * The maximum number of samples (of all channels) of one frame.
+     */
+    public static final int MAX_SAMPLES = 2 * 1152;
+    private final short[] buffer = new short[MAX_SAMPLES];
+    // the float samples, or null if not in float mode
+    private float[] floatBuffer;
+    private final int[] bufferPointer = new int[2];
+    private int channels;
+
+    public SampleBuffer(int channels) {
+        this.channels = channels;
+        clear();
+    }
+
+    /**
+     * Get the sample buffer.
+     *
+     * @return the interleaved samples
+     */
+    public short[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Get the float sample buffer.
+     *
+     * @return the interleaved samples, or null if not in float mode
+     */
+    public float[] getFloatBuffer() {
+        return floatBuffer;
+    }
+
+    /**
+     * Store float samples instead of 16 bit samples.
+     *
+     * @param floatMode whether to use float samples
+     */
+    public void setFloatMode(boolean floatMode) {
+        if (!floatMode) {
+            floatBuffer = null;
+        } else if (floatBuffer == null) {
+            floatBuffer = new float[MAX_SAMPLES];
+        }
+    }
+
+    /**
+     * Get the number of samples (of all channels) in the buffer.
+     *
+     * @return the number of samples
+     */
+    public int getBufferLength() {
+        return bufferPointer[0];
+    }
+
+    public int getChannelCount() {
+        return channels;
+    }
+
+    /**
+     * Change the number of channels, and remove all samples.
+     *
+     * @param channels the number of channels
+     */
+    void setChannels(int channels) {
+        this.channels = channels;
+        clear();
+    }
+
+    /**
+     * Remove all samples.
+     */
+    public void clear() {
+        for (int i = 0; i < channels; i++) {
+            bufferPointer[i] = i;
+        }
+    }
+
+    void append(int channel, double[] f, int step) {
+        if (floatBuffer != null) {
+            float[] b = floatBuffer;
+            int channels = this.channels;
+            int p = bufferPointer[channel];
+            for (int i = 0; i < 32; i += step) {
+                b[p] = (float) (f[i] * (1.0 / 32768));
+                p += channels;
+            }
+            bufferPointer[channel] = p;
+            return;
+        }
+        short[] b = buffer;
+        int channels = this.channels;
+        int p = bufferPointer[channel];
+        for (int i = 0; i < 32; i += step) {
+            double sample = f[i];
+            b[p] = (short) ((sample > 32767.0f) ? 32767 : ((sample < -32768.0f) ? -32768 : sample));
+            p += channels;
+        }
+        bufferPointer[channel] = p;
+    }
+
+    void append(int channel, float[] f, int step) {
+        if (floatBuffer != null) {
+            float[] b = floatBuffer;
+            int channels = this.channels;
+            int p = bufferPointer[channel];
+            for (int i = 0; i < 32; i += step) {
+                b[p] = f[i] * (1.0f / 32768);
+                p += channels;
+            }
+            bufferPointer[channel] = p;
+            return;
+        }
+        short[] b = buffer;
+        int channels = this.channels;
+        int p = bufferPointer[channel];
+        for (int i = 0; i < 32; i += step) {
+            float sample = f[i];
+            b[p] = (short) ((sample > 32767.0f) ? 32767 : ((sample < -32768.0f) ? -32768 : sample));
+            p += channels;
+        }
+        bufferPointer[channel] = p;
+    }
+
+    void append(int channel, int[] f, int step) {
+        if (floatBuffer != null) {
+            float[] b = floatBuffer;
+            int channels = this.channels;
+            int p = bufferPointer[channel];
+            for (int i = 0; i < 32; i += step) {
+                b[p] = f[i] * (1.0f / 32768);
+                p += channels;
+            }
+            bufferPointer[channel] = p;
+            return;
+        }
+        short[] b = buffer;
+        int channels = this.channels;
+        int p = bufferPointer[channel];
+        for (int i = 0; i < 32; i += step) {
+            int sample = f[i];
+            b[p] = (short) ((sample > 32767) ? 32767 : ((sample < -32768) ? -32768 : sample));
+            p += channels;
+        }
+        bufferPointer[channel] = p;
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An input stream that can be repositioned. A Bitstream can only seek
+ * backwards if it reads from a seekable stream.
+ */
+public abstract class SeekableInputStream extends InputStream {
+
+    /**
+     * Get the position of the next byte to read.
+     *
+     * @return the position
+     */
+    public abstract long position() throws IOException;
+
+    /**
+     * Set the position of the next byte to read.
+     *
+     * @param pos the new position
+     */
+    public abstract void seek(long pos) throws IOException;
+
+    /**
+     * Create a stream that reads the given bytes. The array is not copied.
+     *
+     * @param data the data
+     * @return the stream
+     */
+    public static SeekableInputStream wrap(byte[] data) {
+        return new ArrayInputStream(data);
+    }
+
+    /**
+     * Create a buffered stream that reads from the channel, starting at the
+     * current position of the channel. Positions are positions in the
+     * channel. Closing the stream closes the channel.
+     *
+     * @param channel the channel
+     * @return the stream
+     */
+    public static SeekableInputStream wrap(FileChannel channel) throws IOException {
+        return new ChannelInputStream(channel);
+    }
+
+    /**
+     * A stream over a byte array.
+     */
+    private static final class ArrayInputStream extends SeekableInputStream {
+
+        private final byte[] data;
+        private int pos;
+
+        ArrayInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        public int read() {
+            return pos < data.length ? data[pos++] & 0xff : -1;
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= data.length) {
+                return -1;
+            }
+            len = Math.min(len, data.length - pos);
+            System.arraycopy(data, pos, b, off, len);
+            pos += len;
+            return len;
+        }
+
+        public long skip(long n) {
+            n = Math.max(0, Math.min(n, data.length - pos));
+            pos += n;
+            return n;
+        }
+
+        public int available() {
+            return Math.max(0, data.length - pos);
+        }
+
+        public long position() {
+            return pos;
+        }
+
+        public void seek(long p) {
+            pos = (int) Math.min(p, data.length);
+        }
+
+    }
+
+    /**
+     * A buffered stream over a file channel. The position of the channel is
+     * not changed, as positional reads are used.
+     */
+    private static final class ChannelInputStream extends SeekableInputStream {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        // the channel position of the first byte in the buffer
+        private long bufferPos;
+
+        ChannelInputStream(FileChannel channel) throws IOException {
+            this.channel = channel;
+            bufferPos = channel.position();
+            buffer.limit(0);
+        }
+
+        private boolean fill() throws IOException {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+            bufferPos += buffer.limit();
+            buffer.clear();
+            int len = channel.read(buffer, bufferPos);
+            buffer.flip();
+            return len > 0;
+        }
+
+        public int read() throws IOException {
+            return fill() ? buffer.get() & 0xff : -1;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        public long skip(long n) throws IOException {
+            long pos = position();
+            long p = Math.max(pos, Math.min(pos + Math.max(0, n), channel.size()));
+            seek(p);
+            return p - pos;
+        }
+
+        public long position() {
+            return bufferPos + buffer.position();
+        }
+
+        public void seek(long pos) {
+            if (pos >= bufferPos && pos <= bufferPos + buffer.limit()) {
+                buffer.position((int) (pos - bufferPos));
+            } else {
+                bufferPos = pos;
+                buffer.limit(0);
+            }
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+/**
+ * The last step of the synthesis filters (the 32 dot products of 16 taps
+ * each, that calculate the PCM samples from the V vector), using SIMD
+ * instructions. The implementation uses the Vector API
+ * (jdk.incubator.vector) and is in a separate source set (src/vector), as
+ * this project targets Java 8. It is only used if it was compiled, and the
+ * module is available at runtime (java --add-modules jdk.incubator.vector);
+ * otherwise the scalar code of the filters is used.
+ * <p>
+ * The 16 taps of a sample are contiguous in the V vector (see
+ * AbstractSynthesisFilter), so that they can be processed as whole vectors.
+ * The sums are calculated in a different order (using fused multiply add),
+ * so that the PCM samples can differ by one from the scalar code; the order
+ * only depends on the tap, so that the output doesn't depend on where
+ * decoding started.
+ */
+abstract class SimdSynthesis {
+
+    /**
+     * The implementation, or null if it is not available.
+     */
+    static final SimdSynthesis INSTANCE = load();
+
+    private static SimdSynthesis load() {
+        try {
+            Class<?> c = Class.forName("org.mp3transform.mp3.VectorApiSynthesis");
+            return (SimdSynthesis) c.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // not compiled, or the module is not available
+            return null;
+        }
+    }
+
+    /**
+     * Calculate the 32 PCM samples. Tap k of sample i is at
+     * v[i * 32 + 15 - pos + k].
+     *
+     * @param v the V vector
+     * @param pos the write position of the filter (0 to 15)
+     * @param scaleFactor the scale factor
+     * @param out the target array
+     */
+    abstract void computePcmSamples(double[] v, int pos, double scaleFactor, double[] out);
+
+    /**
+     * Calculate the 32 PCM samples using single precision.
+     *
+     * @param v the V vector
+     * @param pos the write position of the filter (0 to 15)
+     * @param scaleFactor the scale factor
+     * @param out the target array
+     */
+    abstract void computePcmSamples(float[] v, int pos, float scaleFactor, float[] out);
+
+}
@@ -30,24 +30,24 @@
  */
 package org.mp3transform.mp3;
 
-import org.mp3transform.Decoder;
+import java.util.Arrays;
+
 import org.mp3transform.mp3.Constants;
 
 /**
  * A class for the synthesis filter bank. This class does a fast downsampling from 32, 44.1 or 48 kHz to 8 kHz, if ULAW
  * is defined. Frequencies above 4 kHz are removed by ignoring higher subbands.
  */
-public final class SynthesisFilter {
-    private double[] v1 = new double[512];
-    private double[] v2 = new double[512];
-    private double[] actualV = v1; // v1 or v2
-    private int actualWritePos = 15; // 0-15
+public final class SynthesisFilter extends AbstractSynthesisFilter {
+    private final double[] v1 = new double[V_LENGTH];
+    private final double[] v2 = new double[V_LENGTH];
     private double[] samples = new double[32]; // 32 new subband samples
-    private int channel;
+    private final double[] nv = new double[32]; // the new values of the V vectors
     private double scaleFactor;
     private double[] tmpOutBuffer = new double[32];
-    // DOUBLE
     private static final double MY_PI = 3.14159265358979323846;
+    // the SIMD implementation of the windowing, if available
+    private static final SimdSynthesis SIMD = SimdSynthesis.INSTANCE;
     private static final double COS1_64 = divCos(MY_PI / 64.0);
     private static final double COS3_64 = divCos(MY_PI * 3.0 / 64.0);
     private static final double COS5_64 = divCos(MY_PI * 5.0 / 64.0);
@@ -86,10 +86,15 @@ public final class SynthesisFilter {
      * [-1.0, 1.0], if no violations occur).
      */
     public SynthesisFilter(int channelNumber, double factor) {
-        channel = channelNumber;
+        super(channelNumber);
         scaleFactor = factor;
     }
 
+    void clear() {
+        Arrays.fill(v1, 0);
+        Arrays.fill(v2, 0);
+    }
+
     private static double divCos(double a) {
         return (1.0 / (2.0 * Math.cos(a)));
     }
@@ -98,10 +103,7 @@ public final class SynthesisFilter {
      * Compute new values via a fast cosine transform.
      */
     private void computeNewV() {
-        double nv0, nv1, nv2, nv3, nv4, nv5, nv6, nv7, nv8, nv9;
-        double nv10, nv11, nv12, nv13, nv14, nv15, nv16, nv17, nv18, nv19;
-        double nv20, nv21, nv22, nv23, nv24, nv25, nv26, nv27, nv28, nv29;
-        double nv30, nv31;
+        double[] nv = this.nv;
         double[] s = samples;
         double s0 = s[0];
         double s1 = s[1];
@@ -217,16 +219,16 @@ public final class SynthesisFilter {
         p15 = (pp14 - pp15) * COS1_4;
         // this is pretty insane coding
         double tmp1;
-        nv19 = -(nv4 = (nv12 = p7) + p5) - p6; // 36-17
-        nv27 = -p6 - p7 - p4; // 44-17
-        nv6 = (nv10 = (nv14 = p15) + p11) + p13;
-        nv17 = -(nv2 = p15 + p13 + p9) - p14; // 34-17
-        nv21 = (tmp1 = -p14 - p15 - p10 - p11) - p13; // 38-17
-        nv29 = -p14 - p15 - p12 - p8; // 46-17
-        nv25 = tmp1 - p12; // 42-17
-        nv31 = -p0; // 48-17
-        nv0 = p1;
-        nv23 = -(nv8 = p3) - p2; // 40-17
+        nv[19] = -(nv[4] = (nv[12] = p7) + p5) - p6; // 36-17
+        nv[27] = -p6 - p7 - p4; // 44-17
+        nv[6] = (nv[10] = (nv[14] = p15) + p11) + p13;
+        nv[17] = -(nv[2] = p15 + p13 + p9) - p14; // 34-17
+        nv[21] = (tmp1 = -p14 - p15 - p10 - p11) - p13; // 38-17
+        nv[29] = -p14 - p15 - p12 - p8; // 46-17
+        nv[25] = tmp1 - p12; // 42-17
+        nv[31] = -p0; // 48-17
+        nv[0] = p1;
+        nv[23] = -(nv[8] = p3) - p2; // 40-17
         p0 = (s0 - s31) * COS1_64;
         p1 = (s1 - s30) * COS3_64;
         p2 = (s2 - s29) * COS5_64;
@@ -310,382 +312,81 @@ public final class SynthesisFilter {
         // manually doing something that a compiler should handle sucks
         // coding like this is hard to read
         double tmp2;
-        nv5 = (nv11 = (nv13 = (nv15 = p15) + p7) + p11) + p5 + p13;
-        nv7 = (nv9 = p15 + p11 + p3) + p13;
-        nv16 = -(nv1 = (tmp1 = p13 + p15 + p9) + p1) - p14; // 33-17
-        nv18 = -(nv3 = tmp1 + p5 + p7) - p6 - p14; // 35-17
-        nv22 = (tmp1 = -p10 - p11 - p14 - p15) - p13 - p2 - p3; // 39-17
-        nv20 = tmp1 - p13 - p5 - p6 - p7; // 37-17
-        nv24 = tmp1 - p12 - p2 - p3; // 41-17
-        nv26 = tmp1 - p12 - (tmp2 = p4 + p6 + p7); // 43-17
-        nv30 = (tmp1 = -p8 - p12 - p14 - p15) - p0; // 47-17
-        nv28 = tmp1 - tmp2; // 45-17
-        // insert V[0-15] (== nv[0-15]) into actual v:
-        // double[] x2 = actual_v + actual_write_pos;
-        double[] dest = actualV;
-        int pos = actualWritePos;
-        dest[0 + pos] = nv0;
-        dest[16 + pos] = nv1;
-        dest[32 + pos] = nv2;
-        dest[48 + pos] = nv3;
-        dest[64 + pos] = nv4;
-        dest[80 + pos] = nv5;
-        dest[96 + pos] = nv6;
-        dest[112 + pos] = nv7;
-        dest[128 + pos] = nv8;
-        dest[144 + pos] = nv9;
-        dest[160 + pos] = nv10;
-        dest[176 + pos] = nv11;
-        dest[192 + pos] = nv12;
-        dest[208 + pos] = nv13;
-        dest[224 + pos] = nv14;
-        dest[240 + pos] = nv15;
-        // V[16] is always 0.0:
-        dest[256 + pos] = 0.0f;
-        // insert V[17-31] (== -nv[15-1]) into actual v:
-        dest[272 + pos] = -nv15;
-        dest[288 + pos] = -nv14;
-        dest[304 + pos] = -nv13;
-        dest[320 + pos] = -nv12;
-        dest[336 + pos] = -nv11;
-        dest[352 + pos] = -nv10;
-        dest[368 + pos] = -nv9;
-        dest[384 + pos] = -nv8;
-        dest[400 + pos] = -nv7;
-        dest[416 + pos] = -nv6;
-        dest[432 + pos] = -nv5;
-        dest[448 + pos] = -nv4;
-        dest[464 + pos] = -nv3;
-        dest[480 + pos] = -nv2;
-        dest[496 + pos] = -nv1;
-        // insert V[32] (== -nv[0]) into other v:
-        dest = (actualV == v1) ? v2 : v1;
-        dest[0 + pos] = -nv0;
-        // insert V[33-48] (== nv[16-31]) into other v:
-        dest[16 + pos] = nv16;
-        dest[32 + pos] = nv17;
-        dest[48 + pos] = nv18;
-        dest[64 + pos] = nv19;
-        dest[80 + pos] = nv20;
-        dest[96 + pos] = nv21;
-        dest[112 + pos] = nv22;
-        dest[128 + pos] = nv23;
-        dest[144 + pos] = nv24;
-        dest[160 + pos] = nv25;
-        dest[176 + pos] = nv26;
-        dest[192 + pos] = nv27;
-        dest[208 + pos] = nv28;
-        dest[224 + pos] = nv29;
-        dest[240 + pos] = nv30;
-        dest[256 + pos] = nv31;
-        // insert V[49-63] (== nv[30-16]) into other v:
-        dest[272 + pos] = nv30;
-        dest[288 + pos] = nv29;
-        dest[304 + pos] = nv28;
-        dest[320 + pos] = nv27;
-        dest[336 + pos] = nv26;
-        dest[352 + pos] = nv25;
-        dest[368 + pos] = nv24;
-        dest[384 + pos] = nv23;
-        dest[400 + pos] = nv22;
-        dest[416 + pos] = nv21;
-        dest[432 + pos] = nv20;
-        dest[448 + pos] = nv19;
-        dest[464 + pos] = nv18;
-        dest[480 + pos] = nv17;
-        dest[496 + pos] = nv16;
-    }
-
-    private void computePcmSamples0() {
-        final double[] vp = actualV;
-        final double[] tmpOut = tmpOutBuffer;
-        int dvp = 0;
-        for (int i = 0; i < 32; i++) {
-            final double[] dp = D16[i];
-            double pcmSample = (((vp[0 + dvp] * dp[0]) + (vp[15 + dvp] * dp[1]) + (vp[14 + dvp] * dp[2]) + (vp[13 + dvp] * dp[3]) + (vp[12 + dvp] * dp[4]) + (vp[11 + dvp] * dp[5])
-                    + (vp[10 + dvp] * dp[6]) + (vp[9 + dvp] * dp[7]) + (vp[8 + dvp] * dp[8]) + (vp[7 + dvp] * dp[9]) + (vp[6 + dvp] * dp[10]) + (vp[5 + dvp] * dp[11])
-                    + (vp[4 + dvp] * dp[12]) + (vp[3 + dvp] * dp[13]) + (vp[2 + dvp] * dp[14]) + (vp[1 + dvp] * dp[15])) * scaleFactor);
-            tmpOut[i] = pcmSample;
-            dvp += 16;
-        }
-    }
-
-    private void computePcmSamples1() {
-        final double[] vp = actualV;
-        final double[] tmpOut = tmpOutBuffer;
-        int dvp = 0;
-        for (int i = 0; i < 32; i++) {
-            final double[] dp = D16[i];
-            double pcmSample = (((vp[1 + dvp] * dp[0]) + (vp[0 + dvp] * dp[1]) + (vp[15 + dvp] * dp[2]) + (vp[14 + dvp] * dp[3]) + (vp[13 + dvp] * dp[4]) + (vp[12 + dvp] * dp[5])
-                    + (vp[11 + dvp] * dp[6]) + (vp[10 + dvp] * dp[7]) + (vp[9 + dvp] * dp[8]) + (vp[8 + dvp] * dp[9]) + (vp[7 + dvp] * dp[10]) + (vp[6 + dvp] * dp[11])
-                    + (vp[5 + dvp] * dp[12]) + (vp[4 + dvp] * dp[13]) + (vp[3 + dvp] * dp[14]) + (vp[2 + dvp] * dp[15])) * scaleFactor);
-            tmpOut[i] = pcmSample;
-            dvp += 16;
-        }
-    }
-
-    private void computePcmSamples2() {
-        final double[] vp = actualV;
-        final double[] tmpOut = tmpOutBuffer;
-        int dvp = 0;
-        for (int i = 0; i < 32; i++) {
-            final double[] dp = D16[i];
-            double pcmSample = (((vp[2 + dvp] * dp[0]) + (vp[1 + dvp] * dp[1]) + (vp[0 + dvp] * dp[2]) + (vp[15 + dvp] * dp[3]) + (vp[14 + dvp] * dp[4]) + (vp[13 + dvp] * dp[5])
-                    + (vp[12 + dvp] * dp[6]) + (vp[11 + dvp] * dp[7]) + (vp[10 + dvp] * dp[8]) + (vp[9 + dvp] * dp[9]) + (vp[8 + dvp] * dp[10]) + (vp[7 + dvp] * dp[11])
-                    + (vp[6 + dvp] * dp[12]) + (vp[5 + dvp] * dp[13]) + (vp[4 + dvp] * dp[14]) + (vp[3 + dvp] * dp[15])) * scaleFactor);
-            tmpOut[i] = pcmSample;
-            dvp += 16;
-        }
-    }
-
-    private void computePcmSamples3() {
-        final double[] vp = actualV;
-        final double[] tmpOut = tmpOutBuffer;
-        int dvp = 0;
-        for (int i = 0; i < 32; i++) {
-            final double[] dp = D16[i];
-            double pcmSample = (((vp[3 + dvp] * dp[0]) + (vp[2 + dvp] * dp[1]) + (vp[1 + dvp] * dp[2]) + (vp[0 + dvp] * dp[3]) + (vp[15 + dvp] * dp[4]) + (vp[14 + dvp] * dp[5])
-                    + (vp[13 + dvp] * dp[6]) + (vp[12 + dvp] * dp[7]) + (vp[11 + dvp] * dp[8]) + (vp[10 + dvp] * dp[9]) + (vp[9 + dvp] * dp[10]) + (vp[8 + dvp] * dp[11])
-                    + (vp[7 + dvp] * dp[12]) + (vp[6 + dvp] * dp[13]) + (vp[5 + dvp] * dp[14]) + (vp[4 + dvp] * dp[15])) * scaleFactor);
-            tmpOut[i] = pcmSample;
-            dvp += 16;
+        nv[5] = (nv[11] = (nv[13] = (nv[15] = p15) + p7) + p11) + p5 + p13;
+        nv[7] = (nv[9] = p15 + p11 + p3) + p13;
+        nv[16] = -(nv[1] = (tmp1 = p13 + p15 + p9) + p1) - p14; // 33-17
+        nv[18] = -(nv[3] = tmp1 + p5 + p7) - p6 - p14; // 35-17
+        nv[22] = (tmp1 = -p10 - p11 - p14 - p15) - p13 - p2 - p3; // 39-17
+        nv[20] = tmp1 - p13 - p5 - p6 - p7; // 37-17
+        nv[24] = tmp1 - p12 - p2 - p3; // 41-17
+        nv[26] = tmp1 - p12 - (tmp2 = p4 + p6 + p7); // 43-17
+        nv[30] = (tmp1 = -p8 - p12 - p14 - p15) - p0; // 47-17
+        nv[28] = tmp1 - tmp2; // 45-17
+        // insert V[0-15] (== nv[0-15]) and V[17-31] (== -nv[15-1]) into the
+        // actual v, and V[32] (== -nv[0]), V[33-48] (== nv[16-31]) and
+        // V[49-63] (== nv[30-16]) into the other v; V[16] is always 0
+        double[] dest = firstV ? v1 : v2;
+        double[] other = firstV ? v2 : v1;
+        int pos = writePos;
+        put(dest, 0, pos, nv[0]);
+        put(dest, 16, pos, 0);
+        put(other, 0, pos, -nv[0]);
+        put(other, 16, pos, nv[31]);
+        for (int i = 1; i < 16; i++) {
+            put(dest, i, pos, nv[i]);
+            put(dest, 32 - i, pos, -nv[i]);
+            put(other, i, pos, nv[15 + i]);
+            put(other, 32 - i, pos, nv[15 + i]);
         }
     }
 
-    private void computePcmSamples4() {
-        final double[] vp = actualV;
-        final double[] tmpOut = tmpOutBuffer;
-        int dvp = 0;
-        for (int i = 0; i < 32; i++) {
-            final double[] dp = D16[i];
-            double pcmSample = (((vp[4 + dvp] * dp[0]) + (vp[3 + dvp] * dp[1]) + (vp[2 + dvp] * dp[2]) + (vp[1 + dvp] * dp[3]) + (vp[0 + dvp] * dp[4]) + (vp[15 + dvp] * dp[5])
-                    + (vp[14 + dvp] * dp[6]) + (vp[13 + dvp] * dp[7]) + (vp[12 + dvp] * dp[8]) + (vp[11 + dvp] * dp[9]) + (vp[10 + dvp] * dp[10]) + (vp[9 + dvp] * dp[11])
-                    + (vp[8 + dvp] * dp[12]) + (vp[7 + dvp] * dp[13]) + (vp[6 + dvp] * dp[14]) + (vp[5 + dvp] * dp[15])) * scaleFactor);
-            tmpOut[i] = pcmSample;
-            dvp += 16;
-        }
-    }
-
-    private void computePcmSamples5() {
-        final double[] vp = actualV;
-        final double[] tmpOut = tmpOutBuffer;
-        int dvp = 0;
-        for (int i = 0; i < 32; i++) {
-            final double[] dp = D16[i];
-            double pcmSample = (((vp[5 + dvp] * dp[0]) + (vp[4 + dvp] * dp[1]) + (vp[3 + dvp] * dp[2]) + (vp[2 + dvp] * dp[3]) + (vp[1 + dvp] * dp[4]) + (vp[0 + dvp] * dp[5])
-                    + (vp[15 + dvp] * dp[6]) + (vp[14 + dvp] * dp[7]) + (vp[13 + dvp] * dp[8]) + (vp[12 + dvp] * dp[9]) + (vp[11 + dvp] * dp[10]) + (vp[10 + dvp] * dp[11])
-                    + (vp[9 + dvp] * dp[12]) + (vp[8 + dvp] * dp[13]) + (vp[7 + dvp] * dp[14]) + (vp[6 + dvp] * dp[15])) * scaleFactor);
-            tmpOut[i] = pcmSample;
-            dvp += 16;
-        }
-    }
-
-    private void computePcmSamples6() {
-        final double[] vp = actualV;
-        final double[] tmpOut = tmpOutBuffer;
-        int dvp = 0;
-        for (int i = 0; i < 32; i++) {
-            final double[] dp = D16[i];
-            double pcmSample = (((vp[6 + dvp] * dp[0]) + (vp[5 + dvp] * dp[1]) + (vp[4 + dvp] * dp[2]) + (vp[3 + dvp] * dp[3]) + (vp[2 + dvp] * dp[4]) + (vp[1 + dvp] * dp[5])
-                    + (vp[0 + dvp] * dp[6]) + (vp[15 + dvp] * dp[7]) + (vp[14 + dvp] * dp[8]) + (vp[13 + dvp] * dp[9]) + (vp[12 + dvp] * dp[10]) + (vp[11 + dvp] * dp[11])
-                    + (vp[10 + dvp] * dp[12]) + (vp[9 + dvp] * dp[13]) + (vp[8 + dvp] * dp[14]) + (vp[7 + dvp] * dp[15])) * scaleFactor);
-            tmpOut[i] = pcmSample;
-            dvp += 16;
-        }
-    }
-
-    private void computePcmSamples7() {
-        final double[] vp = actualV;
-        final double[] tmpOut = tmpOutBuffer;
-        int dvp = 0;
-        for (int i = 0; i < 32; i++) {
-            final double[] dp = D16[i];
-            double pcmSample = (((vp[7 + dvp] * dp[0]) + (vp[6 + dvp] * dp[1]) + (vp[5 + dvp] * dp[2]) + (vp[4 + dvp] * dp[3]) + (vp[3 + dvp] * dp[4]) + (vp[2 + dvp] * dp[5])
-                    + (vp[1 + dvp] * dp[6]) + (vp[0 + dvp] * dp[7]) + (vp[15 + dvp] * dp[8]) + (vp[14 + dvp] * dp[9]) + (vp[13 + dvp] * dp[10]) + (vp[12 + dvp] * dp[11])
-                    + (vp[11 + dvp] * dp[12]) + (vp[10 + dvp] * dp[13]) + (vp[9 + dvp] * dp[14]) + (vp[8 + dvp] * dp[15])) * scaleFactor);
-            tmpOut[i] = pcmSample;
-            dvp += 16;
-        }
-    }
-
-    private void computePcmSamples8() {
-        final double[] vp = actualV;
-        final double[] tmpOut = tmpOutBuffer;
-        int dvp = 0;
-        for (int i = 0; i < 32; i++) {
-            final double[] dp = D16[i];
-            double pcmSample = (((vp[8 + dvp] * dp[0]) + (vp[7 + dvp] * dp[1]) + (vp[6 + dvp] * dp[2]) + (vp[5 + dvp] * dp[3]) + (vp[4 + dvp] * dp[4]) + (vp[3 + dvp] * dp[5])
-                    + (vp[2 + dvp] * dp[6]) + (vp[1 + dvp] * dp[7]) + (vp[0 + dvp] * dp[8]) + (vp[15 + dvp] * dp[9]) + (vp[14 + dvp] * dp[10]) + (vp[13 + dvp] * dp[11])
-                    + (vp[12 + dvp] * dp[12]) + (vp[11 + dvp] * dp[13]) + (vp[10 + dvp] * dp[14]) + (vp[9 + dvp] * dp[15])) * scaleFactor);
-            tmpOut[i] = pcmSample;
-            dvp += 16;
-        }
-    }
-
-    private void computePcmSamples9() {
-        final double[] vp = actualV;
-        final double[] tmpOut = tmpOutBuffer;
-        int dvp = 0;
-        for (int i = 0; i < 32; i++) {
-            final double[] dp = D16[i];
-            double pcmSample = (((vp[9 + dvp] * dp[0]) + (vp[8 + dvp] * dp[1]) + (vp[7 + dvp] * dp[2]) + (vp[6 + dvp] * dp[3]) + (vp[5 + dvp] * dp[4]) + (vp[4 + dvp] * dp[5])
-                    + (vp[3 + dvp] * dp[6]) + (vp[2 + dvp] * dp[7]) + (vp[1 + dvp] * dp[8]) + (vp[0 + dvp] * dp[9]) + (vp[15 + dvp] * dp[10]) + (vp[14 + dvp] * dp[11])
-                    + (vp[13 + dvp] * dp[12]) + (vp[12 + dvp] * dp[13]) + (vp[11 + dvp] * dp[14]) + (vp[10 + dvp] * dp[15])) * scaleFactor);
-            tmpOut[i] = pcmSample;
-            dvp += 16;
-        }
-    }
-
-    private void computePcmSamples10() {
-        final double[] vp = actualV;
-        final double[] tmpOut = tmpOutBuffer;
-        int dvp = 0;
-        for (int i = 0; i < 32; i++) {
-            final double[] dp = D16[i];
-            double pcmSample = (((vp[10 + dvp] * dp[0]) + (vp[9 + dvp] * dp[1]) + (vp[8 + dvp] * dp[2]) + (vp[7 + dvp] * dp[3]) + (vp[6 + dvp] * dp[4]) + (vp[5 + dvp] * dp[5])
-                    + (vp[4 + dvp] * dp[6]) + (vp[3 + dvp] * dp[7]) + (vp[2 + dvp] * dp[8]) + (vp[1 + dvp] * dp[9]) + (vp[0 + dvp] * dp[10]) + (vp[15 + dvp] * dp[11])
-                    + (vp[14 + dvp] * dp[12]) + (vp[13 + dvp] * dp[13]) + (vp[12 + dvp] * dp[14]) + (vp[11 + dvp] * dp[15])) * scaleFactor);
-            tmpOut[i] = pcmSample;
-            dvp += 16;
-        }
-    }
-
-    private void computePcmSamples11() {
-        final double[] vp = actualV;
-        final double[] tmpOut = tmpOutBuffer;
-        int dvp = 0;
-        for (int i = 0; i < 32; i++) {
-            final double[] dp = D16[i];
-            double pcmSample = (((vp[11 + dvp] * dp[0]) + (vp[10 + dvp] * dp[1]) + (vp[9 + dvp] * dp[2]) + (vp[8 + dvp] * dp[3]) + (vp[7 + dvp] * dp[4]) + (vp[6 + dvp] * dp[5])
-                    + (vp[5 + dvp] * dp[6]) + (vp[4 + dvp] * dp[7]) + (vp[3 + dvp] * dp[8]) + (vp[2 + dvp] * dp[9]) + (vp[1 + dvp] * dp[10]) + (vp[0 + dvp] * dp[11])
-                    + (vp[15 + dvp] * dp[12]) + (vp[14 + dvp] * dp[13]) + (vp[13 + dvp] * dp[14]) + (vp[12 + dvp] * dp[15])) * scaleFactor);
-            tmpOut[i] = pcmSample;
-            dvp += 16;
-        }
-    }
-
-    private void computePcmSamples12() {
-        final double[] vp = actualV;
-        final double[] tmpOut = tmpOutBuffer;
-        int dvp = 0;
-        for (int i = 0; i < 32; i++) {
-            final double[] dp = D16[i];
-            double pcmSample = (((vp[12 + dvp] * dp[0]) + (vp[11 + dvp] * dp[1]) + (vp[10 + dvp] * dp[2]) + (vp[9 + dvp] * dp[3]) + (vp[8 + dvp] * dp[4]) + (vp[7 + dvp] * dp[5])
-                    + (vp[6 + dvp] * dp[6]) + (vp[5 + dvp] * dp[7]) + (vp[4 + dvp] * dp[8]) + (vp[3 + dvp] * dp[9]) + (vp[2 + dvp] * dp[10]) + (vp[1 + dvp] * dp[11])
-                    + (vp[0 + dvp] * dp[12]) + (vp[15 + dvp] * dp[13]) + (vp[14 + dvp] * dp[14]) + (vp[13 + dvp] * dp[15])) * scaleFactor);
-            tmpOut[i] = pcmSample;
-            dvp += 16;
-        }
-    }
-
-    private void computePcmSamples13() {
-        final double[] vp = actualV;
-        final double[] tmpOut = tmpOutBuffer;
-        int dvp = 0;
-        for (int i = 0; i < 32; i++) {
-            final double[] dp = D16[i];
-            double pcmSample = (((vp[13 + dvp] * dp[0]) + (vp[12 + dvp] * dp[1]) + (vp[11 + dvp] * dp[2]) + (vp[10 + dvp] * dp[3]) + (vp[9 + dvp] * dp[4]) + (vp[8 + dvp] * dp[5])
-                    + (vp[7 + dvp] * dp[6]) + (vp[6 + dvp] * dp[7]) + (vp[5 + dvp] * dp[8]) + (vp[4 + dvp] * dp[9]) + (vp[3 + dvp] * dp[10]) + (vp[2 + dvp] * dp[11])
-                    + (vp[1 + dvp] * dp[12]) + (vp[0 + dvp] * dp[13]) + (vp[15 + dvp] * dp[14]) + (vp[14 + dvp] * dp[15])) * scaleFactor);
-            tmpOut[i] = pcmSample;
-            dvp += 16;
-        }
-    }
-
-    private void computePcmSamples14() {
-        final double[] vp = actualV;
-        final double[] tmpOut = tmpOutBuffer;
-        int dvp = 0;
-        for (int i = 0; i < 32; i++) {
-            final double[] dp = D16[i];
-            double pcmSample = (((vp[14 + dvp] * dp[0]) + (vp[13 + dvp] * dp[1]) + (vp[12 + dvp] * dp[2]) + (vp[11 + dvp] * dp[3]) + (vp[10 + dvp] * dp[4]) + (vp[9 + dvp] * dp[5])
-                    + (vp[8 + dvp] * dp[6]) + (vp[7 + dvp] * dp[7]) + (vp[6 + dvp] * dp[8]) + (vp[5 + dvp] * dp[9]) + (vp[4 + dvp] * dp[10]) + (vp[3 + dvp] * dp[11])
-                    + (vp[2 + dvp] * dp[12]) + (vp[1 + dvp] * dp[13]) + (vp[0 + dvp] * dp[14]) + (vp[15 + dvp] * dp[15])) * scaleFactor);
-            tmpOut[i] = pcmSample;
-            dvp += 16;
-        }
-    }
-
-    private void computePcmSamples15() {
-        final double[] vp = actualV;
-        final double[] tmpOut = tmpOutBuffer;
-        int dvp = 0;
-        for (int i = 0; i < 32; i++) {
-            final double[] dp = D16[i];
-            double pcmSample = (((vp[15 + dvp] * dp[0]) + (vp[14 + dvp] * dp[1]) + (vp[13 + dvp] * dp[2]) + (vp[12 + dvp] * dp[3]) + (vp[11 + dvp] * dp[4])
-                    + (vp[10 + dvp] * dp[5]) + (vp[9 + dvp] * dp[6]) + (vp[8 + dvp] * dp[7]) + (vp[7 + dvp] * dp[8]) + (vp[6 + dvp] * dp[9]) + (vp[5 + dvp] * dp[10])
-                    + (vp[4 + dvp] * dp[11]) + (vp[3 + dvp] * dp[12]) + (vp[2 + dvp] * dp[13]) + (vp[1 + dvp] * dp[14]) + (vp[0 + dvp] * dp[15])) * scaleFactor);
-            tmpOut[i] = pcmSample;
-            dvp += 16;
-        }
+    /**
+     * Set the value at the given position of a row of a V vector.
+     */
+    private static void put(double[] v, int row, int pos, double x) {
+        int i = (row << 5) + 15 - pos;
+        v[i] = x;
+        v[i + 16] = x;
     }
 
-    private void computePcmSamples() {
-        switch (actualWritePos) {
-        case 0:
-            computePcmSamples0();
-            break;
-        case 1:
-            computePcmSamples1();
-            break;
-        case 2:
-            computePcmSamples2();
-            break;
-        case 3:
-            computePcmSamples3();
-            break;
-        case 4:
-            computePcmSamples4();
-            break;
-        case 5:
-            computePcmSamples5();
-            break;
-        case 6:
-            computePcmSamples6();
-            break;
-        case 7:
-            computePcmSamples7();
-            break;
-        case 8:
-            computePcmSamples8();
-            break;
-        case 9:
-            computePcmSamples9();
-            break;
-        case 10:
-            computePcmSamples10();
-            break;
-        case 11:
-            computePcmSamples11();
-            break;
-        case 12:
-            computePcmSamples12();
-            break;
-        case 13:
-            computePcmSamples13();
-            break;
-        case 14:
-            computePcmSamples14();
-            break;
-        case 15:
-            computePcmSamples15();
-            break;
-        default:
+    /**
+     * Calculate the PCM samples from the actual V vector (the windowing).
+     */
+    private void window(int step) {
+        double[] v = firstV ? v1 : v2;
+        double[] out = tmpOutBuffer;
+        for (int i = 0, o = 15 - writePos; i < 32; i += step, o += step << 5) {
+            double[] d = D16[i];
+            // written out, as the JIT compiler doesn't unroll the loop
+            double sum = v[o] * d[0] + v[o + 1] * d[1] + v[o + 2] * d[2] + v[o + 3] * d[3]
+                    + v[o + 4] * d[4] + v[o + 5] * d[5] + v[o + 6] * d[6] + v[o + 7] * d[7]
+                    + v[o + 8] * d[8] + v[o + 9] * d[9] + v[o + 10] * d[10] + v[o + 11] * d[11]
+                    + v[o + 12] * d[12] + v[o + 13] * d[13] + v[o + 14] * d[14] + v[o + 15] * d[15];
+            out[i] = sum * scaleFactor;
         }
     }
 
     /**
-     * Calculate 32 PCM samples and write them
+     * Calculate 32 PCM samples and write them. With a step of 2 or 4, only
+     * every second or fourth sample is calculated and written, which
+     * reduces the sample rate (the caller must clear the upper subbands).
+     *
+     * @param s the 32 subband samples
+     * @param buffer the target buffer
+     * @param step 1, 2 or 4
      */
-    void calculatePcmSamples(double[] s, Decoder player) {
+    void calculatePcmSamples(double[] s, SampleBuffer buffer, int step) {
         for (int i = 0; i < 32; i++) {
             samples[i] = s[i];
         }
         computeNewV();
-        computePcmSamples();
-        player.appendSamples(channel, tmpOutBuffer);
-        actualWritePos = (actualWritePos + 1) & 0xf;
-        actualV = (actualV == v1) ? v2 : v1;
+        if (SIMD != null) {
+            SIMD.computePcmSamples(firstV ? v1 : v2, writePos, scaleFactor, tmpOutBuffer);
+        } else {
+            window(step);
+        }
+        buffer.append(channel, tmpOutBuffer, step);
+        next();
     }
 
 }
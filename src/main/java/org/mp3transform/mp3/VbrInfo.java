@@ -0,0 +1,329 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The information from the Xing, Info (the same as Xing, for constant bit
+ * rate files) or VBRI header in the first frame of a stream, and the LAME
+ * extension of the Xing header. This allows to calculate the duration and
+ * the average bit rate without reading the whole stream, and to find the
+ * approximate position of a sample.
+ * <p>
+ * The frame that contains the header is not included in the frame count.
+ * Values that are not in the header are -1.
+ */
+public final class VbrInfo {
+
+    /**
+     * The decoder delay (in samples per channel) that the LAME encoder delay
+     * is based on.
+     */
+    public static final int DECODER_DELAY = 528 + 1;
+
+    private static final int FLAG_FRAMES = 1;
+    private static final int FLAG_BYTES = 2;
+    private static final int FLAG_TOC = 4;
+    private static final int FLAG_QUALITY = 8;
+
+    private final String tag;
+    private final int samplesPerFrame;
+    private final int sampleRate;
+    private int frames = -1;
+    private int bytes = -1;
+    private int quality = -1;
+    private String encoder;
+    private int encoderDelay = -1;
+    private int encoderPadding = -1;
+    // Xing: 100 entries, the position at i percent of the duration as a
+    // fraction (of 256) of the stream length
+    private int[] toc;
+    // VBRI: the number of bytes of each group of framesPerEntry frames
+    private int[] vbriToc;
+    private int framesPerEntry;
+
+    private VbrInfo(String tag, Header header) {
+        this.tag = tag;
+        samplesPerFrame = header.samplesPerFrame();
+        sampleRate = header.frequency();
+    }
+
+    /**
+     * Parse the header, if there is one.
+     *
+     * @param header the frame header
+     * @param frame the frame data (without the 4 byte frame header)
+     * @param sideInfoSize the number of bytes before the main data,
+     *            including the CRC
+     * @return the information, or null if there is no header
+     */
+    static VbrInfo parse(Header header, byte[] frame, int sideInfoSize) throws IOException {
+        try {
+            String tag = isTag(frame, sideInfoSize, "Xing") ? "Xing"
+                    : isTag(frame, sideInfoSize, "Info") ? "Info" : null;
+            if (tag != null) {
+                VbrInfo info = new VbrInfo(tag, header);
+                info.parseXing(frame, sideInfoSize + 4);
+                return info;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt Xing VBR header");
+        }
+        try {
+            // always after 32 bytes, independent of the side info size
+            if (isTag(frame, 32, "VBRI")) {
+                VbrInfo info = new VbrInfo("VBRI", header);
+                info.parseVbri(frame, 32 + 4);
+                return info;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt VBRI VBR header");
+        }
+        return null;
+    }
+
+    /**
+     * Check whether the given tag is at the given position. The bytes are
+     * compared directly, so that frames without a header are checked
+     * without allocating.
+     */
+    private static boolean isTag(byte[] b, int pos, String tag) {
+        if (pos + 4 > b.length) {
+            return false;
+        }
+        for (int i = 0; i < 4; i++) {
+            if (b[pos + i] != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void parseXing(byte[] b, int pos) {
+        int flags = readInt(b, pos, 4);
+        pos += 4;
+        if ((flags & FLAG_FRAMES) != 0) {
+            frames = readInt(b, pos, 4);
+            pos += 4;
+        }
+        if ((flags & FLAG_BYTES) != 0) {
+            bytes = readInt(b, pos, 4);
+            pos += 4;
+        }
+        if ((flags & FLAG_TOC) != 0) {
+            toc = new int[100];
+            for (int i = 0; i < 100; i++) {
+                toc[i] = b[pos++] & 0xff;
+            }
+        }
+        if ((flags & FLAG_QUALITY) != 0) {
+            quality = readInt(b, pos, 4);
+            pos += 4;
+        }
+        // LAME extension: encoder (9), revision and method (1), lowpass (1),
+        // replay gain (8), flags (1), bitrate (1), delay and padding (3)
+        if (pos + 24 <= b.length) {
+            String e = new String(b, pos, 9, StandardCharsets.ISO_8859_1);
+            if (e.startsWith("LAME") || e.startsWith("Lavc") || e.startsWith("Lavf")) {
+                encoder = e.trim();
+                int x = readInt(b, pos + 21, 3);
+                encoderDelay = x >>> 12;
+                encoderPadding = x & 0xfff;
+            }
+        }
+    }
+
+    private void parseVbri(byte[] b, int pos) {
+        // version (2), delay (2), quality (2)
+        quality = readInt(b, pos + 4, 2);
+        bytes = readInt(b, pos + 6, 4);
+        frames = readInt(b, pos + 10, 4);
+        int entries = readInt(b, pos + 14, 2);
+        int scale = readInt(b, pos + 16, 2);
+        int entrySize = readInt(b, pos + 18, 2);
+        framesPerEntry = readInt(b, pos + 20, 2);
+        pos += 22;
+        vbriToc = new int[entries];
+        for (int i = 0; i < entries; i++, pos += entrySize) {
+            vbriToc[i] = readInt(b, pos, entrySize) * scale;
+        }
+    }
+
+    private static int readInt(byte[] b, int pos, int len) {
+        int x = 0;
+        for (int i = 0; i < len; i++) {
+            x = (x << 8) | (b[pos + i] & 0xff);
+        }
+        return x;
+    }
+
+    /**
+     * Get the tag of the header.
+     *
+     * @return "Xing", "Info" or "VBRI"
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * Check whether the stream has a variable bit rate. LAME writes an Info
+     * header for constant bit rate streams.
+     *
+     * @return true for a Xing or VBRI header
+     */
+    public boolean isVbr() {
+        return !"Info".equals(tag);
+    }
+
+    /**
+     * Get the number of audio frames.
+     *
+     * @return the number of frames, or -1
+     */
+    public int getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Get the length of the stream in bytes.
+     *
+     * @return the number of bytes, or -1
+     */
+    public int getByteCount() {
+        return bytes;
+    }
+
+    /**
+     * Get the encoder quality indicator (0 is the best).
+     *
+     * @return the quality, or -1
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * Get the encoder name and version from the LAME extension, for example
+     * "LAME3.100".
+     *
+     * @return the encoder, or null
+     */
+    public String getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * Get the number of samples (per channel) that the encoder added at the
+     * start. For gapless playback, the first getEncoderDelay() +
+     * DECODER_DELAY samples of the decoded audio frames are skipped.
+     *
+     * @return the delay, or -1
+     */
+    public int getEncoderDelay() {
+        return encoderDelay;
+    }
+
+    /**
+     * Get the number of samples (per channel) that the encoder added at the
+     * end. For gapless playback, the last getEncoderPadding() -
+     * DECODER_DELAY samples are skipped.
+     *
+     * @return the padding, or -1
+     */
+    public int getEncoderPadding() {
+        return encoderPadding;
+    }
+
+    /**
+     * Get the number of samples (per channel) of the audio frames. If the
+     * encoder delay and padding are known, they are not included.
+     *
+     * @return the number of samples, or -1 if the frame count is not known
+     */
+    public long getSampleCount() {
+        if (frames < 0) {
+            return -1;
+        }
+        long samples = (long) frames * samplesPerFrame;
+        if (encoderDelay >= 0) {
+            samples -= encoderDelay + encoderPadding;
+        }
+        return Math.max(0, samples);
+    }
+
+    /**
+     * Get the duration.
+     *
+     * @return the duration in milliseconds, or -1 if the frame count is not
+     *         known
+     */
+    public long getDurationMillis() {
+        long samples = getSampleCount();
+        return samples < 0 ? -1 : samples * 1000 / sampleRate;
+    }
+
+    /**
+     * Get the average bit rate.
+     *
+     * @return the bit rate in bits per second, or -1 if the frame or byte
+     *         count is not known
+     */
+    public int getBitrate() {
+        if (frames <= 0 || bytes < 0) {
+            return -1;
+        }
+        return (int) ((long) bytes * 8 * sampleRate / ((long) frames * samplesPerFrame));
+    }
+
+    /**
+     * Get the approximate byte offset of a frame, using the table of
+     * contents. The offset is relative to the start of the frame that
+     * contains the header, and the frame at this position might start a few
+     * bytes later.
+     *
+     * @param frame the audio frame number (0 for the first audio frame)
+     * @return the offset, or -1 if there is no table of contents
+     */
+    public long getFrameOffset(int frame) {
+        if (frames <= 0 || bytes <= 0) {
+            return -1;
+        }
+        if (toc != null) {
+            double percent = Math.min(100.0, frame * 100.0 / frames);
+            int i = Math.min(99, (int) percent);
+            double a = toc[i];
+            double b = i < 99 ? toc[i + 1] : 256;
+            double x = a + (b - a) * (percent - i);
+            return (long) (x * bytes / 256);
+        } else if (vbriToc != null && framesPerEntry > 0) {
+            long offset = 0;
+            int i = 0;
+            for (; i < vbriToc.length && (long) (i + 1) * framesPerEntry <= frame; i++) {
+                offset += vbriToc[i];
+            }
+            if (i < vbriToc.length) {
+                offset += (long) vbriToc[i] * (frame - i * framesPerEntry) / framesPerEntry;
+            }
+            return offset;
+        }
+        return -1;
+    }
+
+}
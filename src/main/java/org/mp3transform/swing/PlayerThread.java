@@ -2,9 +2,7 @@ package org.mp3transform.swing;
 
 import org.mp3transform.Decoder;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.List;
 
@@ -70,9 +68,7 @@ public class PlayerThread implements Runnable {
             return;
         }
         System.out.println("playing: " + file);
-        FileInputStream in = new FileInputStream(file);
-        BufferedInputStream bin = new BufferedInputStream(in, 128 * 1024);
-        decoder.play(file.getName(), bin);
+        decoder.play(file);
         currentFile = null;
     }
 
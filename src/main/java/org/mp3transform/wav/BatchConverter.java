@@ -0,0 +1,425 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.wav;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.mp3transform.DecoderPool;
+import org.mp3transform.StreamDecoder;
+import org.mp3transform.mp3.Precision;
+
+/**
+ * Converts many MP3 files to WAV files concurrently. A fixed number of
+ * workers take the files from a shared queue, so that each worker can re-use
+ * its buffers (and a decoder from a DecoderPool) from one file to the next.
+ * The total size of the input files that are converted at the same time is
+ * limited by a budget, so that a few very large files don't use all the
+ * memory and IO bandwidth.
+ */
+public class BatchConverter {
+
+    private static final int KB = 1024;
+
+    private final ConcurrentLinkedQueue<Job> queue = new ConcurrentLinkedQueue<>();
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger converted = new AtomicInteger();
+    private final AtomicLong inputBytes = new AtomicLong();
+    private final AtomicLong outputBytes = new AtomicLong();
+    private final AtomicLong audioMillis = new AtomicLong();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean virtualThreads;
+    private long budget = 256L * KB * KB;
+    private Precision precision = Precision.DOUBLE;
+    private boolean downmix;
+    private int rateDivisor = 1;
+    private long startMillis;
+    private long durationMillis = -1;
+    private OutputFormat format = OutputFormat.WAV;
+    private boolean floatSamples;
+    private long millis;
+
+    /**
+     * Set the number of files that are converted at the same time. The
+     * default is the number of processors.
+     *
+     * @param threads the number of workers
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Use virtual threads for the workers if the Java version supports them.
+     *
+     * @param virtualThreads whether to use virtual threads
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Set the maximum total size of the input files that are converted at the
+     * same time. A file that is larger than the budget is converted alone.
+     * The default is 256 MB.
+     *
+     * @param budget the budget in bytes
+     */
+    public void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Set the precision of the decoder. The default is double.
+     *
+     * @param precision the precision
+     */
+    public void setPrecision(Precision precision) {
+        this.precision = precision;
+    }
+
+    /**
+     * Mix stereo files to one channel. See StreamDecoder.setDownmix.
+     *
+     * @param downmix whether to mix stereo to one channel
+     */
+    public void setDownmix(boolean downmix) {
+        this.downmix = downmix;
+    }
+
+    /**
+     * Divide the sample rate of the output. See
+     * StreamDecoder.setSampleRateDivisor.
+     *
+     * @param divisor 1 (the default), 2 or 4
+     */
+    public void setSampleRateDivisor(int divisor) {
+        if (divisor != 1 && divisor != 2 && divisor != 4) {
+            throw new IllegalArgumentException("Divisor: " + divisor);
+        }
+        this.rateDivisor = divisor;
+    }
+
+    /**
+     * Only convert a part of each file, for example to create previews. The
+     * frames before the start are skipped, and decoding stops after the
+     * duration.
+     *
+     * @param startMillis the start time in milliseconds
+     * @param durationMillis the duration in milliseconds, or -1 for the
+     *            rest of the file
+     */
+    public void setRange(long startMillis, long durationMillis) {
+        if (startMillis < 0) {
+            throw new IllegalArgumentException("start: " + startMillis);
+        }
+        this.startMillis = startMillis;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Set the output format. The default is a WAV file with 16 bit samples.
+     * See WavConverter.setFormat. Files that are added afterwards from a
+     * directory, pattern or list get the extension ".raw" for the raw
+     * formats, and ".wav" otherwise.
+     *
+     * @param format the container format
+     * @param floatSamples whether to write 32 bit float samples
+     */
+    public void setFormat(OutputFormat format, boolean floatSamples) {
+        this.format = format;
+        this.floatSamples = floatSamples;
+    }
+
+    /**
+     * Apply the decoder options: float samples, the downmix, the sample rate
+     * divisor, and the range (the decoder seeks to the start).
+     *
+     * @param decoder the decoder
+     */
+    void configure(StreamDecoder decoder) throws IOException {
+        decoder.setFloatOutput(floatSamples);
+        decoder.setDownmix(downmix);
+        decoder.setSampleRateDivisor(rateDivisor);
+        if (startMillis > 0) {
+            decoder.seekToMillis(startMillis);
+        }
+        if (durationMillis >= 0) {
+            decoder.setEndMillis(startMillis + durationMillis);
+        }
+    }
+
+    /**
+     * Apply the output format to the converter.
+     *
+     * @param converter the converter
+     */
+    void configure(WavConverter converter) {
+        converter.setFormat(format, floatSamples);
+    }
+
+    /**
+     * Check whether the output is the complete stream in its own format,
+     * with 16 bit samples.
+     *
+     * @return true if no decoder options are set
+     */
+    boolean isCompleteStream() {
+        return !floatSamples && !downmix && rateDivisor == 1 && startMillis == 0
+                && durationMillis < 0;
+    }
+
+    /**
+     * Add a file to convert.
+     *
+     * @param in the MP3 file
+     * @param out the output file
+     */
+    public void add(File in, File out) {
+        queue.add(new Job(in, out));
+    }
+
+    /**
+     * Add the files of a directory (recursively), the files that match a glob
+     * pattern such as "music/*&#47;*.mp3", or the files listed in a text file
+     * (one per line) if the source starts with '@'. The output files are
+     * written to the output directory, keeping the directory structure below the
+     * source directory or the directory part of the pattern without
+     * wildcards. If the output directory is null, they are written next to
+     * the MP3 files.
+     *
+     * @param source the directory, pattern, or @ followed by the list file
+     * @param outDir the output directory, or null
+     */
+    public void add(String source, File outDir) throws IOException {
+        Path base;
+        List<Path> files;
+        if (source.startsWith("@")) {
+            base = null;
+            try (Stream<String> lines = Files.lines(Paths.get(source.substring(1)),
+                    StandardCharsets.UTF_8)) {
+                files = lines.map(String::trim).filter(s -> !s.isEmpty()).map(Paths::get)
+                        .collect(Collectors.toList());
+            }
+        } else if (source.indexOf('*') >= 0 || source.indexOf('?') >= 0
+                || source.indexOf('[') >= 0 || source.indexOf('{') >= 0) {
+            String dir = source.replace(File.separatorChar, '/');
+            int wildcard = 0;
+            while ("*?[{".indexOf(dir.charAt(wildcard)) < 0) {
+                wildcard++;
+            }
+            int slash = dir.lastIndexOf('/', wildcard);
+            base = Paths.get(slash < 0 ? "." : slash == 0 ? "/" : dir.substring(0, slash));
+            String glob = dir.substring(slash + 1);
+            PathMatcher matcher = base.getFileSystem().getPathMatcher("glob:" + glob);
+            Path root = base;
+            try (Stream<Path> walk = Files.walk(base)) {
+                files = walk.filter(p -> Files.isRegularFile(p) && matcher.matches(root.relativize(p)))
+                        .sorted().collect(Collectors.toList());
+            }
+        } else if (new File(source).isDirectory()) {
+            base = Paths.get(source);
+            try (Stream<Path> walk = Files.walk(base)) {
+                files = walk.filter(p -> Files.isRegularFile(p)
+                        && p.getFileName().toString().toLowerCase(Locale.ENGLISH).endsWith(".mp3"))
+                        .sorted().collect(Collectors.toList());
+            }
+        } else {
+            base = null;
+            files = Collections.singletonList(Paths.get(source));
+        }
+        for (Path p : files) {
+            Path target;
+            if (outDir == null) {
+                target = p;
+            } else if (base == null) {
+                target = outDir.toPath().resolve(p.getFileName());
+            } else {
+                target = outDir.toPath().resolve(base.relativize(p));
+            }
+            String name = target.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            name = (dot < 0 ? name : name.substring(0, dot)) + (format.isRaw() ? ".raw" : ".wav");
+            add(p.toFile(), target.resolveSibling(name).toFile());
+        }
+    }
+
+    /**
+     * Convert all files that were added, and wait until all are converted.
+     *
+     * @return true if all files were converted successfully
+     */
+    public boolean run() throws InterruptedException {
+        long start = System.nanoTime();
+        int workers = Math.min(threads, Math.max(1, queue.size()));
+        int permits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, budget / KB));
+        Semaphore memory = new Semaphore(permits);
+        DecoderPool decoders = new DecoderPool(precision, workers);
+        ExecutorService executor = createExecutor(workers);
+        try {
+            for (int i = 0; i < workers; i++) {
+                executor.execute(() -> work(decoders, memory, permits));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return failures.isEmpty();
+    }
+
+    private ExecutorService createExecutor(int workers) {
+        if (virtualThreads) {
+            try {
+                return (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // not supported by this Java version
+            }
+        }
+        return Executors.newFixedThreadPool(workers);
+    }
+
+    private void work(DecoderPool decoders, Semaphore memory, int maxPermits) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(WaveFileWriter.BUFFER_SIZE);
+        for (Job job; (job = queue.poll()) != null;) {
+            long size = job.in.length();
+            int permits = (int) Math.min(maxPermits, Math.max(1, size / KB));
+            try {
+                memory.acquire(permits);
+            } catch (InterruptedException e) {
+                failures.add(job.in + ": interrupted");
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                convert(decoders, job, buffer);
+                converted.incrementAndGet();
+                inputBytes.addAndGet(size);
+                outputBytes.addAndGet(job.out.length());
+            } catch (Exception e) {
+                failures.add(job.in + ": " + e);
+                job.out.delete();
+            } finally {
+                memory.release(permits);
+            }
+        }
+    }
+
+    private void convert(DecoderPool decoders, Job job, ByteBuffer buffer) throws IOException {
+        File dir = job.out.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        FileInputStream in = new FileInputStream(job.in);
+        StreamDecoder decoder;
+        try {
+            decoder = decoders.acquire(in.getChannel());
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        WavConverter converter = new WavConverter(job.out.getPath(), buffer);
+        configure(converter);
+        try {
+            configure(decoder);
+            long samples = decoder.decode(converter);
+            if (samples == 0) {
+                throw new IOException("No frames found");
+            }
+            audioMillis.addAndGet(samples * 1000 / decoder.getChannels() / decoder.getSampleRate());
+        } finally {
+            decoders.release(decoder);
+            converter.close();
+        }
+    }
+
+    /**
+     * Get the list of files that could not be converted, with the reason.
+     *
+     * @return the list
+     */
+    public List<String> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Get the number of files that were converted successfully.
+     *
+     * @return the number of files
+     */
+    public int getConvertedCount() {
+        return converted.get();
+    }
+
+    /**
+     * Print the number of converted files, the throughput, and the failures.
+     *
+     * @param out the stream to print to
+     */
+    public void printReport(PrintStream out) {
+        double seconds = Math.max(millis, 1) / 1000.;
+        double mb = inputBytes.get() / (double) (KB * KB);
+        out.println(String.format(Locale.ENGLISH,
+                "Converted %d files (%d failed) in %.1f s: %.1f files/s, %.1f MB/s read, "
+                        + "%.1f MB written, %.0fx real time",
+                converted.get(), failures.size(), seconds, converted.get() / seconds, mb / seconds,
+                outputBytes.get() / (double) (KB * KB), audioMillis.get() / 1000. / seconds));
+        synchronized (failures) {
+            for (String f : failures) {
+                out.println("Failed: " + f);
+            }
+        }
+    }
+
+    /**
+     * A file to convert.
+     */
+    static class Job {
+        final File in, out;
+
+        Job(File in, File out) {
+            this.in = in;
+            this.out = out;
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.wav;
+
+/**
+ * The container of the converted samples.
+ */
+public enum OutputFormat {
+
+    /**
+     * A RIFF WAV file. The size fields have 32 bits, so that the data can be
+     * at most 4 GB.
+     */
+    WAV,
+
+    /**
+     * An RF64 WAV file (EBU Tech 3306): the sizes are stored in a ds64 chunk
+     * with 64 bit fields, so that the data can be larger than 4 GB.
+     */
+    RF64,
+
+    /**
+     * Raw little endian samples, without a header.
+     */
+    RAW_LE,
+
+    /**
+     * Raw big endian samples, without a header.
+     */
+    RAW_BE;
+
+    /**
+     * Check whether the samples are written without a header.
+     *
+     * @return true for the raw formats
+     */
+    public boolean isRaw() {
+        return this == RAW_LE || this == RAW_BE;
+    }
+
+}
@@ -19,98 +19,205 @@
  */
 package org.mp3transform.wav;
 
-import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Locale;
 
-import org.mp3transform.mp3.Bitstream;
-import org.mp3transform.Decoder;
-import org.mp3transform.mp3.Header;
+import org.mp3transform.ParallelDecoder;
+import org.mp3transform.PcmSink;
+import org.mp3transform.StreamDecoder;
+import org.mp3transform.mp3.Precision;
 
-public class WavConverter extends Decoder {
+public class WavConverter implements PcmSink {
     public static void main(String[] args) throws Exception {
-        String in = "in.mp3";
-        String out = "out.wav";
+        ArrayList<String> in = new ArrayList<>();
+        String out = null;
+        BatchConverter batch = new BatchConverter();
+        boolean batchMode = false;
+        boolean split = false;
+        OutputFormat format = OutputFormat.WAV;
+        boolean floatSamples = false;
+        long start = 0;
+        long duration = -1;
         for (int i = 0; i < args.length; i++) {
             if ("-in".equals(args[i])) {
-                in = args[++i];
-            } else if ("-in".equals(args[i])) {
+                in.add(args[++i]);
+            } else if ("-out".equals(args[i])) {
                 out = args[++i];
+            } else if ("-split".equals(args[i])) {
+                split = true;
+            } else if ("-mono".equals(args[i])) {
+                batch.setDownmix(true);
+            } else if ("-rate".equals(args[i])) {
+                batch.setSampleRateDivisor(Integer.parseInt(args[++i]));
+            } else if ("-format".equals(args[i])) {
+                format = OutputFormat.valueOf(args[++i].toUpperCase(Locale.ENGLISH).replace('-', '_'));
+            } else if ("-float".equals(args[i])) {
+                floatSamples = true;
+            } else if ("-start".equals(args[i])) {
+                start = Long.parseLong(args[++i]);
+                batch.setRange(start, duration);
+            } else if ("-duration".equals(args[i])) {
+                duration = Long.parseLong(args[++i]);
+                batch.setRange(start, duration);
+            } else if ("-threads".equals(args[i])) {
+                batch.setThreads(Integer.parseInt(args[++i]));
+                batchMode = true;
+            } else if ("-virtual".equals(args[i])) {
+                batch.setVirtualThreads(true);
+                batchMode = true;
+            } else if ("-budget".equals(args[i])) {
+                batch.setBudget(Long.parseLong(args[++i]) * 1024 * 1024);
+                batchMode = true;
             } else {
-                System.out.println("Options: -in <input.mp3> -out <output.wav>");
+                System.out.println("Options: -in <input.mp3> -out <output.wav | -> [-split] "
+                        + "[-mono] [-rate <1 | 2 | 4>] [-start <ms>] [-duration <ms>] "
+                        + "[-format <wav | rf64 | raw-le | raw-be>] [-float]");
+                System.out.println("Batch: -in <directory | glob | @list> ... "
+                        + "[-out <directory>] [-threads <n>] [-virtual] [-budget <MB>]");
+                return;
             }
         }
-        WavConverter.convert(in, out);
-    }
-
-    private static void convert(String sourceFileName, String destFileName)
-            throws IOException {
-        InputStream fileIn = new FileInputStream(sourceFileName);
-        BufferedInputStream in = new BufferedInputStream(fileIn, 128 * 1024);
-        convert(in, destFileName);
-        in.close();
+        batch.setFormat(format, floatSamples);
+        if (in.isEmpty()) {
+            in.add("in.mp3");
+        }
+        if (!batchMode && in.size() == 1 && new File(in.get(0)).isFile()) {
+            WavConverter.convert(in.get(0), out == null ? "out.wav" : out, split, batch);
+            return;
+        }
+        for (String source : in) {
+            batch.add(source, out == null ? null : new File(out));
+        }
+        boolean success = batch.run();
+        batch.printReport(System.out);
+        if (!success) {
+            System.exit(1);
+        }
     }
 
-    private static void convert(InputStream sourceStream, String destFileName)
-            throws IOException {
-        int frameCount = Integer.MAX_VALUE;
-        WavConverter decoder = new WavConverter();
-        Bitstream stream = new Bitstream(sourceStream);
-        try {
-            for (int frame = 0; frame < frameCount; frame++) {
-                Header header = stream.readFrame();
-                if (header == null) {
-                    break;
-                }
-                if (decoder.channels == 0) {
-                    int channels = (header.mode() == Header.MODE_SINGLE_CHANNEL) ? 1
-                            : 2;
-                    int freq = header.frequency();
-                    decoder.initOutputBuffer(channels, freq, destFileName);
+    private static void convert(String sourceFileName, String destFileName, boolean split,
+            BatchConverter options) throws IOException {
+        try (FileInputStream in = new FileInputStream(sourceFileName)) {
+            FileChannel channel = in.getChannel();
+            // the segments are decoded completely, to 16 bit samples
+            if (!split || !options.isCompleteStream() || "-".equals(destFileName)
+                    || channel.size() > Integer.MAX_VALUE) {
+                StreamDecoder decoder = StreamDecoder.open(channel, Precision.DOUBLE);
+                WavConverter converter = null;
+                try {
+                    options.configure(decoder);
+                    decoder.setPipelined(Runtime.getRuntime().availableProcessors() > 1);
+                    if ("-".equals(destFileName)) {
+                        // the standard output; the length is declared if it is known
+                        WritableByteChannel out = new FileOutputStream(FileDescriptor.out).getChannel();
+                        converter = new WavConverter(out, decoder.getRemainingSamples());
+                    } else {
+                        converter = new WavConverter(destFileName);
+                    }
+                    options.configure(converter);
+                    decoder.decode(converter);
+                } finally {
+                    decoder.close();
+                    if (converter != null) {
+                        converter.close();
+                    }
                 }
-                decoder.decodeFrame(header, stream);
-                stream.closeFrame();
+                return;
+            }
+            // decode segments of the file on all processors
+            WavConverter converter = new WavConverter(destFileName);
+            options.configure(converter);
+            try {
+                ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                new ParallelDecoder(data, Precision.DOUBLE).decode(converter);
+            } finally {
+                converter.close();
             }
-        } finally {
-            decoder.close();
         }
     }
 
-    private short[] buffer;
+    private final String fileName;
+    private final WritableByteChannel out;
+    private final long samples;
+    private final ByteBuffer buffer;
+    private OutputFormat format = OutputFormat.WAV;
+    private boolean floatSamples;
     private WaveFileWriter outWave;
 
-    public void initOutputBuffer(int numberOfChannels, int freq, String fileName)
-            throws IOException {
-        super.initOutputBuffer(null, numberOfChannels);
-        buffer = new short[BUFFER_SIZE];
-        for (int i = 0; i < numberOfChannels; ++i) {
-            bufferPointer[i] = (short) i;
-        }
-        outWave = new WaveFileWriter(fileName, freq, (short) 16,
-                (short) numberOfChannels);
+    public WavConverter(String fileName) {
+        this(fileName, null);
     }
-    
-    public void appendSamples(int channel, double[] f) {
-        int p = bufferPointer[channel];
-        for (int i = 0; i < 32; i++) {
-            double sample = f[i];
-            short s = ((sample > 32767.0f) ? 32767
-                    : ((sample < -32768.0f) ? -32768 : (short) sample));
-            buffer[p] = s;
-            p += 2;
-        }
-        bufferPointer[channel] = p;
-    }    
 
-    public void writeBuffer() throws IOException {
-        outWave.writeData(buffer, bufferPointer[0]);
-        for (int i = 0; i < channels; ++i) {
-            bufferPointer[i] = i;
+    WavConverter(String fileName, ByteBuffer buffer) {
+        this.fileName = fileName;
+        this.buffer = buffer;
+        out = null;
+        samples = -1;
+    }
+
+    /**
+     * Create a converter that writes to a channel, which may not be seekable
+     * (for example a pipe or a socket). If the channel is not seekable, the
+     * length in the header is the given number of samples, and the output
+     * is padded or truncated to this length. The channel is closed when
+     * the converter is closed.
+     *
+     * @param out the channel
+     * @param samples the number of samples per channel (see
+     *            StreamDecoder.getRemainingSamples), or -1 if unknown
+     */
+    public WavConverter(WritableByteChannel out, long samples) {
+        this.out = out;
+        this.samples = samples;
+        fileName = null;
+        buffer = null;
+    }
+
+    /**
+     * Set the output format. The default is a WAV file with 16 bit samples.
+     * Float samples need to be enabled in the decoder as well (see
+     * StreamDecoder.setFloatOutput); they are not clipped, so that the
+     * headroom is kept.
+     *
+     * @param format the container format
+     * @param floatSamples whether to write 32 bit float samples
+     */
+    public void setFormat(OutputFormat format, boolean floatSamples) {
+        this.format = format;
+        this.floatSamples = floatSamples;
+    }
+
+    public void open(int sampleRate, int channels) throws IOException {
+        if (out == null) {
+            outWave = new WaveFileWriter(fileName, format, floatSamples, sampleRate, channels, buffer);
+        } else {
+            outWave = new WaveFileWriter(out, format, floatSamples, sampleRate, channels,
+                    samples < 0 ? -1 : samples * channels, buffer);
         }
     }
 
+    public void write(short[] samples, int offset, int length)
+            throws IOException {
+        outWave.writeData(samples, offset, length);
+    }
+
+    @Override
+    public void write(float[] samples, int offset, int length)
+            throws IOException {
+        outWave.writeData(samples, offset, length);
+    }
+
     public void close() throws IOException {
-        outWave.close();
+        if (outWave != null) {
+            outWave.close();
+        }
     }
 }
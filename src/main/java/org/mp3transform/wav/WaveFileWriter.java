@@ -24,182 +24,277 @@
  */
 package org.mp3transform.wav;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
+/**
+ * Writes 16 bit or float PCM samples to a WAV, RF64 or raw file or stream.
+ * The samples are collected in a large buffer, so that the target is written
+ * in a few large blocks. The header is part of the first block, so that
+ * (for 16 bit samples) all blocks but the last have the size of the buffer
+ * and start at a multiple of it.
+ * <p>
+ * If the target is seekable, the sizes in the header are written once when
+ * closing. Otherwise the sizes need to be declared in advance (for example,
+ * from the VBR header of the MP3 stream): the data is then padded with
+ * silence or truncated to the declared size. If the size is not known, the
+ * sizes are set to the maximum, which most readers treat as "until the end
+ * of the stream". A WAV file with known sizes can not be larger than 4 GB;
+ * writing more data fails, and the RF64 format needs to be used instead.
+ */
 public class WaveFileWriter {
-    static class WaveFormatChunkData {
-        short formatTag = 0; // Format category (PCM=1)
-        short channels = 0; // Number of channels (mono=1, stereo=2)
-        int samplesPerSec = 0; // Sampling rate [Hz]
-        int avgBytesPerSec = 0;
-        short blockAlign = 0;
-        short bitsPerSample = 0;
-
-        WaveFormatChunkData() {
-            formatTag = 1; // PCM
-            config(44100, (short) 16, (short) 1);
-        }
-
-        void config(int samplingRate, short bitsPerSample,
-                short channels) {
-            samplesPerSec = samplingRate;
-            this.channels = channels;
-            this.bitsPerSample = bitsPerSample;
-            avgBytesPerSec = (channels * samplesPerSec * bitsPerSample) / 8;
-            blockAlign = (short) ((channels * bitsPerSample) / 8);
-        }
-    }
 
-    static class WaveFormatChunk {
-        RiffChunkHeader header;
-        WaveFormatChunkData data;
+    /**
+     * The default buffer size. It is a multiple of the page size.
+     */
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final long UNKNOWN_SIZE = 0xffffffffL;
+
+    private final WritableByteChannel out;
+    // the position of the header, or -1 if the target is not seekable
+    private final long start;
+    private final ByteBuffer buffer;
+    private final OutputFormat format;
+    private final boolean floatSamples;
+    private final int sampleSize;
+    private final int headerSize;
+    // the view of the buffer, depending on the sample type
+    private ShortBuffer shorts;
+    private FloatBuffer floats;
+    private final int sampleRate;
+    private final int channels;
+    // the declared data size, or -1
+    private final long declared;
+    // the maximum data size that fits in the header
+    private final long maxDataSize;
+    private long dataSize;
+
+    WaveFileWriter(String fileName, OutputFormat format, boolean floatSamples, int sampleRate,
+            int channels, ByteBuffer buffer) throws IOException {
+        this(new FileOutputStream(fileName).getChannel(), format, floatSamples, sampleRate, channels,
+                -1, buffer);
+    }
 
-        WaveFormatChunk() {
-            header = new RiffChunkHeader();
-            data = new WaveFormatChunkData();
-            header.ckID = fourCC("fmt ");
-            header.ckSize = 16;
+    /**
+     * Create a writer. The channel is closed when the writer is closed.
+     *
+     * @param out the target
+     * @param format the container format
+     * @param floatSamples whether to write 32 bit float samples instead of
+     *            16 bit samples
+     * @param sampleRate the sample rate
+     * @param channels the number of channels
+     * @param samples the number of samples (of all channels) if known, or
+     *            -1; only used if the target is not seekable
+     * @param buffer the buffer (with a capacity that is a multiple of 4), so
+     *            that it can be reused for the next file, or null
+     */
+    WaveFileWriter(WritableByteChannel out, OutputFormat format, boolean floatSamples,
+            int sampleRate, int channels, long samples, ByteBuffer buffer) throws IOException {
+        if (channels < 1 || channels > 2) {
+            out.close();
+            throw new IOException("Unsupported channels: " + channels);
+        }
+        this.out = out;
+        this.format = format;
+        this.floatSamples = floatSamples;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        sampleSize = floatSamples ? 4 : 2;
+        if (format.isRaw()) {
+            headerSize = 0;
+        } else {
+            // RIFF, ds64, fmt (with the extension size for float), fact, data
+            headerSize = 12 + (format == OutputFormat.RF64 ? 36 : 0) + (floatSamples ? 26 + 12 : 24) + 8;
+        }
+        start = position(out);
+        declared = start < 0 && samples >= 0 ? samples * sampleSize : -1;
+        if (format == OutputFormat.WAV && (start >= 0 || declared >= 0)) {
+            // the maximum value of the size fields means "unknown"
+            long max = UNKNOWN_SIZE - 1 - (headerSize - 8);
+            maxDataSize = max - max % (channels * sampleSize);
+        } else {
+            maxDataSize = Long.MAX_VALUE;
         }
+        if (declared > maxDataSize) {
+            out.close();
+            throw tooLarge();
+        }
+        this.buffer = buffer == null ? ByteBuffer.allocateDirect(BUFFER_SIZE) : buffer;
+        ByteOrder order = format == OutputFormat.RAW_BE ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        this.buffer.clear();
+        this.buffer.order(order);
+        writeHeader(this.buffer, declared);
+        setView(this.buffer.slice().order(order));
     }
 
-    static class RiffChunkHeader {
-        int ckID = 0; // Four-character chunk ID
-        int ckSize = 0; // Length of data in chunk
+    private static long position(WritableByteChannel out) {
+        if (out instanceof FileChannel) {
+            try {
+                return ((FileChannel) out).position();
+            } catch (IOException e) {
+                // a pipe
+            }
+        }
+        return -1;
     }
 
-    private final RiffChunkHeader riffHeader = new RiffChunkHeader();
-    private final RandomAccessFile file; // I/O stream to use
-    private final WaveFormatChunk waveFormat = new WaveFormatChunk();
-    private final RiffChunkHeader pcmData = new RiffChunkHeader();
-    private long pcmDataOffset = 0; // offset of 'pcmData' in output file
+    private void setView(ByteBuffer b) {
+        if (floatSamples) {
+            floats = b.asFloatBuffer();
+        } else {
+            shorts = b.asShortBuffer();
+        }
+    }
 
-    WaveFileWriter(String fileName, int samplingRate, short bitsPerSample,
-            short channels) throws IOException {
-        riffHeader.ckID = fourCC("RIFF");
-        pcmData.ckID = fourCC("data");
-        if (bitsPerSample != 8 && bitsPerSample != 16) {
-            throw new IOException("Unsupported bitsPerSample: " + bitsPerSample);
+    private void writeHeader(ByteBuffer b, long size) {
+        if (headerSize == 0) {
+            return;
         }
-        if (channels < 1 || channels > 2) {
-            throw new IOException("Unsupported channels: " + channels);
+        boolean rf64 = format == OutputFormat.RF64;
+        int blockAlign = channels * sampleSize;
+        long riffSize = size < 0 ? -1 : size + headerSize - 8;
+        long frames = size < 0 ? -1 : size / blockAlign;
+        putFourCC(b, rf64 ? "RF64" : "RIFF");
+        b.putInt(rf64 ? -1 : size32(riffSize));
+        putFourCC(b, "WAVE");
+        if (rf64) {
+            putFourCC(b, "ds64");
+            b.putInt(28);
+            b.putLong(riffSize);
+            b.putLong(size);
+            b.putLong(frames);
+            // no table of other chunk sizes
+            b.putInt(0);
+        }
+        putFourCC(b, "fmt ");
+        b.putInt(floatSamples ? 18 : 16);
+        // IEEE float or PCM
+        b.putShort((short) (floatSamples ? 3 : 1));
+        b.putShort((short) channels);
+        b.putInt(sampleRate);
+        b.putInt(sampleRate * blockAlign);
+        b.putShort((short) blockAlign);
+        b.putShort((short) (sampleSize * 8));
+        if (floatSamples) {
+            // no extension
+            b.putShort((short) 0);
+            putFourCC(b, "fact");
+            b.putInt(4);
+            b.putInt(rf64 ? -1 : size32(frames));
         }
-        waveFormat.data.config(samplingRate, bitsPerSample, channels);
-        file = new RandomAccessFile(fileName, "rw");
-        // Write the RIFF header...
-        // We will have to come back later and patch it!
-        byte[] br = new byte[8];
-        br[0] = (byte) ((riffHeader.ckID >>> 24) & 0x000000FF);
-        br[1] = (byte) ((riffHeader.ckID >>> 16) & 0x000000FF);
-        br[2] = (byte) ((riffHeader.ckID >>> 8) & 0x000000FF);
-        br[3] = (byte) (riffHeader.ckID & 0x000000FF);
-        int ckSize = riffHeader.ckSize;
-        byte br4 = (byte) ((ckSize >>> 24) & 0x000000FF);
-        byte br5 = (byte) ((ckSize >>> 16) & 0x000000FF);
-        byte br6 = (byte) ((ckSize >>> 8) & 0x000000FF);
-        byte br7 = (byte) (ckSize & 0x000000FF);
-        br[4] = br7;
-        br[5] = br6;
-        br[6] = br5;
-        br[7] = br4;
-        file.write(br, 0, 8);
-        // write the wav header
-        byte[] theWave = { (byte) 'W', (byte) 'A', (byte) 'V', (byte) 'E' };
-        write(theWave, 4);
-        write(waveFormat.header, 8);
-        writeShort(waveFormat.data.formatTag);
-        writeShort(waveFormat.data.channels);
-        writeInt(waveFormat.data.samplesPerSec);
-        writeInt(waveFormat.data.avgBytesPerSec);
-        writeShort(waveFormat.data.blockAlign);
-        writeShort(waveFormat.data.bitsPerSample);
-        pcmDataOffset = file.getFilePointer();
-        write(pcmData, 8);
+        putFourCC(b, "data");
+        b.putInt(rf64 ? -1 : size32(size));
     }
 
-    private void writeShort(short data) throws IOException {
-        short theData = (short) (((data >>> 8) & 0x00FF) | ((data << 8) & 0xFF00));
-        file.writeShort(theData);
-        riffHeader.ckSize += 2;
+    private static int size32(long size) {
+        // -1 is the unknown size; larger sizes are rejected when writing
+        return (int) size;
     }
 
-    void writeData(short[] data, int numData) throws IOException {
-        int extraBytes = numData * 2;
-        pcmData.ckSize += extraBytes;
-        writeRiff(data, extraBytes);
+    private static IOException tooLarge() {
+        return new IOException("The data is larger than 4 GB, use the RF64 format (-format rf64)");
     }
 
-    private void writeRiff(short[] data, int numBytes) throws IOException {
-        byte[] theData = new byte[numBytes];
-        int yc = 0;
-        for (int y = 0; y < numBytes; y = y + 2) {
-            theData[y] = (byte) (data[yc] & 0x00FF);
-            theData[y + 1] = (byte) ((data[yc++] >>> 8) & 0x00FF);
+    private void checkSize(int numData) throws IOException {
+        if (dataSize + (long) numData * sampleSize > maxDataSize) {
+            throw tooLarge();
         }
-        file.write(theData, 0, numBytes);
-        riffHeader.ckSize += numBytes;
     }
 
-    private void writeInt(int data) throws IOException {
-        short theDataL = (short) ((data >>> 16) & 0x0000FFFF);
-        short theDataR = (short) (data & 0x0000FFFF);
-        short theDataLI = (short) (((theDataL >>> 8) & 0x00FF) | ((theDataL << 8) & 0xFF00));
-        short theDataRI = (short) (((theDataR >>> 8) & 0x00FF) | ((theDataR << 8) & 0xFF00));
-        int theData = ((theDataRI << 16) & 0xFFFF0000)
-                | (theDataLI & 0x0000FFFF);
-        file.writeInt(theData);
-        riffHeader.ckSize += 4;
+    private static void putFourCC(ByteBuffer b, String id) {
+        for (int i = 0; i < 4; i++) {
+            b.put((byte) id.charAt(i));
+        }
     }
 
-    private void write(RiffChunkHeader header, int numBytes) throws IOException {
-        byte[] br = new byte[8];
-        br[0] = (byte) ((header.ckID >>> 24) & 0x000000FF);
-        br[1] = (byte) ((header.ckID >>> 16) & 0x000000FF);
-        br[2] = (byte) ((header.ckID >>> 8) & 0x000000FF);
-        br[3] = (byte) (header.ckID & 0x000000FF);
-        byte br4 = (byte) ((header.ckSize >>> 24) & 0x000000FF);
-        byte br5 = (byte) ((header.ckSize >>> 16) & 0x000000FF);
-        byte br6 = (byte) ((header.ckSize >>> 8) & 0x000000FF);
-        byte br7 = (byte) (header.ckSize & 0x000000FF);
-        br[4] = br7;
-        br[5] = br6;
-        br[6] = br5;
-        br[7] = br4;
-        file.write(br, 0, numBytes);
-        riffHeader.ckSize += numBytes;
+    void writeData(short[] data, int offset, int numData) throws IOException {
+        if (declared >= 0) {
+            numData = (int) Math.min(numData, (declared - dataSize) / 2);
+        }
+        checkSize(numData);
+        while (numData > 0) {
+            if (!shorts.hasRemaining()) {
+                flush();
+            }
+            int len = Math.min(numData, shorts.remaining());
+            shorts.put(data, offset, len);
+            offset += len;
+            numData -= len;
+            dataSize += len * 2;
+        }
     }
 
-    void close() throws IOException {
-        backpatch(pcmDataOffset, pcmData, 8);
-        file.seek(0);
-        byte[] br = new byte[8];
-        br[0] = (byte) ((riffHeader.ckID >>> 24) & 0x000000FF);
-        br[1] = (byte) ((riffHeader.ckID >>> 16) & 0x000000FF);
-        br[2] = (byte) ((riffHeader.ckID >>> 8) & 0x000000FF);
-        br[3] = (byte) (riffHeader.ckID & 0x000000FF);
-        br[7] = (byte) ((riffHeader.ckSize >>> 24) & 0x000000FF);
-        br[6] = (byte) ((riffHeader.ckSize >>> 16) & 0x000000FF);
-        br[5] = (byte) ((riffHeader.ckSize >>> 8) & 0x000000FF);
-        br[4] = (byte) (riffHeader.ckSize & 0x000000FF);
-        file.write(br, 0, 8);
-        file.close();
+    void writeData(float[] data, int offset, int numData) throws IOException {
+        if (declared >= 0) {
+            numData = (int) Math.min(numData, (declared - dataSize) / 4);
+        }
+        checkSize(numData);
+        while (numData > 0) {
+            if (!floats.hasRemaining()) {
+                flush();
+            }
+            int len = Math.min(numData, floats.remaining());
+            floats.put(data, offset, len);
+            offset += len;
+            numData -= len;
+            dataSize += len * 4;
+        }
     }
 
-    private void backpatch(long fileOffset, RiffChunkHeader data, int numBytes)
-            throws IOException {
-        file.seek(fileOffset);
-        write(data, numBytes);
+    private void flush() throws IOException {
+        // the header may be in the buffer before the samples
+        int len = buffer.position() + (floatSamples ? floats.position() * 4 : shorts.position() * 2);
+        buffer.position(0);
+        buffer.limit(len);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+        setView(buffer);
     }
 
-    private void write(byte[] data, int numBytes) throws IOException {
-        file.write(data, 0, numBytes);
-        riffHeader.ckSize += numBytes;
+    /**
+     * Write the remaining samples, update the header, and close the target.
+     */
+    void close() throws IOException {
+        try {
+            // pad to the declared size, up to one buffer at a time
+            if (dataSize < declared) {
+                int len = buffer.capacity() / sampleSize;
+                if (floatSamples) {
+                    float[] zeros = new float[len];
+                    while (dataSize < declared) {
+                        writeData(zeros, 0, len);
+                    }
+                } else {
+                    short[] zeros = new short[len];
+                    while (dataSize < declared) {
+                        writeData(zeros, 0, len);
+                    }
+                }
+            }
+            flush();
+            if (start >= 0 && headerSize > 0) {
+                ByteBuffer header = ByteBuffer.allocate(headerSize);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                writeHeader(header, dataSize);
+                header.flip();
+                FileChannel file = (FileChannel) out;
+                while (header.hasRemaining()) {
+                    file.write(header, start + header.position());
+                }
+            }
+        } finally {
+            out.close();
+        }
     }
 
-    static int fourCC(String chunkName) {
-        byte[] p = chunkName.getBytes();
-        int ret = (((p[0] << 24) & 0xFF000000) | ((p[1] << 16) & 0x00FF0000)
-                | ((p[2] << 8) & 0x0000FF00) | (p[3] & 0x000000FF));
-        return ret;
-    }
 }
@@ -0,0 +1,685 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates syntactically valid MPEG audio layer III streams from random data.
+ * The streams are not meant to sound like anything: every field the decoder
+ * reads is written in exactly the order Layer3Decoder reads it, including
+ * scale factors, all Huffman tables, linbits, short and mixed blocks, the bit
+ * reservoir and joint stereo. This gives reproducible test and benchmark
+ * fixtures without having to bundle encoded files.
+ */
+public final class StreamGenerator {
+
+    /**
+     * The available fixtures.
+     */
+    public static final String[] FIXTURES = { "mono", "joint", "lsf", "mpeg25", "vbr", "crc" };
+
+    /**
+     * A stereo fixture that doesn't clip, and where the channels choose their
+     * block types independently. It is not one of the FIXTURES.
+     */
+    public static final String QUIET = "quiet";
+
+    private static final int[][] TABLES = {
+            // xlen, linbits
+            { 0, 0 }, { 2, 0 }, { 3, 0 }, { 3, 0 }, { 0, 0 }, { 4, 0 }, { 4, 0 }, { 6, 0 }, { 6, 0 }, { 6, 0 },
+            { 8, 0 }, { 8, 0 }, { 8, 0 }, { 16, 0 }, { 0, 0 }, { 16, 0 }, { 16, 1 }, { 16, 2 }, { 16, 3 },
+            { 16, 4 }, { 16, 6 }, { 16, 8 }, { 16, 10 }, { 16, 13 }, { 16, 4 }, { 16, 5 }, { 16, 6 }, { 16, 7 },
+            { 16, 8 }, { 16, 9 }, { 16, 11 }, { 16, 13 } };
+    private static final int[][][] TREES = { Constants.VAL_TAB_0, Constants.VAL_TAB_1, Constants.VAL_TAB_2,
+            Constants.VAL_TAB_3, Constants.VAL_TAB_4, Constants.VAL_TAB_5, Constants.VAL_TAB_6, Constants.VAL_TAB_7,
+            Constants.VAL_TAB_8, Constants.VAL_TAB_9, Constants.VAL_TAB_10, Constants.VAL_TAB_11,
+            Constants.VAL_TAB_12, Constants.VAL_TAB_13, Constants.VAL_TAB_14, Constants.VAL_TAB_15,
+            Constants.VAL_TAB_16, Constants.VAL_TAB_16, Constants.VAL_TAB_16, Constants.VAL_TAB_16,
+            Constants.VAL_TAB_16, Constants.VAL_TAB_16, Constants.VAL_TAB_16, Constants.VAL_TAB_16,
+            Constants.VAL_TAB_24, Constants.VAL_TAB_24, Constants.VAL_TAB_24, Constants.VAL_TAB_24,
+            Constants.VAL_TAB_24, Constants.VAL_TAB_24, Constants.VAL_TAB_24, Constants.VAL_TAB_24,
+            Constants.VAL_TAB_32, Constants.VAL_TAB_33 };
+    /**
+     * The values of the Xing header and LAME extension of the vbr fixture.
+     */
+    static final int XING_QUALITY = 57, ENCODER_DELAY = 576, ENCODER_PADDING = 1234;
+
+    private static final int MX_OFF = 250;
+    private static final int[][] CODES = new int[TREES.length][];
+    private static final int[][] CODE_LENGTHS = new int[TREES.length][];
+
+    static {
+        for (int t = 0; t < TREES.length; t++) {
+            CODES[t] = new int[256];
+            CODE_LENGTHS[t] = new int[256];
+            if (TREES[t].length > 1) {
+                buildCodes(TREES[t], 0, 0, 0, CODES[t], CODE_LENGTHS[t]);
+            }
+        }
+    }
+
+    private final Random random;
+    private final BitWriter main = new BitWriter();
+    private final ArrayList<byte[]> frames = new ArrayList<>();
+    private final ArrayList<Integer> slotStarts = new ArrayList<>();
+    private final ArrayList<Integer> slotSizes = new ArrayList<>();
+    private int version, sampleFrequency, mode, sfreq;
+    private int channels, maxGr;
+    private int slotTotal, mainDataEnd;
+    private int xingFrameSize;
+    private boolean crc;
+    private int minGain = 134;
+
+    private StreamGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Generate a fixture.
+     *
+     * @param fixture one of {@link #FIXTURES}, or {@link #QUIET}
+     * @param frameCount the number of audio frames
+     * @param seed the random seed
+     * @return the MP3 stream
+     */
+    public static byte[] generate(String fixture, int frameCount, long seed) {
+        StreamGenerator gen = new StreamGenerator(seed);
+        switch (fixture) {
+        case "mono":
+            return gen.generate(Header.VERSION_MPEG1, 0, Header.MODE_SINGLE_CHANNEL, new int[] { 9 }, false,
+                    frameCount);
+        case "joint":
+            return gen.generate(Header.VERSION_MPEG1, 0, Header.MODE_JOINT_STEREO, new int[] { 11 }, false,
+                    frameCount);
+        case "lsf":
+            return gen.generate(Header.VERSION_MPEG2_LSF, 0, Header.MODE_JOINT_STEREO, new int[] { 8 }, false,
+                    frameCount);
+        case "mpeg25":
+            return gen.generate(Header.VERSION_MPEG25_LSF, 2, 0, new int[] { 6 }, false, frameCount);
+        case "vbr":
+            return gen.generate(Header.VERSION_MPEG1, 1, Header.MODE_JOINT_STEREO,
+                    new int[] { 5, 7, 9, 10, 11, 12, 14 }, true, frameCount);
+        case "crc":
+            gen.crc = true;
+            return gen.generate(Header.VERSION_MPEG1, 1, 0, new int[] { 9, 10 }, false, frameCount);
+        case QUIET:
+            // the peak is about 6000
+            gen.minGain = 110;
+            return gen.generate(Header.VERSION_MPEG1, 1, 0, new int[] { 9 }, false, frameCount);
+        default:
+            throw new IllegalArgumentException("Unknown fixture: " + fixture);
+        }
+    }
+
+    private byte[] generate(int version, int sampleFrequency, int mode, int[] bitrates, boolean xing,
+            int frameCount) {
+        this.version = version;
+        this.sampleFrequency = sampleFrequency;
+        this.mode = mode;
+        channels = mode == Header.MODE_SINGLE_CHANNEL ? 1 : 2;
+        maxGr = version == Header.VERSION_MPEG1 ? 2 : 1;
+        sfreq = sampleFrequency + (version == Header.VERSION_MPEG1 ? 3 : version == Header.VERSION_MPEG25_LSF ? 6 : 0);
+        if (xing) {
+            addXingFrame(bitrates[bitrates.length - 1]);
+        }
+        for (int i = 0; i < frameCount; i++) {
+            addFrame(bitrates[random.nextInt(bitrates.length)]);
+        }
+        byte[] reservoir = main.toByteArray(slotTotal, random);
+        int length = 0;
+        for (int i = 0; i < frames.size(); i++) {
+            byte[] f = frames.get(i);
+            System.arraycopy(reservoir, slotStarts.get(i), f, f.length - slotSizes.get(i), slotSizes.get(i));
+            length += f.length;
+        }
+        if (xing) {
+            writeXing(frames.get(0), frameCount, length);
+        }
+        byte[] stream = new byte[length];
+        int pos = 0;
+        for (byte[] f : frames) {
+            System.arraycopy(f, 0, stream, pos, f.length);
+            pos += f.length;
+        }
+        return stream;
+    }
+
+    private int sideInfoSize() {
+        if (version == Header.VERSION_MPEG1) {
+            return channels == 1 ? 17 : 32;
+        }
+        return channels == 1 ? 9 : 17;
+    }
+
+    private int headerSize() {
+        return crc ? 6 : 4;
+    }
+
+    private int frameSize(int bitrateIndex) {
+        int[][] freq = { { 22050, 24000, 16000 }, { 44100, 48000, 32000 }, { 11025, 12000, 8000 } };
+        int size = (144 * Constants.BITRATES[version][bitrateIndex]) / freq[version][sampleFrequency];
+        if (version != Header.VERSION_MPEG1) {
+            size >>= 1;
+        }
+        return size;
+    }
+
+    private byte[] header(int bitrateIndex, int modeExtension) {
+        int h = 0xFFE00000;
+        if (version != Header.VERSION_MPEG25_LSF) {
+            h |= 1 << 20;
+        }
+        h |= (version == Header.VERSION_MPEG1 ? 1 : 0) << 19;
+        // layer III, protection bit set if there is no crc
+        h |= 1 << 17;
+        if (!crc) {
+            h |= 1 << 16;
+        }
+        h |= bitrateIndex << 12;
+        h |= sampleFrequency << 10;
+        h |= mode << 6;
+        h |= modeExtension << 4;
+        byte[] frame = new byte[frameSize(bitrateIndex)];
+        frame[0] = (byte) (h >>> 24);
+        frame[1] = (byte) (h >>> 16);
+        frame[2] = (byte) (h >>> 8);
+        frame[3] = (byte) h;
+        return frame;
+    }
+
+    private void addXingFrame(int bitrateIndex) {
+        byte[] frame = header(bitrateIndex, 0);
+        frames.add(frame);
+        int slots = frame.length - headerSize() - sideInfoSize();
+        xingFrameSize = frame.length;
+        slotStarts.add(slotTotal);
+        slotSizes.add(slots);
+        slotTotal += slots;
+        // the Xing data occupies the whole main data area
+        main.pad(slotTotal);
+        mainDataEnd = slotTotal;
+    }
+
+    private void writeXing(byte[] frame, int frameCount, int streamLength) {
+        int pos = headerSize() + sideInfoSize();
+        frame[pos++] = 'X';
+        frame[pos++] = 'i';
+        frame[pos++] = 'n';
+        frame[pos++] = 'g';
+        // frames, bytes, toc, quality
+        pos = writeInt(frame, pos, 15);
+        pos = writeInt(frame, pos, frameCount);
+        pos = writeInt(frame, pos, streamLength);
+        for (int i = 0; i < 100; i++) {
+            int frameIndex = i * frameCount / 100;
+            int offset = xingFrameSize;
+            for (int j = 1; j <= frameIndex; j++) {
+                offset += frames.get(j).length;
+            }
+            frame[pos++] = (byte) Math.min(255, (long) offset * 256 / streamLength);
+        }
+        pos = writeInt(frame, pos, XING_QUALITY);
+        // LAME extension: encoder, revision and method, lowpass, replay gain,
+        // flags, bitrate
+        for (char c : "LAME3.100".toCharArray()) {
+            frame[pos++] = (byte) c;
+        }
+        pos += 1 + 1 + 8 + 1 + 1;
+        int delayPadding = (ENCODER_DELAY << 12) | ENCODER_PADDING;
+        frame[pos++] = (byte) (delayPadding >>> 16);
+        frame[pos++] = (byte) (delayPadding >>> 8);
+        frame[pos++] = (byte) delayPadding;
+    }
+
+    private static int writeInt(byte[] b, int pos, int x) {
+        b[pos++] = (byte) (x >>> 24);
+        b[pos++] = (byte) (x >>> 16);
+        b[pos++] = (byte) (x >>> 8);
+        b[pos++] = (byte) x;
+        return pos;
+    }
+
+    private void addFrame(int bitrateIndex) {
+        int modeExtension = mode == Header.MODE_JOINT_STEREO ? random.nextInt(4) : 0;
+        byte[] frame = header(bitrateIndex, modeExtension);
+        int slots = frame.length - headerSize() - sideInfoSize();
+        int slotStart = slotTotal;
+        int maxBack = version == Header.VERSION_MPEG1 ? 511 : 255;
+        int start = Math.max(mainDataEnd, slotStart - maxBack);
+        int capacityBits = (slotStart + slots - start) * 8;
+        Granule[][] granules = new Granule[2][2];
+        BitWriter data = null;
+        for (int density = 24; density >= 0; density = density == 0 ? -1 : density / 2) {
+            data = new BitWriter();
+            for (int gr = 0; gr < maxGr; gr++) {
+                for (int ch = 0; ch < channels; ch++) {
+                    granules[gr][ch] = new Granule();
+                }
+            }
+            int[][] scfsi = new int[2][4];
+            for (int ch = 0; ch < channels; ch++) {
+                boolean allLong = true;
+                for (int gr = 0; gr < maxGr; gr++) {
+                    if (ch == 1 && (modeExtension & 1) != 0) {
+                        // the intensity stereo positions are read using the
+                        // block type of the left channel
+                        copyBlockType(granules[gr][0], granules[gr][1]);
+                    } else {
+                        chooseBlockType(granules[gr][ch]);
+                    }
+                    allLong &= granules[gr][ch].blockType != 2;
+                }
+                for (int i = 0; i < 4 && allLong && maxGr == 2; i++) {
+                    scfsi[ch][i] = random.nextInt(2);
+                }
+            }
+            for (int gr = 0; gr < maxGr; gr++) {
+                for (int ch = 0; ch < channels; ch++) {
+                    Granule g = granules[gr][ch];
+                    int part2Start = data.bitCount();
+                    if (version == Header.VERSION_MPEG1) {
+                        writeScaleFactors(data, g, scfsi[ch], gr,
+                                ch == 1 && (modeExtension & 1) != 0);
+                    } else {
+                        writeLsfScaleFactors(data, g, ch, modeExtension);
+                    }
+                    writeHuffman(data, g, density);
+                    g.part23Length = data.bitCount() - part2Start;
+                }
+            }
+            boolean fits = data.bitCount() <= capacityBits;
+            for (int gr = 0; gr < maxGr; gr++) {
+                for (int ch = 0; ch < channels; ch++) {
+                    // part2_3_length is a 12 bit field
+                    fits &= granules[gr][ch].part23Length < 4096;
+                }
+            }
+            if (fits) {
+                granules[0][0].scfsi = scfsi;
+                break;
+            }
+            if (density == 0) {
+                throw new IllegalStateException("Frame too small");
+            }
+        }
+        int mainDataBegin = slotStart - start;
+        main.pad(start);
+        main.append(data);
+        mainDataEnd = main.byteCount();
+        frames.add(frame);
+        slotStarts.add(slotStart);
+        slotSizes.add(slots);
+        slotTotal += slots;
+        writeSideInfo(frame, mainDataBegin, granules);
+    }
+
+    private static void copyBlockType(Granule source, Granule target) {
+        target.windowSwitching = source.windowSwitching;
+        target.blockType = source.blockType;
+        target.mixedBlock = source.mixedBlock;
+    }
+
+    private void chooseBlockType(Granule g) {
+        int r = random.nextInt(10);
+        if (r < 6) {
+            g.blockType = 0;
+        } else {
+            g.windowSwitching = true;
+            g.blockType = r < 8 ? 2 : (r == 8 ? 1 : 3);
+            // mixed blocks are only generated for MPEG 1, like common encoders
+            g.mixedBlock = g.blockType == 2 && version == Header.VERSION_MPEG1 && random.nextBoolean();
+        }
+    }
+
+    private void writeSideInfo(byte[] frame, int mainDataBegin, Granule[][] granules) {
+        BitWriter w = new BitWriter();
+        if (version == Header.VERSION_MPEG1) {
+            w.write(mainDataBegin, 9);
+            w.write(0, channels == 1 ? 5 : 3);
+            for (int ch = 0; ch < channels; ch++) {
+                for (int i = 0; i < 4; i++) {
+                    w.write(granules[0][0].scfsi[ch][i], 1);
+                }
+            }
+        } else {
+            w.write(mainDataBegin, 8);
+            w.write(0, channels == 1 ? 1 : 2);
+        }
+        for (int gr = 0; gr < maxGr; gr++) {
+            for (int ch = 0; ch < channels; ch++) {
+                Granule g = granules[gr][ch];
+                w.write(g.part23Length, 12);
+                w.write(g.bigValues, 9);
+                w.write(g.globalGain, 8);
+                w.write(g.scaleFactorCompress, version == Header.VERSION_MPEG1 ? 4 : 9);
+                w.write(g.windowSwitching ? 1 : 0, 1);
+                if (g.windowSwitching) {
+                    w.write(g.blockType, 2);
+                    w.write(g.mixedBlock ? 1 : 0, 1);
+                    w.write(g.tableSelect[0], 5);
+                    w.write(g.tableSelect[1], 5);
+                    for (int i = 0; i < 3; i++) {
+                        w.write(g.subblockGain[i], 3);
+                    }
+                } else {
+                    w.write(g.tableSelect[0], 5);
+                    w.write(g.tableSelect[1], 5);
+                    w.write(g.tableSelect[2], 5);
+                    w.write(g.region0Count, 4);
+                    w.write(g.region1Count, 3);
+                }
+                if (version == Header.VERSION_MPEG1) {
+                    w.write(g.preflag, 1);
+                }
+                w.write(g.scaleFactorScale, 1);
+                w.write(g.count1TableSelect, 1);
+            }
+        }
+        byte[] si = w.toByteArray(sideInfoSize(), random);
+        System.arraycopy(si, 0, frame, headerSize(), si.length);
+        if (crc) {
+            int c = crc16(0xFFFF, frame, 2, 2);
+            c = crc16(c, si, 0, si.length);
+            frame[4] = (byte) (c >>> 8);
+            frame[5] = (byte) c;
+        }
+    }
+
+    private static int crc16(int crc, byte[] b, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            for (int bit = 7; bit >= 0; bit--) {
+                boolean carry = (((crc >>> 15) ^ (b[i] >>> bit)) & 1) != 0;
+                crc = (crc << 1) & 0xFFFF;
+                if (carry) {
+                    crc ^= 0x8005;
+                }
+            }
+        }
+        return crc;
+    }
+
+    private void writeScaleFactors(BitWriter w, Granule g, int[] scfsi, int gr, boolean intensity) {
+        // the intensity stereo positions are 0 to 6, and 7 for no intensity
+        // stereo; larger values are not used by encoders
+        int limit = intensity ? 8 : 16;
+        g.scaleFactorCompress = random.nextInt(16);
+        g.preflag = random.nextInt(2);
+        g.scaleFactorScale = random.nextInt(2);
+        int length0 = Constants.SLEN[0][g.scaleFactorCompress];
+        int length1 = Constants.SLEN[1][g.scaleFactorCompress];
+        if (g.windowSwitching && g.blockType == 2) {
+            if (g.mixedBlock) {
+                writeRandom(w, length0, 8 + 3 * 3, limit);
+                writeRandom(w, length1, 6 * 3, limit);
+            } else {
+                writeRandom(w, length0, 6 * 3, limit);
+                writeRandom(w, length1, 6 * 3, limit);
+            }
+        } else {
+            int[] count = { 6, 5, 5, 5 };
+            for (int i = 0; i < 4; i++) {
+                if (scfsi[i] == 0 || gr == 0) {
+                    writeRandom(w, i < 2 ? length0 : length1, count[i], limit);
+                }
+            }
+        }
+        chooseGains(g);
+    }
+
+    private void writeLsfScaleFactors(BitWriter w, Granule g, int ch, int modeExtension) {
+        int blockTypeNumber = g.blockType == 2 ? (g.mixedBlock ? 2 : 1) : 0;
+        int[] slen = new int[4];
+        int blockNumber;
+        g.scaleFactorScale = random.nextInt(2);
+        if (((modeExtension == 1) || (modeExtension == 3)) && (ch == 1)) {
+            // intensity stereo channel: intScalefacComp < 180
+            int c = 36 * random.nextInt(4) + 6 * random.nextInt(4) + random.nextInt(4);
+            g.scaleFactorCompress = (c << 1) | random.nextInt(2);
+            slen[0] = c / 36;
+            slen[1] = (c % 36) / 6;
+            slen[2] = (c % 36) % 6;
+            blockNumber = 3;
+        } else {
+            int c = random.nextInt(400);
+            g.scaleFactorCompress = c;
+            slen[0] = (c >>> 4) / 5;
+            slen[1] = (c >>> 4) % 5;
+            slen[2] = (c & 0xF) >>> 2;
+            slen[3] = c & 3;
+            blockNumber = 0;
+        }
+        for (int i = 0; i < 4; i++) {
+            int len = Constants.NR_OF_SFB_BLOCK[blockNumber][blockTypeNumber][i];
+            if (slen[i] != 0) {
+                writeRandom(w, slen[i], len);
+            }
+        }
+        chooseGains(g);
+    }
+
+    private void chooseGains(Granule g) {
+        g.globalGain = minGain + random.nextInt(36);
+        for (int i = 0; i < 3; i++) {
+            g.subblockGain[i] = random.nextInt(3);
+        }
+    }
+
+    private void writeRandom(BitWriter w, int bits, int count) {
+        writeRandom(w, bits, count, 1 << bits);
+    }
+
+    private void writeRandom(BitWriter w, int bits, int count, int limit) {
+        for (int i = 0; i < count; i++) {
+            w.write(bits == 0 ? 0 : random.nextInt(Math.min(1 << bits, limit)), bits);
+        }
+    }
+
+    private void writeHuffman(BitWriter w, Granule g, int density) {
+        int region1Start, region2Start;
+        if (g.windowSwitching && g.blockType == 2) {
+            region1Start = sfreq == 8 ? 72 : 36;
+            region2Start = 576;
+        } else {
+            if (g.windowSwitching) {
+                // implicit for start and stop blocks
+                g.region0Count = 7;
+                g.region1Count = 13;
+            } else {
+                g.region0Count = random.nextInt(16);
+                g.region1Count = random.nextInt(8);
+            }
+            int[] l = Constants.SF_BAND_INDEX[sfreq].l;
+            int buf = g.region0Count + 1;
+            int buf1 = Math.min(buf + g.region1Count + 1, l.length - 1);
+            region1Start = l[buf];
+            region2Start = l[buf1];
+        }
+        g.bigValues = density == 0 ? 0 : Math.min(288, random.nextInt(density * 8) + 1);
+        int values = g.bigValues * 2;
+        int[] v = new int[values];
+        int peak = random.nextInt(4) == 0 ? 400 : 12;
+        for (int i = 0; i < values; i++) {
+            double mean = peak * Math.exp(-3.0 * i / 576);
+            v[i] = (int) (-Math.log(1 - random.nextDouble()) * mean * 0.5);
+            if (random.nextInt(8) == 0) {
+                v[i] = 0;
+            }
+            v[i] = Math.min(v[i], 15 + 8191);
+        }
+        int[] starts = { 0, Math.min(region1Start, values), Math.min(region2Start, values), values };
+        for (int region = 0; region < 3; region++) {
+            int max = 0;
+            for (int i = starts[region]; i < starts[region + 1]; i++) {
+                max = Math.max(max, v[i]);
+            }
+            g.tableSelect[region] = chooseTable(max);
+        }
+        for (int i = 0; i < values; i += 2) {
+            int table = i < region1Start ? g.tableSelect[0] : i < region2Start ? g.tableSelect[1] : g.tableSelect[2];
+            writePair(w, table, v[i], v[i + 1]);
+        }
+        g.count1TableSelect = random.nextInt(2);
+        int quads = density == 0 ? 0 : random.nextInt((576 - values) / 4 + 1);
+        quads = Math.min(quads, density * 4);
+        for (int i = 0; i < quads; i++) {
+            int q = random.nextInt(3) == 0 ? random.nextInt(16) : 0;
+            int t = 32 + g.count1TableSelect;
+            w.write(CODES[t][q], CODE_LENGTHS[t][q]);
+            for (int b = 3; b >= 0; b--) {
+                if ((q & (1 << b)) != 0) {
+                    w.write(random.nextInt(2), 1);
+                }
+            }
+        }
+    }
+
+    private int chooseTable(int max) {
+        if (max == 0) {
+            return random.nextBoolean() ? 0 : 1;
+        }
+        ArrayList<Integer> candidates = new ArrayList<>();
+        for (int t = 1; t < 32; t++) {
+            int xlen = TABLES[t][0];
+            int linbits = TABLES[t][1];
+            if (xlen == 0) {
+                continue;
+            }
+            int limit = linbits == 0 ? xlen - 1 : 15 + (1 << linbits) - 1;
+            if (max <= limit) {
+                candidates.add(t);
+            }
+        }
+        return candidates.get(random.nextInt(Math.min(candidates.size(), 4)));
+    }
+
+    private void writePair(BitWriter w, int table, int x, int y) {
+        if (table == 0) {
+            return;
+        }
+        int linbits = TABLES[table][1];
+        int sx = Math.min(x, 15), sy = Math.min(y, 15);
+        int symbol = (sx << 4) | sy;
+        w.write(CODES[table][symbol], CODE_LENGTHS[table][symbol]);
+        if (linbits != 0 && sx == 15) {
+            w.write(x - 15, linbits);
+        }
+        if (x != 0) {
+            w.write(random.nextInt(2), 1);
+        }
+        if (linbits != 0 && sy == 15) {
+            w.write(y - 15, linbits);
+        }
+        if (y != 0) {
+            w.write(random.nextInt(2), 1);
+        }
+    }
+
+    /**
+     * Walk the decoder tree the same way Huffman.decode does and record the
+     * code for each leaf.
+     */
+    private static void buildCodes(int[][] tree, int point, int code, int len, int[] codes, int[] lengths) {
+        if (tree[point][0] == 0) {
+            int value = tree[point][1];
+            codes[value] = code;
+            lengths[value] = len;
+            return;
+        }
+        for (int bit = 0; bit < 2; bit++) {
+            int p = point;
+            while (tree[p][bit] >= MX_OFF) {
+                p += tree[p][bit];
+            }
+            p += tree[p][bit];
+            buildCodes(tree, p, (code << 1) | bit, len + 1, codes, lengths);
+        }
+    }
+
+    /**
+     * The side info of one granule of one channel.
+     */
+    static class Granule {
+        int part23Length;
+        int bigValues;
+        int globalGain;
+        int scaleFactorCompress;
+        boolean windowSwitching;
+        int blockType;
+        boolean mixedBlock;
+        int[] tableSelect = new int[3];
+        int[] subblockGain = new int[3];
+        int region0Count;
+        int region1Count;
+        int preflag;
+        int scaleFactorScale;
+        int count1TableSelect;
+        int[][] scfsi;
+    }
+
+    /**
+     * A growable MSB-first bit buffer.
+     */
+    static class BitWriter {
+        private byte[] data = new byte[1024];
+        private int bits;
+
+        void write(int value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                if ((bits >>> 3) >= data.length) {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                if (((value >>> i) & 1) != 0) {
+                    data[bits >>> 3] |= 0x80 >>> (bits & 7);
+                }
+                bits++;
+            }
+        }
+
+        int bitCount() {
+            return bits;
+        }
+
+        int byteCount() {
+            return (bits + 7) >>> 3;
+        }
+
+        void pad(int byteCount) {
+            bits = (bits + 7) & ~7;
+            while (byteCount() < byteCount) {
+                write(0, 8);
+            }
+        }
+
+        void append(BitWriter other) {
+            for (int i = 0; i < other.bits; i++) {
+                write((other.data[i >>> 3] >>> (7 - (i & 7))) & 1, 1);
+            }
+        }
+
+        byte[] toByteArray(int length, Random random) {
+            byte[] b = Arrays.copyOf(data, length);
+            for (int i = byteCount(); i < length; i++) {
+                b[i] = (byte) random.nextInt(256);
+            }
+            return b;
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package org.mp3transform.mp3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+import org.mp3transform.StreamDecoder;
+
+/**
+ * Checks that the decoded PCM samples of each fixture and precision are
+ * unchanged, using checksums of the output of the reference decoder. The
+ * granules of the fixtures end at random frequency lines, so that the code
+ * that skips the lines that are zero is tested. With the SIMD synthesis
+ * (which may round differently), only the fixed point precision is checked.
+ */
+public class TestBitExact {
+
+    private static final String[] EXPECTED = {
+            "mono DOUBLE 230400 0x32c4935c",
+            "mono FLOAT 230400 0x9bd5b8bd",
+            "mono FIXED 230400 0x9341f49d",
+            "joint DOUBLE 460800 0x26fb72",
+            "joint FLOAT 460800 0xd90b9c13",
+            "joint FIXED 460800 0x1c3f9aef",
+            "lsf DOUBLE 230400 0x6c517690",
+            "lsf FLOAT 230400 0x278fa2a4",
+            "lsf FIXED 230400 0x63cbec7b",
+            "mpeg25 DOUBLE 230400 0x9b9279db",
+            "mpeg25 FLOAT 230400 0x21d76525",
+            "mpeg25 FIXED 230400 0x634c976b",
+            "vbr DOUBLE 463104 0x9723106e",
+            "vbr FLOAT 463104 0x4b0119b1",
+            "vbr FIXED 463104 0x82793d97",
+            "crc DOUBLE 460800 0xab5a817",
+            "crc FLOAT 460800 0x554a00f6",
+            "crc FIXED 460800 0xf8e69d53" };
+
+    public static void main(String[] a) throws IOException {
+        int i = 0;
+        for (String fixture : StreamGenerator.FIXTURES) {
+            byte[] data = StreamGenerator.generate(fixture, 200, 1);
+            for (Precision precision : Precision.values()) {
+                String expected = EXPECTED[i++];
+                if (SimdSynthesis.INSTANCE != null && precision != Precision.FIXED) {
+                    continue;
+                }
+                String got = fixture + " " + precision + " " + checksum(data, precision);
+                if (!expected.equals(got)) {
+                    throw new Error("expected: " + expected + " got: " + got);
+                }
+            }
+        }
+    }
+
+    private static String checksum(byte[] data, Precision precision) throws IOException {
+        StreamDecoder decoder = new StreamDecoder(new ByteArrayInputStream(data), precision);
+        short[] pcm = new short[StreamDecoder.MAX_FRAME_SAMPLES];
+        CRC32 crc = new CRC32();
+        long samples = 0;
+        while (true) {
+            int len = decoder.decodeFrame(pcm, 0);
+            if (len < 0) {
+                break;
+            }
+            for (int i = 0; i < len; i++) {
+                crc.update(pcm[i]);
+                crc.update(pcm[i] >> 8);
+            }
+            samples += len;
+        }
+        return samples + " 0x" + Long.toHexString(crc.getValue());
+    }
+
+}
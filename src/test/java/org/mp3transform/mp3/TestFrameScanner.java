@@ -0,0 +1,94 @@
+package org.mp3transform.mp3;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.mp3transform.test.TestUtils;
+
+/**
+ * Checks the statistics of the frame scanner against the frames read by the
+ * bitstream, and the detection of sync losses, CRC errors and truncated
+ * streams.
+ */
+public class TestFrameScanner {
+
+    public static void main(String[] a) throws Exception {
+        int frames = 100;
+        for (String fixture : StreamGenerator.FIXTURES) {
+            byte[] data = StreamGenerator.generate(fixture, frames, 1);
+            FrameIndex index = readIndex(data);
+            int audioFrames = fixture.equals("vbr") ? index.size() - 1 : index.size();
+            for (FrameScanner s : new FrameScanner[] { FrameScanner.scan(ByteBuffer.wrap(data)),
+                    FrameScanner.scan(new ByteArrayInputStream(data)) }) {
+                TestUtils.check(fixture + " frames", frames, s.getFrameCount());
+                TestUtils.check(fixture + " index", audioFrames, s.getFrameCount());
+                TestUtils.check(fixture + " samples", (long) frames * index.getSamplesPerFrame(),
+                        s.getSampleCount());
+                TestUtils.check(fixture + " duration", s.getSampleCount() * 1000 / s.getFrequency(),
+                        s.getDurationMillis());
+                TestUtils.check(fixture + " valid", true, s.isValid());
+                TestUtils.check(fixture + " skipped", 0L, s.getSkippedBytes());
+                TestUtils.check(fixture + " crc frames", fixture.equals("crc") ? frames : 0,
+                        s.getCrcFrameCount());
+                TestUtils.check(fixture + " crc errors", 0, s.getCrcErrorCount());
+                TestUtils.check(fixture + " vbr header", fixture.equals("vbr"),
+                        s.getVbrInfo() != null);
+                // the generator doesn't use padding, so the average is a bit low
+                if (s.getMinBitrate() * 99L / 100 > s.getAverageBitrate()
+                        || s.getAverageBitrate() > s.getMaxBitrate()) {
+                    throw new Error(fixture + " bitrate " + s.getMinBitrate() + " "
+                            + s.getAverageBitrate() + " " + s.getMaxBitrate());
+                }
+            }
+        }
+
+        // ID3v2 tag, garbage between two frames, and ID3v1 tag
+        byte[] data = StreamGenerator.generate("joint", frames, 1);
+        FrameIndex index = readIndex(data);
+        int split = (int) index.getOffset(50);
+        byte[] id3 = { 'I', 'D', '3', 4, 0, 0, 0, 0, 1, 5 };
+        byte[] tagged = new byte[id3.length + 133 + data.length + 17 + 128];
+        System.arraycopy(id3, 0, tagged, 0, id3.length);
+        System.arraycopy(data, 0, tagged, id3.length + 133, split);
+        System.arraycopy(data, split, tagged, id3.length + 133 + split + 17, data.length - split);
+        tagged[tagged.length - 128] = 'T';
+        tagged[tagged.length - 127] = 'A';
+        tagged[tagged.length - 126] = 'G';
+        FrameScanner s = FrameScanner.scan(ByteBuffer.wrap(tagged));
+        TestUtils.check("tagged frames", frames, s.getFrameCount());
+        TestUtils.check("tagged sync loss", 1, s.getSyncLossCount());
+        TestUtils.check("tagged skipped", 17L, s.getSkippedBytes());
+        TestUtils.check("tagged valid", false, s.isValid());
+
+        // trailing garbage
+        s = FrameScanner.scan(ByteBuffer.wrap(Arrays.copyOf(data, data.length + 100)));
+        TestUtils.check("garbage frames", frames, s.getFrameCount());
+        TestUtils.check("garbage sync loss", 1, s.getSyncLossCount());
+        TestUtils.check("garbage skipped", 100L, s.getSkippedBytes());
+
+        // truncated
+        s = FrameScanner.scan(ByteBuffer.wrap(Arrays.copyOf(data, data.length - 10)));
+        TestUtils.check("truncated frames", frames - 1, s.getFrameCount());
+        TestUtils.check("truncated", true, s.isTruncated());
+        TestUtils.check("truncated valid", false, s.isValid());
+
+        // corrupt side info
+        data = StreamGenerator.generate("crc", frames, 1);
+        index = readIndex(data);
+        data[(int) index.getOffset(20) + 8] ^= 4;
+        s = FrameScanner.scan(ByteBuffer.wrap(data));
+        TestUtils.check("crc frames", frames, s.getFrameCount());
+        TestUtils.check("crc errors", 1, s.getCrcErrorCount());
+        TestUtils.check("crc valid", false, s.isValid());
+    }
+
+    private static FrameIndex readIndex(byte[] data) throws Exception {
+        Bitstream stream = new Bitstream(new ByteArrayInputStream(data));
+        while (stream.readFrame() != null) {
+            stream.closeFrame();
+        }
+        return stream.getFrameIndex();
+    }
+
+}
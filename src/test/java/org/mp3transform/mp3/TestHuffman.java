@@ -0,0 +1,132 @@
+package org.mp3transform.mp3;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+/**
+ * Compares the lookup table Huffman decoder with the tree decoder, for all
+ * tables, and for invalid codes.
+ */
+public class TestHuffman {
+
+    private static final Random RANDOM = new Random(1);
+
+    public static void main(String[] a) throws Exception {
+        byte[] data = StreamGenerator.generate("joint", 1, 1);
+        Bitstream stream = new Bitstream(new ByteArrayInputStream(data));
+        Header header = stream.readFrame();
+        Layer3Decoder decoder = new Layer3Decoder(stream, header,
+                new SynthesisFilter(0, 32700.0f), new SynthesisFilter(1, 32700.0f),
+                new SampleBuffer(2));
+        for (int i = 0; i < Huffman.HUFFMAN.length; i++) {
+            checkCodes(decoder, i);
+            checkRandom(decoder, i);
+        }
+        // invalid codes in the first and in the second level of the lookup table
+        checkInvalid(decoder, 3);
+        checkInvalid(decoder, 10);
+    }
+
+    /**
+     * Decode each code of the table, followed by random bits (for the
+     * linbits and signs).
+     */
+    static void checkCodes(Layer3Decoder decoder, int table) {
+        Huffman h = Huffman.HUFFMAN[table];
+        int[][] codes = h.getCodes();
+        double sum = 0;
+        for (int[] c : codes) {
+            sum += Math.pow(2, -c[1]);
+        }
+        if (codes.length > 0 && sum != 1.0) {
+            throw new Error("table " + table + " is not complete: " + sum);
+        }
+        for (int[] c : codes) {
+            for (int i = 0; i < 8; i++) {
+                long bits = ((long) c[0] << (64 - c[1])) | (RANDOM.nextLong() >>> c[1]);
+                BitReservoir br1 = new BitReservoir();
+                BitReservoir br2 = new BitReservoir();
+                for (int j = 56; j >= 0; j -= 8) {
+                    br1.putByte((int) (bits >>> j) & 0xff);
+                    br2.putByte((int) (bits >>> j) & 0xff);
+                }
+                check(decoder, h, "table " + table, br1, br2);
+            }
+        }
+    }
+
+    /**
+     * Decode a random bit stream.
+     */
+    static void checkRandom(Layer3Decoder decoder, int table) {
+        Huffman h = Huffman.HUFFMAN[table];
+        BitReservoir br1 = new BitReservoir();
+        BitReservoir br2 = new BitReservoir();
+        int len = 4000;
+        for (int i = 0; i < len; i++) {
+            int b = RANDOM.nextInt(256);
+            br1.putByte(b);
+            br2.putByte(b);
+        }
+        for (int i = 0; i < 1000 && br1.getBitCount() < len * 8 - 64; i++) {
+            check(decoder, h, "table " + table, br1, br2);
+        }
+    }
+
+    /**
+     * Decode the codes of a table where 1, 01, 001 and so on are valid, but
+     * the codes that start with the given number of zeros are not (there,
+     * the decoder tree loops).
+     */
+    static void checkInvalid(Layer3Decoder decoder, int zeros) {
+        int[][] val = new int[2 * zeros + 2][];
+        for (int i = 0; i < zeros; i++) {
+            val[2 * i] = new int[] { 2, 1 };
+            val[2 * i + 1] = new int[] { 0, i };
+        }
+        val[2 * zeros] = new int[] { 1, 1 };
+        val[2 * zeros + 1] = new int[] { -1, -1 };
+        Huffman h = new Huffman("1 ", 2, 2, 0, val, val.length);
+        for (int i = 0; i <= zeros; i++) {
+            long bits = RANDOM.nextLong() >>> (i + 1);
+            if (i < zeros) {
+                bits |= Long.MIN_VALUE >>> i;
+            }
+            BitReservoir br1 = new BitReservoir();
+            BitReservoir br2 = new BitReservoir();
+            for (int j = 56; j >= 0; j -= 8) {
+                br1.putByte((int) (bits >>> j) & 0xff);
+                br2.putByte((int) (bits >>> j) & 0xff);
+            }
+            if (i < zeros) {
+                check(decoder, h, "incomplete table " + zeros, br1, br2);
+                continue;
+            }
+            int error = h.decodeTree(decoder, br1);
+            int error2 = h.decode(decoder, br2);
+            if (error != 1 || error2 != 1) {
+                throw new Error("invalid code " + zeros + " expected: 1 1 got: "
+                        + error + " " + error2);
+            }
+        }
+    }
+
+    private static void check(Layer3Decoder decoder, Huffman h, String name,
+            BitReservoir br1, BitReservoir br2) {
+        decoder.v = decoder.w = 0;
+        int error = h.decodeTree(decoder, br1);
+        int x = decoder.x, y = decoder.y, v = decoder.v, w = decoder.w;
+        decoder.v = decoder.w = 0;
+        int error2 = h.decode(decoder, br2);
+        if (error != error2 || x != decoder.x || y != decoder.y
+                || v != decoder.v || w != decoder.w
+                || br1.getBitCount() != br2.getBitCount()) {
+            throw new Error(name + " expected: " + error + " "
+                    + x + " " + y + " " + v + " " + w + " "
+                    + br1.getBitCount() + " got: " + error2 + " "
+                    + decoder.x + " " + decoder.y + " " + decoder.v + " "
+                    + decoder.w + " " + br2.getBitCount());
+        }
+    }
+
+}
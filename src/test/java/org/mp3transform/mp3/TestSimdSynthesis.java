@@ -0,0 +1,62 @@
+package org.mp3transform.mp3;
+
+import java.util.Random;
+
+/**
+ * Compares the SIMD synthesis with the definition of the dot products, for
+ * all write positions. The SIMD synthesis is only available when running
+ * with --add-modules jdk.incubator.vector.
+ */
+public class TestSimdSynthesis {
+
+    private static final Random RANDOM = new Random(1);
+
+    public static void main(String[] a) {
+        SimdSynthesis simd = SimdSynthesis.INSTANCE;
+        if (simd == null) {
+            System.out.println("TestSimdSynthesis: not available");
+            return;
+        }
+        double[] v = new double[512];
+        float[] vf = new float[512];
+        double[] taps = new double[AbstractSynthesisFilter.V_LENGTH];
+        float[] tapsf = new float[AbstractSynthesisFilter.V_LENGTH];
+        double[] out = new double[32];
+        float[] outf = new float[32];
+        for (int test = 0; test < 100; test++) {
+            for (int i = 0; i < v.length; i++) {
+                v[i] = RANDOM.nextGaussian();
+                vf[i] = (float) v[i];
+            }
+            // the filters store each row twice and reversed
+            for (int i = 0; i < 32; i++) {
+                for (int p = 0; p < 16; p++) {
+                    taps[i * 32 + 15 - p] = taps[i * 32 + 31 - p] = v[i * 16 + p];
+                    tapsf[i * 32 + 15 - p] = tapsf[i * 32 + 31 - p] = vf[i * 16 + p];
+                }
+            }
+            for (int pos = 0; pos < 16; pos++) {
+                simd.computePcmSamples(taps, pos, 32700.0, out);
+                simd.computePcmSamples(tapsf, pos, 32700.0f, outf);
+                for (int i = 0; i < 32; i++) {
+                    double expected = 0;
+                    for (int k = 0; k < 16; k++) {
+                        expected += v[i * 16 + ((pos - k) & 15)] * Constants.D16[i][k];
+                    }
+                    expected *= 32700.0;
+                    check("double", pos, i, expected, out[i], 1e-9);
+                    check("float", pos, i, expected, outf[i], 0.1);
+                }
+            }
+        }
+    }
+
+    private static void check(String type, int pos, int i, double expected, double got,
+            double maxError) {
+        if (Math.abs(expected - got) > maxError) {
+            throw new Error(type + " pos " + pos + " sample " + i + " expected: " + expected
+                    + " got: " + got);
+        }
+    }
+
+}
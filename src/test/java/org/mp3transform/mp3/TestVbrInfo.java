@@ -0,0 +1,63 @@
+package org.mp3transform.mp3;
+
+import java.io.ByteArrayInputStream;
+
+import org.mp3transform.test.TestUtils;
+
+/**
+ * Checks the parsing of the Xing header and LAME extension, and the table of
+ * contents.
+ */
+public class TestVbrInfo {
+
+    public static void main(String[] a) throws Exception {
+        int frames = 300;
+        byte[] data = StreamGenerator.generate("vbr", frames, 1);
+        Bitstream stream = new Bitstream(new ByteArrayInputStream(data));
+        Header header = stream.readFrame();
+        VbrInfo info = header.vbrInfo();
+        TestUtils.check("tag", "Xing", info.getTag());
+        TestUtils.check("vbr", true, info.isVbr());
+        TestUtils.check("frames", frames, info.getFrameCount());
+        TestUtils.check("bytes", data.length, info.getByteCount());
+        TestUtils.check("quality", StreamGenerator.XING_QUALITY, info.getQuality());
+        TestUtils.check("encoder", "LAME3.100", info.getEncoder());
+        TestUtils.check("delay", StreamGenerator.ENCODER_DELAY, info.getEncoderDelay());
+        TestUtils.check("padding", StreamGenerator.ENCODER_PADDING, info.getEncoderPadding());
+        long samples = (long) frames * 1152 - StreamGenerator.ENCODER_DELAY - StreamGenerator.ENCODER_PADDING;
+        TestUtils.check("samples", samples, info.getSampleCount());
+        TestUtils.check("duration", samples * 1000 / header.frequency(), info.getDurationMillis());
+        TestUtils.check("bitrate",
+                (int) ((long) data.length * 8 * header.frequency() / (frames * 1152L)),
+                info.getBitrate());
+
+        // the first frame contains the header
+        while (stream.readFrame() != null) {
+            stream.closeFrame();
+        }
+        FrameIndex index = stream.getFrameIndex();
+        int maxFrameSize = 0;
+        for (int i = 1; i < index.size(); i++) {
+            long next = i + 1 < index.size() ? index.getOffset(i + 1) : data.length;
+            maxFrameSize = (int) Math.max(maxFrameSize, next - index.getOffset(i));
+        }
+        for (int f = 0; f < frames; f++) {
+            long expected = index.getOffset(f + 1);
+            long offset = info.getFrameOffset(f);
+            if (Math.abs(offset - expected) > data.length / 256 + 2 * maxFrameSize) {
+                throw new Error("frame " + f + " offset expected: " + expected + " got: " + offset);
+            }
+        }
+
+        for (String fixture : StreamGenerator.FIXTURES) {
+            if (!fixture.equals("vbr")) {
+                data = StreamGenerator.generate(fixture, 10, 1);
+                stream = new Bitstream(new ByteArrayInputStream(data));
+                if (stream.readFrame().vbrInfo() != null) {
+                    throw new Error(fixture + " has a VBR header");
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package org.mp3transform.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.mp3transform.StreamDecoder;
+import org.mp3transform.mp3.Precision;
+import org.mp3transform.mp3.StreamGenerator;
+
+/**
+ * Checks that decoding doesn't allocate heap memory per frame once the
+ * decoder is warmed up, for each fixture, precision and source. Run it with
+ * -XX:-DoEscapeAnalysis to also find allocations the compiler can remove.
+ */
+public class TestAllocation {
+
+    private static final int WARMUP_FRAMES = 500;
+    private static final int FRAMES = 10000;
+
+    public static void main(String[] a) throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("TestAllocation: not supported");
+            return;
+        }
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) bean;
+        if (!mx.isThreadAllocatedMemorySupported()) {
+            System.out.println("TestAllocation: not supported");
+            return;
+        }
+        mx.setThreadAllocatedMemoryEnabled(true);
+        // compile the code first
+        for (String fixture : StreamGenerator.FIXTURES) {
+            byte[] data = StreamGenerator.generate(fixture, WARMUP_FRAMES * 2, 1);
+            for (Precision precision : Precision.values()) {
+                check(mx, fixture, data, precision, false, false);
+                check(mx, fixture, data, precision, true, false);
+            }
+        }
+        boolean buffer = false;
+        for (String fixture : StreamGenerator.FIXTURES) {
+            byte[] data = StreamGenerator.generate(fixture, WARMUP_FRAMES + FRAMES, 1);
+            for (Precision precision : Precision.values()) {
+                check(mx, fixture, data, precision, buffer, true);
+                buffer = !buffer;
+            }
+        }
+    }
+
+    private static void check(com.sun.management.ThreadMXBean mx, String fixture,
+            byte[] data, Precision precision, boolean buffer, boolean verify)
+            throws IOException {
+        // deoptimization may allocate a few objects, so that a run that
+        // allocates is repeated; allocating per frame fails each time
+        for (int i = 0;; i++) {
+            long allocated = decode(mx, fixture, data, precision, buffer, verify);
+            if (!verify || allocated <= 0) {
+                return;
+            }
+            if (i == 2) {
+                throw new Error(fixture + " " + precision + (buffer ? " buffer" : " stream")
+                        + " allocated " + allocated + " bytes");
+            }
+        }
+    }
+
+    private static long decode(com.sun.management.ThreadMXBean mx, String fixture,
+            byte[] data, Precision precision, boolean buffer, boolean verify)
+            throws IOException {
+        StreamDecoder decoder = buffer ? new StreamDecoder(ByteBuffer.wrap(data), precision)
+                : new StreamDecoder(new ByteArrayInputStream(data), precision);
+        short[] pcm = new short[StreamDecoder.MAX_FRAME_SAMPLES];
+        ByteBuffer out = ByteBuffer.allocate(StreamDecoder.MAX_FRAME_SAMPLES * 2);
+        for (int i = 1; i < WARMUP_FRAMES; i++) {
+            decoder.decodeFrame(pcm, 0);
+        }
+        // the first call creates the short view of the buffer
+        out.clear();
+        decoder.decodeFrames(out);
+        long tid = Thread.currentThread().getId();
+        long start = mx.getThreadAllocatedBytes(tid);
+        // the measurement itself may allocate
+        long overhead = mx.getThreadAllocatedBytes(tid) - start;
+        start = mx.getThreadAllocatedBytes(tid);
+        int frames = 0;
+        while (true) {
+            int len;
+            switch (frames % 3) {
+            case 0:
+                len = decoder.decodeFrame(pcm, 0);
+                break;
+            case 1:
+                out.clear();
+                len = decoder.decodeFrame(out);
+                break;
+            default:
+                out.clear();
+                len = decoder.decodeFrames(out);
+            }
+            if (len < 0) {
+                break;
+            }
+            frames++;
+        }
+        long allocated = mx.getThreadAllocatedBytes(tid) - start - overhead;
+        decoder.close();
+        if (verify && frames < FRAMES) {
+            throw new Error(fixture + " " + precision + " frames: " + frames);
+        }
+        return allocated;
+    }
+
+}
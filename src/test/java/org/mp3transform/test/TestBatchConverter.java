@@ -0,0 +1,121 @@
+package org.mp3transform.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.mp3transform.StreamDecoder;
+import org.mp3transform.mp3.StreamGenerator;
+import org.mp3transform.wav.BatchConverter;
+import org.mp3transform.wav.OutputFormat;
+import org.mp3transform.wav.WavConverter;
+
+/**
+ * Checks that the batch converter writes the same files as the single file
+ * converter, and reports the files that can not be converted. Also checks
+ * the raw and float output formats.
+ */
+public class TestBatchConverter {
+
+    public static void main(String[] a) throws Exception {
+        Path dir = Files.createTempDirectory("batch");
+        try {
+            test(dir);
+        } finally {
+            try (Stream<Path> walk = Files.walk(dir)) {
+                walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static void test(Path dir) throws Exception {
+        Path in = dir.resolve("in");
+        Path expected = dir.resolve("expected");
+        Files.createDirectories(in.resolve("sub"));
+        Files.createDirectories(expected);
+        int i = 0;
+        for (String fixture : StreamGenerator.FIXTURES) {
+            byte[] data = StreamGenerator.generate(fixture, 50, 1);
+            String name = (i++ % 2 == 0 ? "" : "sub/") + fixture;
+            Files.write(in.resolve(name + ".mp3"), data);
+            WavConverter converter = new WavConverter(expected.resolve(fixture + ".wav").toString());
+            new StreamDecoder(new ByteArrayInputStream(data)).decode(converter);
+            converter.close();
+        }
+        Files.write(in.resolve("sub/broken.mp3"), new byte[1000]);
+
+        BatchConverter batch = new BatchConverter();
+        batch.setThreads(3);
+        batch.setBudget(20000);
+        batch.add(in.toString(), dir.resolve("out").toFile());
+        if (batch.run() || batch.getFailures().size() != 1
+                || !batch.getFailures().get(0).contains("broken.mp3")) {
+            throw new Error("failures: " + batch.getFailures());
+        }
+        if (batch.getConvertedCount() != StreamGenerator.FIXTURES.length) {
+            throw new Error("converted: " + batch.getConvertedCount());
+        }
+        if (new File(dir.toFile(), "out/sub/broken.wav").exists()) {
+            throw new Error("broken.wav exists");
+        }
+        i = 0;
+        for (String fixture : StreamGenerator.FIXTURES) {
+            String name = (i++ % 2 == 0 ? "" : "sub/") + fixture;
+            compare(expected.resolve(fixture + ".wav"), dir.resolve("out/" + name + ".wav"));
+        }
+
+        // glob pattern, without output directory
+        batch = new BatchConverter();
+        batch.add(in + "/sub/j*.mp3", null);
+        if (!batch.run() || batch.getConvertedCount() != 1) {
+            throw new Error("glob: " + batch.getConvertedCount() + " " + batch.getFailures());
+        }
+        compare(expected.resolve("joint.wav"), in.resolve("sub/joint.wav"));
+
+        // list file
+        Path list = dir.resolve("list.txt");
+        Files.write(list, Arrays.asList(in.resolve("mono.mp3").toString(), "", in.resolve("lsf.mp3").toString()));
+        batch = new BatchConverter();
+        batch.setThreads(8);
+        batch.add("@" + list, dir.resolve("list").toFile());
+        if (!batch.run() || batch.getConvertedCount() != 2) {
+            throw new Error("list: " + batch.getConvertedCount() + " " + batch.getFailures());
+        }
+        compare(expected.resolve("lsf.wav"), dir.resolve("list/lsf.wav"));
+
+        // raw samples, and float samples
+        batch = new BatchConverter();
+        batch.setFormat(OutputFormat.RAW_LE, false);
+        batch.add("@" + list, dir.resolve("raw").toFile());
+        if (!batch.run() || batch.getConvertedCount() != 2) {
+            throw new Error("raw: " + batch.getConvertedCount() + " " + batch.getFailures());
+        }
+        byte[] wav = Files.readAllBytes(expected.resolve("lsf.wav"));
+        if (!Arrays.equals(Arrays.copyOfRange(wav, 44, wav.length),
+                Files.readAllBytes(dir.resolve("raw/lsf.raw")))) {
+            throw new Error("raw samples are different");
+        }
+        batch = new BatchConverter();
+        batch.setFormat(OutputFormat.WAV, true);
+        batch.add(in.resolve("mono.mp3").toString(), dir.resolve("float").toFile());
+        if (!batch.run() || batch.getConvertedCount() != 1) {
+            throw new Error("float: " + batch.getConvertedCount() + " " + batch.getFailures());
+        }
+        byte[] floatWav = Files.readAllBytes(dir.resolve("float/mono.wav"));
+        wav = Files.readAllBytes(expected.resolve("mono.wav"));
+        if (floatWav[20] != 3 || floatWav.length != 58 + (wav.length - 44) * 2) {
+            throw new Error("float: " + floatWav[20] + " " + floatWav.length);
+        }
+    }
+
+    private static void compare(Path expected, Path actual) throws Exception {
+        if (!Arrays.equals(Files.readAllBytes(expected), Files.readAllBytes(actual))) {
+            throw new Error(actual + " is different from " + expected);
+        }
+    }
+
+}
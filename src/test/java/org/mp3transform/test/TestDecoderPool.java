@@ -0,0 +1,141 @@
+package org.mp3transform.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.mp3transform.DecoderPool;
+import org.mp3transform.StreamDecoder;
+import org.mp3transform.mp3.Precision;
+import org.mp3transform.mp3.StreamGenerator;
+
+/**
+ * Checks that a reused decoder produces the same output as a new one, also
+ * when the number of channels, the version and the sample rate change from
+ * one stream to the next.
+ */
+public class TestDecoderPool {
+
+    public static void main(String[] a) throws Exception {
+        String[] fixtures = StreamGenerator.FIXTURES;
+        byte[][] data = new byte[fixtures.length][];
+        for (int i = 0; i < fixtures.length; i++) {
+            data[i] = StreamGenerator.generate(fixtures[i], 40, 1);
+        }
+        for (Precision precision : Precision.values()) {
+            short[][] expected = new short[fixtures.length][];
+            for (int i = 0; i < fixtures.length; i++) {
+                expected[i] = TestUtils.decodeAll(
+                        new StreamDecoder(new ByteArrayInputStream(data[i]), precision));
+            }
+            checkSequential(fixtures, data, expected, precision);
+            checkConcurrent(fixtures, data, expected, precision);
+        }
+        checkReleaseClosed();
+    }
+
+    private static void checkSequential(String[] fixtures, byte[][] data, short[][] expected,
+            Precision precision) throws Exception {
+        DecoderPool pool = new DecoderPool(precision, 1);
+        StreamDecoder first = null;
+        // each fixture after each other fixture, once stopped early
+        for (int i = 0; i < fixtures.length; i++) {
+            for (int j = 0; j < fixtures.length; j++) {
+                StreamDecoder decoder = pool.acquire(new ByteArrayInputStream(data[i]));
+                if (first == null) {
+                    first = decoder;
+                } else if (decoder != first) {
+                    throw new Error("decoder not reused");
+                }
+                short[] pcm = new short[StreamDecoder.MAX_FRAME_SAMPLES];
+                for (int k = 0; k < 5; k++) {
+                    decoder.decodeFrame(pcm, 0);
+                }
+                pool.release(decoder);
+                decoder = pool.acquire(ByteBuffer.wrap(data[j]));
+                check(fixtures[i] + " > " + fixtures[j] + " " + precision, expected[j],
+                        TestUtils.decodeAll(decoder));
+                if (decoder.getErrorCount() != 0) {
+                    throw new Error(fixtures[j] + " " + precision + " errors");
+                }
+                // seeking resets the decoder as well
+                decoder.seekToSample(0);
+                check(fixtures[j] + " " + precision + " seek", expected[j],
+                        TestUtils.decodeAll(decoder));
+                pool.release(decoder);
+            }
+        }
+        if (pool.getIdleCount() != 1) {
+            throw new Error("idle: " + pool.getIdleCount());
+        }
+    }
+
+    private static void checkConcurrent(String[] fixtures, byte[][] data, short[][] expected,
+            Precision precision) throws Exception {
+        DecoderPool pool = new DecoderPool(precision, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int offset = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 3 * fixtures.length; i++) {
+                        int f = (i + offset) % fixtures.length;
+                        StreamDecoder decoder = pool.acquire(ByteBuffer.wrap(data[f]));
+                        try {
+                            check(fixtures[f] + " " + precision + " concurrent", expected[f],
+                                    TestUtils.decodeAll(decoder));
+                        } finally {
+                            pool.release(decoder);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        if (pool.getIdleCount() > 2) {
+            throw new Error("idle: " + pool.getIdleCount());
+        }
+    }
+
+    private static void checkReleaseClosed() throws IOException {
+        byte[] data = StreamGenerator.generate("joint", 10, 1);
+        boolean[] closed = new boolean[1];
+        DecoderPool pool = new DecoderPool(Precision.DOUBLE, 1);
+        StreamDecoder decoder = pool.acquire(new ByteArrayInputStream(data) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        });
+        pool.release(decoder);
+        if (!closed[0]) {
+            throw new Error("stream not closed");
+        }
+        try {
+            new DecoderPool(Precision.FIXED, 1).release(
+                    new StreamDecoder(ByteBuffer.wrap(data), Precision.FLOAT));
+            throw new Error("released a decoder with a different precision");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void check(String message, short[] expected, short[] got) {
+        if (!Arrays.equals(expected, got)) {
+            throw new Error(message + " length expected: " + expected.length + " got: " + got.length);
+        }
+    }
+
+}
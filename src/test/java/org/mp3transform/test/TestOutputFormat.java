@@ -0,0 +1,177 @@
+package org.mp3transform.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.mp3transform.StreamDecoder;
+import org.mp3transform.mp3.Precision;
+import org.mp3transform.mp3.StreamGenerator;
+
+/**
+ * Checks the downmix and the reduced sample rate output: the number of
+ * channels, samples and the sample rate, that mono streams are not changed
+ * by the downmix, and that seeking works in the reduced format. Also checks
+ * decoding several frames at once into a byte buffer, and that the downmix
+ * of a stream where the channels use different block types is the average
+ * of the channels.
+ */
+public class TestOutputFormat {
+
+    public static void main(String[] a) throws Exception {
+        for (String fixture : StreamGenerator.FIXTURES) {
+            byte[] data = StreamGenerator.generate(fixture, 60, 1);
+            for (Precision precision : Precision.values()) {
+                StreamDecoder decoder = new StreamDecoder(ByteBuffer.wrap(data), precision);
+                short[] full = TestUtils.decodeAll(decoder);
+                int channels = decoder.getChannels();
+                int sampleRate = decoder.getSampleRate();
+                checkDownmix(fixture, data, precision, full, channels);
+                for (int divisor = 2; divisor <= 4; divisor *= 2) {
+                    checkRate(fixture, data, precision, full, sampleRate, divisor);
+                }
+                checkFrames(fixture, data, precision, full, channels);
+            }
+        }
+        checkBlockTypes();
+        checkNotStarted();
+    }
+
+    private static void checkDownmix(String fixture, byte[] data, Precision precision,
+            short[] full, int channels) throws IOException {
+        String message = fixture + " " + precision + " downmix";
+        StreamDecoder decoder = new StreamDecoder(ByteBuffer.wrap(data), precision);
+        decoder.setDownmix(true);
+        short[] mono = TestUtils.decodeAll(decoder);
+        if (decoder.getChannels() != 1 || mono.length != full.length / channels) {
+            throw new Error(message + " channels: " + decoder.getChannels()
+                    + " samples: " + mono.length);
+        }
+        // the generated stereo streams clip, so that only mono streams are
+        // compared here (see checkBlockTypes)
+        if (channels == 1 && !Arrays.equals(full, mono)) {
+            throw new Error(message + " changed a mono stream");
+        }
+        checkSeek(message, decoder, mono);
+    }
+
+    private static void checkBlockTypes() throws IOException {
+        byte[] data = StreamGenerator.generate(StreamGenerator.QUIET, 60, 1);
+        for (Precision precision : Precision.values()) {
+            StreamDecoder decoder = new StreamDecoder(ByteBuffer.wrap(data), precision);
+            short[] stereo = TestUtils.decodeAll(decoder);
+            decoder = new StreamDecoder(ByteBuffer.wrap(data), precision);
+            decoder.setDownmix(true);
+            short[] mono = TestUtils.decodeAll(decoder);
+            if (mono.length * 2 != stereo.length) {
+                throw new Error(precision + " block types samples: " + mono.length);
+            }
+            for (int i = 0; i < mono.length; i++) {
+                int expected = (stereo[i * 2] + stereo[i * 2 + 1]) / 2;
+                // the channels are rounded separately
+                if (Math.abs(mono[i] - expected) > 2) {
+                    throw new Error(precision + " block types sample " + i + " expected: "
+                            + expected + " got: " + mono[i]);
+                }
+            }
+        }
+    }
+
+    private static void checkRate(String fixture, byte[] data, Precision precision,
+            short[] full, int sampleRate, int divisor) throws IOException {
+        String message = fixture + " " + precision + " rate / " + divisor;
+        StreamDecoder decoder = new StreamDecoder(ByteBuffer.wrap(data), precision);
+        decoder.setSampleRateDivisor(divisor);
+        short[] all = TestUtils.decodeAll(decoder);
+        if (decoder.getSampleRate() != sampleRate / divisor || all.length != full.length / divisor) {
+            throw new Error(message + " rate: " + decoder.getSampleRate()
+                    + " samples: " + all.length);
+        }
+        if (decoder.getErrorCount() != 0) {
+            throw new Error(message + " errors");
+        }
+        checkSeek(message, decoder, all);
+    }
+
+    private static void checkFrames(String fixture, byte[] data, Precision precision,
+            short[] full, int channels) throws IOException {
+        int frame = StreamDecoder.MAX_FRAME_SAMPLES * 2;
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN }) {
+            for (int size = frame; size <= 10 * frame; size += 3 * frame + 2) {
+                String message = fixture + " " + precision + " " + order + " " + size;
+                ByteBuffer buffer = (size > frame ? ByteBuffer.allocateDirect(size)
+                        : ByteBuffer.allocate(size)).order(order);
+                StreamDecoder decoder = new StreamDecoder(ByteBuffer.wrap(data), precision);
+                // stop in the middle of a frame
+                int end = full.length / channels / 2 + 5;
+                decoder.setEndSample(end);
+                short[] all = new short[0];
+                for (int calls = 0;; calls++) {
+                    // also start at odd positions, if there is room
+                    int start = size > frame ? calls % 3 : 0;
+                    buffer.clear();
+                    buffer.position(start);
+                    int len = decoder.decodeFrames(buffer);
+                    if (len < 0) {
+                        break;
+                    }
+                    if (buffer.position() != start + len * 2) {
+                        throw new Error(message + " position: " + buffer.position());
+                    }
+                    int old = all.length;
+                    all = Arrays.copyOf(all, old + len);
+                    for (int i = 0; i < len; i++) {
+                        all[old + i] = buffer.getShort(start + i * 2);
+                    }
+                }
+                if (!Arrays.equals(Arrays.copyOf(full, end * channels), all)) {
+                    throw new Error(message + " samples: " + all.length);
+                }
+            }
+        }
+    }
+
+    private static void checkSeek(String message, StreamDecoder decoder, short[] all)
+            throws IOException {
+        int channels = decoder.getChannels();
+        long sample = all.length / channels / 3 + 7;
+        decoder.seekToSample(sample);
+        short[] tail = TestUtils.decodeAll(decoder);
+        short[] expected = Arrays.copyOfRange(all, (int) sample * channels, all.length);
+        if (!Arrays.equals(expected, tail)) {
+            throw new Error(message + " seek");
+        }
+    }
+
+    private static void checkNotStarted() throws IOException {
+        byte[] data = StreamGenerator.generate("joint", 10, 1);
+        StreamDecoder decoder = new StreamDecoder(ByteBuffer.wrap(data));
+        try {
+            decoder.setSampleRateDivisor(3);
+            throw new Error("divisor 3 accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        decoder.decodeFrame(new short[StreamDecoder.MAX_FRAME_SAMPLES], 0);
+        try {
+            decoder.setDownmix(true);
+            throw new Error("changed the format while decoding");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // the format is kept, and can be changed after a reset
+        decoder.reset(ByteBuffer.wrap(data));
+        decoder.setDownmix(true);
+        decoder.decodeFrame(new short[StreamDecoder.MAX_FRAME_SAMPLES], 0);
+        if (decoder.getChannels() != 1) {
+            throw new Error("channels: " + decoder.getChannels());
+        }
+        decoder.reset(ByteBuffer.wrap(data));
+        decoder.decodeFrame(new short[StreamDecoder.MAX_FRAME_SAMPLES], 0);
+        if (decoder.getChannels() != 1) {
+            throw new Error("downmix not kept");
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package org.mp3transform.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.mp3transform.ParallelDecoder;
+import org.mp3transform.PcmSink;
+import org.mp3transform.StreamDecoder;
+import org.mp3transform.mp3.Bitstream;
+import org.mp3transform.mp3.FrameIndex;
+import org.mp3transform.mp3.Precision;
+import org.mp3transform.mp3.StreamGenerator;
+
+/**
+ * Checks that decoding in parallel segments gives the same output as
+ * decoding the stream on one thread, and the same number of errors.
+ */
+public class TestParallelDecoder {
+
+    public static void main(String[] a) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (String fixture : StreamGenerator.FIXTURES) {
+                byte[] data = StreamGenerator.generate(fixture, 150, 1);
+                for (Precision precision : Precision.values()) {
+                    Sink expected = new Sink();
+                    new StreamDecoder(new ByteArrayInputStream(data), precision).decode(expected);
+                    for (int segmentFrames : new int[] { 1, 7, 64, 1000 }) {
+                        ParallelDecoder decoder = new ParallelDecoder(ByteBuffer.wrap(data), precision);
+                        decoder.setPool(pool);
+                        decoder.setSegmentFrames(segmentFrames);
+                        Sink actual = new Sink();
+                        long samples = decoder.decode(actual);
+                        String message = fixture + " " + precision + " " + segmentFrames;
+                        if (samples != actual.length || actual.sampleRate != expected.sampleRate
+                                || actual.channels != expected.channels) {
+                            throw new Error(message + " samples " + samples);
+                        }
+                        if (!Arrays.equals(expected.samples(), actual.samples())) {
+                            throw new Error(message + " different output");
+                        }
+                        if (decoder.getErrorCount() != 0) {
+                            throw new Error(message + " errors: " + decoder.getErrorCount());
+                        }
+                    }
+                }
+            }
+            checkErrors(pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void checkErrors(ForkJoinPool pool) throws IOException {
+        // corrupt side info, so that some frames can not be decoded
+        byte[] data = StreamGenerator.generate("joint", 100, 1);
+        Bitstream stream = new Bitstream(ByteBuffer.wrap(data));
+        while (stream.readFrame() != null) {
+            stream.closeFrame();
+        }
+        FrameIndex index = stream.getFrameIndex();
+        Random random = new Random(1);
+        for (int frame = 5; frame < index.size(); frame += 9) {
+            int pos = (int) index.getOffset(frame);
+            for (int i = 4; i < 36; i++) {
+                if (random.nextInt(4) == 0) {
+                    data[pos + i] = (byte) random.nextInt();
+                }
+            }
+        }
+        StreamDecoder expected = new StreamDecoder(new ByteArrayInputStream(data));
+        expected.decode(new Sink());
+        // the frames before a segment are decoded again, but not counted
+        for (int segmentFrames : new int[] { 1, 2, 7 }) {
+            ParallelDecoder decoder = new ParallelDecoder(ByteBuffer.wrap(data), Precision.DOUBLE);
+            decoder.setPool(pool);
+            decoder.setSegmentFrames(segmentFrames);
+            decoder.decode(new Sink());
+            if (expected.getErrorCount() == 0 || decoder.getErrorCount() != expected.getErrorCount()) {
+                throw new Error(segmentFrames + " errors expected: " + expected.getErrorCount()
+                        + " got: " + decoder.getErrorCount());
+            }
+        }
+    }
+
+    /**
+     * Collects the samples.
+     */
+    static class Sink implements PcmSink {
+        int sampleRate, channels;
+        short[] pcm = new short[0];
+        int length;
+
+        public void open(int sampleRate, int channels) {
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+        }
+
+        public void write(short[] samples, int offset, int len) {
+            if (length + len > pcm.length) {
+                pcm = Arrays.copyOf(pcm, Math.max(length + len, pcm.length * 2));
+            }
+            System.arraycopy(samples, offset, pcm, length, len);
+            length += len;
+        }
+
+        short[] samples() {
+            return Arrays.copyOf(pcm, length);
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package org.mp3transform.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.mp3transform.StreamDecoder;
+import org.mp3transform.mp3.Bitstream;
+import org.mp3transform.mp3.FrameIndex;
+import org.mp3transform.mp3.Precision;
+import org.mp3transform.mp3.StreamGenerator;
+
+/**
+ * Checks that decoding in two threads gives the same output as decoding in
+ * one thread.
+ */
+public class TestPipeline {
+
+    public static void main(String[] a) throws Exception {
+        for (String fixture : StreamGenerator.FIXTURES) {
+            byte[] data = StreamGenerator.generate(fixture, 100, 1);
+            for (Precision precision : Precision.values()) {
+                check(fixture + " " + precision, data, precision, 0);
+                check(fixture + " " + precision + " seek", data, precision, 30000);
+            }
+        }
+
+        // corrupt side info, so that some frames can not be decoded
+        byte[] data = StreamGenerator.generate("joint", 100, 1);
+        Bitstream stream = new Bitstream(ByteBuffer.wrap(data));
+        while (stream.readFrame() != null) {
+            stream.closeFrame();
+        }
+        FrameIndex index = stream.getFrameIndex();
+        Random random = new Random(1);
+        for (int frame = 5; frame < index.size(); frame += 9) {
+            int pos = (int) index.getOffset(frame);
+            for (int i = 4; i < 36; i++) {
+                if (random.nextInt(4) == 0) {
+                    data[pos + i] = (byte) random.nextInt();
+                }
+            }
+        }
+        check("corrupt", data, Precision.DOUBLE, 0);
+
+        // seeking after the pipeline started
+        StreamDecoder decoder = new StreamDecoder(ByteBuffer.wrap(data));
+        decoder.setPipelined(true);
+        decoder.decodeFrame(new short[StreamDecoder.MAX_FRAME_SAMPLES], 0);
+        try {
+            decoder.seekToSample(0);
+            throw new Error("seek after start");
+        } catch (IOException e) {
+            // expected
+        }
+        decoder.close();
+
+        // decoding after the pipeline was stopped fails instead of waiting
+        Thread t = new Thread(() -> {
+            StreamDecoder d = new StreamDecoder(ByteBuffer.wrap(data));
+            d.setPipelined(true);
+            short[] pcm = new short[StreamDecoder.MAX_FRAME_SAMPLES];
+            try {
+                d.decodeFrame(pcm, 0);
+                d.close();
+                while (d.decodeFrame(pcm, 0) >= 0) {
+                    // the frames that were already decoded
+                }
+            } catch (IOException e) {
+                // expected
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        t.join(10000);
+        if (t.isAlive()) {
+            throw new Error("decoding after stop does not return");
+        }
+    }
+
+    private static void check(String message, byte[] data, Precision precision,
+            long seek) throws IOException {
+        StreamDecoder expected = new StreamDecoder(new ByteArrayInputStream(data), precision);
+        StreamDecoder actual = new StreamDecoder(ByteBuffer.wrap(data), precision);
+        actual.setPipelined(true);
+        if (seek > 0) {
+            expected.seekToSample(seek);
+            actual.seekToSample(seek);
+        }
+        short[] e = new short[StreamDecoder.MAX_FRAME_SAMPLES];
+        short[] x = new short[StreamDecoder.MAX_FRAME_SAMPLES];
+        for (int frame = 0;; frame++) {
+            int len = expected.decodeFrame(e, 0);
+            int len2 = actual.decodeFrame(x, 0);
+            if (len != len2 || !Arrays.equals(e, x)) {
+                throw new Error(message + " frame " + frame);
+            }
+            if (len < 0) {
+                break;
+            }
+        }
+        if (expected.getErrorCount() != actual.getErrorCount()
+                || message.equals("corrupt") && expected.getErrorCount() == 0) {
+            throw new Error(message + " errors expected: " + expected.getErrorCount()
+                    + " got: " + actual.getErrorCount());
+        }
+        actual.close();
+    }
+
+}
@@ -0,0 +1,52 @@
+package org.mp3transform.test;
+
+import java.io.ByteArrayInputStream;
+
+import org.mp3transform.StreamDecoder;
+import org.mp3transform.mp3.Precision;
+import org.mp3transform.mp3.StreamGenerator;
+
+/**
+ * Checks that the PCM output of each precision stays within one of the
+ * double precision output.
+ */
+public class TestPrecision {
+
+    public static void main(String[] a) throws Exception {
+        for (String fixture : StreamGenerator.FIXTURES) {
+            byte[] data = StreamGenerator.generate(fixture, 200, 1);
+            check(fixture, data, Precision.FLOAT, 1);
+            check(fixture, data, Precision.FIXED, 1);
+        }
+    }
+
+    static void check(String fixture, byte[] data, Precision precision,
+            int maxError) throws Exception {
+        StreamDecoder expected = new StreamDecoder(new ByteArrayInputStream(data));
+        StreamDecoder actual = new StreamDecoder(new ByteArrayInputStream(data), precision);
+        short[] e = new short[StreamDecoder.MAX_FRAME_SAMPLES];
+        short[] x = new short[StreamDecoder.MAX_FRAME_SAMPLES];
+        for (int frame = 0;; frame++) {
+            int len = expected.decodeFrame(e, 0);
+            int len2 = actual.decodeFrame(x, 0);
+            if (len != len2) {
+                throw new Error(fixture + " " + precision + " frame " + frame
+                        + " length expected: " + len + " got: " + len2);
+            }
+            if (len < 0) {
+                break;
+            }
+            for (int i = 0; i < len; i++) {
+                if (Math.abs(e[i] - x[i]) > maxError) {
+                    throw new Error(fixture + " " + precision + " frame " + frame
+                            + " sample " + i + " expected: " + e[i] + " got: " + x[i]);
+                }
+            }
+        }
+        if (expected.getErrorCount() != 0 || actual.getErrorCount() != 0) {
+            throw new Error(fixture + " " + precision + " errors: "
+                    + expected.getErrorCount() + " " + actual.getErrorCount());
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package org.mp3transform.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.mp3transform.StreamDecoder;
+import org.mp3transform.mp3.Precision;
+import org.mp3transform.mp3.SeekableInputStream;
+import org.mp3transform.mp3.StreamGenerator;
+
+/**
+ * Checks that the PCM output after seeking is the same as when decoding the
+ * stream from the start, also when only a part of the stream is decoded.
+ */
+public class TestSeek {
+
+    private static final Random RANDOM = new Random(1);
+
+    public static void main(String[] a) throws Exception {
+        for (String fixture : StreamGenerator.FIXTURES) {
+            byte[] data = StreamGenerator.generate(fixture, 100, 1);
+            for (Precision precision : Precision.values()) {
+                check(fixture, data, precision);
+            }
+        }
+        checkEarlyAbort();
+    }
+
+    static void check(String fixture, byte[] data, Precision precision) throws Exception {
+        short[] all = TestUtils.decodeAll(
+                new StreamDecoder(new ByteArrayInputStream(data), precision));
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 3);
+        direct.put(new byte[3]).put(data).position(3);
+        check(fixture, precision, all, new StreamDecoder(SeekableInputStream.wrap(data), precision));
+        check(fixture, precision, all, new StreamDecoder(ByteBuffer.wrap(data), precision));
+        check(fixture, precision, all, new StreamDecoder(direct, precision));
+        if (!Arrays.equals(all, TestUtils.decodeAll(new StreamDecoder(direct, precision)))) {
+            throw new Error(fixture + " " + precision + " buffer");
+        }
+
+        // forward only
+        StreamDecoder decoder = new StreamDecoder(new ByteArrayInputStream(data), precision);
+        decoder.seekToSample(0);
+        int channels = decoder.getChannels();
+        int sample = all.length / channels / 3;
+        decoder.seekToSample(sample);
+        compare(fixture + " " + precision + " forward to " + sample,
+                all, sample * channels, decoder);
+        try {
+            decoder.seekToSample(0);
+            throw new Error(fixture + " " + precision + " seek backwards");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // only a part of the stream
+        for (int i = 0; i < 10; i++) {
+            int start = RANDOM.nextInt(all.length / channels);
+            int end = start + RANDOM.nextInt(all.length / channels / 2);
+            decoder = new StreamDecoder(ByteBuffer.wrap(data), precision);
+            decoder.seekToSample(start);
+            decoder.setEndSample(end);
+            short[] part = TestUtils.decodeAll(decoder);
+            short[] expected = Arrays.copyOfRange(all, start * channels,
+                    Math.min(end * channels, all.length));
+            if (!Arrays.equals(expected, part)) {
+                throw new Error(fixture + " " + precision + " range " + start + " to " + end);
+            }
+        }
+    }
+
+    /**
+     * Checks that the frames after the end are not read.
+     */
+    private static void checkEarlyAbort() throws IOException {
+        byte[] data = StreamGenerator.generate("joint", 2000, 1);
+        int[] read = new int[1];
+        StreamDecoder decoder = new StreamDecoder(new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                int n = super.read(b, off, len);
+                read[0] += Math.max(0, n);
+                return n;
+            }
+        });
+        decoder.seekToMillis(10000);
+        decoder.setEndMillis(12000);
+        short[] part = TestUtils.decodeAll(decoder);
+        if (part.length != 2 * decoder.getSampleRate() * 2) {
+            throw new Error("preview samples: " + part.length);
+        }
+        if (read[0] > data.length / 2) {
+            throw new Error("read " + read[0] + " of " + data.length + " bytes");
+        }
+    }
+
+    private static void check(String fixture, Precision precision, short[] all,
+            StreamDecoder decoder) throws Exception {
+        decoder.seekToSample(0);
+        int channels = decoder.getChannels();
+        int samples = all.length / channels;
+        for (int i = 0; i < 20; i++) {
+            int sample = RANDOM.nextInt(samples);
+            if (!decoder.seekToSample(sample)) {
+                throw new Error(fixture + " " + precision + " seek to " + sample);
+            }
+            compare(fixture + " " + precision + " seek to " + sample,
+                    all, sample * channels, decoder);
+        }
+        if (decoder.seekToSample(samples + 100000)) {
+            throw new Error(fixture + " " + precision + " seek after the end");
+        }
+        if (decoder.getErrorCount() != 0) {
+            throw new Error(fixture + " " + precision + " errors: " + decoder.getErrorCount());
+        }
+    }
+
+    /**
+     * Compare the next two frames of the decoder with the expected samples.
+     */
+    private static void compare(String message, short[] expected, int pos,
+            StreamDecoder decoder) throws IOException {
+        short[] pcm = new short[StreamDecoder.MAX_FRAME_SAMPLES];
+        for (int frame = 0; frame < 2; frame++) {
+            int len = decoder.decodeFrame(pcm, 0);
+            if (len < 0) {
+                if (pos != expected.length) {
+                    throw new Error(message + " unexpected end at " + pos);
+                }
+                return;
+            }
+            for (int i = 0; i < len; i++, pos++) {
+                if (pcm[i] != expected[pos]) {
+                    throw new Error(message + " sample " + pos + " expected: "
+                            + expected[pos] + " got: " + pcm[i]);
+                }
+            }
+        }
+    }
+
+}
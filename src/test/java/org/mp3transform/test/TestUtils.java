@@ -0,0 +1,51 @@
+package org.mp3transform.test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.mp3transform.StreamDecoder;
+
+/**
+ * Helper methods shared by the tests.
+ */
+public final class TestUtils {
+
+    private TestUtils() {
+        // utility class
+    }
+
+    /**
+     * Decode the remaining frames of the decoder.
+     *
+     * @param decoder the decoder
+     * @return the samples
+     */
+    public static short[] decodeAll(StreamDecoder decoder) throws IOException {
+        short[] all = new short[StreamDecoder.MAX_FRAME_SAMPLES * 16];
+        int size = 0;
+        while (true) {
+            if (size + StreamDecoder.MAX_FRAME_SAMPLES > all.length) {
+                all = Arrays.copyOf(all, all.length * 2);
+            }
+            int len = decoder.decodeFrame(all, size);
+            if (len < 0) {
+                return Arrays.copyOf(all, size);
+            }
+            size += len;
+        }
+    }
+
+    /**
+     * Check that a value is as expected.
+     *
+     * @param name the name of the value, for the error message
+     * @param expected the expected value
+     * @param got the actual value
+     */
+    public static void check(String name, Object expected, Object got) {
+        if (!expected.equals(got)) {
+            throw new Error(name + " expected: " + expected + " got: " + got);
+        }
+    }
+
+}
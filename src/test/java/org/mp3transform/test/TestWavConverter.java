@@ -0,0 +1,175 @@
+package org.mp3transform.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.mp3transform.StreamDecoder;
+import org.mp3transform.mp3.StreamGenerator;
+import org.mp3transform.wav.OutputFormat;
+import org.mp3transform.wav.WavConverter;
+
+/**
+ * Checks the WAV header and the samples written to a file, and to a channel
+ * that is not seekable, with and without a declared length; and the RF64,
+ * float and raw output formats.
+ */
+public class TestWavConverter {
+
+    public static void main(String[] a) throws Exception {
+        // more than one buffer of samples
+        for (String fixture : new String[] { "mono", "vbr" }) {
+            byte[] data = StreamGenerator.generate(fixture, 400, 1);
+            StreamDecoder decoder = new StreamDecoder(ByteBuffer.wrap(data));
+            short[] pcm = TestUtils.decodeAll(decoder);
+            int channels = decoder.getChannels();
+            int sampleRate = decoder.getSampleRate();
+
+            Path file = Files.createTempFile("test", ".wav");
+            try {
+                WavConverter converter = new WavConverter(file.toString());
+                new StreamDecoder(ByteBuffer.wrap(data)).decode(converter);
+                converter.close();
+                check(fixture + " file", Files.readAllBytes(file), pcm, channels, sampleRate, pcm.length);
+            } finally {
+                Files.delete(file);
+            }
+
+            // the length is known from the VBR header
+            decoder = new StreamDecoder(ByteBuffer.wrap(data));
+            long samples = decoder.getRemainingSamples();
+            if (fixture.equals("vbr") ? samples * channels != pcm.length : samples != -1) {
+                throw new Error(fixture + " remaining samples: " + samples);
+            }
+            check(fixture + " stream", stream(decoder, samples), pcm, channels, sampleRate,
+                    samples < 0 ? -1 : pcm.length);
+
+            // padded and truncated to the declared length
+            for (int delta = -1000; delta <= 1000; delta += 2000) {
+                samples = pcm.length / channels + delta;
+                short[] expected = Arrays.copyOf(pcm, (int) samples * channels);
+                check(fixture + " declared " + samples,
+                        stream(new StreamDecoder(ByteBuffer.wrap(data)), samples),
+                        expected, channels, sampleRate, expected.length);
+            }
+            checkFormats(fixture, data, pcm, channels, sampleRate);
+        }
+        checkTooLarge();
+    }
+
+    private static void checkTooLarge() throws IOException {
+        // the declared size does not fit in a WAV header
+        byte[] data = StreamGenerator.generate("joint", 10, 1);
+        try {
+            stream(new StreamDecoder(ByteBuffer.wrap(data)), 1L << 30);
+            throw new Error("declared more than 4 GB");
+        } catch (IOException e) {
+            if (!e.getMessage().contains("rf64")) {
+                throw new Error(e.toString());
+            }
+        }
+    }
+
+    private static void checkFormats(String fixture, byte[] data, short[] pcm, int channels,
+            int sampleRate) throws IOException {
+        // raw samples, in both byte orders
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN }) {
+            OutputFormat format = order == ByteOrder.BIG_ENDIAN ? OutputFormat.RAW_BE : OutputFormat.RAW_LE;
+            ByteBuffer b = ByteBuffer.wrap(convert(data, format, false)).order(order);
+            if (b.capacity() != pcm.length * 2) {
+                throw new Error(fixture + " " + format + " length: " + b.capacity());
+            }
+            for (int i = 0; i < pcm.length; i++) {
+                if (b.getShort(i * 2) != pcm[i]) {
+                    throw new Error(fixture + " " + format + " sample " + i);
+                }
+            }
+        }
+        // RF64: the sizes are in the ds64 chunk
+        ByteBuffer b = ByteBuffer.wrap(convert(data, OutputFormat.RF64, false)).order(ByteOrder.LITTLE_ENDIAN);
+        long dataSize = pcm.length * 2L;
+        if (b.getInt(0) != 0x34364652 || b.getInt(4) != -1 || b.getInt(12) != 0x34367364
+                || b.getInt(16) != 28 || b.getLong(20) != dataSize + 72 || b.getLong(28) != dataSize
+                || b.getLong(36) != pcm.length / channels || b.getInt(44) != 0
+                || b.getInt(48) != 0x20746d66 || b.getShort(56) != 1 || b.getInt(60) != sampleRate
+                || b.getInt(72) != 0x61746164 || b.getInt(76) != -1 || b.capacity() != 80 + dataSize) {
+            throw new Error(fixture + " RF64 header");
+        }
+        for (int i = 0; i < pcm.length; i++) {
+            if (b.getShort(80 + i * 2) != pcm[i]) {
+                throw new Error(fixture + " RF64 sample " + i);
+            }
+        }
+        // float samples are not clipped, otherwise they match within rounding
+        b = ByteBuffer.wrap(convert(data, OutputFormat.WAV, true)).order(ByteOrder.LITTLE_ENDIAN);
+        dataSize = pcm.length * 4L;
+        if (b.getInt(0) != 0x46464952 || b.getInt(4) != dataSize + 50 || b.getInt(16) != 18
+                || b.getShort(20) != 3 || b.getInt(28) != sampleRate * channels * 4
+                || b.getShort(32) != channels * 4 || b.getShort(34) != 32 || b.getShort(36) != 0
+                || b.getInt(38) != 0x74636166 || b.getInt(42) != 4 || b.getInt(46) != pcm.length / channels
+                || b.getInt(50) != 0x61746164 || b.getInt(54) != dataSize || b.capacity() != 58 + dataSize) {
+            throw new Error(fixture + " float header");
+        }
+        for (int i = 0; i < pcm.length; i++) {
+            float f = b.getFloat(58 + i * 4) * 32768;
+            boolean ok = pcm[i] == Short.MAX_VALUE ? f > 32766 : pcm[i] == Short.MIN_VALUE ? f < -32767
+                    : Math.abs(f - pcm[i]) <= 1;
+            if (!ok) {
+                throw new Error(fixture + " float sample " + i + ": " + f + " expected: " + pcm[i]);
+            }
+        }
+    }
+
+    private static byte[] convert(byte[] data, OutputFormat format, boolean floatSamples)
+            throws IOException {
+        Path file = Files.createTempFile("test", ".wav");
+        try {
+            StreamDecoder decoder = new StreamDecoder(ByteBuffer.wrap(data));
+            decoder.setFloatOutput(floatSamples);
+            WavConverter converter = new WavConverter(file.toString());
+            converter.setFormat(format, floatSamples);
+            decoder.decode(converter);
+            converter.close();
+            return Files.readAllBytes(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static byte[] stream(StreamDecoder decoder, long samples) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WavConverter converter = new WavConverter(Channels.newChannel(out), samples);
+        decoder.decode(converter);
+        converter.close();
+        return out.toByteArray();
+    }
+
+    private static void check(String message, byte[] wav, short[] pcm, int channels,
+            int sampleRate, long declared) {
+        ByteBuffer b = ByteBuffer.wrap(wav).order(ByteOrder.LITTLE_ENDIAN);
+        long dataSize = declared < 0 ? 0xffffffffL : declared * 2;
+        long riffSize = declared < 0 ? 0xffffffffL : dataSize + 36;
+        if (b.getInt(0) != 0x46464952 || (b.getInt(4) & 0xffffffffL) != riffSize
+                || b.getInt(8) != 0x45564157 || b.getInt(12) != 0x20746d66
+                || b.getInt(16) != 16 || b.getShort(20) != 1 || b.getShort(22) != channels
+                || b.getInt(24) != sampleRate || b.getInt(28) != sampleRate * channels * 2
+                || b.getShort(32) != channels * 2 || b.getShort(34) != 16
+                || b.getInt(36) != 0x61746164 || (b.getInt(40) & 0xffffffffL) != dataSize) {
+            throw new Error(message + " header");
+        }
+        if (wav.length != 44 + pcm.length * 2) {
+            throw new Error(message + " length: " + wav.length);
+        }
+        for (int i = 0; i < pcm.length; i++) {
+            if (b.getShort(44 + i * 2) != pcm[i]) {
+                throw new Error(message + " sample " + i);
+            }
+        }
+    }
+
+}
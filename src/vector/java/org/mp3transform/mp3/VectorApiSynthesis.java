@@ -0,0 +1,118 @@
+/*
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *----------------------------------------------------------------------
+ */
+package org.mp3transform.mp3;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The SIMD synthesis using the Vector API. The 16 taps of each sample are
+ * contiguous in the V vector, so that they can be multiplied with the
+ * coefficients using whole vectors.
+ * <p>
+ * The lanes are added using fixed shuffles instead of reduceLanes, as the
+ * order of the additions of reduceLanes is unspecified (and differs between
+ * the interpreter and the compiled code), so that the output would depend
+ * on when the code is compiled.
+ */
+final class VectorApiSynthesis extends SimdSynthesis {
+
+    private static final VectorSpecies<Double> DOUBLES = species(DoubleVector.SPECIES_PREFERRED,
+            DoubleVector.SPECIES_256);
+    private static final VectorSpecies<Float> FLOATS = species(FloatVector.SPECIES_PREFERRED,
+            FloatVector.SPECIES_256);
+
+    // the shuffles that swap the lanes of each half, quarter,... of a vector
+    private static final VectorShuffle<Double>[] DOUBLE_SWAPS = swaps(DOUBLES);
+    private static final VectorShuffle<Float>[] FLOAT_SWAPS = swaps(FLOATS);
+
+    // [sample * 16 + tap]
+    private static final double[] D = new double[32 * 16];
+    private static final float[] F = new float[32 * 16];
+
+    static {
+        double[][] d16 = Constants.D16;
+        for (int i = 0; i < 32; i++) {
+            for (int k = 0; k < 16; k++) {
+                D[i * 16 + k] = d16[i][k];
+                F[i * 16 + k] = (float) d16[i][k];
+            }
+        }
+    }
+
+    private static <T> VectorSpecies<T> species(VectorSpecies<T> preferred, VectorSpecies<T> max) {
+        // with wider vectors, reducing the lanes of each sample is slower
+        // than the additional multiplications
+        return preferred.vectorBitSize() > max.vectorBitSize() ? max : preferred;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static <T> VectorShuffle<T>[] swaps(VectorSpecies<T> species) {
+        int count = Integer.numberOfTrailingZeros(species.length());
+        VectorShuffle<T>[] swaps = new VectorShuffle[count];
+        for (int i = 0, width = species.length() / 2; i < count; i++, width /= 2) {
+            int w = width;
+            swaps[i] = VectorShuffle.fromOp(species, lane -> lane ^ w);
+        }
+        return swaps;
+    }
+
+    private static double sum(DoubleVector v) {
+        for (VectorShuffle<Double> s : DOUBLE_SWAPS) {
+            v = v.add(v.rearrange(s));
+        }
+        return v.lane(0);
+    }
+
+    private static float sum(FloatVector v) {
+        for (VectorShuffle<Float> s : FLOAT_SWAPS) {
+            v = v.add(v.rearrange(s));
+        }
+        return v.lane(0);
+    }
+
+    @Override
+    void computePcmSamples(double[] v, int pos, double scaleFactor, double[] out) {
+        int step = DOUBLES.length();
+        for (int i = 0, o = 15 - pos, d = 0; i < 32; i++, o += 32, d += 16) {
+            DoubleVector sum = DoubleVector.fromArray(DOUBLES, v, o)
+                    .mul(DoubleVector.fromArray(DOUBLES, D, d));
+            for (int k = step; k < 16; k += step) {
+                sum = DoubleVector.fromArray(DOUBLES, v, o + k)
+                        .fma(DoubleVector.fromArray(DOUBLES, D, d + k), sum);
+            }
+            out[i] = sum(sum) * scaleFactor;
+        }
+    }
+
+    @Override
+    void computePcmSamples(float[] v, int pos, float scaleFactor, float[] out) {
+        int step = FLOATS.length();
+        for (int i = 0, o = 15 - pos, f = 0; i < 32; i++, o += 32, f += 16) {
+            FloatVector sum = FloatVector.fromArray(FLOATS, v, o)
+                    .mul(FloatVector.fromArray(FLOATS, F, f));
+            for (int k = step; k < 16; k += step) {
+                sum = FloatVector.fromArray(FLOATS, v, o + k)
+                        .fma(FloatVector.fromArray(FLOATS, F, f + k), sum);
+            }
+            out[i] = sum(sum) * scaleFactor;
+        }
+    }
+
+}